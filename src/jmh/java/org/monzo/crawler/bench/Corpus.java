@@ -0,0 +1,57 @@
+package org.monzo.crawler.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The HTML pages benchmarks crawl. By default the fixed corpus bundled under src/jmh/resources/corpus, so
+ * results stay comparable between runs: an article, a product listing, a documentation page and a home
+ * page with a large menu. Set -Dcorpus.dir to a directory of saved HTML files to use those instead.
+ */
+final class Corpus {
+    private static final List<String> BUNDLED = List.of("article.html", "listing.html", "docs.html", "home.html");
+
+    private Corpus() {
+    }
+
+    /**
+     * @return The bytes of every page in the corpus
+     */
+    static List<byte[]> pages() {
+        String directory = System.getProperty("corpus.dir");
+        try {
+            return directory == null ? bundled() : load(Path.of(directory));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<byte[]> bundled() throws IOException {
+        List<byte[]> pages = new ArrayList<>(BUNDLED.size());
+        for (String name : BUNDLED) {
+            try (InputStream page = Corpus.class.getResourceAsStream("/corpus/" + name)) {
+                if (page == null) {
+                    throw new IOException("Missing corpus page " + name + ", run with the jmh profile");
+                }
+                pages.add(page.readAllBytes());
+            }
+        }
+        return pages;
+    }
+
+    private static List<byte[]> load(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<byte[]> pages = new ArrayList<>();
+            for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                pages.add(Files.readAllBytes(file));
+            }
+            return pages;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.monzo.crawler.bench;
+
+import org.monzo.crawler.exceptions.VisitedURIException;
+import org.monzo.crawler.frontier.PolitenessScheduler;
+import org.monzo.crawler.frontier.StripedVisitedSet;
+import org.monzo.crawler.frontier.UriCanonicalizer;
+import org.monzo.crawler.frontier.UriScorer;
+import org.monzo.crawler.net.URIDispatcher;
+import org.monzo.crawler.net.URIQueue;
+import org.monzo.crawler.net.WebWorker;
+import org.monzo.crawler.net.WorkerOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures pages/sec crawling a whole site served from memory, through the same URIQueue, politeness
+ * scheduler, URIDispatcher and WebWorkers the crawler runs, so the score is the crawler's own overhead
+ * with the network taken out. Each of the site's pages links to 20 others and to 10 navigation pages,
+ * every page is reachable from the seed. The rate limits are too high to hold a URI back.
+ * Run with: mvn -Pjmh compile exec:exec@jmh "-Djmh.args=CrawlBenchmark -p workers=1,4,16"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@OperationsPerInvocation(CrawlBenchmark.PAGES)
+public class CrawlBenchmark {
+    static final int PAGES = 2000;
+    private static final int LINKS_PER_PAGE = 20;
+    private static final int NAV_LINKS = 10;
+    private static final URI SEED = URI.create("https://bench.test/page/0");
+
+    @Param({"1", "4", "16"})
+    public int workers;
+
+    @Param({"false", "true"})
+    public boolean streaming;
+
+    private WorkerOptions options;
+    private MemoryBrowser browser;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        options = new WorkerOptions(streaming, new UriCanonicalizer(), null, null, null);
+        Map<URI, byte[]> site = new HashMap<>();
+        for (int i = 0; i < PAGES; i++) {
+            site.put(URI.create("https://bench.test/page/" + i), page(i).getBytes(StandardCharsets.UTF_8));
+        }
+        browser = new MemoryBrowser(site);
+        executor = Executors.newFixedThreadPool(workers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Builds a page linking to the next page, so every page is reachable, and to others spread over the site
+     */
+    private static String page(int page) {
+        StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><title>Page ").append(page)
+                .append("</title><script>if (a < b) { track('page'); }</script></head><body><nav>");
+        for (int i = 0; i < NAV_LINKS; i++) {
+            html.append("<a href=\"/page/").append(i).append("\">Section ").append(i).append("</a> ");
+        }
+        html.append("</nav><main>");
+        for (int i = 0; i < LINKS_PER_PAGE; i++) {
+            int target = i == 0 ? (page + 1) % PAGES : (page * 31 + i * 97) % PAGES;
+            html.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor. ")
+                    .append("<a href=\"").append(i % 2 == 0 ? "/page/" : "../page/").append(target).append("\">Page ")
+                    .append(target).append("</a></p>");
+        }
+        return html.append("</main><footer><a href=\"https://example.com\">External</a></footer></body></html>").toString();
+    }
+
+    @Benchmark
+    public int crawl() throws VisitedURIException, InterruptedException {
+        URIQueue queue = new URIQueue(new PolitenessScheduler(null, 1e12, Integer.MAX_VALUE), new StripedVisitedSet(),
+                UriScorer.breadthFirst(), Integer.MAX_VALUE, Long.MAX_VALUE);
+        try (URIDispatcher dispatcher = new URIDispatcher(queue, executor,
+                entry -> new WebWorker(browser, entry, queue, options), workers * 2, 32)) {
+            dispatcher.start();
+            queue.add(SEED);
+            queue.awaitCompletion();
+        }
+        return queue.totalVisitedUris();
+    }
+}
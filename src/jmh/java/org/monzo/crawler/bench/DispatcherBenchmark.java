@@ -0,0 +1,104 @@
+package org.monzo.crawler.bench;
+
+import org.monzo.crawler.exceptions.VisitedURIException;
+import org.monzo.crawler.net.URIDispatcher;
+import org.monzo.crawler.net.URIQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the busy-spinning URI worker thread App used to run against the blocking URIDispatcher.
+ * The benchmark measures the latency of URIQueue.add while the consumer is running, and at the end of
+ * each iteration prints the CPU time the consumer thread used per second of wall time. Workers do no
+ * work, so the numbers isolate the cost of the consumer itself.
+ * Run with: mvn -Pjmh compile exec:exec@jmh -Djmh.args="DispatcherBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class DispatcherBenchmark {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    @Param({"spin", "dispatcher"})
+    public String consumer;
+
+    private final AtomicLong next = new AtomicLong();
+    private URIQueue queue;
+    private Thread spinner;
+    private URIDispatcher dispatcher;
+    private volatile boolean running;
+    private long consumerThreadId;
+    private long cpuAtIterationStart;
+    private long wallAtIterationStart;
+
+    @Setup(Level.Trial)
+    public void setup() throws InterruptedException {
+        queue = new URIQueue(new LinkedBlockingQueue<>());
+        running = true;
+        if ("spin".equals(consumer)) {
+            // The loop App.startURIWorker ran before the dispatcher
+            spinner = new Thread(() -> {
+                while (running) {
+                    queue.poll();
+                }
+            });
+            spinner.setDaemon(true);
+            spinner.start();
+            consumerThreadId = spinner.threadId();
+        } else {
+            dispatcher = new URIDispatcher(queue, Runnable::run, _ -> () -> { }, 64, 32);
+            dispatcher.start();
+            // The dispatcher thread is private, find it by name
+            Thread.sleep(50);
+            consumerThreadId = Thread.getAllStackTraces().keySet().stream()
+                    .filter(t -> t.getName().equals("uri-dispatcher"))
+                    .findFirst().orElseThrow().threadId();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        running = false;
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        cpuAtIterationStart = THREADS.getThreadCpuTime(consumerThreadId);
+        wallAtIterationStart = System.nanoTime();
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        long cpu = THREADS.getThreadCpuTime(consumerThreadId) - cpuAtIterationStart;
+        long wall = System.nanoTime() - wallAtIterationStart;
+        System.out.printf("%n%s consumer CPU: %.1f ms per second of wall time%n", consumer, cpu * 1000.0 / wall);
+    }
+
+    @Benchmark
+    public void add() throws VisitedURIException {
+        queue.add(URI.create("https://bench.test/page-" + next.incrementAndGet()));
+    }
+
+    /**
+     * Leaves the frontier empty, the case where a spinning consumer wastes the most CPU
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 3, batchSize = 1)
+    public void idle() throws InterruptedException {
+        Thread.sleep(1000);
+    }
+}
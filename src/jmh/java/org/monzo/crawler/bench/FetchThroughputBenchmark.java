@@ -0,0 +1,94 @@
+package org.monzo.crawler.bench;
+
+import com.sun.net.httpserver.HttpServer;
+import io.github.resilience4j.retry.Retry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.monzo.crawler.net.BrowserResponseHandler;
+import org.monzo.crawler.net.ConnectionPoolConfig;
+import org.monzo.crawler.net.HttpClientFactory;
+import org.monzo.crawler.net.WebBrowser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Measures pages/sec fetched through a shared WebBrowser against a local stub server that adds a
+ * fixed latency to every response. With the fetch path free of any global lock the score should rise
+ * with the worker count until the connection pool or the stub server becomes the bottleneck.
+ * Run with: mvn -Pjmh compile exec:exec@jmh -Djmh.args="FetchThroughputBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class FetchThroughputBenchmark {
+    private static final int PAGES_PER_INVOCATION = 64;
+    private static final byte[] PAGE = "<html><body><a href=\"/a\">a</a></body></html>".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int workers;
+
+    @Param({"5"})
+    public int serverLatencyMillis;
+
+    private HttpServer server;
+    private CloseableHttpClient client;
+    private WebBrowser browser;
+    private ExecutorService executor;
+    private URI uri;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(serverLatencyMillis);
+            } catch (InterruptedException _) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, PAGE.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(PAGE);
+            }
+        });
+        server.start();
+
+        uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        client = HttpClientFactory.create(ConnectionPoolConfig.forWorkers(workers));
+        browser = new WebBrowser(client, new BrowserResponseHandler(), Retry.ofDefaults("benchmark"));
+        executor = Executors.newFixedThreadPool(workers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        client.close();
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGES_PER_INVOCATION)
+    public int fetchPages() throws InterruptedException, ExecutionException {
+        List<Future<String>> pages = new ArrayList<>(PAGES_PER_INVOCATION);
+        for (int i = 0; i < PAGES_PER_INVOCATION; i++) {
+            pages.add(executor.submit(() -> browser.get(uri)));
+        }
+
+        int bytes = 0;
+        for (Future<String> page : pages) {
+            bytes += page.get().length();
+        }
+        return bytes;
+    }
+}
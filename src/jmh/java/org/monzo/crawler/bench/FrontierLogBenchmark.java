@@ -0,0 +1,93 @@
+package org.monzo.crawler.bench;
+
+import org.monzo.crawler.exceptions.VisitedURIException;
+import org.monzo.crawler.frontier.FrontierLog;
+import org.monzo.crawler.frontier.UriScorer;
+import org.monzo.crawler.frontier.VisitedSet;
+import org.monzo.crawler.net.URIQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the cost the write-ahead FrontierLog adds to a URI's trip through the URIQueue: added, polled
+ * and marked complete. "none" keeps the crawl in memory only, "buffered" writes the log every 100ms and
+ * leaves syncing it to the operating system, "fsync" forces every write to storage. The visited set accepts
+ * every URI, so that the numbers are the queue and the log alone, and the segment size is large enough that
+ * no compaction runs during the measurement.
+ * Run with: mvn -Pjmh compile exec:exec@jmh "-Djmh.args=FrontierLogBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class FrontierLogBenchmark {
+    private static final int URIS = 1024;
+
+    @Param({"none", "buffered", "fsync"})
+    public String log;
+
+    private final URI[] uris = new URI[URIS];
+    private Path directory;
+    private FrontierLog frontierLog;
+    private URIQueue queue;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        for (int i = 0; i < URIS; i++) {
+            uris[i] = URI.create("https://bench.test/section-" + (i % 16) + "/page-" + i);
+        }
+        if (!"none".equals(log)) {
+            directory = Files.createTempDirectory("frontier-log-bench");
+            frontierLog = new FrontierLog(directory, Duration.ofMillis(100), "fsync".equals(log), Long.MAX_VALUE);
+        }
+        queue = new URIQueue(new LinkedBlockingQueue<>(), new AcceptingVisitedSet(), UriScorer.breadthFirst(),
+                Integer.MAX_VALUE, Long.MAX_VALUE, frontierLog);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (frontierLog != null) {
+            frontierLog.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public URI addPollComplete() throws VisitedURIException {
+        queue.add(uris[next++ & (URIS - 1)]);
+        URI uri = queue.poll().uri();
+        queue.markComplete(uri);
+        return uri;
+    }
+
+    /**
+     * Accepts every URI, so that the benchmark can re-add the same URIs without the visited set growing
+     */
+    private static final class AcceptingVisitedSet implements VisitedSet {
+        @Override
+        public boolean add(long fingerprint) {
+            return true;
+        }
+
+        @Override
+        public long size() {
+            return 0;
+        }
+    }
+}
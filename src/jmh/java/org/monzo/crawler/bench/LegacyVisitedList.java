@@ -0,0 +1,34 @@
+package org.monzo.crawler.bench;
+
+import org.monzo.crawler.frontier.VisitedSet;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The visited list URIQueue used before it moved to a VisitedSet: full URIs in an ArrayList, scanned
+ * under the instance monitor. Kept here as the baseline for the visited set benchmarks.
+ */
+class LegacyVisitedList implements VisitedSet {
+    private final List<URI> visitedUris = new ArrayList<>();
+
+    @Override
+    public boolean add(long fingerprint) {
+        throw new UnsupportedOperationException("The legacy list stores URIs");
+    }
+
+    @Override
+    public synchronized boolean add(URI uri) {
+        if (visitedUris.contains(uri)) {
+            return false;
+        }
+        visitedUris.add(uri);
+        return true;
+    }
+
+    @Override
+    public synchronized long size() {
+        return visitedUris.size();
+    }
+}
@@ -0,0 +1,99 @@
+package org.monzo.crawler.bench;
+
+import org.jsoup.Jsoup;
+import org.monzo.crawler.net.HrefScanner;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares extracting links by buffering a page and parsing it with Jsoup, as WebWorker does by default,
+ * against scanning the response stream with HrefScanner. Pages are synthetic unless -Dcorpus.dir points
+ * at a directory of saved HTML files. Run with -prof gc to see the allocation per page.
+ * Run with: mvn -Pjmh compile exec:exec@jmh "-Djmh.args=LinkExtractionBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class LinkExtractionBenchmark {
+    private static final int SYNTHETIC_PAGES = 32;
+
+    @Param({"jsoup", "streaming"})
+    public String extractor;
+
+    @Param({"200"})
+    public int linksPerPage;
+
+    private byte[][] pages;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String corpus = System.getProperty("corpus.dir");
+        if (corpus != null) {
+            try (Stream<Path> files = Files.list(Path.of(corpus))) {
+                List<byte[]> loaded = new ArrayList<>();
+                for (Path file : files.filter(Files::isRegularFile).toList()) {
+                    loaded.add(Files.readAllBytes(file));
+                }
+                pages = loaded.toArray(byte[][]::new);
+            }
+        } else {
+            pages = new byte[SYNTHETIC_PAGES][];
+            for (int i = 0; i < SYNTHETIC_PAGES; i++) {
+                pages[i] = syntheticPage(i).getBytes(StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * Builds a page shaped like a typical content page, a head with scripts and styles, navigation,
+     * paragraphs of text with inline links and a footer
+     */
+    private String syntheticPage(int page) {
+        StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><title>Page ").append(page).append("</title>")
+                .append("<style>body { font-family: sans-serif } a:hover { color: #333 }</style>")
+                .append("<script>window.dataLayer = window.dataLayer || []; if (a < b) { track('page'); }</script>")
+                .append("</head><body><nav><ul>");
+        for (int i = 0; i < linksPerPage; i++) {
+            if (i % 10 == 0) {
+                html.append("</ul></nav><div class=\"section\"><p>");
+            }
+            html.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor. ")
+                    .append("<a class=\"link\" href=\"/section-").append(i % 10).append("/page-").append(page * linksPerPage + i)
+                    .append("?ref=nav&amp;item=").append(i).append("\">Item ").append(i).append("</a> ");
+            if (i % 10 == 9) {
+                html.append("</p><img src=\"/images/").append(i).append(".png\" alt=\"figure\"></div><nav><ul>");
+            }
+        }
+        return html.append("</ul></nav><footer><a href=\"https://example.com\">External</a></footer></body></html>").toString();
+    }
+
+    @Benchmark
+    public void extract(Blackhole blackhole) throws IOException {
+        byte[] page = pages[next++ % pages.length];
+        if ("jsoup".equals(extractor)) {
+            // What BrowserResponseHandler and WebWorker.parseLinks do
+            String body = new String(page, StandardCharsets.UTF_8);
+            blackhole.consume(Jsoup.parse(body).select("a[href]").stream().map(e -> e.attr("href")).toList());
+        } else {
+            // What LinkExtractingResponseHandler does
+            List<String> hrefs = new ArrayList<>();
+            HrefScanner.scan(new InputStreamReader(new ByteArrayInputStream(page), StandardCharsets.UTF_8), hrefs::add);
+            blackhole.consume(hrefs);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.monzo.crawler.bench;
+
+import org.monzo.crawler.exceptions.VisitedURIException;
+import org.monzo.crawler.frontier.UriCanonicalizer;
+import org.monzo.crawler.net.URIQueue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares WebWorker's handling of the links on a page, the per-link regular expression and string
+ * building it started with against the UriCanonicalizer it now resolves links with. Each invocation classifies and resolves one page of links,
+ * half internal and half external or fragment links, and offers the internal ones to a URIQueue that
+ * has already seen them all, the steady state of a crawl once a site's navigation has been visited.
+ * Scores are per link, run with -prof gc for the bytes allocated per link.
+ * Run with: mvn -Pjmh compile exec:exec@jmh "-Djmh.args=LinkFilterBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@OperationsPerInvocation(LinkFilterBenchmark.LINKS)
+public class LinkFilterBenchmark {
+    static final int LINKS = 200;
+    private static final URI PAGE = URI.create("https://bench.test/section/page");
+
+    @Param({"legacy", "canonicalizer"})
+    public String filter;
+
+    private final UriCanonicalizer canonicalizer = new UriCanonicalizer();
+    private List<String> links;
+    private URIQueue queue;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        links = new ArrayList<>(LINKS);
+        for (int i = 0; i < LINKS; i++) {
+            links.add(switch (i % 4) {
+                case 0, 1 -> "/section-" + (i % 10) + "/page-" + i;
+                case 2 -> "https://external.test/page-" + i;
+                default -> "#section-" + i;
+            });
+        }
+        queue = new URIQueue(new LinkedBlockingQueue<>());
+        new LegacyFilter().queueLinks(links, queue);
+    }
+
+    @Benchmark
+    public void queueLinks(Blackhole blackhole) {
+        if ("legacy".equals(filter)) {
+            blackhole.consume(new LegacyFilter().queueLinks(links, queue));
+        } else {
+            int internal = 0;
+            for (String link : links) {
+                URI nextUri = canonicalizer.canonicalizeInternal(PAGE, link);
+                if (nextUri != null) {
+                    internal++;
+                    try {
+                        queue.add(nextUri);
+                    } catch (VisitedURIException _) {
+                        // Already visited
+                    }
+                }
+            }
+            blackhole.consume(internal);
+        }
+    }
+
+    /**
+     * The filtering WebWorker did before, compiling the pattern and concatenating the origin for every
+     * link, with the stack-trace-filling VisitedURIException URIQueue used to throw
+     */
+    private static final class LegacyFilter {
+        int queueLinks(List<String> links, URIQueue queue) {
+            int internal = 0;
+            for (String link : links) {
+                Pattern pattern = Pattern.compile("^/[a-zA-Z]");
+                Matcher matcher = pattern.matcher(link);
+                if (matcher.find()) {
+                    internal++;
+                    URI nextUri = URI.create(PAGE.getScheme() + "://" + PAGE.getHost() + link);
+                    try {
+                        queue.add(nextUri);
+                    } catch (VisitedURIException _) {
+                        // Stands in for the exception the old URIQueue built for a visited URI
+                        new LegacyVisitedURIException("URI: " + nextUri + " already visited");
+                    }
+                }
+            }
+            return internal;
+        }
+    }
+
+    private static final class LegacyVisitedURIException extends Exception {
+        LegacyVisitedURIException(String message) {
+            super(message);
+        }
+    }
+}
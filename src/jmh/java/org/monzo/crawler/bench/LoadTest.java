@@ -0,0 +1,99 @@
+package org.monzo.crawler.bench;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.monzo.crawler.App;
+import org.monzo.crawler.metrics.CrawlMetrics;
+import org.monzo.crawler.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Crawls a SyntheticSite with the whole App pipeline in this JVM and reports pages/sec, the p50 and p99 fetch
+ * latency and the heap high-water mark, to check a change to the browsers, the queue or the executors end to
+ * end. Options after -- are passed to App, so any crawl mode can be load tested. The site's host is not rate
+ * limited unless --host-rate is passed to App.
+ * Run with: mvn -Pjmh compile exec:exec@load-test "-Dload.args=--pages 5000 --latency-ms 20 -- --virtual-threads"
+ */
+public class LoadTest {
+    private static final long HEAP_SAMPLE_MILLIS = 50;
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+        options.addOption(null, "pages", true, "pages on the site (default 2000)");
+        options.addOption(null, "fan-out", true, "links on each page (default 20)");
+        options.addOption(null, "page-bytes", true, "approximate size of each page (default 16384)");
+        options.addOption(null, "latency-ms", true, "median response latency in milliseconds (default 10)");
+        options.addOption(null, "latency-sigma", true, "log-normal sigma of the response latency, 0 for fixed (default 0.5)");
+        options.addOption(null, "error-rate", true, "fraction of page requests failed with a 500 (default 0.01)");
+        options.addOption(null, "burst-every", true, "seconds between bursts of 503s, 0 for none (default 0)");
+        options.addOption(null, "burst-ms", true, "length of each burst of 503s in milliseconds (default 200)");
+        options.addOption(null, "seed", true, "seeds the link graph, latencies and errors (default 1)");
+        options.addOption(null, "report", true, "file to write the results to as JSON");
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            new HelpFormatter().printHelp(LoadTest.class.getName() + " [options] -- [crawler options]", options);
+            throw new IllegalArgumentException(e);
+        }
+
+        SyntheticSite.Shape shape = new SyntheticSite.Shape(
+                Integer.parseInt(cmd.getOptionValue("pages", "2000")),
+                Integer.parseInt(cmd.getOptionValue("fan-out", "20")),
+                Integer.parseInt(cmd.getOptionValue("page-bytes", "16384")),
+                Duration.ofNanos((long) (Double.parseDouble(cmd.getOptionValue("latency-ms", "10")) * 1e6)),
+                Double.parseDouble(cmd.getOptionValue("latency-sigma", "0.5")),
+                Double.parseDouble(cmd.getOptionValue("error-rate", "0.01")),
+                Duration.ofSeconds(Long.parseLong(cmd.getOptionValue("burst-every", "0"))),
+                Duration.ofMillis(Long.parseLong(cmd.getOptionValue("burst-ms", "200"))),
+                Long.parseLong(cmd.getOptionValue("seed", "1")));
+
+        try (SyntheticSite site = new SyntheticSite(shape)) {
+            List<String> appArgs = new ArrayList<>(cmd.getArgList());
+            // The first value of a repeated option wins, so these only apply if App was not given them
+            appArgs.addAll(List.of("-u", site.uri(0).toString(), "--host-rate", "1e9", "--host-burst", "1000000"));
+
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            AtomicLong heapHighWater = new AtomicLong();
+            ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().daemon().name("heap-sampler").factory());
+            sampler.scheduleAtFixedRate(() -> heapHighWater.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                    0, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+
+            long start = System.nanoTime();
+            CrawlMetrics metrics = App.crawl(appArgs.toArray(String[]::new));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            sampler.shutdownNow();
+
+            LatencyHistogram.Snapshot fetch = metrics.latency(CrawlMetrics.Stage.FETCH).snapshot();
+            String report = String.format(Locale.ROOT,
+                    "{\"pages\": %d, \"failed\": %d, \"seconds\": %.3f, \"pagesPerSecond\": %.1f, \"fetchP50Micros\": %d, "
+                            + "\"fetchP99Micros\": %d, \"heapHighWaterBytes\": %d, \"served\": %d, \"errors\": %d, \"burstErrors\": %d, "
+                            + "\"retries\": %d, \"crawlerArgs\": \"%s\"}",
+                    metrics.getPagesCrawled(), metrics.getPagesFailed(), seconds, metrics.getPagesCrawled() / seconds,
+                    TimeUnit.NANOSECONDS.toMicros(fetch.p50()), TimeUnit.NANOSECONDS.toMicros(fetch.p99()), heapHighWater.get(),
+                    site.served(), site.errors(), site.burstErrors(), metrics.getRetries(),
+                    String.join(" ", cmd.getArgList()).replace("\\", "\\\\").replace("\"", "\\\""));
+            System.out.println(report);
+            if (cmd.hasOption("report")) {
+                Files.writeString(Path.of(cmd.getOptionValue("report")), report + System.lineSeparator());
+            }
+        }
+    }
+}
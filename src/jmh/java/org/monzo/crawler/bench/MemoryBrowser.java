@@ -0,0 +1,56 @@
+package org.monzo.crawler.bench;
+
+import org.monzo.crawler.exceptions.WebBrowserException;
+import org.monzo.crawler.net.Browser;
+import org.monzo.crawler.net.HrefScanner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Browser that serves pages from memory, so that a benchmark measures the crawler rather than the network.
+ * Pages are held as UTF-8 bytes and decoded on every request, as a response body would be.
+ */
+final class MemoryBrowser implements Browser {
+    private final Map<URI, byte[]> pages;
+
+    /**
+     * @param pages The body of each page by URI, requests for any other URI fail as a 404 would
+     */
+    MemoryBrowser(Map<URI, byte[]> pages) {
+        this.pages = pages;
+    }
+
+    @Override
+    public String get(URI uri) throws WebBrowserException {
+        return new String(page(uri), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Scans the page as it is read, as LinkExtractingResponseHandler does, without decoding it to a String
+     */
+    @Override
+    public List<String> getLinks(URI uri) throws WebBrowserException {
+        List<String> hrefs = new ArrayList<>();
+        try {
+            HrefScanner.scan(new InputStreamReader(new ByteArrayInputStream(page(uri)), StandardCharsets.UTF_8), hrefs::add);
+        } catch (IOException _) {
+            throw new WebBrowserException();
+        }
+        return hrefs;
+    }
+
+    private byte[] page(URI uri) throws WebBrowserException {
+        byte[] page = pages.get(uri);
+        if (page == null) {
+            throw new WebBrowserException();
+        }
+        return page;
+    }
+}
@@ -0,0 +1,59 @@
+package org.monzo.crawler.bench;
+
+import org.monzo.crawler.frontier.FrontierEntry;
+import org.monzo.crawler.frontier.PolitenessScheduler;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of the per-host politeness scheduler against the single FIFO LinkedBlockingQueue it
+ * replaced as URIQueue's backing queue. Rate limits are set high enough never to hold a URI back, so the
+ * numbers are the scheduling overhead alone: an offer and a drain per URI, spread over a number of hosts.
+ * URIs are given eight different scores, so that the scheduler orders each host's URIs as a crawl by depth would.
+ * Run with: mvn -Pjmh compile exec:exec@jmh "-Djmh.args=PolitenessSchedulerBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@OperationsPerInvocation(PolitenessSchedulerBenchmark.BATCH)
+public class PolitenessSchedulerBenchmark {
+    static final int BATCH = 1024;
+
+    @Param({"fifo", "scheduler"})
+    public String queue;
+
+    @Param({"1", "64", "4096"})
+    public int hosts;
+
+    private BlockingQueue<FrontierEntry> frontier;
+    private FrontierEntry[] entries;
+    private final List<FrontierEntry> drained = new ArrayList<>(BATCH);
+
+    @Setup(Level.Trial)
+    public void setup() {
+        frontier = "fifo".equals(queue) ? new LinkedBlockingQueue<>() : new PolitenessScheduler(null, 1e12, BATCH);
+        entries = new FrontierEntry[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            URI uri = URI.create("https://host-" + (i % hosts) + ".bench.test/page-" + i);
+            entries[i] = new FrontierEntry(uri, i % 8, null, i % 8);
+        }
+    }
+
+    @Benchmark
+    public int offerAndDrain() {
+        for (FrontierEntry entry : entries) {
+            frontier.offer(entry);
+        }
+        drained.clear();
+        return frontier.drainTo(drained, BATCH);
+    }
+}
@@ -0,0 +1,78 @@
+package org.monzo.crawler.bench;
+
+import org.apache.hc.client5.http.entity.DecompressingEntity;
+import org.apache.hc.client5.http.entity.GZIPInputStreamFactory;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.monzo.crawler.net.BrowserResponseHandler;
+import org.monzo.crawler.net.ContentPolicy;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Measures BrowserResponseHandler reading a page of the corpus into a String, by the charset the response
+ * declares and whether it was gzipped. Gzipped bodies are wrapped in the same decompressing entity the
+ * classic client's content compression step uses. The handler checks the content type and size limit as
+ * the crawler's does. Run with -prof gc to see the allocation per page.
+ * Run with: mvn -Pjmh compile exec:exec@jmh "-Djmh.args=ResponseHandlerBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class ResponseHandlerBenchmark {
+    private static final long MAX_BODY_BYTES = 10L << 20;
+
+    @Param({"identity", "gzip"})
+    public String encoding;
+
+    @Param({"UTF-8", "ISO-8859-1"})
+    public String charset;
+
+    private final BrowserResponseHandler handler = new BrowserResponseHandler(new ContentPolicy(ContentPolicy.HTML_TYPES, MAX_BODY_BYTES));
+    private ContentType contentType;
+    private byte[][] bodies;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        contentType = ContentType.create("text/html", Charset.forName(charset));
+        List<byte[]> pages = Corpus.pages();
+        bodies = new byte[pages.size()][];
+        for (int i = 0; i < bodies.length; i++) {
+            // The corpus is ASCII apart from entities, so it is the same page in either charset
+            byte[] page = pages.get(i);
+            bodies[i] = "gzip".equals(encoding) ? gzip(page) : page;
+        }
+    }
+
+    private static byte[] gzip(byte[] page) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(page);
+        }
+        return compressed.toByteArray();
+    }
+
+    @Benchmark
+    public String handle() throws HttpException, IOException {
+        HttpEntity entity = new ByteArrayEntity(bodies[next++ % bodies.length], contentType);
+        if ("gzip".equals(encoding)) {
+            entity = new DecompressingEntity(entity, GZIPInputStreamFactory.getInstance());
+        }
+        BasicClassicHttpResponse response = new BasicClassicHttpResponse(200);
+        response.setEntity(entity);
+        return handler.handleResponse(response);
+    }
+}
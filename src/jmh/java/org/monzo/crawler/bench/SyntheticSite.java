@@ -0,0 +1,225 @@
+package org.monzo.crawler.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An HTTP server on the loopback interface serving a generated site, a reproducible crawl target that never
+ * touches the internet. Page i is served at /page/i and links to page i + 1, so every page is reachable
+ * from page 0, and to fanOut - 1 other pages picked by hashing. Each response is delayed by a latency
+ * drawn from a log-normal distribution and fails with a 500 at the error rate, both decided by hashing
+ * the page and how many times it has been requested, so a retry can succeed and the same crawl sees the
+ * same failures. During a 5xx burst every page request fails with a 503.
+ */
+final class SyntheticSite implements AutoCloseable {
+    private static final byte[] ROBOTS = "User-agent: *\nAllow: /\n".getBytes(StandardCharsets.UTF_8);
+    private static final String FILLER = "<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor "
+            + "incididunt ut labore et dolore magna aliqua. Ut enim ad minim veniam, quis nostrud exercitation.</p>\n";
+
+    /**
+     * The shape of the generated site
+     * @param pages The number of pages
+     * @param fanOut The number of links on each page
+     * @param pageBytes The approximate size of each page, padded with text
+     * @param medianLatency The median delay before a response is sent
+     * @param latencySigma The log-normal sigma of the delay, 0 for a fixed delay
+     * @param errorRate The fraction of page requests that fail with a 500
+     * @param burstEvery How often a 5xx burst starts, zero for no bursts
+     * @param burstLength How long each 5xx burst lasts
+     * @param seed Seeds the link graph, latencies and errors
+     */
+    record Shape(int pages, int fanOut, int pageBytes, Duration medianLatency, double latencySigma, double errorRate,
+                 Duration burstEvery, Duration burstLength, long seed) {
+        Shape {
+            if (pages < 1 || fanOut < 1 || pageBytes < 0 || latencySigma < 0 || errorRate < 0 || errorRate > 1) {
+                throw new IllegalArgumentException("Invalid site shape");
+            }
+        }
+    }
+
+    static {
+        // The server writes headers and body separately, without this Nagle and delayed ACKs add 40ms to each response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final Shape shape;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicIntegerArray requests;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder served = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder burstErrors = new LongAdder();
+
+    /**
+     * Starts the server on an ephemeral loopback port
+     * @param shape The shape of the site
+     * @throws IOException If the server cannot be bound
+     */
+    SyntheticSite(Shape shape) throws IOException {
+        this.shape = shape;
+        this.requests = new AtomicIntegerArray(shape.pages());
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * @param page The page number
+     * @return The URI the page is served at
+     */
+    URI uri(int page) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/page/" + page);
+    }
+
+    /**
+     * @return The number of pages served with a 200
+     */
+    long served() {
+        return served.sum();
+    }
+
+    /**
+     * @return The number of page requests failed with a 500 at the error rate
+     */
+    long errors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return The number of page requests failed with a 503 during a burst
+     */
+    long burstErrors() {
+        return burstErrors.sum();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/robots.txt")) {
+                send(exchange, 200, "text/plain", ROBOTS);
+                return;
+            }
+            int page = pageNumber(path);
+            if (page < 0) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            long hash = mix(shape.seed(), page, requests.getAndIncrement(page));
+            sleep(latencyNanos(hash));
+            if (inBurst()) {
+                burstErrors.increment();
+                exchange.sendResponseHeaders(503, -1);
+            } else if (unit(hash) < shape.errorRate()) {
+                errors.increment();
+                exchange.sendResponseHeaders(500, -1);
+            } else {
+                send(exchange, 200, "text/html; charset=UTF-8", page(page));
+                served.increment();
+            }
+        }
+    }
+
+    /**
+     * @return The page number in a /page/i path, or -1 if the path is not a page of the site
+     */
+    private int pageNumber(String path) {
+        if (!path.startsWith("/page/")) {
+            return -1;
+        }
+        try {
+            int page = Integer.parseInt(path, "/page/".length(), path.length(), 10);
+            return page < shape.pages() ? page : -1;
+        } catch (NumberFormatException _) {
+            return -1;
+        }
+    }
+
+    private byte[] page(int page) {
+        StringBuilder html = new StringBuilder(shape.pageBytes() + 256)
+                .append("<!DOCTYPE html><html><head><title>Page ").append(page).append("</title></head><body><ul>\n");
+        for (int i = 0; i < shape.fanOut(); i++) {
+            int target = i == 0 ? (page + 1) % shape.pages() : (int) Long.remainderUnsigned(mix(shape.seed(), page, -i), shape.pages());
+            html.append("<li><a href=\"/page/").append(target).append("\">Page ").append(target).append("</a></li>\n");
+        }
+        html.append("</ul>\n");
+        while (html.length() < shape.pageBytes()) {
+            html.append(FILLER);
+        }
+        return html.append("</body></html>\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private boolean inBurst() {
+        long every = shape.burstEvery().toNanos();
+        return every > 0 && (System.nanoTime() - startNanos) % every < shape.burstLength().toNanos();
+    }
+
+    /**
+     * Draws a log-normal latency around the median, from two uniforms taken from the hash by Box-Muller
+     */
+    private long latencyNanos(long hash) {
+        long median = shape.medianLatency().toNanos();
+        if (median == 0 || shape.latencySigma() == 0) {
+            return median;
+        }
+        double u1 = Math.max(unit(Long.rotateLeft(hash, 17) * 0x9E3779B97F4A7C15L), Double.MIN_VALUE);
+        double u2 = unit(Long.rotateLeft(hash, 41) * 0xC2B2AE3D27D4EB4FL);
+        double gaussian = Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2);
+        return (long) (median * Math.exp(shape.latencySigma() * gaussian));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(Duration.ofNanos(nanos));
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return A uniform double in [0, 1) from the top 53 bits of the hash
+     */
+    private static double unit(long hash) {
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Hashes three values with the SplitMix64 finalizer
+     */
+    private static long mix(long seed, long a, long b) {
+        long z = seed + a * 0x9E3779B97F4A7C15L + b * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,99 @@
+package org.monzo.crawler.bench;
+
+import org.monzo.crawler.exceptions.VisitedURIException;
+import org.monzo.crawler.frontier.FrontierEntry;
+import org.monzo.crawler.frontier.PolitenessScheduler;
+import org.monzo.crawler.frontier.StripedVisitedSet;
+import org.monzo.crawler.frontier.UriScorer;
+import org.monzo.crawler.net.URIQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures adding a crawled page's links to the URIQueue one at a time, catching a VisitedURIException for
+ * each already visited link, against adding them as one batch with addAll. Each page has 120 links: 30 new
+ * ones, each linked twice, and 60 navigation links shared by every page, so three in four are duplicates as
+ * on a typical site. The queue is backed by the politeness scheduler with rate limits too high to hold a URI
+ * back, and is drained after every page.
+ * Run with: mvn -Pjmh compile exec:exec@jmh "-Djmh.args=URIQueueBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@OperationsPerInvocation(URIQueueBenchmark.LINKS_PER_PAGE)
+public class URIQueueBenchmark {
+    static final int LINKS_PER_PAGE = 120;
+    private static final int PAGES = 256;
+    private static final int NEW_LINKS = 30;
+    private static final int NAV_LINKS = 60;
+
+    @Param({"add", "addAll"})
+    public String mode;
+
+    private final List<List<URI>> pages = new ArrayList<>(PAGES);
+    private final List<FrontierEntry> drained = new ArrayList<>();
+    private URIQueue queue;
+    private FrontierEntry parent;
+    private int page;
+
+    @Setup(Level.Trial)
+    public void setup() throws VisitedURIException {
+        List<URI> nav = new ArrayList<>(NAV_LINKS);
+        for (int i = 0; i < NAV_LINKS; i++) {
+            nav.add(URI.create("https://bench.test/section-" + i));
+        }
+        for (int p = 0; p < PAGES; p++) {
+            List<URI> links = new ArrayList<>(LINKS_PER_PAGE);
+            for (int i = 0; i < NEW_LINKS; i++) {
+                links.add(URI.create("https://bench.test/page-" + p + "/article-" + i));
+            }
+            links.addAll(nav);
+            links.addAll(links.subList(0, NEW_LINKS));
+            pages.add(links);
+        }
+        reset();
+    }
+
+    /**
+     * Starts a new crawl, so that each page's new links are new again
+     */
+    private void reset() throws VisitedURIException {
+        queue = new URIQueue(new PolitenessScheduler(null, 1e12, Integer.MAX_VALUE), new StripedVisitedSet(),
+                UriScorer.breadthFirst(), Integer.MAX_VALUE, Long.MAX_VALUE);
+        queue.add(URI.create("https://bench.test/"));
+        parent = queue.poll();
+        page = 0;
+    }
+
+    @Benchmark
+    public int addLinks() throws VisitedURIException {
+        if (page == PAGES) {
+            reset();
+        }
+        List<URI> links = pages.get(page++);
+        int added = 0;
+        if ("add".equals(mode)) {
+            for (URI link : links) {
+                try {
+                    if (queue.add(link, parent)) {
+                        added++;
+                    }
+                } catch (VisitedURIException _) {
+                    // Already visited
+                }
+            }
+        } else {
+            added = queue.addAll(links, parent).size();
+        }
+        drained.clear();
+        queue.drainTo(drained, Integer.MAX_VALUE);
+        return added;
+    }
+}
@@ -0,0 +1,104 @@
+package org.monzo.crawler.bench;
+
+import org.monzo.crawler.exceptions.VisitedURIException;
+import org.monzo.crawler.frontier.FrontierEntry;
+import org.monzo.crawler.frontier.PolitenessScheduler;
+import org.monzo.crawler.frontier.StripedVisitedSet;
+import org.monzo.crawler.frontier.UriScorer;
+import org.monzo.crawler.net.URIQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures URIQueue under contention, with workers adding each crawled page's links as one batch while
+ * others poll URIs and mark them complete, as the dispatcher and workers do during a crawl. Each page
+ * has 30 new links spread over 64 hosts and 30 links every page shares, so half are duplicates. The
+ * queue is backed by the politeness scheduler with rate limits too high to hold a URI back, and a new
+ * crawl is started every iteration. The thread split is changed with -tg, e.g. -tg 4,4.
+ * Run with: mvn -Pjmh compile exec:exec@jmh "-Djmh.args=URIQueueContentionBenchmark -tg 2,2"
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class URIQueueContentionBenchmark {
+    private static final int HOSTS = 64;
+    private static final int NEW_LINKS = 30;
+    private static final int SHARED_LINKS = 30;
+    private static final long POLL_TIMEOUT_MILLIS = 10;
+
+    private final AtomicInteger producers = new AtomicInteger();
+    private final List<URI> shared = new ArrayList<>(SHARED_LINKS);
+    private URIQueue queue;
+    private FrontierEntry parent;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        for (int i = 0; i < SHARED_LINKS; i++) {
+            shared.add(URI.create("https://host-" + (i % HOSTS) + ".bench.test/section-" + i));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() throws VisitedURIException {
+        queue = new URIQueue(new PolitenessScheduler(null, 1e12, Integer.MAX_VALUE), new StripedVisitedSet(),
+                UriScorer.breadthFirst(), Integer.MAX_VALUE, Long.MAX_VALUE);
+        queue.add(URI.create("https://bench.test/"));
+        parent = queue.poll();
+    }
+
+    /**
+     * The links of the pages one producer thread crawls, unique to that thread
+     */
+    @State(Scope.Thread)
+    public static class Pages {
+        private int producer = -1;
+        private long page;
+
+        List<URI> next(URIQueueContentionBenchmark benchmark) {
+            if (producer < 0) {
+                producer = benchmark.producers.getAndIncrement();
+            }
+            long p = page++;
+            List<URI> links = new ArrayList<>(NEW_LINKS + SHARED_LINKS);
+            for (int i = 0; i < NEW_LINKS; i++) {
+                links.add(URI.create("https://host-" + ((p + i) % HOSTS) + ".bench.test/" + producer + "/" + p + "/" + i));
+            }
+            links.addAll(benchmark.shared);
+            return links;
+        }
+    }
+
+    /**
+     * Adds a page's links as WebWorker does, the links are built before the batch is added
+     */
+    @Benchmark
+    @Group("crawl")
+    @GroupThreads(2)
+    public int addAll(Pages pages) {
+        List<URI> links = pages.next(this);
+        return queue.addAll(links, parent).size();
+    }
+
+    /**
+     * Takes a URI as the dispatcher does, blocking while the queue is empty, and completes it as its worker
+     * would. Only a poll that times out at the end of an iteration scores without taking a URI.
+     */
+    @Benchmark
+    @Group("crawl")
+    @GroupThreads(2)
+    public FrontierEntry poll() throws InterruptedException {
+        FrontierEntry entry = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (entry != null) {
+            queue.markComplete(entry.uri());
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,62 @@
+package org.monzo.crawler.bench;
+
+import org.monzo.crawler.frontier.UriCanonicalizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of canonicalizing a single link, by the shape of the link, against resolving it with
+ * java.net.URI's resolve and normalize, which handle fewer cases and reject links with characters that need
+ * encoding. Run with -prof gc for the bytes allocated per link.
+ * Run with: mvn -Pjmh compile exec:exec@jmh "-Djmh.args=UriCanonicalizerBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class UriCanonicalizerBenchmark {
+    private static final URI PAGE = URI.create("https://bench.test/section/articles/page-1");
+
+    @Param({"root-relative", "relative", "absolute", "external", "query"})
+    public String link;
+
+    private final UriCanonicalizer canonicalizer = new UriCanonicalizer();
+    private final UriCanonicalizer sorting = new UriCanonicalizer(true, Set.of("utm_source", "utm_medium"));
+    private String href;
+
+    @Setup
+    public void setup() {
+        href = switch (link) {
+            case "root-relative" -> "/section/articles/page-2";
+            case "relative" -> "../news/./latest-story";
+            case "absolute" -> "HTTPS://Bench.Test:443/section/articles/page-3#comments";
+            case "external" -> "https://external.test/section/articles/page-4";
+            default -> "/search?utm_source=mail&q=crawler&page=3&utm_medium=email&sort=asc";
+        };
+    }
+
+    @Benchmark
+    public URI canonicalize() {
+        return canonicalizer.canonicalize(PAGE, href);
+    }
+
+    @Benchmark
+    public URI canonicalizeInternal() {
+        return canonicalizer.canonicalizeInternal(PAGE, href);
+    }
+
+    @Benchmark
+    public URI canonicalizeSortingQuery() {
+        return sorting.canonicalize(PAGE, href);
+    }
+
+    @Benchmark
+    public URI javaNetResolve() {
+        return PAGE.resolve(href).normalize();
+    }
+}
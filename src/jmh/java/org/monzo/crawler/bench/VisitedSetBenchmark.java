@@ -0,0 +1,110 @@
+package org.monzo.crawler.bench;
+
+import org.monzo.crawler.frontier.MappedVisitedSet;
+import org.monzo.crawler.frontier.StripedVisitedSet;
+import org.monzo.crawler.frontier.VisitedSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Compares the check-and-insert throughput of the striped and memory-mapped fingerprint sets against
+ * the ArrayList they replaced, from 1 to 32 concurrent adders. Each set is pre-filled with visitedUris
+ * entries and every invocation adds a mix of already visited and new URIs, as a crawl does once most
+ * links on a site have been seen.
+ * Run with: mvn -Pjmh compile exec:exec@jmh -Djmh.args="VisitedSetBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class VisitedSetBenchmark {
+    private static final int ADDS_PER_INVOCATION = 8192;
+
+    @Param({"legacy", "striped", "mapped"})
+    public String implementation;
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int threads;
+
+    @Param({"10000"})
+    public int visitedUris;
+
+    private ExecutorService executor;
+    private VisitedSet set;
+    private URI[][] candidates;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        executor = Executors.newFixedThreadPool(threads);
+        candidates = new URI[threads][ADDS_PER_INVOCATION / threads];
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < candidates[t].length; i++) {
+                // Every other candidate has already been visited
+                candidates[t][i] = i % 2 == 0
+                        ? uri(i % visitedUris)
+                        : URI.create("https://bench.test/thread-" + t + "/page-" + i);
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() throws IOException {
+        closeSet();
+        set = switch (implementation) {
+            case "legacy" -> new LegacyVisitedList();
+            case "mapped" -> new MappedVisitedSet(Files.createTempDirectory("visited-bench"), visitedUris);
+            default -> new StripedVisitedSet();
+        };
+        for (int i = 0; i < visitedUris; i++) {
+            set.add(uri(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        closeSet();
+    }
+
+    private void closeSet() throws IOException {
+        if (set instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+
+    private static URI uri(int page) {
+        return URI.create("https://bench.test/page-" + page);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ADDS_PER_INVOCATION)
+    public int add() throws InterruptedException, ExecutionException {
+        List<Future<Integer>> results = new ArrayList<>(threads);
+        for (URI[] uris : candidates) {
+            results.add(executor.submit(() -> {
+                int added = 0;
+                for (URI uri : uris) {
+                    if (set.add(uri)) {
+                        added++;
+                    }
+                }
+                return added;
+            }));
+        }
+
+        int added = 0;
+        for (Future<Integer> result : results) {
+            added += result.get();
+        }
+        return added;
+    }
+}
@@ -0,0 +1,76 @@
+package org.monzo.crawler.bench;
+
+import org.monzo.crawler.exceptions.VisitedURIException;
+import org.monzo.crawler.frontier.FrontierEntry;
+import org.monzo.crawler.frontier.PolitenessScheduler;
+import org.monzo.crawler.frontier.StripedVisitedSet;
+import org.monzo.crawler.frontier.UriCanonicalizer;
+import org.monzo.crawler.frontier.UriScorer;
+import org.monzo.crawler.net.URIQueue;
+import org.monzo.crawler.net.WebWorker;
+import org.monzo.crawler.net.WorkerOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures WebWorker crawling one page of the corpus served from memory: decoding it, extracting its links
+ * with Jsoup or the streaming HrefScanner, canonicalizing them and queueing them as one batch. The crawl is
+ * restarted every iteration, so after the first pass over the corpus a page's links are already visited, as
+ * most links are during a crawl.
+ * Run with: mvn -Pjmh compile exec:exec@jmh "-Djmh.args=WebWorkerBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class WebWorkerBenchmark {
+    @Param({"false", "true"})
+    public boolean streaming;
+
+    private WorkerOptions options;
+    private final List<FrontierEntry> drained = new ArrayList<>();
+    private MemoryBrowser browser;
+    private FrontierEntry[] entries;
+    private URIQueue queue;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        options = new WorkerOptions(streaming, new UriCanonicalizer(), null, null, null);
+        List<byte[]> pages = Corpus.pages();
+        Map<URI, byte[]> site = new HashMap<>();
+        entries = new FrontierEntry[pages.size()];
+        for (int i = 0; i < pages.size(); i++) {
+            URI uri = URI.create("https://bench.test/corpus/" + i);
+            site.put(uri, pages.get(i));
+            entries[i] = FrontierEntry.seed(uri);
+        }
+        browser = new MemoryBrowser(site);
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() throws VisitedURIException {
+        queue = new URIQueue(new PolitenessScheduler(null, 1e12, Integer.MAX_VALUE), new StripedVisitedSet(),
+                UriScorer.breadthFirst(), Integer.MAX_VALUE, Long.MAX_VALUE);
+        queue.add(URI.create("https://bench.test/"));
+    }
+
+    @Benchmark
+    public int crawlPage() {
+        FrontierEntry entry = entries[next++ % entries.length];
+        // Stands in for the dispatcher handing the page out, so the worker's markComplete is balanced
+        queue.restore(List.of(entry));
+        drained.clear();
+        queue.drainTo(drained, Integer.MAX_VALUE);
+        new WebWorker(browser, entry, queue, options).run();
+        return drained.size();
+    }
+}
@@ -1,54 +1,211 @@
 package org.monzo.crawler;
 
+import org.monzo.crawler.cluster.ClusterNode;
+import org.monzo.crawler.exceptions.ContentRejectedException;
+import org.monzo.crawler.exceptions.HttpStatusException;
 import org.monzo.crawler.exceptions.VisitedURIException;
 import org.monzo.crawler.exceptions.WebCrawlException;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.core.IntervalFunction;
 import io.github.resilience4j.retry.Retry;
 import io.github.resilience4j.retry.RetryConfig;
+import org.monzo.crawler.frontier.FetchListener;
+import org.monzo.crawler.frontier.FrontierEntry;
+import org.monzo.crawler.frontier.FrontierLog;
+import org.monzo.crawler.frontier.MappedVisitedSet;
+import org.monzo.crawler.frontier.NearDuplicateIndex;
+import org.monzo.crawler.frontier.PolitenessScheduler;
+import org.monzo.crawler.frontier.RobotsCache;
+import org.monzo.crawler.frontier.StripedVisitedSet;
+import org.monzo.crawler.frontier.UriCanonicalizer;
+import org.monzo.crawler.frontier.UriScorer;
+import org.monzo.crawler.frontier.VisitedSet;
+import org.monzo.crawler.graph.LinkGraphWriter;
+import org.monzo.crawler.metrics.CrawlMetrics;
+import org.monzo.crawler.net.AdaptiveLimit;
+import org.monzo.crawler.net.AdaptiveLimitedBrowser;
+import org.monzo.crawler.net.AsyncWebBrowser;
+import org.monzo.crawler.net.Browser;
 import org.monzo.crawler.net.BrowserResponseHandler;
+import org.monzo.crawler.net.CachingBrowser;
+import org.monzo.crawler.net.CircuitBreakingBrowser;
+import org.monzo.crawler.net.ConnectionPoolConfig;
+import org.monzo.crawler.net.ContentPolicy;
+import org.monzo.crawler.net.FetchReportingBrowser;
+import org.monzo.crawler.net.HostLimitedBrowser;
+import org.monzo.crawler.net.HttpClientFactory;
+import org.monzo.crawler.net.PipelineStage;
+import org.monzo.crawler.net.ResponseCache;
+import org.monzo.crawler.net.RetryingBrowser;
+import org.monzo.crawler.net.URIDispatcher;
 import org.monzo.crawler.net.URIQueue;
 import org.monzo.crawler.net.WebBrowser;
 import org.monzo.crawler.net.WebWorker;
+import org.monzo.crawler.net.WorkerOptions;
 import org.apache.commons.cli.*;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
-import org.apache.hc.core5.http.HttpException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class App {
     private static final Logger logger = LogManager.getLogger(App.class);
     private static final String URI_CLI_LONG = "url";
-    private static final CloseableHttpClient client = HttpClients.createDefault();
-    private static final URIQueue uriQueue = new URIQueue(new LinkedBlockingQueue<>());
-    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(11, 11, 0L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ThreadPoolExecutor.AbortPolicy());
+    private static final String THREADS_CLI_LONG = "threads";
+    private static final String MAX_CONNECTIONS_CLI_LONG = "max-connections";
+    private static final String MAX_PER_ROUTE_CLI_LONG = "max-connections-per-route";
+    private static final String KEEP_ALIVE_CLI_LONG = "keep-alive";
+    private static final String IDLE_EVICTION_CLI_LONG = "idle-eviction";
+    private static final String VISITED_DIR_CLI_LONG = "visited-dir";
+    private static final String VIRTUAL_THREADS_CLI_LONG = "virtual-threads";
+    private static final String ASYNC_CLI_LONG = "async";
+    private static final String STAGED_CLI_LONG = "staged";
+    private static final String FETCH_THREADS_CLI_LONG = "fetch-threads";
+    private static final String PARSE_THREADS_CLI_LONG = "parse-threads";
+    private static final String LINK_THREADS_CLI_LONG = "link-threads";
+    private static final String STAGE_QUEUE_CLI_LONG = "stage-queue";
+    private static final String STREAMING_CLI_LONG = "streaming";
+    private static final String NEAR_DUPLICATES_CLI_LONG = "near-duplicates";
+    private static final String MAX_IN_FLIGHT_CLI_LONG = "max-in-flight";
+    private static final String PER_HOST_LIMIT_CLI_LONG = "per-host-limit";
+    private static final String ADAPTIVE_CLI_LONG = "adaptive";
+    private static final String BREAKER_FAILURE_RATE_CLI_LONG = "breaker-failure-rate";
+    private static final String BREAKER_WAIT_CLI_LONG = "breaker-wait";
+    private static final String SORT_QUERY_CLI_LONG = "sort-query";
+    private static final String STRIP_PARAMS_CLI_LONG = "strip-params";
+    private static final String HOST_RATE_CLI_LONG = "host-rate";
+    private static final String HOST_BURST_CLI_LONG = "host-burst";
+    private static final String PRIORITY_CLI_LONG = "priority";
+    private static final String MAX_DEPTH_CLI_LONG = "max-depth";
+    private static final String MAX_PAGES_CLI_LONG = "max-pages";
+    private static final String STATE_DIR_CLI_LONG = "state-dir";
+    private static final String RESUME_CLI_LONG = "resume";
+    private static final String STATE_FSYNC_CLI_LONG = "state-fsync";
+    private static final String CACHE_DIR_CLI_LONG = "cache-dir";
+    private static final String GRAPH_DIR_CLI_LONG = "graph-dir";
+    private static final String CONTENT_TYPES_CLI_LONG = "content-types";
+    private static final String MAX_BODY_BYTES_CLI_LONG = "max-body-bytes";
+    private static final String CLUSTER_CLI_LONG = "cluster";
+    private static final String NODE_CLI_LONG = "node";
+    private static final String PARTITION_CLI_LONG = "partition";
+    private static final String METRICS_INTERVAL_CLI_LONG = "metrics-interval";
+    private static final int DEFAULT_THREADS = 11;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+    private static final int DEFAULT_PER_HOST_LIMIT = 64;
+    private static final int ADAPTIVE_INITIAL_LIMIT = 16;
+    private static final int ADAPTIVE_INITIAL_HOST_LIMIT = 4;
+    private static final int RETRY_ATTEMPTS = 3;
+    private static final Duration RETRY_INITIAL_WAIT = Duration.ofMillis(500);
+    private static final Duration RETRY_MAX_WAIT = Duration.ofSeconds(30);
+    private static final int DEFAULT_BREAKER_FAILURE_RATE = 50;
+    private static final int DEFAULT_BREAKER_WAIT = 30;
+    private static final int BREAKER_WINDOW = 20;
+    private static final int BREAKER_MIN_CALLS = 10;
+    private static final int BREAKER_PROBES = 3;
+    private static final int DEFAULT_FETCH_THREADS = 64;
+    private static final int DEFAULT_LINK_THREADS = 1;
+    private static final int DEFAULT_STAGE_QUEUE = 256;
+    private static final double DEFAULT_HOST_RATE = 10;
+    private static final int DEFAULT_HOST_BURST = 5;
+    private static final int DISPATCH_BATCH_SIZE = 64;
+    private static final int ROBOTS_CONNECTIONS = 4;
+    private static final long INITIAL_VISITED_CAPACITY = 1 << 20;
+    private static final Duration LOG_FLUSH_INTERVAL = Duration.ofMillis(100);
+    private static final long LOG_SEGMENT_BYTES = 64L << 20;
+    private static final long DEFAULT_MAX_BODY_BYTES = 10L << 20;
+    private static final Duration CLUSTER_PROBE_INTERVAL = Duration.ofMillis(200);
+    private static final int DEFAULT_METRICS_INTERVAL = 10;
 
     /**
-     * Parses CLI arguments and retrieves the given URL
-     * @param args The CLI args passed to the java program
-     * @return The URI given by the user in the CLI
+     * Builds the set of CLI options accepted by the crawler
+     * @return The CLI options
      */
-    private static URI getUri(String[] args) {
+    private static Options getOptions() {
         Options options = new Options();
         Option input = new Option("u", URI_CLI_LONG, true, "starting url");
         input.setRequired(true);
         options.addOption(input);
+        options.addOption("t", THREADS_CLI_LONG, true, "number of worker threads (default " + DEFAULT_THREADS + ")");
+        options.addOption(null, MAX_CONNECTIONS_CLI_LONG, true, "maximum pooled connections across all hosts, only enforced when given (default 2 x threads)");
+        options.addOption(null, MAX_PER_ROUTE_CLI_LONG, true, "maximum pooled connections per host (default threads)");
+        options.addOption(null, KEEP_ALIVE_CLI_LONG, true, "seconds to keep an idle connection alive for re-use (default 30)");
+        options.addOption(null, IDLE_EVICTION_CLI_LONG, true, "seconds before an idle pooled connection is evicted (default 30)");
+        options.addOption(null, VIRTUAL_THREADS_CLI_LONG, false, "run each worker on a virtual thread instead of a fixed pool");
+        options.addOption(null, ASYNC_CLI_LONG, false, "fetch with the non-blocking async client, parsing on --threads threads");
+        options.addOption(null, STAGED_CLI_LONG, false, "crawl in separate fetch, parse and link stages, each with its own threads and bounded queue");
+        options.addOption(null, FETCH_THREADS_CLI_LONG, true, "threads fetching pages with --staged (default " + DEFAULT_FETCH_THREADS + ")");
+        options.addOption(null, PARSE_THREADS_CLI_LONG, true, "threads parsing pages with --staged (default the number of cores)");
+        options.addOption(null, LINK_THREADS_CLI_LONG, true, "threads canonicalizing and queueing links with --staged (default " + DEFAULT_LINK_THREADS + ")");
+        options.addOption(null, STAGE_QUEUE_CLI_LONG, true, "tasks waiting on each stage with --staged before the stage before it blocks (default " + DEFAULT_STAGE_QUEUE + ")");
+        options.addOption(null, STREAMING_CLI_LONG, false, "scan responses for links as they are read instead of parsing whole pages");
+        options.addOption(null, NEAR_DUPLICATES_CLI_LONG, false, "do not follow the links of pages that are near-duplicates of pages already crawled, not with --streaming");
+        options.addOption(null, MAX_IN_FLIGHT_CLI_LONG, true, "maximum concurrent fetches with --virtual-threads or --async (default " + DEFAULT_MAX_IN_FLIGHT + ")");
+        options.addOption(null, PER_HOST_LIMIT_CLI_LONG, true, "maximum concurrent fetches per host with --virtual-threads or --async (default " + DEFAULT_PER_HOST_LIMIT + ")");
+        options.addOption(null, ADAPTIVE_CLI_LONG, false, "adjust concurrent fetches, overall and per host, to the latency and errors seen, up to the configured limits");
+        options.addOption(null, BREAKER_FAILURE_RATE_CLI_LONG, true, "percent of a host's last " + BREAKER_WINDOW + " fetches failing that stops fetches to it, 0 to never stop (default " + DEFAULT_BREAKER_FAILURE_RATE + ")");
+        options.addOption(null, BREAKER_WAIT_CLI_LONG, true, "seconds a failing host is left before it is probed again (default " + DEFAULT_BREAKER_WAIT + ")");
+        options.addOption(null, SORT_QUERY_CLI_LONG, false, "sort query parameters by name so that reordered queries are fetched once");
+        options.addOption(null, STRIP_PARAMS_CLI_LONG, true, "comma separated query parameters to remove from links, such as utm_source");
+        options.addOption(null, HOST_RATE_CLI_LONG, true, "maximum requests per second to any one host (default " + (int) DEFAULT_HOST_RATE + ")");
+        options.addOption(null, HOST_BURST_CLI_LONG, true, "requests a host may be sent at once before its rate applies (default " + DEFAULT_HOST_BURST + ")");
+        options.addOption(null, PRIORITY_CLI_LONG, true, "order each host's pages are crawled in: breadth, depth or path, shortest paths first (default breadth)");
+        options.addOption(null, MAX_DEPTH_CLI_LONG, true, "most links followed from the starting url (default unlimited)");
+        options.addOption(null, MAX_PAGES_CLI_LONG, true, "most pages crawled, in priority order (default unlimited)");
+        options.addOption(null, STATE_DIR_CLI_LONG, true, "directory to log the frontier in, so that an interrupted crawl can be resumed (default none)");
+        options.addOption(null, RESUME_CLI_LONG, false, "resume the crawl logged in --state-dir");
+        options.addOption(null, STATE_FSYNC_CLI_LONG, false, "fsync the frontier log after every write, rather than leaving it to the operating system");
+        options.addOption(null, CACHE_DIR_CLI_LONG, true, "directory to cache pages in, so that a recrawl only downloads pages that changed (default none)");
+        options.addOption(null, GRAPH_DIR_CLI_LONG, true, "directory to write the link graph and sitemap to as pages are crawled (default none)");
+        options.addOption(null, CONTENT_TYPES_CLI_LONG, true, "comma separated content types to read, others are abandoned from their headers (default text/html,application/xhtml+xml)");
+        options.addOption(null, MAX_BODY_BYTES_CLI_LONG, true, "most bytes read from one response once decompressed, larger ones are abandoned (default " + DEFAULT_MAX_BODY_BYTES + ")");
+        options.addOption(null, VISITED_DIR_CLI_LONG, true, "directory for an off-heap, memory-mapped visited set (default on-heap)");
+        options.addOption(null, METRICS_INTERVAL_CLI_LONG, true, "seconds between crawl metrics summaries, 0 for only the final one (default " + DEFAULT_METRICS_INTERVAL + ")");
+        options.addOption(null, CLUSTER_CLI_LONG, true, "comma separated host:port of every node of a distributed crawl, in the same order on every node (default none)");
+        options.addOption(null, NODE_CLI_LONG, true, "this node's position in --cluster, counting from 0 (default 0)");
+        options.addOption(null, PARTITION_CLI_LONG, true, "what --cluster splits the crawl by: url, or host to keep each host on one node (default url)");
+        return options;
+    }
 
+    /**
+     * Parses the CLI arguments, printing the usage if they are invalid
+     * @param args The CLI args passed to the java program
+     * @return The parsed command line
+     */
+    private static CommandLine parseArgs(String[] args) {
+        Options options = getOptions();
         CommandLineParser parser = new DefaultParser();
 
         try {
             CommandLine cmd = parser.parse(options, args);
-            String url = cmd.getOptionValue(URI_CLI_LONG);
-            logger.info("CRAWL REQUESTED, BASE URL: {}", url);
-            URI uri = URI.create(url);
-            return cleanseUri(uri);
+            if (cmd.hasOption(STREAMING_CLI_LONG) && cmd.hasOption(NEAR_DUPLICATES_CLI_LONG)) {
+                // Streamed pages are scanned for links without keeping their text, so cannot be fingerprinted
+                throw new ParseException("--" + NEAR_DUPLICATES_CLI_LONG + " cannot be used with --" + STREAMING_CLI_LONG);
+            }
+            return cmd;
         }
         catch(ParseException e) {
             HelpFormatter formatter = new HelpFormatter();
@@ -57,6 +214,418 @@ public class App {
         }
     }
 
+    /**
+     * Retrieves the URL given by the user
+     * @param cmd The parsed CLI args
+     * @return The URI given by the user in the CLI
+     */
+    private static URI getUri(CommandLine cmd) {
+        String url = cmd.getOptionValue(URI_CLI_LONG);
+        logger.info("CRAWL REQUESTED, BASE URL: {}", url);
+        URI uri = getCanonicalizer(cmd).canonicalize(cleanseUri(URI.create(url)).toString());
+        if (uri == null) {
+            throw new WebCrawlException(new IllegalArgumentException("Not an http or https URL: " + url));
+        }
+        return uri;
+    }
+
+    /**
+     * Creates the canonicalizer links are passed through before the URI queue de-duplicates them
+     * @param cmd The parsed CLI args
+     * @return The URI canonicalizer
+     */
+    private static UriCanonicalizer getCanonicalizer(CommandLine cmd) {
+        Set<String> strippedParameters = cmd.hasOption(STRIP_PARAMS_CLI_LONG)
+                ? Set.of(cmd.getOptionValue(STRIP_PARAMS_CLI_LONG).split(","))
+                : Set.of();
+        return new UriCanonicalizer(cmd.hasOption(SORT_QUERY_CLI_LONG), strippedParameters);
+    }
+
+    /**
+     * Creates the index of the fingerprints of the pages crawled, if near-duplicate pages are to be skipped
+     * @param cmd The parsed CLI args
+     * @return The index, or null if the links of every page are followed
+     */
+    private static NearDuplicateIndex getNearDuplicateIndex(CommandLine cmd) {
+        return cmd.hasOption(NEAR_DUPLICATES_CLI_LONG) ? new NearDuplicateIndex() : null;
+    }
+
+    /**
+     * Opens the writer of the crawl's link graph in the graph directory, if one was given. A resumed crawl starts
+     * the graph again, from the pages it crawls after resuming.
+     * @param cmd The parsed CLI args
+     * @param resources Resources to be closed once the crawl completes
+     * @return The link graph writer, or null to write no graph
+     */
+    private static LinkGraphWriter getLinkGraph(CommandLine cmd, Deque<AutoCloseable> resources) {
+        if (!cmd.hasOption(GRAPH_DIR_CLI_LONG)) {
+            return null;
+        }
+
+        try {
+            LinkGraphWriter graph = new LinkGraphWriter(Path.of(cmd.getOptionValue(GRAPH_DIR_CLI_LONG)));
+            resources.push(graph);
+            return graph;
+        } catch (IOException e) {
+            throw new WebCrawlException(e);
+        }
+    }
+
+    /**
+     * Creates the options every worker of the crawl is given
+     * @param cmd The parsed CLI args
+     * @param metrics The metrics the workers record in
+     * @param resources Resources to be closed once the crawl completes
+     * @return The worker options
+     */
+    private static WorkerOptions getWorkerOptions(CommandLine cmd, CrawlMetrics metrics, Deque<AutoCloseable> resources) {
+        return new WorkerOptions(cmd.hasOption(STREAMING_CLI_LONG), getCanonicalizer(cmd), metrics,
+                getNearDuplicateIndex(cmd), getLinkGraph(cmd, resources));
+    }
+
+    /**
+     * Creates the scorer that decides the order each host's URIs are crawled in
+     * @param cmd The parsed CLI args
+     * @return The URI scorer
+     */
+    private static UriScorer getScorer(CommandLine cmd) {
+        String priority = cmd.getOptionValue(PRIORITY_CLI_LONG, "breadth");
+        return switch (priority) {
+            case "breadth" -> UriScorer.breadthFirst();
+            case "depth" -> UriScorer.depthFirst();
+            case "path" -> UriScorer.shortestPath();
+            default -> throw new WebCrawlException(new IllegalArgumentException("Unknown priority: " + priority));
+        };
+    }
+
+    /**
+     * Creates the URI queue, ordering and limiting the crawl as the CLI args ask
+     * @param cmd The parsed CLI args
+     * @param scheduler The frontier scheduler the queue is backed by
+     * @param visitedSet The set recording every URI added
+     * @param frontierLog The log to record the frontier in, or null
+     * @return The URI queue
+     */
+    private static URIQueue getUriQueue(CommandLine cmd, PolitenessScheduler scheduler, VisitedSet visitedSet, FrontierLog frontierLog) {
+        int maxDepth = getIntOption(cmd, MAX_DEPTH_CLI_LONG, Integer.MAX_VALUE);
+        long maxPages = getLongOption(cmd, MAX_PAGES_CLI_LONG, Long.MAX_VALUE);
+        try {
+            return new URIQueue(scheduler, visitedSet, getScorer(cmd), maxDepth, maxPages, frontierLog);
+        } catch (IllegalArgumentException e) {
+            throw new WebCrawlException(e);
+        }
+    }
+
+    /**
+     * Reads an integer option, falling back to the default if it was not given
+     * @param cmd The parsed CLI args
+     * @param option The long name of the option
+     * @param defaultValue The value to use if the option is absent
+     * @return The option value
+     */
+    private static int getIntOption(CommandLine cmd, String option, int defaultValue) {
+        try {
+            return cmd.hasOption(option) ? Integer.parseInt(cmd.getOptionValue(option)) : defaultValue;
+        }
+        catch(NumberFormatException e) {
+            throw new WebCrawlException(e);
+        }
+    }
+
+    /**
+     * Reads a long integer option, falling back to the default if it was not given
+     * @param cmd The parsed CLI args
+     * @param option The long name of the option
+     * @param defaultValue The value to use if the option is absent
+     * @return The option value
+     */
+    private static long getLongOption(CommandLine cmd, String option, long defaultValue) {
+        try {
+            return cmd.hasOption(option) ? Long.parseLong(cmd.getOptionValue(option)) : defaultValue;
+        }
+        catch(NumberFormatException e) {
+            throw new WebCrawlException(e);
+        }
+    }
+
+    /**
+     * Reads a decimal option, falling back to the default if it was not given
+     * @param cmd The parsed CLI args
+     * @param option The long name of the option
+     * @param defaultValue The value to use if the option is absent
+     * @return The option value
+     */
+    private static double getDoubleOption(CommandLine cmd, String option, double defaultValue) {
+        try {
+            return cmd.hasOption(option) ? Double.parseDouble(cmd.getOptionValue(option)) : defaultValue;
+        }
+        catch(NumberFormatException e) {
+            throw new WebCrawlException(e);
+        }
+    }
+
+    /**
+     * Creates the policy deciding which responses pages are read from
+     * @param cmd The parsed CLI args
+     * @return The content policy
+     */
+    private static ContentPolicy getContentPolicy(CommandLine cmd) {
+        Set<String> contentTypes = cmd.hasOption(CONTENT_TYPES_CLI_LONG)
+                ? Set.of(cmd.getOptionValue(CONTENT_TYPES_CLI_LONG).split(","))
+                : ContentPolicy.HTML_TYPES;
+        try {
+            long maxBodyBytes = cmd.hasOption(MAX_BODY_BYTES_CLI_LONG)
+                    ? Long.parseLong(cmd.getOptionValue(MAX_BODY_BYTES_CLI_LONG)) : DEFAULT_MAX_BODY_BYTES;
+            return new ContentPolicy(contentTypes, maxBodyBytes);
+        } catch (IllegalArgumentException e) {
+            throw new WebCrawlException(e);
+        }
+    }
+
+    /**
+     * Creates the connection pool config from the CLI args, any option not given is taken from the defaults.
+     * A lax pool does not enforce its total, so giving --max-connections makes the pool strict.
+     * @param cmd The parsed CLI args
+     * @param defaults The config sized for the chosen execution mode
+     * @return The connection pool config
+     */
+    private static ConnectionPoolConfig getPoolConfig(CommandLine cmd, ConnectionPoolConfig defaults) {
+        return new ConnectionPoolConfig(
+                getIntOption(cmd, MAX_CONNECTIONS_CLI_LONG, defaults.maxTotal()),
+                getIntOption(cmd, MAX_PER_ROUTE_CLI_LONG, defaults.maxPerRoute()),
+                Duration.ofSeconds(getIntOption(cmd, KEEP_ALIVE_CLI_LONG, (int) defaults.keepAlive().toSeconds())),
+                Duration.ofSeconds(getIntOption(cmd, IDLE_EVICTION_CLI_LONG, (int) defaults.idleEviction().toSeconds())),
+                defaults.strictLimits() || cmd.hasOption(MAX_CONNECTIONS_CLI_LONG));
+    }
+
+    /**
+     * Creates the visited set from the CLI args. If a directory is given the fingerprints are kept
+     * off-heap in a memory-mapped file there, otherwise they are kept on the heap.
+     * @param cmd The parsed CLI args
+     * @return The visited set for the URI queue
+     */
+    private static VisitedSet getVisitedSet(CommandLine cmd) {
+        if (!cmd.hasOption(VISITED_DIR_CLI_LONG)) {
+            return new StripedVisitedSet();
+        }
+
+        try {
+            return new MappedVisitedSet(Path.of(cmd.getOptionValue(VISITED_DIR_CLI_LONG)), INITIAL_VISITED_CAPACITY);
+        } catch (IOException e) {
+            throw new WebCrawlException(e);
+        }
+    }
+
+    /**
+     * Reads the frontier logged in the state directory when resuming, adding every URI it visited to the visited set.
+     * A new crawl refuses to start in a state directory that already holds one.
+     * @param cmd The parsed CLI args
+     * @param visitedSet The visited set to restore
+     * @return The URIs the logged crawl had still to crawl, empty if not resuming
+     */
+    private static List<FrontierEntry> recoverFrontier(CommandLine cmd, VisitedSet visitedSet) {
+        if (!cmd.hasOption(STATE_DIR_CLI_LONG)) {
+            if (cmd.hasOption(RESUME_CLI_LONG)) {
+                throw new WebCrawlException(new IllegalArgumentException("--resume requires --state-dir"));
+            }
+            return List.of();
+        }
+
+        Path directory = Path.of(cmd.getOptionValue(STATE_DIR_CLI_LONG));
+        try {
+            if (!cmd.hasOption(RESUME_CLI_LONG)) {
+                if (FrontierLog.holdsCrawl(directory)) {
+                    throw new WebCrawlException(new IllegalStateException(directory + " already holds a crawl, pass --resume to continue it"));
+                }
+                return List.of();
+            }
+            long start = System.nanoTime();
+            List<FrontierEntry> pending = FrontierLog.recover(directory, visitedSet);
+            logger.info("Recovered {} visited and {} pending URIs from {} in {} ms", visitedSet.size(), pending.size(),
+                    directory, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return pending;
+        } catch (IOException e) {
+            throw new WebCrawlException(e);
+        }
+    }
+
+    /**
+     * Opens the write-ahead log of the frontier in the state directory, if one was given
+     * @param cmd The parsed CLI args
+     * @param resources Resources to be closed once the crawl completes
+     * @return The frontier log, or null to keep the crawl in memory only
+     */
+    private static FrontierLog getFrontierLog(CommandLine cmd, Deque<AutoCloseable> resources) {
+        if (!cmd.hasOption(STATE_DIR_CLI_LONG)) {
+            return null;
+        }
+
+        try {
+            FrontierLog frontierLog = new FrontierLog(Path.of(cmd.getOptionValue(STATE_DIR_CLI_LONG)), LOG_FLUSH_INTERVAL,
+                    cmd.hasOption(STATE_FSYNC_CLI_LONG), LOG_SEGMENT_BYTES);
+            resources.push(frontierLog);
+            return frontierLog;
+        } catch (IOException e) {
+            throw new WebCrawlException(e);
+        }
+    }
+
+    /**
+     * Wraps the browser in a cache of the pages it retrieves, if a cache directory was given, so that pages the
+     * server says have not changed are not downloaded again
+     * @param cmd The parsed CLI args
+     * @param browser The browser to send the requests with
+     * @param resources Resources to be closed once the crawl completes
+     * @return The caching browser, or the browser itself if there is no cache
+     */
+    private static Browser withCache(CommandLine cmd, Browser browser, Deque<AutoCloseable> resources) {
+        if (!cmd.hasOption(CACHE_DIR_CLI_LONG)) {
+            return browser;
+        }
+
+        try {
+            CachingBrowser cachingBrowser = new CachingBrowser(browser, new ResponseCache(Path.of(cmd.getOptionValue(CACHE_DIR_CLI_LONG))));
+            resources.push(() -> logger.info("Response cache: {} pages not modified, {} fetched",
+                    cachingBrowser.notModified(), cachingBrowser.fetched()));
+            return cachingBrowser;
+        } catch (IOException e) {
+            throw new WebCrawlException(e);
+        }
+    }
+
+    /**
+     * Creates the cache of each host's robots.txt rules. The files are fetched with a small client of their own,
+     * on virtual threads so that fetching them never holds up the workers or the dispatcher.
+     * @param resources Resources to be closed once the crawl completes
+     * @return The robots.txt cache
+     */
+    private static RobotsCache getRobotsCache(Deque<AutoCloseable> resources) {
+        CloseableHttpClient client = HttpClientFactory.create(ConnectionPoolConfig.forWorkers(ROBOTS_CONNECTIONS));
+        resources.push(client);
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        resources.push(executor);
+        // Most hosts without a robots.txt answer 404, so failures are not retried
+        WebBrowser browser = new WebBrowser(client, new BrowserResponseHandler(),
+                Retry.of("robotsRetry", RetryConfig.custom().maxAttempts(1).build()));
+        return new RobotsCache(uri -> CompletableFuture.supplyAsync(() -> browser.get(uri), executor), null);
+    }
+
+    /**
+     * Creates the frontier scheduler, which hands out each host's URIs no faster than its rate limit and robots.txt allow
+     * @param cmd The parsed CLI args
+     * @param resources Resources to be closed once the crawl completes
+     * @return The politeness scheduler
+     */
+    private static PolitenessScheduler getScheduler(CommandLine cmd, Deque<AutoCloseable> resources) {
+        double hostRate = getDoubleOption(cmd, HOST_RATE_CLI_LONG, DEFAULT_HOST_RATE);
+        int hostBurst = getIntOption(cmd, HOST_BURST_CLI_LONG, DEFAULT_HOST_BURST);
+        int nodes = getClusterAddresses(cmd).size();
+        if (nodes > 1 && !isPartitionedByHost(cmd)) {
+            // Every node crawls every host, so each takes an equal share of the host's limits
+            hostRate /= nodes;
+            hostBurst = Math.max(1, hostBurst / nodes);
+        }
+        logger.info("Limiting each host to {} requests per second, bursts of {}", hostRate, hostBurst);
+        return new PolitenessScheduler(getRobotsCache(resources), hostRate, hostBurst);
+    }
+
+    /**
+     * Creates the crawl's metrics, registers them over JMX and logs a summary of them every metrics interval,
+     * and once more when the crawl completes
+     * @param cmd The parsed CLI args
+     * @param scheduler The frontier scheduler, whose size is reported as the frontier's
+     * @param uriQueue The queue of URIs waiting to be crawled
+     * @param resources Resources to be closed once the crawl completes
+     * @return The crawl metrics
+     */
+    private static CrawlMetrics getMetrics(CommandLine cmd, PolitenessScheduler scheduler, URIQueue uriQueue,
+                                           Deque<AutoCloseable> resources) {
+        CrawlMetrics metrics = new CrawlMetrics();
+        metrics.watchFrontier(scheduler::size, uriQueue::pending);
+        resources.push(() -> logger.info("Crawl metrics: {}", metrics.report()));
+        try {
+            ObjectName name = metrics.register();
+            resources.push(() -> ManagementFactory.getPlatformMBeanServer().unregisterMBean(name));
+        } catch (JMException e) {
+            logger.warn("Unable to register the crawl metrics over JMX: {}", e.getMessage());
+        }
+
+        int interval = getIntOption(cmd, METRICS_INTERVAL_CLI_LONG, DEFAULT_METRICS_INTERVAL);
+        if (interval > 0) {
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().daemon().name("metrics-reporter").factory());
+            reporter.scheduleAtFixedRate(() -> logger.info("Crawl metrics: {}", metrics.report()), interval, interval, TimeUnit.SECONDS);
+            resources.push(reporter::shutdownNow);
+        }
+        return metrics;
+    }
+
+    /**
+     * Reads the address of every node of a distributed crawl
+     * @param cmd The parsed CLI args
+     * @return The node addresses in the order given, empty if the crawl is not distributed
+     */
+    private static List<InetSocketAddress> getClusterAddresses(CommandLine cmd) {
+        if (!cmd.hasOption(CLUSTER_CLI_LONG)) {
+            return List.of();
+        }
+
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String node : cmd.getOptionValue(CLUSTER_CLI_LONG).split(",")) {
+            int colon = node.lastIndexOf(':');
+            if (colon < 1) {
+                throw new WebCrawlException(new IllegalArgumentException("Cluster nodes must be given as host:port: " + node));
+            }
+            try {
+                addresses.add(new InetSocketAddress(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1))));
+            } catch (IllegalArgumentException e) {
+                throw new WebCrawlException(e);
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * @param cmd The parsed CLI args
+     * @return true if a distributed crawl is split by host, false if by URL
+     */
+    private static boolean isPartitionedByHost(CommandLine cmd) {
+        String partition = cmd.getOptionValue(PARTITION_CLI_LONG, "url");
+        return switch (partition) {
+            case "url" -> false;
+            case "host" -> true;
+            default -> throw new WebCrawlException(new IllegalArgumentException("Unknown partition: " + partition));
+        };
+    }
+
+    /**
+     * Joins the distributed crawl given in the CLI args, if any. From then on the URI queue forwards the links
+     * owned by other nodes to them, and the links they forward are added to it.
+     * @param cmd The parsed CLI args
+     * @param uriQueue The queue of URIs waiting to be crawled by this node
+     * @param resources Resources to be closed once the crawl completes
+     * @return This node of the cluster, or null if the crawl is not distributed
+     */
+    private static ClusterNode joinCluster(CommandLine cmd, URIQueue uriQueue, Deque<AutoCloseable> resources) {
+        List<InetSocketAddress> addresses = getClusterAddresses(cmd);
+        if (addresses.isEmpty()) {
+            return null;
+        }
+
+        int node = getIntOption(cmd, NODE_CLI_LONG, 0);
+        try {
+            ClusterNode cluster = new ClusterNode(addresses, node, isPartitionedByHost(cmd), uriQueue, CLUSTER_PROBE_INTERVAL);
+            resources.push(cluster);
+            resources.push(() -> logger.info("Cluster node {}: forwarded {} links in {} batches, received {} batches",
+                    node, uriQueue.forwardedUris(), cluster.sentBatches(), cluster.receivedBatches()));
+            uriQueue.setRemoteFrontier(cluster);
+            logger.info("Crawling as node {} of a {} node cluster, listening on {}", node, addresses.size(), addresses.get(node));
+            return cluster;
+        } catch (IOException | IllegalArgumentException e) {
+            throw new WebCrawlException(e);
+        }
+    }
+
     /**
      * Checks to see whether the URI has a scheme, if it does not it adds HTTPS
      * @param uri The URI to be checked and cleansed
@@ -71,93 +640,408 @@ public class App {
 
     /**
      * Creates the Retry config to be passed in to the WebBrowser.
-     * The retry will be wrapped around http requests by the browser to handle failures
+     * The retry will be wrapped around http requests by the browser to handle failures.
+     * Waits grow exponentially with jitter between attempts, or for as long as the server asked with Retry-After.
+     * @param metrics The metrics each retry is counted in
      * @return The applications retry config
      */
-    private static Retry getRetryConfig() {
+    private static Retry getRetryConfig(CrawlMetrics metrics) {
+        IntervalFunction backoff = IntervalFunction.ofExponentialRandomBackoff(RETRY_INITIAL_WAIT, 2, 0.5);
         RetryConfig config = RetryConfig.<String>custom()
-                .maxAttempts(3)
-                .waitDuration(Duration.ofSeconds(2))
-                // Retry if an IO exception or 500 error
+                .maxAttempts(RETRY_ATTEMPTS)
+                .intervalBiFunction((attempt, result) -> {
+                    long wait = backoff.apply(attempt);
+                    Duration retryAfter = result.isLeft() ? retryAfter(result.getLeft()) : null;
+                    return retryAfter == null ? wait : Math.min(RETRY_MAX_WAIT.toMillis(), Math.max(wait, retryAfter.toMillis()));
+                })
+                // Retry network failures, server errors and throttling, any other status or a rejected response
+                // would only be the same again, and an interrupted or cancelled attempt was meant to stop
                 .retryOnException(e -> {
-                    if (e instanceof RuntimeException) {
-                        return true;
+                    if (ContentRejectedException.isCause(e)) {
+                        return false;
                     }
-                    if (e instanceof HttpException) {
-                        return (e).getMessage().contains("500");
+                    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                        if (cause instanceof HttpStatusException status) {
+                            return status.getStatusCode() >= 500 || status.isThrottling();
+                        }
+                        if (cause instanceof InterruptedException || cause instanceof CancellationException) {
+                            return false;
+                        }
                     }
-                    return false;
+                    return e instanceof RuntimeException;
                 })
                 .build();
 
-        return Retry.of("webBrowserRetry", config);
+        Retry retry = Retry.of("webBrowserRetry", config);
+        retry.getEventPublisher().onRetry(_ -> metrics.retried());
+        return retry;
     }
 
     /**
-     * Creates and starts a daemon thread, this thread monitors the uriQueue
-     * Once a URI is retrieved from the queue, the daemon passes a WebWorker to
-     * the thread pool executor. The thread pool executor handles executing
-     * the tasks in threads.
+     * @param failure A failed attempt, possibly wrapping others
+     * @return How long the server asked the crawler to wait before trying again, or null if it did not say
      */
-    private static void startURIWorker(){
-        final WebBrowser browser = new WebBrowser(client, new BrowserResponseHandler(), getRetryConfig());
+    private static Duration retryAfter(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusException status) {
+                return status.getRetryAfter();
+            }
+        }
+        return null;
+    }
 
-        Thread thread = new Thread(() -> {
-            while(true){
-                URI uri = uriQueue.poll();
+    /**
+     * Limits the browser's concurrent fetches with an adaptive limit overall and per host if --adaptive was
+     * given, rising while fetches succeed at a steady latency and falling on errors, throttling and rising latency.
+     * The limited browser goes inside the retry, so each attempt takes its own permits and is sampled on its own.
+     * @param cmd The parsed CLI args
+     * @param browser The browser to send each attempt with
+     * @param maxInFlight The most concurrent fetches the limit can rise to
+     * @param perHostLimit The most concurrent fetches to one host its limit can rise to
+     * @param metrics The metrics the overall limit is reported in
+     * @return The limited browser, or the browser itself if the limit is not adaptive
+     */
+    private static Browser withAdaptiveLimit(CommandLine cmd, Browser browser, int maxInFlight, int perHostLimit, CrawlMetrics metrics) {
+        if (!cmd.hasOption(ADAPTIVE_CLI_LONG)) {
+            return browser;
+        }
+        logger.info("Adapting concurrency up to {} fetches in flight, {} per host", maxInFlight, perHostLimit);
+        AdaptiveLimit global = new AdaptiveLimit(ADAPTIVE_INITIAL_LIMIT, 1, maxInFlight);
+        metrics.watchConcurrencyLimit(global::limit);
+        return new AdaptiveLimitedBrowser(browser, global,
+                () -> new AdaptiveLimit(ADAPTIVE_INITIAL_HOST_LIMIT, 1, perHostLimit));
+    }
 
-                if(uri != null){
-                    logger.debug("URI: {}, found in queue", uri);
-                    executor.execute(new WebWorker(browser, uri, uriQueue));
-                }
-            }
-        });
+    /**
+     * Wraps the browser in a circuit breaker for each host, so that once most fetches to a host fail its pages are
+     * held back in the frontier, and those already dispatched fail without being sent, until probes find it back
+     * @param cmd The parsed CLI args
+     * @param browser The browser to send the requests with
+     * @param fetchListener Told when a host is given up on, for how long
+     * @return The circuit breaking browser, or the browser itself if breaking was turned off
+     */
+    private static Browser withCircuitBreaker(CommandLine cmd, Browser browser, FetchListener fetchListener) {
+        int failureRate = getIntOption(cmd, BREAKER_FAILURE_RATE_CLI_LONG, DEFAULT_BREAKER_FAILURE_RATE);
+        if (failureRate <= 0) {
+            return browser;
+        }
+        int wait = getIntOption(cmd, BREAKER_WAIT_CLI_LONG, DEFAULT_BREAKER_WAIT);
+        CircuitBreakerConfig config = CircuitBreakerConfig.custom()
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+                .slidingWindowSize(BREAKER_WINDOW)
+                .minimumNumberOfCalls(BREAKER_MIN_CALLS)
+                .failureRateThreshold(Math.min(100, failureRate))
+                .waitDurationInOpenState(Duration.ofSeconds(wait))
+                .permittedNumberOfCallsInHalfOpenState(BREAKER_PROBES)
+                .build();
+        return new CircuitBreakingBrowser(browser, config, fetchListener);
+    }
+
+    /**
+     * Creates the connection pool config for the modes that run far more requests than threads
+     * @param cmd The parsed CLI args
+     * @param maxInFlight The maximum number of concurrent fetches
+     * @param perHostLimit The maximum number of concurrent fetches to one host
+     * @return The connection pool config
+     */
+    private static ConnectionPoolConfig getHighConcurrencyPoolConfig(CommandLine cmd, int maxInFlight, int perHostLimit) {
+        ConnectionPoolConfig defaults = ConnectionPoolConfig.forWorkers(perHostLimit);
+        return getPoolConfig(cmd, new ConnectionPoolConfig(Math.max(maxInFlight, perHostLimit), perHostLimit,
+                defaults.keepAlive(), defaults.idleEviction(), defaults.strictLimits()));
+    }
+
+    /**
+     * Creates and starts the dispatcher, which monitors the uriQueue and passes a WebWorker
+     * for each URI to the executor. The executor handles executing the tasks in threads.
+     * @param browser The browser shared by all workers
+     * @param executor The executor the workers are run on
+     * @param uriQueue The queue of URIs waiting to be crawled
+     * @param maxInFlight The maximum number of workers queued or running at once
+     * @param batchSize The maximum number of URIs dispatched at once
+     * @param workerOptions The options every worker is given
+     * @param metrics The metrics the workers record in, watching the executor if it is a thread pool
+     * @return The running dispatcher
+     */
+    private static URIDispatcher startDispatcher(Browser browser, ExecutorService executor, URIQueue uriQueue,
+                                                 int maxInFlight, int batchSize, WorkerOptions workerOptions,
+                                                 CrawlMetrics metrics){
+        URIDispatcher dispatcher = new URIDispatcher(uriQueue, executor,
+                entry -> new WebWorker(browser, entry, uriQueue, workerOptions),
+                maxInFlight, batchSize);
+        metrics.watchWorkers(dispatcher::inFlight, executor instanceof ThreadPoolExecutor pool ? pool : null);
+        dispatcher.start();
+        return dispatcher;
+    }
+
+    /**
+     * Starts crawling with a fixed pool of platform worker threads, each blocking on its fetch
+     * @param cmd The parsed CLI args
+     * @param uriQueue The queue of URIs waiting to be crawled
+     * @param fetchListener Told the outcome of every fetch
+     * @param metrics The metrics the crawl records in
+     * @param workerOptions The options every worker is given
+     * @param resources Resources to be closed once the crawl completes
+     * @return The running dispatcher
+     */
+    private static URIDispatcher startPlatformThreads(CommandLine cmd, URIQueue uriQueue, FetchListener fetchListener, CrawlMetrics metrics,
+                                                      WorkerOptions workerOptions, Deque<AutoCloseable> resources) {
+        int threads = getIntOption(cmd, THREADS_CLI_LONG, DEFAULT_THREADS);
+        ConnectionPoolConfig poolConfig = getPoolConfig(cmd, ConnectionPoolConfig.forWorkers(threads));
+        logger.info("Using {} worker threads, connection pool {}", threads, poolConfig);
+
+        CloseableHttpClient client = HttpClientFactory.create(poolConfig, metrics);
+        resources.push(client);
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ThreadPoolExecutor.AbortPolicy());
+        resources.push(executor);
+        // Keep one batch waiting on the executor queue so that workers never wait on the dispatcher
+        Browser fetching = withAdaptiveLimit(cmd, new FetchReportingBrowser(
+                new WebBrowser(client, getContentPolicy(cmd)), fetchListener), threads, poolConfig.maxPerRoute(), metrics);
+        Browser browser = withCache(cmd, withCircuitBreaker(cmd, new RetryingBrowser(fetching, getRetryConfig(metrics)),
+                fetchListener), resources);
+        return startDispatcher(browser, executor, uriQueue, threads * 2, threads, workerOptions, metrics);
+    }
+
+    /**
+     * Starts crawling with a virtual thread per worker, concurrency is bounded by the dispatcher and per host
+     * @param cmd The parsed CLI args
+     * @param uriQueue The queue of URIs waiting to be crawled
+     * @param fetchListener Told the outcome of every fetch
+     * @param metrics The metrics the crawl records in
+     * @param workerOptions The options every worker is given
+     * @param resources Resources to be closed once the crawl completes
+     * @return The running dispatcher
+     */
+    private static URIDispatcher startVirtualThreads(CommandLine cmd, URIQueue uriQueue, FetchListener fetchListener, CrawlMetrics metrics,
+                                                     WorkerOptions workerOptions, Deque<AutoCloseable> resources) {
+        int maxInFlight = getIntOption(cmd, MAX_IN_FLIGHT_CLI_LONG, DEFAULT_MAX_IN_FLIGHT);
+        int perHostLimit = getIntOption(cmd, PER_HOST_LIMIT_CLI_LONG, DEFAULT_PER_HOST_LIMIT);
+        ConnectionPoolConfig poolConfig = getHighConcurrencyPoolConfig(cmd, maxInFlight, perHostLimit);
+        logger.info("Using virtual threads, {} max in flight, {} per host, connection pool {}", maxInFlight, perHostLimit, poolConfig);
 
-        thread.setDaemon(true);
-        thread.start();
+        CloseableHttpClient client = HttpClientFactory.create(poolConfig, metrics);
+        resources.push(client);
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        resources.push(executor);
+        Browser fetching = new FetchReportingBrowser(new WebBrowser(client, getContentPolicy(cmd)), fetchListener);
+        Browser limited = cmd.hasOption(ADAPTIVE_CLI_LONG)
+                ? withAdaptiveLimit(cmd, fetching, maxInFlight, perHostLimit, metrics)
+                : new HostLimitedBrowser(fetching, perHostLimit);
+        Browser browser = withCache(cmd, withCircuitBreaker(cmd, new RetryingBrowser(limited, getRetryConfig(metrics)),
+                fetchListener), resources);
+        return startDispatcher(browser, executor, uriQueue, maxInFlight, Math.min(maxInFlight, DISPATCH_BATCH_SIZE), workerOptions, metrics);
+    }
+
+    /**
+     * Starts crawling with the non-blocking async client. Requests are in flight without holding a thread,
+     * pages are parsed on a pool of worker threads once their response arrives.
+     * @param cmd The parsed CLI args
+     * @param uriQueue The queue of URIs waiting to be crawled
+     * @param fetchListener Told the outcome of every fetch
+     * @param metrics The metrics the crawl records in
+     * @param workerOptions The options every worker is given
+     * @param resources Resources to be closed once the crawl completes
+     * @return The running dispatcher
+     */
+    private static URIDispatcher startAsync(CommandLine cmd, URIQueue uriQueue, FetchListener fetchListener, CrawlMetrics metrics,
+                                            WorkerOptions workerOptions, Deque<AutoCloseable> resources) {
+        int threads = getIntOption(cmd, THREADS_CLI_LONG, DEFAULT_THREADS);
+        int maxInFlight = getIntOption(cmd, MAX_IN_FLIGHT_CLI_LONG, DEFAULT_MAX_IN_FLIGHT);
+        int perHostLimit = getIntOption(cmd, PER_HOST_LIMIT_CLI_LONG, DEFAULT_PER_HOST_LIMIT);
+        // Requests over the per route limit wait for a pooled connection without holding a thread
+        ConnectionPoolConfig poolConfig = getHighConcurrencyPoolConfig(cmd, maxInFlight, perHostLimit);
+        logger.info("Using async client, {} max in flight, {} parse threads, connection pool {}", maxInFlight, threads, poolConfig);
+
+        CloseableHttpAsyncClient client = HttpClientFactory.createAsync(poolConfig, metrics);
+        resources.push(client);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        resources.push(scheduler::shutdownNow);
+        ThreadPoolExecutor parseExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads);
+        resources.push(parseExecutor);
+
+        Browser fetching = withAdaptiveLimit(cmd, new FetchReportingBrowser(
+                new AsyncWebBrowser(client, getContentPolicy(cmd)), fetchListener), maxInFlight, perHostLimit, metrics);
+        Browser browser = withCache(cmd, withCircuitBreaker(cmd, new RetryingBrowser(fetching, getRetryConfig(metrics), scheduler),
+                fetchListener), resources);
+        URIDispatcher dispatcher = URIDispatcher.forAsyncWorkers(uriQueue,
+                entry -> new WebWorker(browser, entry, uriQueue, workerOptions)
+                        .runAsync(parseExecutor),
+                maxInFlight, Math.min(maxInFlight, DISPATCH_BATCH_SIZE));
+        metrics.watchWorkers(dispatcher::inFlight, parseExecutor);
+        dispatcher.start();
+        return dispatcher;
+    }
+
+    /**
+     * Starts crawling in separate stages: pages are fetched on the fetch stage, parsed on the parse stage and
+     * their links canonicalized and queued on the link stage. Each stage has its own threads and a bounded
+     * queue, a stage whose queue is full blocks the stage handing it work.
+     * @param cmd The parsed CLI args
+     * @param uriQueue The queue of URIs waiting to be crawled
+     * @param fetchListener Told the outcome of every fetch
+     * @param metrics The metrics the crawl records in, watching the occupancy of each stage
+     * @param workerOptions The options every worker is given
+     * @param resources Resources to be closed once the crawl completes
+     * @return The running dispatcher
+     */
+    private static URIDispatcher startStaged(CommandLine cmd, URIQueue uriQueue, FetchListener fetchListener, CrawlMetrics metrics,
+                                             WorkerOptions workerOptions, Deque<AutoCloseable> resources) {
+        int fetchThreads = getIntOption(cmd, FETCH_THREADS_CLI_LONG, DEFAULT_FETCH_THREADS);
+        int parseThreads = getIntOption(cmd, PARSE_THREADS_CLI_LONG, Runtime.getRuntime().availableProcessors());
+        int linkThreads = getIntOption(cmd, LINK_THREADS_CLI_LONG, DEFAULT_LINK_THREADS);
+        int stageQueue = getIntOption(cmd, STAGE_QUEUE_CLI_LONG, DEFAULT_STAGE_QUEUE);
+        ConnectionPoolConfig poolConfig = getPoolConfig(cmd, ConnectionPoolConfig.forWorkers(fetchThreads));
+        logger.info("Using stages of {} fetch, {} parse and {} link threads, {} queued per stage, connection pool {}",
+                fetchThreads, parseThreads, linkThreads, stageQueue, poolConfig);
+
+        CloseableHttpClient client = HttpClientFactory.create(poolConfig, metrics);
+        resources.push(client);
+        List<PipelineStage> stages = List.of(new PipelineStage("fetch", fetchThreads, stageQueue),
+                new PipelineStage("parse", parseThreads, stageQueue), new PipelineStage("link", linkThreads, stageQueue));
+        for (PipelineStage stage : stages) {
+            resources.push(stage);
+            metrics.watchStage(stage.name(), stage);
+        }
+
+        Browser fetching = withAdaptiveLimit(cmd, new FetchReportingBrowser(
+                new WebBrowser(client, getContentPolicy(cmd)), fetchListener), fetchThreads, poolConfig.maxPerRoute(), metrics);
+        Browser browser = withCache(cmd, withCircuitBreaker(cmd, new RetryingBrowser(fetching, getRetryConfig(metrics)),
+                fetchListener), resources);
+        // Enough pages to fill every stage's threads and queue, past that the stages hold the dispatcher back
+        int maxInFlight = fetchThreads + parseThreads + linkThreads + 3 * stageQueue;
+        URIDispatcher dispatcher = URIDispatcher.forAsyncWorkers(uriQueue,
+                entry -> new WebWorker(browser, entry, uriQueue, workerOptions)
+                        .runStaged(stages.get(0), stages.get(1), stages.get(2)),
+                maxInFlight, Math.min(maxInFlight, DISPATCH_BATCH_SIZE));
+        metrics.watchWorkers(dispatcher::inFlight, stages.get(0));
+        dispatcher.start();
+        return dispatcher;
     }
 
     /**
      * Retrieves the URI given by the user and adds it to the URI Queue
-     * Starts the URI worker then monitors the executor until no more tasks remain
+     * Starts the dispatcher then waits until every URI added to the queue has been crawled
      * @param args CLI args given by the user executing this program
      */
     public static void main(String[] args){
-        LocalDateTime start = LocalDateTime.now();
-        startURIWorker();
-        URI uri = getUri(args);
+        crawl(args);
+    }
 
+    /**
+     * Runs a whole crawl in this JVM, as main does, for harnesses that measure it
+     * @param args The CLI args, as given to main
+     * @return The metrics the crawl recorded, final once the crawl has returned
+     */
+    public static CrawlMetrics crawl(String[] args){
+        CommandLine cmd = parseArgs(args);
+        // Closed in reverse order of creation once the crawl completes, or once it fails, so that no lock or
+        // table file is left held by a crawl that never started
+        Deque<AutoCloseable> resources = new ArrayDeque<>();
+        CrawlMetrics metrics;
         try {
-            uriQueue.add(uri);
-            logger.info("URI added {}", uri);
-        } catch (VisitedURIException e) {
-            throw new WebCrawlException(e);
+            metrics = crawl(cmd, resources);
+        } catch (RuntimeException | Error e) {
+            Exception failure = closeAll(resources);
+            if (failure != null) {
+                e.addSuppressed(failure);
+            }
+            throw e;
         }
+        Exception failure = closeAll(resources);
+        if (failure != null) {
+            throw new WebCrawlException(failure);
+        }
+        return metrics;
+    }
 
-        try {
-            // Give the queue time to populate before we check the executor queue/active count
-            Thread.sleep(2000);
-        } catch (InterruptedException _) {
-            Thread.currentThread().interrupt();
+    /**
+     * Sets up and runs the crawl, waiting until it completes
+     * @param cmd The parsed CLI args
+     * @param resources Resources to be closed once the crawl completes, pushed as they are created
+     * @return The metrics the crawl recorded
+     */
+    private static CrawlMetrics crawl(CommandLine cmd, Deque<AutoCloseable> resources) {
+        LocalDateTime start = LocalDateTime.now();
+        VisitedSet visitedSet = getVisitedSet(cmd);
+        if (visitedSet instanceof Closeable closeable) {
+            resources.push(closeable);
         }
+        boolean resuming = cmd.hasOption(RESUME_CLI_LONG);
+        List<FrontierEntry> recovered = recoverFrontier(cmd, visitedSet);
+        FrontierLog frontierLog = getFrontierLog(cmd, resources);
+        PolitenessScheduler scheduler = getScheduler(cmd, resources);
+        URIQueue uriQueue = getUriQueue(cmd, scheduler, visitedSet, frontierLog);
+        // URIs disallowed by robots.txt are never crawled, so are complete once discarded
+        scheduler.setDiscardListener(uriQueue::markComplete);
+        CrawlMetrics metrics = getMetrics(cmd, scheduler, uriQueue, resources);
+        WorkerOptions workerOptions = getWorkerOptions(cmd, metrics, resources);
 
-        while(!executor.getQueue().isEmpty() || executor.getActiveCount() > 0){
-            logger.debug("Executor: {} active tasks", executor.getActiveCount());
+        URIDispatcher dispatcher;
+        if (cmd.hasOption(ASYNC_CLI_LONG)) {
+            dispatcher = startAsync(cmd, uriQueue, scheduler, metrics, workerOptions, resources);
+        } else if (cmd.hasOption(STAGED_CLI_LONG)) {
+            dispatcher = startStaged(cmd, uriQueue, scheduler, metrics, workerOptions, resources);
+        } else if (cmd.hasOption(VIRTUAL_THREADS_CLI_LONG)) {
+            dispatcher = startVirtualThreads(cmd, uriQueue, scheduler, metrics, workerOptions, resources);
+        } else {
+            dispatcher = startPlatformThreads(cmd, uriQueue, scheduler, metrics, workerOptions, resources);
+        }
+        resources.push(dispatcher);
+        ClusterNode cluster = joinCluster(cmd, uriQueue, resources);
 
+        if (resuming && visitedSet.size() > 0) {
+            // The seed was visited by the logged crawl, which carries on from the URIs it had left
+            uriQueue.restore(recovered);
+        } else {
+            URI uri = getUri(cmd);
             try {
-                Thread.sleep(3000);
-            } catch (InterruptedException _) {
-                Thread.currentThread().interrupt();
+                if (cluster == null || cluster.owns(uri)) {
+                    uriQueue.add(uri);
+                    logger.info("URI added {}", uri);
+                } else {
+                    logger.info("URI {} is crawled by cluster node {}", uri, cluster.ownerOf(uri));
+                }
+            } catch (VisitedURIException e) {
+                throw new WebCrawlException(e);
+            }
+        }
+
+        try {
+            if (cluster != null) {
+                // This node's queue can run empty while others are still finding links for it
+                cluster.start();
+                cluster.awaitTermination();
+            } else if (uriQueue.pending() > 0) {
+                // Nothing is pending when resuming a crawl that had already completed
+                uriQueue.awaitCompletion();
             }
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
         }
 
         LocalDateTime end = LocalDateTime.now();
         logger.info("CRAWl COMPLETE. URL Count {}. Total Time {}", uriQueue.totalVisitedUris(), Duration.between(start, end));
-        executor.shutdown();
-        try {
-            client.close();
-        } catch (IOException e) {
-            throw new WebCrawlException(e);
+        return metrics;
+    }
+
+    /**
+     * Closes every resource in reverse order of creation, even if one fails, so that a failure cannot leave the
+     * frontier log unflushed
+     * @param resources The resources to close, empty once closed
+     * @return The first failure to close, with any later ones suppressed, or null if every resource closed
+     */
+    private static Exception closeAll(Deque<AutoCloseable> resources) {
+        Exception failure = null;
+        while (!resources.isEmpty()) {
+            try {
+                resources.pop().close();
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
         }
+        return failure;
     }
 }
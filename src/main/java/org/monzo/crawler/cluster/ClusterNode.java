@@ -0,0 +1,507 @@
+package org.monzo.crawler.cluster;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monzo.crawler.frontier.FrontierEntry;
+import org.monzo.crawler.net.RemoteFrontier;
+import org.monzo.crawler.net.URIQueue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One process of a crawl partitioned over several. Every URI belongs to one node of the cluster, chosen by a
+ * HashRing that every node builds the same way, and only its owner adds it to a visited set and crawls it, so
+ * no URI is fetched twice across the cluster. Links a node finds that belong to another are forwarded to it
+ * over TCP, one length-prefixed frame per page and owner, and added to the owner's URIQueue as one batch.
+ * <p>
+ * A node's own queue running empty does not end the crawl, as another node may still forward it links. Node 0
+ * detects when the whole cluster is done by probing every node for its pending URIs and the link batches it
+ * has sent and received. Once two probes in a row find nothing pending, every batch sent received, and the
+ * same counts both times, no batch can still be in flight and node 0 tells every node to stop.
+ * <p>
+ * A batch that cannot be sent is logged and dropped. A node that is lost stops the others from completing.
+ */
+public class ClusterNode implements RemoteFrontier, AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(ClusterNode.class);
+    private static final int POINTS_PER_NODE = 128;
+    private static final int MAX_FRAME_BYTES = 64 << 20;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(10);
+    private static final long CONNECT_RETRY_MILLIS = 100;
+    private static final byte LINKS = 1;
+    private static final byte PROBE = 2;
+    private static final byte STATUS = 3;
+    private static final byte STOP = 4;
+    private static final int COORDINATOR = 0;
+
+    private final int index;
+    private final HashRing ring;
+    private final URIQueue queue;
+    private final Duration probeInterval;
+    private final ServerSocketChannel server;
+    private final Peer[] peers;
+    private final AtomicLong sentBatches = new AtomicLong();
+    private final AtomicLong receivedBatches = new AtomicLong();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final BlockingQueue<Status> statuses = new LinkedBlockingQueue<>();
+    private final Set<SocketChannel> inbound = ConcurrentHashMap.newKeySet();
+    private final ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor();
+    private final Thread acceptor;
+    private final Thread coordinator;
+    private volatile boolean closed;
+
+    /**
+     * Creates a node and starts listening on its address. Links forwarded to it are held by the operating
+     * system until the node is started.
+     * @param nodes The address of every node of the cluster, in the same order on every node
+     * @param index This node's position in the list of addresses
+     * @param partitionByHost Whether URIs are partitioned by host rather than by the whole URI
+     * @param queue The queue this node crawls, links forwarded to the node are added to it
+     * @param probeInterval How often node 0 checks whether the crawl has completed
+     * @throws IOException If the node cannot listen on its address
+     */
+    public ClusterNode(List<InetSocketAddress> nodes, int index, boolean partitionByHost, URIQueue queue,
+                       Duration probeInterval) throws IOException {
+        if (index < 0 || index >= nodes.size()) {
+            throw new IllegalArgumentException("Node " + index + " is not one of the " + nodes.size() + " cluster nodes");
+        }
+        this.index = index;
+        this.ring = new HashRing(nodes.stream().map(address -> address.getHostString() + ":" + address.getPort()).toList(),
+                POINTS_PER_NODE, partitionByHost);
+        this.queue = queue;
+        this.probeInterval = probeInterval;
+        this.peers = new Peer[nodes.size()];
+        for (int node = 0; node < nodes.size(); node++) {
+            peers[node] = node == index ? null : new Peer(node, nodes.get(node));
+        }
+        this.server = ServerSocketChannel.open().bind(nodes.get(index));
+        this.acceptor = Thread.ofPlatform().daemon().name("cluster-accept").unstarted(this::accept);
+        this.coordinator = index == COORDINATOR
+                ? Thread.ofPlatform().daemon().name("cluster-coordinator").unstarted(this::coordinate)
+                : null;
+    }
+
+    /**
+     * Starts reading the links and messages sent by the other nodes, and on node 0 starts checking for the end
+     * of the crawl. The node's seed, if it owns it, must already have been added to its queue.
+     */
+    public void start() {
+        acceptor.start();
+        if (coordinator != null) {
+            coordinator.start();
+        }
+    }
+
+    @Override
+    public boolean owns(URI uri) {
+        return ring.ownerOf(uri) == index;
+    }
+
+    /**
+     * @param uri A canonical URI
+     * @return The index of the node that crawls the URI
+     */
+    public int ownerOf(URI uri) {
+        return ring.ownerOf(uri);
+    }
+
+    @Override
+    public void forward(List<URI> uris, FrontierEntry parent) {
+        List<List<URI>> byOwner = new ArrayList<>(peers.length);
+        for (int node = 0; node < peers.length; node++) {
+            byOwner.add(null);
+        }
+        for (URI uri : uris) {
+            int owner = ring.ownerOf(uri);
+            if (byOwner.get(owner) == null) {
+                byOwner.set(owner, new ArrayList<>());
+            }
+            byOwner.get(owner).add(uri);
+        }
+        for (int node = 0; node < peers.length; node++) {
+            List<URI> batch = byOwner.get(node);
+            if (batch == null) {
+                continue;
+            }
+            if (node == index) {
+                throw new IllegalArgumentException("Links owned by this node cannot be forwarded: " + batch);
+            }
+            // Counted once written, so that a batch that could not be sent is never waited for
+            if (peers[node].send(linksFrame(batch, parent))) {
+                sentBatches.incrementAndGet();
+            } else {
+                logger.error("Dropping {} links found on {} owned by cluster node {}", batch.size(), parent.uri(), node);
+            }
+        }
+    }
+
+    /**
+     * Blocks until node 0 has found the whole cluster's crawl complete
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void awaitTermination() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Blocks until node 0 has found the whole cluster's crawl complete, or the timeout passes
+     * @param timeout How long to wait
+     * @param unit The unit of the timeout
+     * @return true if the crawl completed, false if the timeout passed first
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return stopped.await(timeout, unit);
+    }
+
+    /**
+     * @return The number of link batches this node has forwarded to the others
+     */
+    public long sentBatches() {
+        return sentBatches.get();
+    }
+
+    /**
+     * @return The number of link batches this node has received from the others
+     */
+    public long receivedBatches() {
+        return receivedBatches.get();
+    }
+
+    /**
+     * Stops listening and closes the connections to and from the other nodes
+     * @throws IOException If the listening socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (coordinator != null) {
+            coordinator.interrupt();
+        }
+        server.close();
+        for (Peer peer : peers) {
+            if (peer != null) {
+                peer.close();
+            }
+        }
+        for (SocketChannel channel : inbound) {
+            closeQuietly(channel);
+        }
+        readers.shutdownNow();
+    }
+
+    /**
+     * Accepts a connection from each other node, reading its frames on a virtual thread of its own
+     */
+    private void accept() {
+        try {
+            while (!closed) {
+                SocketChannel channel = server.accept();
+                inbound.add(channel);
+                readers.execute(() -> read(channel));
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                logger.error("Cluster node {} stopped accepting connections", index, e);
+            }
+        }
+    }
+
+    /**
+     * Reads and handles frames from one connection until it is closed
+     */
+    private void read(SocketChannel channel) {
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        try (channel) {
+            while (readFully(channel, header.clear())) {
+                int length = header.flip().getInt();
+                if (length < 1 || length > MAX_FRAME_BYTES) {
+                    throw new IOException("Invalid cluster frame length " + length);
+                }
+                ByteBuffer frame = ByteBuffer.allocate(length);
+                if (!readFully(channel, frame)) {
+                    throw new EOFException("Connection closed mid frame");
+                }
+                receive(frame.flip());
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                logger.warn("Lost a connection to cluster node {}: {}", index, e.getMessage());
+            }
+        } finally {
+            inbound.remove(channel);
+        }
+    }
+
+    /**
+     * Handles one frame sent by another node
+     */
+    private void receive(ByteBuffer frame) throws IOException {
+        byte type = frame.get();
+        switch (type) {
+            case LINKS -> {
+                int depth = frame.getInt();
+                URI parent = URI.create(getString(frame));
+                int count = frame.getInt();
+                List<URI> uris = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    uris.add(URI.create(getString(frame)));
+                }
+                queue.addAll(uris, new FrontierEntry(parent, depth, null, 0));
+                // Counted once queued, so that the links are pending before the batch counts as received
+                receivedBatches.incrementAndGet();
+            }
+            case PROBE -> {
+                Status status = status(frame.getInt());
+                if (!peers[COORDINATOR].send(status.frame())) {
+                    logger.error("Unable to answer the cluster coordinator");
+                }
+            }
+            case STATUS -> statuses.add(new Status(frame.getInt(), frame.getInt(), frame.getLong(), frame.getLong(), frame.getLong()));
+            case STOP -> stopped.countDown();
+            default -> throw new IOException("Unknown cluster frame type " + type);
+        }
+    }
+
+    /**
+     * Probes the cluster until it finds the crawl complete, then tells every node to stop
+     */
+    private void coordinate() {
+        Totals previous = null;
+        try {
+            for (int round = 1; !closed; round++) {
+                Thread.sleep(probeInterval);
+                Totals totals = probe(round);
+                if (totals != null && totals.quiescent() && totals.equals(previous)) {
+                    logger.info("Cluster crawl complete, {} link batches exchanged", totals.sent());
+                    ByteBuffer stop = ByteBuffer.allocate(Integer.BYTES + 1).putInt(1).put(STOP).flip();
+                    for (Peer peer : peers) {
+                        if (peer != null) {
+                            peer.send(stop.duplicate());
+                        }
+                    }
+                    stopped.countDown();
+                    return;
+                }
+                previous = totals;
+            }
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Asks every node for its counts and sums them with this node's own
+     * @param round The probe's number, answers to earlier probes are ignored
+     * @return The cluster's counts, or null if a node could not be asked or did not answer in time
+     * @throws InterruptedException If interrupted while waiting for the answers
+     */
+    private Totals probe(int round) throws InterruptedException {
+        ByteBuffer probe = ByteBuffer.allocate(Integer.BYTES * 2 + 1).putInt(1 + Integer.BYTES).put(PROBE).putInt(round).flip();
+        for (Peer peer : peers) {
+            if (peer != null && !peer.send(probe.duplicate())) {
+                return null;
+            }
+        }
+
+        Status own = status(round);
+        long pending = own.pending();
+        long sent = own.sent();
+        long received = own.received();
+        long deadline = System.nanoTime() + PROBE_TIMEOUT.toNanos();
+        for (int answers = 0; answers < peers.length - 1; ) {
+            Status status = statuses.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (status == null) {
+                logger.warn("A cluster node did not answer probe {} within {}", round, PROBE_TIMEOUT);
+                return null;
+            }
+            if (status.round() == round) {
+                answers++;
+                pending += status.pending();
+                sent += status.sent();
+                received += status.received();
+            }
+        }
+        return new Totals(pending, sent, received);
+    }
+
+    /**
+     * Reads this node's counts. Batches are counted received after their links are queued, so reading the
+     * received count before the pending count never misses a batch's links.
+     */
+    private Status status(int round) {
+        long received = receivedBatches.get();
+        long pending = queue.pending();
+        long sent = sentBatches.get();
+        return new Status(index, round, pending, sent, received);
+    }
+
+    private static ByteBuffer linksFrame(List<URI> uris, FrontierEntry parent) {
+        byte[] parentBytes = parent.uri().toString().getBytes(StandardCharsets.UTF_8);
+        byte[][] encoded = new byte[uris.size()][];
+        int length = 1 + Integer.BYTES * 3 + parentBytes.length;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = uris.get(i).toString().getBytes(StandardCharsets.UTF_8);
+            length += Integer.BYTES + encoded[i].length;
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + length).putInt(length).put(LINKS).putInt(parent.depth());
+        frame.putInt(parentBytes.length).put(parentBytes).putInt(encoded.length);
+        for (byte[] uri : encoded) {
+            frame.putInt(uri.length).put(uri);
+        }
+        return frame.flip();
+    }
+
+    private static String getString(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.getInt()];
+        frame.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Fills the buffer from the channel
+     * @return true if the buffer was filled, false if the channel was closed before any of it was read
+     */
+    private static boolean readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Connection closed mid frame");
+            }
+        }
+        return true;
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException _) {
+            // Already closing
+        }
+    }
+
+    /**
+     * One node's answer to a probe
+     */
+    private record Status(int node, int round, long pending, long sent, long received) {
+        ByteBuffer frame() {
+            int length = 1 + Integer.BYTES * 2 + Long.BYTES * 3;
+            return ByteBuffer.allocate(Integer.BYTES + length).putInt(length).put(STATUS)
+                    .putInt(node).putInt(round).putLong(pending).putLong(sent).putLong(received).flip();
+        }
+    }
+
+    /**
+     * The whole cluster's answers to a probe
+     */
+    private record Totals(long pending, long sent, long received) {
+        /**
+         * @return true if nothing is pending and every batch sent had been received
+         */
+        boolean quiescent() {
+            return pending == 0 && sent == received;
+        }
+    }
+
+    /**
+     * The connection frames are sent to another node over, opened on first use. Frames are written whole
+     * under a lock, so that workers forwarding links at once do not interleave them.
+     */
+    private static final class Peer {
+        private final int node;
+        private final InetSocketAddress address;
+        private final ReentrantLock lock = new ReentrantLock();
+        private SocketChannel channel;
+
+        Peer(int node, InetSocketAddress address) {
+            this.node = node;
+            this.address = address;
+        }
+
+        /**
+         * Writes a frame to the node, connecting first if need be
+         * @return true if the frame was written, false if the node could not be reached
+         */
+        boolean send(ByteBuffer frame) {
+            lock.lock();
+            try {
+                if (channel == null) {
+                    channel = connect();
+                }
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+                return true;
+            } catch (IOException e) {
+                logger.warn("Unable to send to cluster node {} at {}: {}", node, address, e.getMessage());
+                if (channel != null) {
+                    closeQuietly(channel);
+                    channel = null;
+                }
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Connects to the node, retrying until it is listening so that nodes can be started in any order
+         */
+        private SocketChannel connect() throws IOException {
+            long deadline = System.nanoTime() + CONNECT_TIMEOUT.toNanos();
+            while (true) {
+                try {
+                    SocketChannel connected = SocketChannel.open(address);
+                    connected.socket().setTcpNoDelay(true);
+                    return connected;
+                } catch (ConnectException e) {
+                    if (System.nanoTime() > deadline) {
+                        throw e;
+                    }
+                }
+                try {
+                    Thread.sleep(CONNECT_RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted connecting to " + address, e);
+                }
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                if (channel != null) {
+                    closeQuietly(channel);
+                    channel = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
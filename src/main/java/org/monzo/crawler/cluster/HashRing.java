@@ -0,0 +1,76 @@
+package org.monzo.crawler.cluster;
+
+import org.monzo.crawler.frontier.UriFingerprint;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A consistent hash ring assigning every URI to one node of a crawl cluster. Each node is placed on the ring
+ * at many points, and a URI belongs to the node at the first point after the URI's own hash. Adding or removing
+ * a node only moves the URIs between it and its neighbours, roughly one in N, rather than reshuffling them all.
+ * <p>
+ * URIs are partitioned either by their whole canonical form, spreading one site across every node, or by their
+ * host, keeping each host on one node so that its rate limit and robots.txt are applied in one place.
+ */
+public class HashRing {
+    private final long[] points;
+    private final int[] owners;
+    private final int nodes;
+    private final boolean byHost;
+
+    /**
+     * Creates a ring over the given nodes. Every node of a cluster must create the same ring.
+     * @param nodeNames A name for each node, such as its address, in the same order on every node
+     * @param pointsPerNode The number of points each node is placed at, more points spread URIs more evenly
+     * @param byHost Whether URIs are partitioned by host rather than by the whole URI
+     */
+    public HashRing(List<String> nodeNames, int pointsPerNode, boolean byHost) {
+        if (nodeNames.isEmpty() || pointsPerNode < 1) {
+            throw new IllegalArgumentException("A hash ring needs at least one node and one point per node");
+        }
+        this.nodes = nodeNames.size();
+        this.byHost = byHost;
+
+        int size = nodes * pointsPerNode;
+        long[] hashes = new long[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            hashes[i] = UriFingerprint.of(nodeNames.get(i / pointsPerNode) + "#" + (i % pointsPerNode));
+            order[i] = i;
+        }
+        // Points are numbered in node order, so points that collide are ordered the same way on every node
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> hashes[i]).thenComparingInt(i -> i));
+        this.points = new long[size];
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = order[i] / pointsPerNode;
+        }
+    }
+
+    /**
+     * @param uri A canonical URI
+     * @return The index of the node the URI belongs to
+     */
+    public int ownerOf(URI uri) {
+        if (nodes == 1) {
+            return 0;
+        }
+        long hash = byHost && uri.getHost() != null ? UriFingerprint.of(uri.getHost()) : UriFingerprint.of(uri);
+        int slot = Arrays.binarySearch(points, hash);
+        if (slot < 0) {
+            slot = -slot - 1;
+        }
+        return owners[slot == points.length ? 0 : slot];
+    }
+
+    /**
+     * @return The number of nodes on the ring
+     */
+    public int size() {
+        return nodes;
+    }
+}
@@ -0,0 +1,30 @@
+package org.monzo.crawler.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a response is not one the crawler reads pages from, because its content type is not HTML or
+ * its body is larger than the crawler allows. The download is abandoned, and as the same response would be
+ * rejected again it is not worth retrying. An IOException so that it can be thrown while the body is read.
+ */
+public class ContentRejectedException extends IOException {
+    /**
+     * @param message Why the response was rejected
+     */
+    public ContentRejectedException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param failure A failure, possibly wrapping others
+     * @return true if the failure was caused by a rejected response
+     */
+    public static boolean isCause(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ContentRejectedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
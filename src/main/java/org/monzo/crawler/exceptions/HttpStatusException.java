@@ -0,0 +1,44 @@
+package org.monzo.crawler.exceptions;
+
+import org.apache.hc.core5.http.HttpException;
+
+import java.time.Duration;
+
+/**
+ * An HttpException thrown when a response has a status code the crawler cannot read a page from.
+ * Carries the status code, and any Retry-After the server sent, so that callers can tell a server
+ * asking the crawler to slow down from one that failed.
+ */
+public class HttpStatusException extends HttpException {
+    private final int statusCode;
+    private final Duration retryAfter;
+
+    /**
+     * @param message The exception message
+     * @param statusCode The response status code
+     * @param retryAfter How long the server asked the crawler to wait, or null if it did not say
+     */
+    public HttpStatusException(String message, int statusCode, Duration retryAfter) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return How long the server asked the crawler to wait, or null if it did not say
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @return true if the server is asking the crawler to slow down, a 429 or 503 response
+     */
+    public boolean isThrottling() {
+        return statusCode == 429 || statusCode == 503;
+    }
+}
@@ -0,0 +1,38 @@
+package org.monzo.crawler.exceptions;
+
+/**
+ * Thrown by a browser when a request failed in a way its retry config retries, and it failed on every attempt.
+ * Its cause is the failure of the last attempt.
+ */
+public class RetriesExhaustedException extends WebBrowserFailure {
+    private final int attempts;
+
+    /**
+     * @param cause The failure of the last attempt
+     * @param attempts The number of attempts made
+     */
+    public RetriesExhaustedException(Throwable cause, int attempts) {
+        super(cause);
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return The number of attempts made
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @param failure A failure, possibly wrapping others
+     * @return The exception if the failure was caused by the retries of a request running out, otherwise null
+     */
+    public static RetriesExhaustedException findCause(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RetriesExhaustedException exhausted) {
+                return exhausted;
+            }
+        }
+        return null;
+    }
+}
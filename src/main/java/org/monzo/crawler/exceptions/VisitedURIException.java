@@ -1,10 +1,30 @@
 package org.monzo.crawler.exceptions;
 
+import java.net.URI;
+
 /**
  * An exception thrown when a URI is visited more than once
  */
 public class VisitedURIException extends Exception {
+    private final URI uri;
+
     public VisitedURIException(String message){
         super(message);
+        this.uri = null;
+    }
+
+    /**
+     * Creates the exception thrown for every already visited link on a page. As it is part of normal
+     * control flow it records no stack trace, and its message is only built if asked for.
+     * @param uri The URI that had already been visited
+     */
+    public VisitedURIException(URI uri){
+        super(null, null, false, false);
+        this.uri = uri;
+    }
+
+    @Override
+    public String getMessage() {
+        return uri == null ? super.getMessage() : "URI: " + uri + " already visited";
     }
 }
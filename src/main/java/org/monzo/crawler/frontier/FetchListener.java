@@ -0,0 +1,30 @@
+package org.monzo.crawler.frontier;
+
+import java.net.URI;
+import java.time.Duration;
+
+/**
+ * Told the outcome of each page fetch, so that the frontier can adapt how fast it hands out a host's URIs
+ */
+public interface FetchListener {
+    /**
+     * Called when a page was fetched successfully
+     * @param uri The page's URI
+     */
+    void fetched(URI uri);
+
+    /**
+     * Called when the server answered 429 Too Many Requests or 503 Service Unavailable
+     * @param uri The page's URI
+     * @param retryAfter How long the server asked the crawler to wait, or null if it did not say
+     */
+    void throttled(URI uri, Duration retryAfter);
+
+    /**
+     * Called when so many requests to the page's host have failed that the crawler has stopped sending it any
+     * for a while, so that the host's pages can wait in the frontier rather than fail
+     * @param uri The page's URI
+     * @param pause How long the host will not be sent requests
+     */
+    void unavailable(URI uri, Duration pause);
+}
@@ -0,0 +1,22 @@
+package org.monzo.crawler.frontier;
+
+import java.net.URI;
+
+/**
+ * A URI waiting in the frontier, with where and how deep in the crawl it was found
+ * @param uri The canonical URI to crawl
+ * @param depth The number of links followed from the seed to reach the URI, 0 for the seed
+ * @param parent The page the URI was found on, or null for the seed
+ * @param score The URI's score from the crawl's UriScorer, lower scores are crawled first
+ */
+public record FrontierEntry(URI uri, int depth, URI parent, int score) {
+
+    /**
+     * Creates the entry for a crawl's starting URI
+     * @param uri The canonical URI to start from
+     * @return An entry at depth 0 with no parent and the best score
+     */
+    public static FrontierEntry seed(URI uri) {
+        return new FrontierEntry(uri, 0, null, 0);
+    }
+}
@@ -0,0 +1,507 @@
+package org.monzo.crawler.frontier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * A write-ahead log of the frontier, so that a crawl can be resumed after the JVM dies. Every URI added to
+ * the frontier is appended as an enqueued record and every URI crawled as a completed record.
+ * <p>
+ * Appending only copies the record into an in-memory buffer. A background thread swaps the buffer out and
+ * writes it to the current log segment every flush interval, calling fsync after each write if asked to, so
+ * a crash loses at most one interval of records. Once a segment passes the segment size a new one is started
+ * and the closed segments are compacted, on a thread of their own, into a snapshot of every fingerprint
+ * visited and every URI still pending. The segments it covers are then deleted.
+ * <p>
+ * recover memory-maps the latest snapshot and replays the segments written after it. URIs that were being
+ * crawled when the JVM died are still pending, so are crawled again when the crawl resumes. As a snapshot is
+ * read through a single mapping it is limited to 2GB, around 250 million visited URIs.
+ */
+public final class FrontierLog implements Closeable {
+    private static final Logger logger = LogManager.getLogger(FrontierLog.class);
+    private static final byte ENQUEUED = 'E';
+    private static final byte COMPLETED = 'C';
+    private static final int SNAPSHOT_MAGIC = 0x464E5331;
+    private static final int SNAPSHOT_HEADER_BYTES = Integer.BYTES + 2 * Long.BYTES;
+    private static final String SEGMENT_PREFIX = "frontier-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+
+    private final Path directory;
+    private final boolean fsync;
+    private final long segmentBytes;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService flusher;
+    private final ExecutorService compactor;
+    private RecordBuffer buffer = new RecordBuffer();
+    private RecordBuffer spare = new RecordBuffer();
+    private FileChannel segment;
+    private long sequence;
+
+    /**
+     * Opens a log in the given directory, appending to a new segment after any already there
+     * @param directory The directory to hold the log segments and snapshots, it is created if it does not exist
+     * @param flushInterval How often appended records are written to the segment
+     * @param fsync Whether each write is forced to the storage device before the next
+     * @param segmentBytes The size past which a new segment is started and the closed ones compacted
+     * @throws IOException If the directory or segment cannot be created
+     */
+    public FrontierLog(Path directory, Duration flushInterval, boolean fsync, long segmentBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.fsync = fsync;
+        this.segmentBytes = segmentBytes;
+        this.sequence = Math.max(latest(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX), latest(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) + 1;
+        this.segment = openSegment(sequence);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("frontier-log-flush").factory());
+        this.compactor = Executors.newSingleThreadExecutor(Thread.ofPlatform().daemon().name("frontier-log-compact").factory());
+        long interval = flushInterval.toNanos();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param directory A state directory
+     * @return true if the directory holds the log of a crawl
+     * @throws IOException If the directory cannot be listed
+     */
+    public static boolean holdsCrawl(Path directory) throws IOException {
+        return latest(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX) >= 0 || latest(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) >= 0;
+    }
+
+    /**
+     * Records a URI added to the frontier
+     * @param entry The frontier entry
+     * @param fingerprint The fingerprint of the entry's URI
+     */
+    public void enqueued(FrontierEntry entry, long fingerprint) {
+        byte[] uri = entry.uri().toString().getBytes(StandardCharsets.UTF_8);
+        byte[] parent = entry.parent() == null ? null : entry.parent().toString().getBytes(StandardCharsets.UTF_8);
+        appendLock.lock();
+        try {
+            writeEnqueued(entry, fingerprint, uri, parent);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Records a batch of URIs added to the frontier, taking the append lock once for the whole batch
+     * @param entries The URIs added
+     * @param fingerprints The fingerprint of each URI, in the same order
+     */
+    public void enqueued(List<FrontierEntry> entries, long[] fingerprints) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        // A batch is normally the links of one page, so the parent is only encoded when it changes
+        byte[][] uris = new byte[entries.size()][];
+        byte[][] parents = new byte[entries.size()][];
+        URI lastParent = null;
+        byte[] lastParentBytes = null;
+        for (int i = 0; i < uris.length; i++) {
+            FrontierEntry entry = entries.get(i);
+            uris[i] = entry.uri().toString().getBytes(StandardCharsets.UTF_8);
+            if (entry.parent() != null && !entry.parent().equals(lastParent)) {
+                lastParent = entry.parent();
+                lastParentBytes = lastParent.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            parents[i] = entry.parent() == null ? null : lastParentBytes;
+        }
+        appendLock.lock();
+        try {
+            for (int i = 0; i < uris.length; i++) {
+                writeEnqueued(entries.get(i), fingerprints[i], uris[i], parents[i]);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void writeEnqueued(FrontierEntry entry, long fingerprint, byte[] uri, byte[] parent) {
+        RecordBuffer out = buffer;
+        out.write(ENQUEUED);
+        out.writeLong(fingerprint);
+        out.writeInt(entry.depth());
+        out.writeInt(entry.score());
+        out.writeField(uri);
+        out.writeField(parent);
+    }
+
+    /**
+     * Records a URI crawled, successfully or not
+     * @param uri The URI
+     */
+    public void completed(URI uri) {
+        long fingerprint = UriFingerprint.of(uri);
+        appendLock.lock();
+        try {
+            buffer.write(COMPLETED);
+            buffer.writeLong(fingerprint);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Writes every record appended so far to the current segment, starting a new segment and compacting the
+     * old ones if it has passed the segment size
+     * @throws IOException If the segment cannot be written
+     */
+    public void flush() throws IOException {
+        flushLock.lock();
+        try {
+            RecordBuffer full;
+            appendLock.lock();
+            try {
+                full = buffer;
+                buffer = spare;
+            } finally {
+                appendLock.unlock();
+            }
+
+            try {
+                ByteBuffer bytes = full.view();
+                while (bytes.hasRemaining()) {
+                    segment.write(bytes);
+                }
+            } finally {
+                full.reset();
+                spare = full;
+            }
+            if (fsync) {
+                segment.force(false);
+            }
+            if (segment.position() >= segmentBytes) {
+                roll();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.error("Unable to write the frontier log in {}: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a new segment and compacts the segments before it in the background
+     */
+    private void roll() throws IOException {
+        segment.force(false);
+        segment.close();
+        long closed = sequence++;
+        segment = openSegment(sequence);
+        compactor.execute(() -> {
+            try {
+                compact(directory, closed);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Unable to compact the frontier log in {}: {}", directory, e.getMessage());
+            }
+        });
+    }
+
+    private FileChannel openSegment(long sequence) throws IOException {
+        return FileChannel.open(directory.resolve(name(SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Writes any remaining records, forces them to storage and waits for a running compaction to finish.
+     * The current segment is deleted if nothing was written to it.
+     * @throws IOException If the segment cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        flusher.shutdownNow();
+        try {
+            flush();
+            segment.force(false);
+            boolean empty = segment.size() == 0;
+            segment.close();
+            if (empty) {
+                Files.delete(directory.resolve(name(SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX)));
+            }
+        } finally {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException _) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Rebuilds a crawl's state from the log in the given directory. Every fingerprint visited is added to the
+     * visited set, and the URIs that were not completed are returned in the order they were added.
+     * @param directory The directory holding the log
+     * @param visitedUris The set to add every visited fingerprint to
+     * @return The URIs still to be crawled
+     * @throws IOException If the log cannot be read
+     */
+    public static List<FrontierEntry> recover(Path directory, VisitedSet visitedUris) throws IOException {
+        Map<Long, ByteBuffer> pending = new LinkedHashMap<>();
+        replay(directory, Long.MAX_VALUE, visitedUris::add, pending);
+
+        List<FrontierEntry> entries = new ArrayList<>(pending.size());
+        for (ByteBuffer record : pending.values()) {
+            entries.add(decode(record));
+        }
+        return entries;
+    }
+
+    /**
+     * Replays the latest snapshot and the segments after it, up to and including the given sequence
+     * @return The sequence of the snapshot replayed, or -1 if there was none
+     */
+    private static long replay(Path directory, long upTo, LongConsumer fingerprints, Map<Long, ByteBuffer> pending) throws IOException {
+        TreeMap<Long, Path> snapshots = list(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        Map.Entry<Long, Path> snapshot = snapshots.floorEntry(upTo);
+        long from = -1;
+        if (snapshot != null) {
+            from = snapshot.getKey();
+            ByteBuffer mapped = map(snapshot.getValue());
+            if (mapped.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a frontier snapshot: " + snapshot.getValue());
+            }
+            long fingerprintCount = mapped.getLong();
+            mapped.getLong();
+            LongBuffer visited = mapped.asLongBuffer();
+            for (long i = 0; i < fingerprintCount; i++) {
+                fingerprints.accept(visited.get());
+            }
+            mapped.position(mapped.position() + (int) (fingerprintCount * Long.BYTES));
+            // The pending URIs' fingerprints are already among the visited ones
+            replayRecords(mapped, _ -> { }, pending);
+        }
+
+        for (Map.Entry<Long, Path> segment : list(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX).subMap(from, false, upTo, true).entrySet()) {
+            replayRecords(map(segment.getValue()), fingerprints, pending);
+        }
+        return from;
+    }
+
+    /**
+     * Replays the records in the buffer. A record cut short by a crash ends the replay of its segment.
+     */
+    private static void replayRecords(ByteBuffer records, LongConsumer fingerprints, Map<Long, ByteBuffer> pending) throws IOException {
+        try {
+            while (records.hasRemaining()) {
+                int start = records.position();
+                byte type = records.get();
+                long fingerprint = records.getLong();
+                if (type == COMPLETED) {
+                    pending.remove(fingerprint);
+                } else if (type == ENQUEUED) {
+                    records.position(records.position() + 2 * Integer.BYTES);
+                    skipBytes(records);
+                    skipBytes(records);
+                    fingerprints.accept(fingerprint);
+                    pending.put(fingerprint, records.slice(start, records.position() - start));
+                } else {
+                    throw new IOException("Unknown frontier log record type " + type);
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException _) {
+            logger.warn("Ignoring a frontier log record cut short");
+        }
+    }
+
+    private static void skipBytes(ByteBuffer records) {
+        int length = records.getInt();
+        if (length > 0) {
+            records.position(records.position() + length);
+        }
+    }
+
+    private static FrontierEntry decode(ByteBuffer record) {
+        ByteBuffer in = record.duplicate();
+        in.position(1 + Long.BYTES);
+        int depth = in.getInt();
+        int score = in.getInt();
+        String uri = readString(in);
+        String parent = readString(in);
+        return new FrontierEntry(URI.create(uri), depth, parent == null ? null : URI.create(parent), score);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compacts the latest snapshot and the segments up to the given sequence into a new snapshot, then deletes them
+     */
+    static void compact(Path directory, long upTo) throws IOException {
+        Path temporary = directory.resolve(name(SNAPSHOT_PREFIX, upTo, ".tmp"));
+        Map<Long, ByteBuffer> pending = new LinkedHashMap<>();
+        long[] fingerprintCount = new long[1];
+        long previous;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+            // The header is written last, once the counts are known
+            out.write(new byte[SNAPSHOT_HEADER_BYTES]);
+            try {
+                previous = replay(directory, upTo, fingerprint -> {
+                    try {
+                        out.writeLong(fingerprint);
+                        fingerprintCount[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, pending);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            for (ByteBuffer record : pending.values()) {
+                byte[] bytes = new byte[record.remaining()];
+                record.duplicate().get(bytes);
+                out.write(bytes);
+            }
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES)
+                    .putInt(SNAPSHOT_MAGIC).putLong(fingerprintCount[0]).putLong(pending.size()).flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(name(SNAPSHOT_PREFIX, upTo, SNAPSHOT_SUFFIX)), StandardCopyOption.ATOMIC_MOVE);
+
+        for (Path snapshot : list(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).headMap(upTo, false).values()) {
+            Files.deleteIfExists(snapshot);
+        }
+        for (Path segment : list(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX).headMap(upTo, true).values()) {
+            Files.deleteIfExists(segment);
+        }
+        logger.info("Compacted the frontier log into a snapshot of {} visited and {} pending URIs, after snapshot {}",
+                fingerprintCount[0], pending.size(), previous);
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static String name(String prefix, long sequence, String suffix) {
+        return prefix + String.format("%020d", sequence) + suffix;
+    }
+
+    private static long latest(Path directory, String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = list(directory, prefix, suffix);
+        return files.isEmpty() ? -1 : files.lastKey();
+    }
+
+    private static TreeMap<Long, Path> list(Path directory, String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                    files.put(Long.parseLong(name, prefix.length(), name.length() - suffix.length(), 10), path);
+                }
+            });
+        }
+        return files;
+    }
+
+    /**
+     * A growable byte buffer records are appended to. Unlike ByteArrayOutputStream it takes no lock of its
+     * own, as appends already hold the log's lock, and writes each number in one store.
+     */
+    private static final class RecordBuffer {
+        private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+        private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+        private byte[] bytes = new byte[64 * 1024];
+        private int size;
+
+        void write(byte value) {
+            ensureCapacity(1);
+            bytes[size++] = value;
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(Integer.BYTES);
+            INT.set(bytes, size, value);
+            size += Integer.BYTES;
+        }
+
+        void writeLong(long value) {
+            ensureCapacity(Long.BYTES);
+            LONG.set(bytes, size, value);
+            size += Long.BYTES;
+        }
+
+        void writeField(byte[] field) {
+            if (field == null) {
+                writeInt(-1);
+                return;
+            }
+            writeInt(field.length);
+            ensureCapacity(field.length);
+            System.arraycopy(field, 0, bytes, size, field.length);
+            size += field.length;
+        }
+
+        private void ensureCapacity(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+        }
+
+        ByteBuffer view() {
+            return ByteBuffer.wrap(bytes, 0, size);
+        }
+
+        void reset() {
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package org.monzo.crawler.frontier;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A VisitedSet that keeps its fingerprints off the heap, in an open addressing table memory-mapped
+ * from a file. The heap cost is a handful of buffer objects however many URIs have been seen, the
+ * table itself is paged in and out by the operating system.
+ * Adds are lock-free compare-and-set operations on the mapped slots. When the table passes its load
+ * factor it is rehashed into a new mapping twice the size, adds wait on a read/write lock for the
+ * duration of the rehash only.
+ * The directory is locked while the set is open, so that two crawls cannot share it. Table files left in it by a
+ * crawl that never closed its set, such as one that was killed, are deleted when the set is opened.
+ */
+public class MappedVisitedSet implements VisitedSet, Closeable {
+    private static final VarHandle SLOT = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int SLOT_BYTES = Long.BYTES;
+    // A single mapping is limited to 2GB, tables larger than this are split into 1GB segments
+    private static final int SEGMENT_SHIFT = 27;
+    private static final long SEGMENT_SLOTS = 1L << SEGMENT_SHIFT;
+    private static final double LOAD_FACTOR = 0.7;
+
+    private static final String TABLE_GLOB = "visited-*.fp";
+
+    private final Path directory;
+    private final FileChannel lockChannel;
+    private final ReadWriteLock resizeLock = new ReentrantReadWriteLock();
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicBoolean containsZero = new AtomicBoolean();
+    private volatile Table table;
+    private int generation;
+
+    /**
+     * Creates a set whose table files are written to the given directory
+     * @param directory The directory to hold the mapped table, it is created if it does not exist
+     * @param initialCapacity The number of fingerprints the table should hold before its first rehash
+     * @throws IOException If the directory or table file cannot be created, or another set has the directory open
+     */
+    public MappedVisitedSet(Path directory, long initialCapacity) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve("visited.lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        try {
+            if (!tryLock(lockChannel)) {
+                throw new IOException(directory + " is in use by another crawl");
+            }
+            deleteStaleTables();
+            long slots = Long.highestOneBit(Math.max(16, (long) (initialCapacity / LOAD_FACTOR)) - 1) << 1;
+            this.table = createTable(slots);
+        } catch (IOException | RuntimeException e) {
+            // Closing the channel releases the lock if it was taken
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean add(long fingerprint) {
+        // Zero marks an empty slot, so it is tracked separately
+        if (fingerprint == 0) {
+            boolean added = containsZero.compareAndSet(false, true);
+            if (added) {
+                size.incrementAndGet();
+            }
+            return added;
+        }
+
+        Table current;
+        resizeLock.readLock().lock();
+        try {
+            current = table;
+            if (!current.insert(fingerprint)) {
+                return false;
+            }
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+
+        if (size.incrementAndGet() > current.threshold) {
+            grow(current);
+        }
+        return true;
+    }
+
+    @Override
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * @return The number of slots in the current table, exposed for monitoring the on-disk size
+     */
+    public long capacity() {
+        return table.slots;
+    }
+
+    /**
+     * Rehashes every fingerprint into a table twice the size of the full one
+     * @param full The table that passed its load factor
+     */
+    private void grow(Table full) {
+        resizeLock.writeLock().lock();
+        try {
+            // Another thread may have already grown the table
+            if (table != full) {
+                return;
+            }
+            Table larger = createTable(full.slots * 2);
+            for (long slot = 0; slot < full.slots; slot++) {
+                long fingerprint = full.get(slot);
+                if (fingerprint != 0) {
+                    larger.insert(fingerprint);
+                }
+            }
+            table = larger;
+            Files.deleteIfExists(full.file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Whether the lock was taken, false if another process or another set in this one holds it
+     */
+    private static boolean tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock() != null;
+        } catch (OverlappingFileLockException _) {
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the table files of a set that was never closed, the directory being locked none can be in use
+     */
+    private void deleteStaleTables() throws IOException {
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, TABLE_GLOB)) {
+            for (Path file : stale) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private Table createTable(long slots) throws IOException {
+        Path file = directory.resolve("visited-" + (generation++) + ".fp");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int segmentCount = (int) Math.max(1, slots / SEGMENT_SLOTS);
+            MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+            long segmentBytes = Math.min(slots, SEGMENT_SLOTS) * SLOT_BYTES;
+            for (int i = 0; i < segmentCount; i++) {
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * segmentBytes, segmentBytes);
+            }
+            return new Table(file, segments, slots);
+        }
+    }
+
+    /**
+     * Deletes the table file and unlocks the directory. The mapping itself is released once the buffers are
+     * garbage collected.
+     * @throws IOException If the file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        resizeLock.writeLock().lock();
+        try (lockChannel) {
+            Files.deleteIfExists(table.file);
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A linear probing table of fingerprints spread across one or more mapped segments
+     */
+    private static final class Table {
+        private final Path file;
+        private final MappedByteBuffer[] segments;
+        private final long slots;
+        private final long mask;
+        private final long threshold;
+
+        Table(Path file, MappedByteBuffer[] segments, long slots) {
+            this.file = file;
+            this.segments = segments;
+            this.slots = slots;
+            this.mask = slots - 1;
+            this.threshold = (long) (slots * LOAD_FACTOR);
+        }
+
+        long get(long slot) {
+            return (long) SLOT.getVolatile(segments[(int) (slot >>> SEGMENT_SHIFT)], offset(slot));
+        }
+
+        boolean insert(long fingerprint) {
+            long slot = fingerprint & mask;
+            while (true) {
+                MappedByteBuffer segment = segments[(int) (slot >>> SEGMENT_SHIFT)];
+                int offset = offset(slot);
+                long current = (long) SLOT.getVolatile(segment, offset);
+                if (current == 0) {
+                    if (SLOT.compareAndSet(segment, offset, 0L, fingerprint)) {
+                        return true;
+                    }
+                    // Lost the race for this slot, re-read it as it may now hold the same fingerprint
+                    continue;
+                }
+                if (current == fingerprint) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private static int offset(long slot) {
+            return (int) (slot & (SEGMENT_SLOTS - 1)) * SLOT_BYTES;
+        }
+    }
+}
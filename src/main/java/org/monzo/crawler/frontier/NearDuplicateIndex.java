@@ -0,0 +1,86 @@
+package org.monzo.crawler.frontier;
+
+import java.util.Arrays;
+
+/**
+ * Records the SimHash fingerprints of the pages crawled, finding whether a page is a near-duplicate of one already
+ * seen: whether a recorded fingerprint is within a small Hamming distance of its own.
+ * <p>
+ * The 64 bits are split into four blocks of sixteen. Two fingerprints at most three bits apart must agree exactly
+ * in at least one block, so each block indexes the fingerprints by its value, and only fingerprints sharing a
+ * block with the one looked up are compared. The index is held in primitive arrays: a chain head for each value of
+ * each block, a fixed 1 MiB, and per fingerprint the fingerprint and one chain link per block, 24 bytes.
+ */
+public class NearDuplicateIndex {
+    /**
+     * The greatest distance the index can search within, one less than its number of blocks
+     */
+    public static final int MAX_DISTANCE = 3;
+    private static final int BLOCKS = MAX_DISTANCE + 1;
+    private static final int BLOCK_BITS = Long.SIZE / BLOCKS;
+    private static final int BLOCK_MASK = (1 << BLOCK_BITS) - 1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int maxDistance;
+    // One more than the index of the newest fingerprint with each block value, 0 for none
+    private final int[][] heads = new int[BLOCKS][1 << BLOCK_BITS];
+    private long[] fingerprints = new long[INITIAL_CAPACITY];
+    // One more than the index of the next fingerprint in the same chain, BLOCKS links per fingerprint
+    private int[] next = new int[INITIAL_CAPACITY * BLOCKS];
+    private int size;
+
+    public NearDuplicateIndex() {
+        this(MAX_DISTANCE);
+    }
+
+    /**
+     * @param maxDistance The most bits a fingerprint can differ from a recorded one in and be a near-duplicate of it,
+     *                    from 0 for exact duplicates only to MAX_DISTANCE
+     */
+    public NearDuplicateIndex(int maxDistance) {
+        if (maxDistance < 0 || maxDistance > MAX_DISTANCE) {
+            throw new IllegalArgumentException("The distance must be between 0 and " + MAX_DISTANCE);
+        }
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     * Records the fingerprint unless it is a near-duplicate of one already recorded, as one atomic step so that of
+     * two near-duplicate pages added at once exactly one is added
+     * @param fingerprint The SimHash of a page
+     * @return true if the fingerprint was added, false if a recorded fingerprint is within the distance of it
+     */
+    public synchronized boolean add(long fingerprint) {
+        for (int block = 0; block < BLOCKS; block++) {
+            for (int entry = heads[block][blockValue(fingerprint, block)]; entry != 0; entry = next[(entry - 1) * BLOCKS + block]) {
+                if (SimHash.distance(fingerprints[entry - 1], fingerprint) <= maxDistance) {
+                    return false;
+                }
+            }
+        }
+
+        if (size == fingerprints.length) {
+            fingerprints = Arrays.copyOf(fingerprints, size * 2);
+            next = Arrays.copyOf(next, size * 2 * BLOCKS);
+        }
+        fingerprints[size] = fingerprint;
+        for (int block = 0; block < BLOCKS; block++) {
+            int value = blockValue(fingerprint, block);
+            next[size * BLOCKS + block] = heads[block][value];
+            heads[block][value] = size + 1;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * @return The number of fingerprints recorded
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private static int blockValue(long fingerprint, int block) {
+        return (int) (fingerprint >>> (block * BLOCK_BITS)) & BLOCK_MASK;
+    }
+}
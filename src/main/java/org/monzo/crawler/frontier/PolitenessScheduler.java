@@ -0,0 +1,643 @@
+package org.monzo.crawler.frontier;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * A frontier queue that keeps a queue of URIs per host and only hands out a host's next URI once the
+ * host's token bucket allows another request. Hosts are kept in order of when they may next be fetched,
+ * so polling returns the URI of a host whose delay has expired, and waits only until the next one does. Each
+ * host's URIs are handed out lowest score first, in the order they were offered when scores are equal.
+ * <p>
+ * Hosts are spread over stripes by the hash of their name, each stripe with its own lock and its own queue of
+ * hosts ordered by when they are ready, so that offers and polls for hosts in different stripes do not contend.
+ * Polls scan the stripes from a rotating start, skipping without locking any stripe whose first host is not yet
+ * ready, so hosts are interleaved by readiness within a stripe and round robin across stripes.
+ * <p>
+ * A host's URIs are held back until its robots.txt has been read. Its Crawl-delay, if any, lowers the
+ * host's rate, and URIs its rules disallow are discarded when they reach the head of the host's queue.
+ * A host answering 429 or 503 has its rate halved, and is paused for any Retry-After it sent. Each
+ * successful fetch then raises the rate back towards its limit by a tenth.
+ * <p>
+ * Implements BlockingQueue so it can back a URIQueue. Offers always succeed, poll and drainTo only
+ * return URIs whose host is ready, and peek and iteration see URIs whether or not their host is ready.
+ */
+public class PolitenessScheduler extends AbstractQueue<FrontierEntry> implements BlockingQueue<FrontierEntry>, FetchListener {
+    // A throttled host is never slowed below one request a minute
+    private static final double MIN_RATE = 1.0 / 60;
+    private static final double RECOVERY_FRACTION = 0.1;
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+    private static final int DEFAULT_STRIPES = 16;
+
+    private final RobotsCache robots;
+    private final double hostRate;
+    private final int hostBurst;
+    private final LongSupplier clock;
+    private final Stripe[] stripes;
+    // The stripe the next poll starts its scan at, so no stripe is always scanned first
+    private final AtomicInteger cursor = new AtomicInteger();
+    // Timed polls wait here for a host to become ready. A poller reads signals before scanning the stripes
+    // and only waits if it has not changed since, so a host scheduled during its scan is never missed.
+    private final ReentrantLock waitLock = new ReentrantLock();
+    private final Condition hostReady = waitLock.newCondition();
+    private final AtomicLong signals = new AtomicLong();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private volatile Consumer<URI> discardListener = _ -> { };
+
+    /**
+     * Creates a scheduler
+     * @param robots The cache of robots.txt rules, or null to crawl without reading them
+     * @param hostRate The most requests per second sent to any one host
+     * @param hostBurst The most requests sent to a host at once before its rate applies
+     */
+    public PolitenessScheduler(RobotsCache robots, double hostRate, int hostBurst) {
+        this(robots, hostRate, hostBurst, System::nanoTime);
+    }
+
+    /**
+     * Creates a scheduler reading the time from the given clock
+     * @param robots The cache of robots.txt rules, or null to crawl without reading them
+     * @param hostRate The most requests per second sent to any one host
+     * @param hostBurst The most requests sent to a host at once before its rate applies
+     * @param clock Returns the current time in nanoseconds
+     */
+    public PolitenessScheduler(RobotsCache robots, double hostRate, int hostBurst, LongSupplier clock) {
+        this(robots, hostRate, hostBurst, clock, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a scheduler reading the time from the given clock, with its hosts spread over the given stripes
+     * @param robots The cache of robots.txt rules, or null to crawl without reading them
+     * @param hostRate The most requests per second sent to any one host
+     * @param hostBurst The most requests sent to a host at once before its rate applies
+     * @param clock Returns the current time in nanoseconds
+     * @param stripes The number of independently locked stripes the hosts are spread over
+     */
+    public PolitenessScheduler(RobotsCache robots, double hostRate, int hostBurst, LongSupplier clock, int stripes) {
+        if (hostRate <= 0 || hostBurst < 1) {
+            throw new IllegalArgumentException("Host rate must be positive and burst at least 1");
+        }
+        if (stripes < 1) {
+            throw new IllegalArgumentException("There must be at least one stripe");
+        }
+        this.robots = robots;
+        this.hostRate = hostRate;
+        this.hostBurst = hostBurst;
+        this.clock = clock;
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Sets the listener told of each URI discarded because robots.txt disallows it. As the URI is never
+     * handed out, the listener must finish its crawl, as URIQueue.markComplete does.
+     * @param listener Told of each discarded URI
+     */
+    public void setDiscardListener(Consumer<URI> listener) {
+        this.discardListener = listener;
+    }
+
+    @Override
+    public boolean offer(FrontierEntry entry) {
+        String key = hostKey(entry.uri());
+        Stripe stripe = stripeOf(key);
+        Host newHost;
+        stripe.lock();
+        try {
+            newHost = stripe.enqueue(key, entry, clock.getAsLong());
+        } finally {
+            stripe.unlock();
+        }
+
+        if (newHost != null) {
+            loadRules(newHost, entry.uri());
+        }
+        return true;
+    }
+
+    /**
+     * Offers every entry while taking each stripe's lock once, rather than once per entry as AbstractQueue would
+     * @param entries The entries to add
+     * @return true if any entry was added
+     */
+    @Override
+    public boolean addAll(Collection<? extends FrontierEntry> entries) {
+        // The entries of a page are mostly of one host, so are grouped by stripe in offer order
+        List<List<FrontierEntry>> byStripe = new ArrayList<>(stripes.length);
+        for (int i = 0; i < stripes.length; i++) {
+            byStripe.add(null);
+        }
+        for (FrontierEntry entry : entries) {
+            int index = stripeIndex(hostKey(entry.uri()));
+            if (byStripe.get(index) == null) {
+                byStripe.set(index, new ArrayList<>());
+            }
+            byStripe.get(index).add(entry);
+        }
+
+        List<FrontierEntry> firstOfHost = new ArrayList<>(0);
+        List<Host> newHosts = new ArrayList<>(0);
+        for (int i = 0; i < stripes.length; i++) {
+            List<FrontierEntry> batch = byStripe.get(i);
+            if (batch == null) {
+                continue;
+            }
+            Stripe stripe = stripes[i];
+            stripe.lock();
+            try {
+                long now = clock.getAsLong();
+                for (FrontierEntry entry : batch) {
+                    Host newHost = stripe.enqueue(hostKey(entry.uri()), entry, now);
+                    if (newHost != null) {
+                        newHosts.add(newHost);
+                        firstOfHost.add(entry);
+                    }
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+
+        for (int i = 0; i < newHosts.size(); i++) {
+            loadRules(newHosts.get(i), firstOfHost.get(i).uri());
+        }
+        return !entries.isEmpty();
+    }
+
+    private void loadRules(Host host, URI uri) {
+        robots.rules(uri).thenAccept(rules -> rulesLoaded(host, rules));
+    }
+
+    /**
+     * Applies a host's robots.txt rules and releases its URIs
+     */
+    private void rulesLoaded(Host host, RobotsRules rules) {
+        Stripe stripe = host.stripe;
+        stripe.lock();
+        try {
+            long now = clock.getAsLong();
+            host.rules = rules;
+            if (!rules.crawlDelay().isZero()) {
+                // A crawl delay is a gap between every request, so it allows no burst
+                host.maxRate = Math.min(hostRate, NANOS_PER_SECOND / rules.crawlDelay().toNanos());
+                host.bucket = new TokenBucket(host.maxRate, 1, now);
+            }
+            stripe.schedule(host, now);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public void fetched(URI uri) {
+        String key = hostKey(uri);
+        Stripe stripe = stripeOf(key);
+        stripe.lock();
+        try {
+            Host host = stripe.hosts.get(key);
+            if (host != null && host.bucket.rate() < host.maxRate) {
+                long now = clock.getAsLong();
+                host.bucket.setRate(Math.min(host.maxRate, host.bucket.rate() + host.maxRate * RECOVERY_FRACTION), now);
+                stripe.reschedule(host, now);
+            }
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public void throttled(URI uri, Duration retryAfter) {
+        String key = hostKey(uri);
+        Stripe stripe = stripeOf(key);
+        stripe.lock();
+        try {
+            Host host = stripe.hosts.get(key);
+            if (host != null) {
+                long now = clock.getAsLong();
+                double rate = Math.max(MIN_RATE, host.bucket.rate() / 2);
+                host.bucket.setRate(rate, now);
+                long pause = retryAfter == null ? (long) (NANOS_PER_SECOND / rate) : retryAfter.toNanos();
+                host.pausedUntil = Math.max(host.pausedUntil, now + pause);
+                stripe.reschedule(host, now);
+            }
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Pauses the host for as long as it is unavailable, without slowing it once it is back
+     */
+    @Override
+    public void unavailable(URI uri, Duration pause) {
+        String key = hostKey(uri);
+        Stripe stripe = stripeOf(key);
+        stripe.lock();
+        try {
+            Host host = stripe.hosts.get(key);
+            if (host != null) {
+                long now = clock.getAsLong();
+                host.pausedUntil = Math.max(host.pausedUntil, now + pause.toNanos());
+                stripe.reschedule(host, now);
+            }
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public FrontierEntry poll() {
+        List<URI> discarded = new ArrayList<>(0);
+        try {
+            return pollReady(clock.getAsLong(), discarded);
+        } finally {
+            discard(discarded);
+        }
+    }
+
+    @Override
+    public FrontierEntry poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        List<URI> discarded = new ArrayList<>(0);
+        try {
+            while (true) {
+                long seen = signals.get();
+                long now = clock.getAsLong();
+                FrontierEntry entry = pollReady(now, discarded);
+                if (entry != null || remaining <= 0) {
+                    return entry;
+                }
+                long next = nextReadyAt();
+                long wait = next == Long.MAX_VALUE ? remaining : Math.min(remaining, next - now);
+                waiters.incrementAndGet();
+                waitLock.lockInterruptibly();
+                try {
+                    if (signals.get() == seen) {
+                        remaining -= wait - hostReady.awaitNanos(wait);
+                    }
+                } finally {
+                    waitLock.unlock();
+                    waiters.decrementAndGet();
+                }
+            }
+        } finally {
+            discard(discarded);
+        }
+    }
+
+    @Override
+    public FrontierEntry take() throws InterruptedException {
+        FrontierEntry entry;
+        do {
+            entry = poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } while (entry == null);
+        return entry;
+    }
+
+    @Override
+    public int drainTo(Collection<? super FrontierEntry> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super FrontierEntry> c, int maxElements) {
+        List<URI> discarded = new ArrayList<>(0);
+        int drained = 0;
+        try {
+            long now = clock.getAsLong();
+            int first = nextCursor();
+            for (int i = 0; i < stripes.length && drained < maxElements; i++) {
+                Stripe stripe = stripes[(first + i) % stripes.length];
+                if (stripe.nextReadyAt > now) {
+                    continue;
+                }
+                stripe.lock();
+                try {
+                    FrontierEntry entry;
+                    while (drained < maxElements && (entry = stripe.pollReady(now, discarded)) != null) {
+                        c.add(entry);
+                        drained++;
+                    }
+                } finally {
+                    stripe.unlock();
+                }
+            }
+            return drained;
+        } finally {
+            discard(discarded);
+        }
+    }
+
+    /**
+     * Takes the next URI of a ready host from the first stripe, from the cursor, that has one.
+     * Disallowed URIs met on the way are added to discarded.
+     */
+    private FrontierEntry pollReady(long now, List<URI> discarded) {
+        int first = nextCursor();
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe stripe = stripes[(first + i) % stripes.length];
+            if (stripe.nextReadyAt > now) {
+                continue;
+            }
+            stripe.lock();
+            try {
+                FrontierEntry entry = stripe.pollReady(now, discarded);
+                if (entry != null) {
+                    return entry;
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return When the first host of any stripe may next be fetched, Long.MAX_VALUE if none is scheduled
+     */
+    private long nextReadyAt() {
+        long next = Long.MAX_VALUE;
+        for (Stripe stripe : stripes) {
+            next = Math.min(next, stripe.nextReadyAt);
+        }
+        return next;
+    }
+
+    private int nextCursor() {
+        return Math.floorMod(cursor.getAndIncrement(), stripes.length);
+    }
+
+    /**
+     * Wakes any timed poll waiting on a later host, a host has become the first of its stripe to be ready
+     */
+    private void signalHostReady() {
+        signals.incrementAndGet();
+        if (waiters.get() > 0) {
+            waitLock.lock();
+            try {
+                hostReady.signalAll();
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    private void discard(List<URI> discarded) {
+        for (URI uri : discarded) {
+            discardListener.accept(uri);
+        }
+    }
+
+    private Stripe stripeOf(String key) {
+        return stripes[stripeIndex(key)];
+    }
+
+    private int stripeIndex(String key) {
+        int hash = key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), stripes.length);
+    }
+
+    private static String hostKey(URI uri) {
+        return String.valueOf(uri.getRawAuthority()).toLowerCase();
+    }
+
+    @Override
+    public FrontierEntry peek() {
+        FrontierEntry first = null;
+        long firstReadyAt = Long.MAX_VALUE;
+        for (Stripe stripe : stripes) {
+            stripe.lock();
+            try {
+                Host host = stripe.ready.peek();
+                if (host != null && (first == null || host.readyAt < firstReadyAt)) {
+                    first = host.uris.peek();
+                    firstReadyAt = host.readyAt;
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+        return first;
+    }
+
+    @Override
+    public void put(FrontierEntry entry) {
+        offer(entry);
+    }
+
+    @Override
+    public boolean offer(FrontierEntry entry, long timeout, TimeUnit unit) {
+        return offer(entry);
+    }
+
+    /**
+     * Removes every waiting URI matching the filter, whether or not its host is ready. Removed URIs are not
+     * passed to the discard listener.
+     * @param filter Returns true for the entries to remove, called with a stripe's lock held
+     * @return true if any entry was removed
+     */
+    @Override
+    public boolean removeIf(Predicate<? super FrontierEntry> filter) {
+        int removed = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock();
+            try {
+                removed += stripe.removeIf(filter);
+            } finally {
+                stripe.unlock();
+            }
+        }
+        return removed > 0;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock();
+            try {
+                size += stripe.size;
+            } finally {
+                stripe.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return An iterator over a snapshot of the waiting URIs, it does not support remove
+     */
+    @Override
+    public Iterator<FrontierEntry> iterator() {
+        List<FrontierEntry> snapshot = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            stripe.lock();
+            try {
+                for (Host host : stripe.hosts.values()) {
+                    host.uris.copyTo(snapshot);
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+        return List.copyOf(snapshot).iterator();
+    }
+
+    /**
+     * The hosts whose names hash to one stripe, the queue of those with URIs waiting, ordered by when they may
+     * next be fetched, and the lock guarding both
+     */
+    private final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, Host> hosts = new HashMap<>();
+        private final PriorityQueue<Host> ready = new PriorityQueue<>(Comparator.comparingLong(host -> host.readyAt));
+        // When the first host in ready may be fetched, read without the lock to skip stripes with nothing ready
+        private volatile long nextReadyAt = Long.MAX_VALUE;
+        private int size;
+
+        void lock() {
+            lock.lock();
+        }
+
+        /**
+         * Publishes when the stripe's first host is ready and releases the lock
+         */
+        void unlock() {
+            Host first = ready.peek();
+            nextReadyAt = first == null ? Long.MAX_VALUE : first.readyAt;
+            lock.unlock();
+        }
+
+        /**
+         * Adds the entry to its host's queue, called with the lock held
+         * @return The entry's host if it was new and its robots.txt rules need loading, otherwise null
+         */
+        Host enqueue(String key, FrontierEntry entry, long now) {
+            Host host = hosts.get(key);
+            boolean newHost = host == null;
+            if (newHost) {
+                host = new Host(this, new TokenBucket(hostRate, hostBurst, now), hostRate);
+                if (robots == null) {
+                    host.rules = RobotsRules.ALLOW_ALL;
+                }
+                hosts.put(key, host);
+            }
+            host.uris.add(entry, entry.score());
+            size++;
+            schedule(host, now);
+            return newHost && robots != null ? host : null;
+        }
+
+        /**
+         * Takes the next URI of the host whose delay expired first, if any host of the stripe is ready, spending
+         * one of its tokens. Disallowed URIs met on the way are added to discarded.
+         */
+        FrontierEntry pollReady(long now, List<URI> discarded) {
+            while (true) {
+                Host host = ready.peek();
+                if (host == null || host.readyAt > now) {
+                    return null;
+                }
+                ready.poll();
+                host.scheduled = false;
+                FrontierEntry entry = host.uris.poll();
+                size--;
+                if (!host.rules.allows(entry.uri())) {
+                    discarded.add(entry.uri());
+                    schedule(host, now);
+                    continue;
+                }
+                host.bucket.tryAcquire(now);
+                schedule(host, now);
+                return entry;
+            }
+        }
+
+        /**
+         * Adds the host to the ready queue, ordered by when it may next be fetched, if its rules are loaded and it
+         * has URIs waiting
+         */
+        void schedule(Host host, long now) {
+            if (host.scheduled || host.rules == null || host.uris.isEmpty()) {
+                return;
+            }
+            host.readyAt = Math.max(host.pausedUntil, now + host.bucket.nanosUntilAvailable(now));
+            host.scheduled = true;
+            ready.add(host);
+            if (ready.peek() == host) {
+                // The host is now the first of the stripe to be ready, wake any poller waiting on a later one
+                nextReadyAt = host.readyAt;
+                signalHostReady();
+            }
+        }
+
+        /**
+         * Recomputes when a host may next be fetched after its rate or pause has changed
+         */
+        void reschedule(Host host, long now) {
+            if (host.scheduled) {
+                ready.remove(host);
+                host.scheduled = false;
+            }
+            schedule(host, now);
+        }
+
+        int removeIf(Predicate<? super FrontierEntry> filter) {
+            int removed = 0;
+            for (Host host : hosts.values()) {
+                removed += host.uris.removeIf(filter);
+                if (host.uris.isEmpty() && host.scheduled) {
+                    ready.remove(host);
+                    host.scheduled = false;
+                }
+            }
+            size -= removed;
+            return removed;
+        }
+    }
+
+    /**
+     * A host's waiting URIs and rate limit, guarded by its stripe's lock
+     */
+    private static final class Host {
+        private final Stripe stripe;
+        private final ScoreBuckets<FrontierEntry> uris = new ScoreBuckets<>();
+        private TokenBucket bucket;
+        private double maxRate;
+        private RobotsRules rules;
+        private long pausedUntil = Long.MIN_VALUE;
+        private long readyAt;
+        private boolean scheduled;
+
+        Host(Stripe stripe, TokenBucket bucket, double maxRate) {
+            this.stripe = stripe;
+            this.bucket = bucket;
+            this.maxRate = maxRate;
+        }
+    }
+}
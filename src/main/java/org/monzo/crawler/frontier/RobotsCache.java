@@ -0,0 +1,55 @@
+package org.monzo.crawler.frontier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Fetches and caches the robots.txt rules of each host the crawler visits. Each host's file is fetched
+ * once, concurrent lookups for a host share the same fetch. A host whose robots.txt cannot be fetched or
+ * read, commonly because it has none, is treated as allowing everything.
+ */
+public class RobotsCache {
+    private static final Logger logger = LogManager.getLogger(RobotsCache.class);
+
+    private final Function<URI, CompletableFuture<String>> fetcher;
+    private final String userAgent;
+    private final Map<String, CompletableFuture<RobotsRules>> rules = new ConcurrentHashMap<>();
+
+    /**
+     * @param fetcher Starts fetching a robots.txt file without blocking the caller, completing with its contents
+     * @param userAgent The crawler's user agent token, or null to read only the * groups
+     */
+    public RobotsCache(Function<URI, CompletableFuture<String>> fetcher, String userAgent) {
+        this.fetcher = fetcher;
+        this.userAgent = userAgent;
+    }
+
+    /**
+     * @param uri A URI on the host
+     * @return A future completed with the host's rules, it never completes exceptionally
+     */
+    public CompletableFuture<RobotsRules> rules(URI uri) {
+        return rules.computeIfAbsent(uri.getScheme() + "://" + uri.getRawAuthority(),
+                origin -> fetch(URI.create(origin + "/robots.txt")));
+    }
+
+    private CompletableFuture<RobotsRules> fetch(URI robots) {
+        CompletableFuture<String> body;
+        try {
+            body = fetcher.apply(robots);
+        } catch (RuntimeException e) {
+            body = CompletableFuture.failedFuture(e);
+        }
+        return body.thenApply(text -> RobotsRules.parse(text, userAgent))
+                .exceptionally(e -> {
+                    logger.info("No robots.txt rules read from {}, allowing all paths: {}", robots, e.getMessage());
+                    return RobotsRules.ALLOW_ALL;
+                });
+    }
+}
@@ -0,0 +1,172 @@
+package org.monzo.crawler.frontier;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The Allow, Disallow and Crawl-delay rules a host's robots.txt sets for the crawler.
+ * Rules are read from the groups naming the crawler's user agent, or the * groups if none do.
+ * As in RFC 9309 the longest matching rule decides whether a path is allowed, Allow winning a tie,
+ * and rules may use * to match any characters and $ to anchor the end of the path.
+ */
+public final class RobotsRules {
+    /**
+     * Rules allowing every path with no crawl delay, used when a host has no readable robots.txt
+     */
+    public static final RobotsRules ALLOW_ALL = new RobotsRules(List.of(), Duration.ZERO);
+
+    private final List<Rule> rules;
+    private final Duration crawlDelay;
+
+    private RobotsRules(List<Rule> rules, Duration crawlDelay) {
+        this.rules = rules;
+        this.crawlDelay = crawlDelay;
+    }
+
+    /**
+     * Parses a robots.txt file
+     * @param robotsTxt The file's contents
+     * @param userAgent The crawler's user agent token, or null to read only the * groups
+     * @return The rules for the crawler
+     */
+    public static RobotsRules parse(String robotsTxt, String userAgent) {
+        List<Rule> specificRules = new ArrayList<>();
+        List<Rule> wildcardRules = new ArrayList<>();
+        Duration specificDelay = Duration.ZERO;
+        Duration wildcardDelay = Duration.ZERO;
+        boolean matchedSpecific = false;
+        boolean inUserAgents = false;
+        boolean groupSpecific = false;
+        boolean groupWildcard = false;
+
+        for (String line : robotsTxt.split("\r\n|\r|\n")) {
+            int comment = line.indexOf('#');
+            int colon = line.indexOf(':');
+            if (colon < 0 || (comment >= 0 && comment < colon)) {
+                continue;
+            }
+            String field = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1, comment < 0 ? line.length() : comment).trim();
+
+            switch (field) {
+                case "user-agent" -> {
+                    // Consecutive user-agent lines share the group that follows them
+                    if (!inUserAgents) {
+                        groupSpecific = false;
+                        groupWildcard = false;
+                    }
+                    inUserAgents = true;
+                    if (value.equals("*")) {
+                        groupWildcard = true;
+                    } else if (userAgent != null && value.equalsIgnoreCase(userAgent)) {
+                        groupSpecific = true;
+                        matchedSpecific = true;
+                    }
+                }
+                case "allow", "disallow" -> {
+                    inUserAgents = false;
+                    // An empty Disallow allows everything, which is the default
+                    if (!value.isEmpty()) {
+                        Rule rule = new Rule(value, field.equals("allow"));
+                        if (groupSpecific) {
+                            specificRules.add(rule);
+                        }
+                        if (groupWildcard) {
+                            wildcardRules.add(rule);
+                        }
+                    }
+                }
+                case "crawl-delay" -> {
+                    inUserAgents = false;
+                    Duration delay = parseDelay(value);
+                    if (groupSpecific && delay != null) {
+                        specificDelay = delay;
+                    }
+                    if (groupWildcard && delay != null) {
+                        wildcardDelay = delay;
+                    }
+                }
+                default -> inUserAgents = false;
+            }
+        }
+
+        List<Rule> rules = new ArrayList<>(matchedSpecific ? specificRules : wildcardRules);
+        // The first matching rule decides, so the longest are checked first and Allow before Disallow
+        rules.sort(Comparator.comparingInt(Rule::length).reversed().thenComparing(Rule::allow, Comparator.reverseOrder()));
+        return new RobotsRules(List.copyOf(rules), matchedSpecific ? specificDelay : wildcardDelay);
+    }
+
+    private static Duration parseDelay(String value) {
+        try {
+            double seconds = Double.parseDouble(value);
+            return seconds > 0 && Double.isFinite(seconds) ? Duration.ofNanos((long) (seconds * 1_000_000_000L)) : null;
+        } catch (NumberFormatException _) {
+            return null;
+        }
+    }
+
+    /**
+     * @param uri The URI to check
+     * @return true if the rules allow the URI's path and query to be crawled
+     */
+    public boolean allows(URI uri) {
+        if (rules.isEmpty()) {
+            return true;
+        }
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        return allows(uri.getRawQuery() == null ? path : path + "?" + uri.getRawQuery());
+    }
+
+    /**
+     * @param path The path, and query if any, to check
+     * @return true if the rules allow the path to be crawled
+     */
+    public boolean allows(String path) {
+        for (Rule rule : rules) {
+            if (rule.matches(path)) {
+                return rule.allow();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The delay the crawler is asked to leave between requests, zero if none was given
+     */
+    public Duration crawlDelay() {
+        return crawlDelay;
+    }
+
+    /**
+     * An Allow or Disallow rule, split on its wildcards
+     */
+    private record Rule(String[] parts, boolean anchored, boolean allow, int length) {
+        Rule(String pattern, boolean allow) {
+            this(pattern.endsWith("$") ? pattern.substring(0, pattern.length() - 1).split("\\*", -1) : pattern.split("\\*", -1),
+                    pattern.endsWith("$"), allow, pattern.length());
+        }
+
+        boolean matches(String path) {
+            if (!path.startsWith(parts[0])) {
+                return false;
+            }
+            int position = parts[0].length();
+            for (int i = 1; i < parts.length; i++) {
+                String part = parts[i];
+                if (anchored && i == parts.length - 1) {
+                    return path.length() - part.length() >= position && path.endsWith(part);
+                }
+                int found = path.indexOf(part, position);
+                if (found < 0) {
+                    return false;
+                }
+                position = found + part.length();
+            }
+            return !anchored || position == path.length();
+        }
+    }
+}
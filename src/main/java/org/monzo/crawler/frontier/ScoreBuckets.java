@@ -0,0 +1,105 @@
+package org.monzo.crawler.frontier;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.function.Predicate;
+
+/**
+ * A priority queue over the small range of UriScorer scores, keeping a FIFO bucket per score and a bit per
+ * non-empty bucket. Adding and polling take constant time rather than the log time of a heap, and entries
+ * with the same score keep the order they were added in. Not thread-safe.
+ * @param <E> The element type
+ */
+final class ScoreBuckets<E> {
+    private static final int LEVELS = UriScorer.MAX_SCORE + 1;
+
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<E>[] buckets = (ArrayDeque<E>[]) new ArrayDeque<?>[LEVELS];
+    // Bit n is set while bucket n holds an element
+    private long occupied;
+    private int size;
+
+    /**
+     * Adds an element behind any others with the same score
+     * @param element The element to add
+     * @param score The element's score, clamped to between 0 and UriScorer.MAX_SCORE
+     */
+    void add(E element, int score) {
+        int level = Math.clamp(score, 0, LEVELS - 1);
+        ArrayDeque<E> bucket = buckets[level];
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            buckets[level] = bucket;
+        }
+        bucket.add(element);
+        occupied |= 1L << level;
+        size++;
+    }
+
+    /**
+     * @return The first element with the lowest score, removed, or null if empty
+     */
+    E poll() {
+        if (occupied == 0) {
+            return null;
+        }
+        int level = Long.numberOfTrailingZeros(occupied);
+        ArrayDeque<E> bucket = buckets[level];
+        E element = bucket.poll();
+        if (bucket.isEmpty()) {
+            occupied &= ~(1L << level);
+        }
+        size--;
+        return element;
+    }
+
+    /**
+     * @return The first element with the lowest score, or null if empty
+     */
+    E peek() {
+        return occupied == 0 ? null : buckets[Long.numberOfTrailingZeros(occupied)].peek();
+    }
+
+    /**
+     * Removes every element matching the filter
+     * @param filter Returns true for the elements to remove
+     * @return The number of elements removed
+     */
+    int removeIf(Predicate<? super E> filter) {
+        int removed = 0;
+        for (int level = 0; level < LEVELS; level++) {
+            ArrayDeque<E> bucket = buckets[level];
+            if (bucket != null) {
+                int before = bucket.size();
+                if (bucket.removeIf(filter)) {
+                    removed += before - bucket.size();
+                    if (bucket.isEmpty()) {
+                        occupied &= ~(1L << level);
+                    }
+                }
+            }
+        }
+        size -= removed;
+        return removed;
+    }
+
+    /**
+     * Adds every element to the collection, lowest scores first
+     * @param collection The collection to add to
+     */
+    void copyTo(Collection<? super E> collection) {
+        for (ArrayDeque<E> bucket : buckets) {
+            if (bucket != null) {
+                collection.addAll(bucket);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,78 @@
+package org.monzo.crawler.frontier;
+
+/**
+ * Computes 64-bit SimHash fingerprints of page content. Each feature of the page is hashed and votes on every
+ * bit of the fingerprint, so pages sharing most of their features get fingerprints differing in only a few bits,
+ * unlike a plain hash where one changed word changes half of them. Text is fingerprinted from its three word
+ * shingles, so that the order of the words counts as well as which words they are. Text with too few shingles,
+ * such as a page of images or a page built by scripts, is not fingerprinted: it would collide with every other page
+ * with as little text.
+ */
+public final class SimHash {
+    private static final int SHINGLE_WORDS = 3;
+    /**
+     * The fewest shingles text must have to be fingerprinted, those of ten words
+     */
+    public static final int MIN_SHINGLES = 10;
+
+    private SimHash() {
+    }
+
+    /**
+     * Fingerprints text from its three word shingles. Words are runs of letters and digits, compared ignoring case.
+     * @param text The page's text
+     * @return A 64-bit SimHash, 0 for text of fewer than MIN_SHINGLES shingles
+     */
+    public static long ofText(CharSequence text) {
+        int[] votes = new int[Long.SIZE];
+        long[] words = new long[SHINGLE_WORDS];
+        int count = 0;
+        int i = 0;
+        while (i < text.length()) {
+            while (i < text.length() && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i == text.length()) {
+                break;
+            }
+            long word = UriFingerprint.FNV_OFFSET;
+            while (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                word ^= Character.toLowerCase(text.charAt(i++));
+                word *= UriFingerprint.FNV_PRIME;
+            }
+            words[count++ % SHINGLE_WORDS] = word;
+            // The shingle of the last three words, rotated by position so that word order counts
+            long shingle = 0;
+            for (int w = 0; w < Math.min(count, SHINGLE_WORDS); w++) {
+                shingle ^= Long.rotateLeft(words[(count - 1 - w) % SHINGLE_WORDS], w * 21);
+            }
+            vote(votes, UriFingerprint.mix(shingle));
+        }
+        return count < MIN_SHINGLES ? 0 : fingerprint(votes);
+    }
+
+    /**
+     * @param a A fingerprint
+     * @param b Another fingerprint
+     * @return The number of bits the fingerprints differ in
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static void vote(int[] votes, long hash) {
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            votes[bit] += (hash >>> bit & 1) == 0 ? -1 : 1;
+        }
+    }
+
+    private static long fingerprint(int[] votes) {
+        long fingerprint = 0;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if (votes[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+}
@@ -0,0 +1,101 @@
+package org.monzo.crawler.frontier;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory VisitedSet of 64-bit fingerprints. The fingerprints are split across a fixed number
+ * of stripes, each an open addressing table of primitive longs guarded by its own lock, so that
+ * concurrent adds only contend when they land on the same stripe.
+ */
+public class StripedVisitedSet implements VisitedSet {
+    private static final int DEFAULT_STRIPES = 64;
+    private static final int INITIAL_STRIPE_CAPACITY = 1024;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final LongAdder size = new LongAdder();
+
+    public StripedVisitedSet() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a set with the given number of stripes
+     * @param stripes The number of independently locked tables, rounded up to a power of two
+     */
+    public StripedVisitedSet(int stripes) {
+        int count = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new Stripe[count];
+        this.stripeMask = count - 1;
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public boolean add(long fingerprint) {
+        // The high bits pick the stripe, the low bits the slot within it
+        Stripe stripe = stripes[(int) (fingerprint >>> 40) & stripeMask];
+        boolean added;
+        synchronized (stripe) {
+            added = stripe.add(fingerprint);
+        }
+        if (added) {
+            size.increment();
+        }
+        return added;
+    }
+
+    @Override
+    public long size() {
+        return size.sum();
+    }
+
+    /**
+     * A linear probing table of fingerprints, kept at most half full. Zero marks an empty slot,
+     * so a zero fingerprint is stored as a sentinel flag instead.
+     */
+    private static final class Stripe {
+        private long[] slots = new long[INITIAL_STRIPE_CAPACITY];
+        private int count;
+        private boolean containsZero;
+
+        boolean add(long fingerprint) {
+            if (fingerprint == 0) {
+                boolean added = !containsZero;
+                containsZero = true;
+                return added;
+            }
+            if (!insert(slots, fingerprint)) {
+                return false;
+            }
+            if (++count * 2 > slots.length) {
+                grow();
+            }
+            return true;
+        }
+
+        private void grow() {
+            long[] larger = new long[slots.length * 2];
+            for (long fingerprint : slots) {
+                if (fingerprint != 0) {
+                    insert(larger, fingerprint);
+                }
+            }
+            slots = larger;
+        }
+
+        private static boolean insert(long[] table, long fingerprint) {
+            int mask = table.length - 1;
+            int slot = (int) fingerprint & mask;
+            while (table[slot] != 0) {
+                if (table[slot] == fingerprint) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = fingerprint;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.monzo.crawler.frontier;
+
+/**
+ * A token bucket rate limiter. Tokens are added continuously at the configured rate up to the bucket's
+ * capacity, and each request takes one, so requests may burst up to the capacity and then settle at the rate.
+ * Times are given by the caller in nanoseconds, as from System.nanoTime. Not thread safe, callers
+ * synchronize access.
+ */
+public class TokenBucket {
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private final double capacity;
+    private double tokensPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Creates a full bucket
+     * @param ratePerSecond The number of tokens added per second
+     * @param capacity The most tokens the bucket holds, at least 1
+     * @param now The current time in nanoseconds
+     */
+    public TokenBucket(double ratePerSecond, double capacity, long now) {
+        if (ratePerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("Rate must be positive and capacity at least 1");
+        }
+        this.capacity = capacity;
+        this.tokensPerNano = ratePerSecond / NANOS_PER_SECOND;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * @param now The current time in nanoseconds
+     * @return How many nanoseconds until a token is available, 0 if one is available now
+     */
+    public long nanosUntilAvailable(long now) {
+        refill(now);
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * Takes a token if one is available
+     * @param now The current time in nanoseconds
+     * @return true if a token was taken
+     */
+    public boolean tryAcquire(long now) {
+        refill(now);
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Changes the rate tokens are added at, tokens already in the bucket are kept
+     * @param ratePerSecond The number of tokens added per second
+     * @param now The current time in nanoseconds
+     */
+    public void setRate(double ratePerSecond, long now) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        refill(now);
+        this.tokensPerNano = ratePerSecond / NANOS_PER_SECOND;
+    }
+
+    /**
+     * @return The number of tokens added per second
+     */
+    public double rate() {
+        return tokensPerNano * NANOS_PER_SECOND;
+    }
+
+    private void refill(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+    }
+}
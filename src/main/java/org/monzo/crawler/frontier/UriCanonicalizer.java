@@ -0,0 +1,412 @@
+package org.monzo.crawler.frontier;
+
+import java.net.IDN;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolves the links found on a page into the single canonical form the frontier de-duplicates on, so that
+ * spellings of the same page are only fetched once. Links are resolved against the page's URI as RFC 3986
+ * describes, then:
+ * <ul>
+ *     <li>the scheme and host are lower-cased, and non-ASCII hosts converted to their ASCII form</li>
+ *     <li>the port is dropped if it is the scheme's default</li>
+ *     <li>the fragment is dropped, as is an empty query</li>
+ *     <li>dot segments are removed, and an empty path becomes "/"</li>
+ *     <li>percent-encoding is normalized: unreserved characters are decoded, other escapes upper-cased,
+ *     and characters not allowed in a URI, such as spaces or non-ASCII text, are encoded as UTF-8</li>
+ *     <li>optionally, query parameters are sorted by name and a configured set of them removed</li>
+ * </ul>
+ * Only http and https links are kept. The canonicalizer is immutable and may be shared between threads.
+ */
+public final class UriCanonicalizer {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final boolean[] UNRESERVED = new boolean[128];
+    private static final boolean[] PATH_ALLOWED = new boolean[128];
+    private static final boolean[] QUERY_ALLOWED = new boolean[128];
+    private static final boolean[] HOST_ALLOWED = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+            UNRESERVED[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c : "-._~".toCharArray()) {
+            UNRESERVED[c] = true;
+        }
+        for (int c = 0; c < 128; c++) {
+            PATH_ALLOWED[c] = UNRESERVED[c] || "!$&'()*+,;=:@/".indexOf(c) >= 0;
+            QUERY_ALLOWED[c] = PATH_ALLOWED[c] || c == '?';
+            HOST_ALLOWED[c] = UNRESERVED[c] || c == '%' || "!$&'()*+,;=".indexOf(c) >= 0;
+        }
+    }
+
+    private final boolean sortQuery;
+    private final Set<String> strippedParameters;
+
+    /**
+     * Creates a canonicalizer that leaves query strings as they are
+     */
+    public UriCanonicalizer() {
+        this(false, Set.of());
+    }
+
+    /**
+     * @param sortQuery Whether query parameters are sorted by name, the order of repeated names is kept
+     * @param strippedParameters Names of query parameters to remove, such as tracking parameters
+     */
+    public UriCanonicalizer(boolean sortQuery, Set<String> strippedParameters) {
+        this.sortQuery = sortQuery;
+        this.strippedParameters = Set.copyOf(strippedParameters);
+    }
+
+    /**
+     * Canonicalizes an absolute URI, such as a crawl's seed
+     * @param uri The absolute URI
+     * @return The canonical URI, or null if it is not an http or https URI
+     */
+    public URI canonicalize(String uri) {
+        return resolve(null, uri, false);
+    }
+
+    /**
+     * Resolves a link against the page it was found on and canonicalizes it
+     * @param base The canonical URI of the page
+     * @param link The link, as written in the page
+     * @return The canonical URI, or null if the link is not an http or https link or is malformed
+     */
+    public URI canonicalize(URI base, String link) {
+        return resolve(base, link, false);
+    }
+
+    /**
+     * Resolves a link against the page it was found on and canonicalizes it if it is on the same host and port.
+     * Links to other hosts are rejected before their path and query are processed.
+     * @param base The canonical URI of the page
+     * @param link The link, as written in the page
+     * @return The canonical URI, or null if the link is to another host, is not an http or https link or is malformed
+     */
+    public URI canonicalizeInternal(URI base, String link) {
+        return resolve(base, link, true);
+    }
+
+    private URI resolve(URI base, String link, boolean internalOnly) {
+        // Leading and trailing whitespace is ignored, as are fragments
+        int start = 0;
+        int end = link.length();
+        while (start < end && link.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && link.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int hash = link.indexOf('#', start);
+        if (hash >= 0 && hash < end) {
+            end = hash;
+        }
+
+        String scheme = null;
+        int colon = schemeEnd(link, start, end);
+        if (colon >= 0) {
+            scheme = scheme(link, start, colon);
+            if (scheme == null) {
+                return null;
+            }
+            start = colon + 1;
+        }
+        boolean hasAuthority = end - start >= 2 && link.charAt(start) == '/' && link.charAt(start + 1) == '/';
+        if (base == null && (scheme == null || !hasAuthority)) {
+            return null;
+        }
+        if (scheme != null && !hasAuthority && !scheme.equals(base.getScheme())) {
+            // Something like http:page, only meaningful relative to a base of the same scheme
+            return null;
+        }
+
+        String resolvedScheme = scheme == null ? base.getScheme() : scheme;
+        StringBuilder out = new StringBuilder(64);
+        out.append(resolvedScheme).append("://");
+
+        int pathStart = start;
+        if (hasAuthority) {
+            int authorityEnd = indexOfAny(link, start + 2, end, "/?");
+            if (!appendAuthority(out, link, start + 2, authorityEnd, "https".equals(resolvedScheme) ? 443 : 80)) {
+                return null;
+            }
+            pathStart = authorityEnd;
+        } else {
+            out.append(base.getRawAuthority());
+        }
+        int authorityStart = resolvedScheme.length() + 3;
+        boolean sameAuthority = base != null && (!hasAuthority || regionEquals(out, authorityStart, base.getRawAuthority()));
+        if (internalOnly && !sameAuthority) {
+            return null;
+        }
+        int pathOffset = out.length();
+
+        int queryStart = indexOfAny(link, pathStart, end, "?");
+        StringBuilder path = new StringBuilder(queryStart - pathStart + 16);
+        if (hasAuthority || link.startsWith("/", pathStart)) {
+            appendEncoded(path, link, pathStart, queryStart, PATH_ALLOWED);
+        } else if (pathStart == queryStart) {
+            // A link to the page itself, or to the page with a different query
+            path.append(base.getRawPath());
+        } else {
+            // A relative path, merged with the base path up to and including its last segment
+            String basePath = base.getRawPath();
+            if (basePath.isEmpty()) {
+                path.append('/');
+            } else {
+                path.append(basePath, 0, basePath.lastIndexOf('/') + 1);
+            }
+            appendEncoded(path, link, pathStart, queryStart, PATH_ALLOWED);
+        }
+        appendWithoutDotSegments(out, path);
+
+        if (queryStart < end) {
+            appendQuery(out, link, queryStart + 1, end);
+        } else if (!hasAuthority && pathStart == queryStart && base.getRawQuery() != null) {
+            out.append('?').append(base.getRawQuery());
+        }
+
+        try {
+            if (sameAuthority && resolvedScheme.equals(base.getScheme()) && (out.length() == pathOffset + 1 || out.charAt(pathOffset + 1) != '/')) {
+                // Most links are to the page's own origin, parsing only the path and query is far cheaper than
+                // parsing the whole URI. A path starting // would be parsed as an authority.
+                return base.resolve(URI.create(out.substring(pathOffset)));
+            }
+            return URI.create(out.toString());
+        } catch (IllegalArgumentException _) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The index of the colon ending the link's scheme, or -1 if the link has no scheme
+     */
+    private static int schemeEnd(String link, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = link.charAt(i);
+            if (c == ':') {
+                return i > start ? i : -1;
+            }
+            boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+            if (!letter && (i == start || !((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.'))) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The lower-cased scheme, or null if it is not http or https
+     */
+    private static String scheme(String link, int start, int colon) {
+        if (link.regionMatches(true, start, "https", 0, 5) && colon - start == 5) {
+            return "https";
+        }
+        if (link.regionMatches(true, start, "http", 0, 4) && colon - start == 4) {
+            return "http";
+        }
+        return null;
+    }
+
+    /**
+     * Appends the user info, lower-cased host and any non-default port
+     * @return false if the authority is malformed
+     */
+    private static boolean appendAuthority(StringBuilder out, String link, int start, int end, int defaultPort) {
+        int at = link.lastIndexOf('@', end - 1);
+        if (at >= start) {
+            appendEncoded(out, link, start, at, PATH_ALLOWED);
+            out.append('@');
+            start = at + 1;
+        }
+
+        int hostEnd;
+        if (start < end && link.charAt(start) == '[') {
+            // An IPv6 literal
+            hostEnd = link.indexOf(']', start) + 1;
+            if (hostEnd <= start || hostEnd > end) {
+                return false;
+            }
+            out.append(link.substring(start, hostEnd).toLowerCase());
+        } else {
+            hostEnd = indexOfAny(link, start, end, ":");
+            if (hostEnd == start || !appendHost(out, link, start, hostEnd)) {
+                return false;
+            }
+        }
+
+        if (hostEnd < end) {
+            if (link.charAt(hostEnd) != ':') {
+                return false;
+            }
+            int port = 0;
+            for (int i = hostEnd + 1; i < end; i++) {
+                char c = link.charAt(i);
+                if (c < '0' || c > '9' || (port = port * 10 + c - '0') > 65535) {
+                    return false;
+                }
+            }
+            if (hostEnd + 1 < end && port != defaultPort) {
+                out.append(':').append(port);
+            }
+        }
+        return true;
+    }
+
+    private static boolean appendHost(StringBuilder out, String link, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = link.charAt(i);
+            if (c >= 128) {
+                try {
+                    out.append(IDN.toASCII(link.substring(start, end)).toLowerCase());
+                    return true;
+                } catch (IllegalArgumentException _) {
+                    return false;
+                }
+            }
+            if (!HOST_ALLOWED[c]) {
+                return false;
+            }
+        }
+        for (int i = start; i < end; i++) {
+            char c = link.charAt(i);
+            out.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        }
+        return true;
+    }
+
+    /**
+     * Appends the query with its encoding normalized, sorting and stripping parameters if configured.
+     * An empty query is dropped.
+     */
+    private void appendQuery(StringBuilder out, String link, int start, int end) {
+        int queryStart = out.length();
+        out.append('?');
+        appendEncoded(out, link, start, end, QUERY_ALLOWED);
+        if (sortQuery || !strippedParameters.isEmpty()) {
+            String query = out.substring(queryStart + 1);
+            out.setLength(queryStart + 1);
+            List<String> parameters = new ArrayList<>();
+            for (String parameter : query.split("&")) {
+                if (!parameter.isEmpty() && !strippedParameters.contains(name(parameter))) {
+                    parameters.add(parameter);
+                }
+            }
+            if (sortQuery) {
+                // A stable sort, so repeated names keep their order
+                parameters.sort(Comparator.comparing(UriCanonicalizer::name));
+            }
+            out.append(String.join("&", parameters));
+        }
+        if (out.length() == queryStart + 1) {
+            out.setLength(queryStart);
+        }
+    }
+
+    private static String name(String parameter) {
+        int equals = parameter.indexOf('=');
+        return equals < 0 ? parameter : parameter.substring(0, equals);
+    }
+
+    /**
+     * Appends part of the link, decoding percent-encoded unreserved characters, upper-casing other escapes and
+     * encoding any character not allowed in the component as UTF-8. Tabs and newlines are dropped.
+     */
+    private static void appendEncoded(StringBuilder out, String link, int start, int end, boolean[] allowed) {
+        for (int i = start; i < end; i++) {
+            char c = link.charAt(i);
+            if (c == '%') {
+                int high = i + 2 < end ? Character.digit(link.charAt(i + 1), 16) : -1;
+                int low = high < 0 ? -1 : Character.digit(link.charAt(i + 2), 16);
+                if (low < 0) {
+                    // A stray percent sign
+                    out.append("%25");
+                    continue;
+                }
+                int value = high << 4 | low;
+                if (value < 128 && UNRESERVED[value]) {
+                    out.append((char) value);
+                } else {
+                    out.append('%').append(HEX[high]).append(HEX[low]);
+                }
+                i += 2;
+            } else if (c < 128 && allowed[c]) {
+                out.append(c);
+            } else if (c != '\t' && c != '\n' && c != '\r') {
+                int codePoint = link.codePointAt(i);
+                if (Character.charCount(codePoint) == 2) {
+                    i++;
+                }
+                for (byte b : Character.toString(codePoint).getBytes(StandardCharsets.UTF_8)) {
+                    out.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the path with its . and .. segments removed, as in RFC 3986 section 5.2.4
+     * @param path An absolute path, or an empty one
+     */
+    private static void appendWithoutDotSegments(StringBuilder out, CharSequence path) {
+        int pathStart = out.length();
+        int length = path.length();
+        int i = 0;
+        while (i < length) {
+            int next = i + 1;
+            while (next < length && path.charAt(next) != '/') {
+                next++;
+            }
+            int segment = next - i - 1;
+            boolean last = next >= length;
+            if (segment == 1 && path.charAt(i + 1) == '.') {
+                if (last) {
+                    out.append('/');
+                }
+            } else if (segment == 2 && path.charAt(i + 1) == '.' && path.charAt(i + 2) == '.') {
+                int parent = out.lastIndexOf("/");
+                out.setLength(Math.max(pathStart, parent));
+                if (last) {
+                    out.append('/');
+                }
+            } else {
+                out.append(path, i, next);
+            }
+            i = next;
+        }
+        if (out.length() == pathStart) {
+            out.append('/');
+        }
+    }
+
+    private static int indexOfAny(String link, int start, int end, String characters) {
+        for (int i = start; i < end; i++) {
+            if (characters.indexOf(link.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean regionEquals(StringBuilder out, int start, String authority) {
+        if (authority == null || out.length() - start != authority.length()) {
+            return false;
+        }
+        for (int i = 0; i < authority.length(); i++) {
+            if (Character.toLowerCase(out.charAt(start + i)) != Character.toLowerCase(authority.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
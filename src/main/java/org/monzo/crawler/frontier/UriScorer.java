@@ -0,0 +1,54 @@
+package org.monzo.crawler.frontier;
+
+import java.net.URI;
+
+/**
+ * Scores a URI as it enters the frontier, deciding the order a host's URIs are crawled in. Lower scores
+ * are crawled first and URIs with equal scores in the order they were found. Scores are clamped to
+ * between 0 and MAX_SCORE, so that the frontier can keep a bucket per score instead of a heap.
+ */
+@FunctionalInterface
+public interface UriScorer {
+    int MAX_SCORE = 63;
+
+    /**
+     * Scores a URI
+     * @param uri The canonical URI
+     * @param depth The number of links followed from the seed to reach the URI
+     * @param parent The page the URI was found on, or null for the seed
+     * @return The score, lower is crawled sooner
+     */
+    int score(URI uri, int depth, URI parent);
+
+    /**
+     * @return A scorer crawling the pages nearest the seed first
+     */
+    static UriScorer breadthFirst() {
+        return (_, depth, _) -> depth;
+    }
+
+    /**
+     * @return A scorer crawling the pages furthest from the seed first
+     */
+    static UriScorer depthFirst() {
+        return (_, depth, _) -> MAX_SCORE - Math.min(depth, MAX_SCORE);
+    }
+
+    /**
+     * Scores by the number of segments in the URI's path, as a site's most important pages tend to have
+     * the shortest paths. A URI with a query scores one more than its path alone.
+     * @return A scorer crawling the shortest paths first
+     */
+    static UriScorer shortestPath() {
+        return (uri, _, _) -> {
+            String path = uri.getRawPath();
+            int segments = 0;
+            for (int i = 0; i < path.length() - 1; i++) {
+                if (path.charAt(i) == '/') {
+                    segments++;
+                }
+            }
+            return uri.getRawQuery() == null ? segments : segments + 1;
+        };
+    }
+}
@@ -0,0 +1,32 @@
+package org.monzo.crawler.frontier;
+
+import java.net.URI;
+
+/**
+ * Records the URIs that have been seen by the crawl. Implementations store fingerprints rather than
+ * URIs and must make add an atomic check-and-insert, so that concurrent callers adding the same URI
+ * see exactly one success.
+ */
+public interface VisitedSet {
+
+    /**
+     * Records the fingerprint if it has not been seen before
+     * @param fingerprint The fingerprint of the URI, see UriFingerprint
+     * @return true if the fingerprint was added, false if it was already present
+     */
+    boolean add(long fingerprint);
+
+    /**
+     * Records the URI if it has not been seen before
+     * @param uri The URI to record
+     * @return true if the URI was added, false if it was already present
+     */
+    default boolean add(URI uri) {
+        return add(UriFingerprint.of(uri));
+    }
+
+    /**
+     * @return The number of distinct fingerprints recorded, in constant time
+     */
+    long size();
+}
@@ -0,0 +1,171 @@
+package org.monzo.crawler.graph;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Adjacency lists of a link graph in compressed sparse row form: the targets of every row are held end to end in
+ * one int array, with each row's source and the offset its targets start at in two more. Each row's targets are
+ * sorted and distinct, so that they can be written as gaps.
+ * <p>
+ * Rows are written as unsigned LEB128 varints: the source, the number of targets, the first target and then the
+ * gap to each next one. Links within a site mostly point at pages found around the same time, so most gaps take
+ * one or two bytes.
+ */
+public class AdjacencyBuffer {
+    private static final int INITIAL_ROWS = 256;
+    private static final int INITIAL_EDGES = 4096;
+
+    private int[] sources = new int[INITIAL_ROWS];
+    // offsets[row] is where the row's targets start, offsets[rows] where the next row's will
+    private int[] offsets = new int[INITIAL_ROWS + 1];
+    private int[] targets = new int[INITIAL_EDGES];
+    private int rows;
+
+    /**
+     * Adds a row
+     * @param source The ID of the page the links were found on
+     * @param ids The IDs of the pages linked to, in any order and possibly repeated
+     * @param count The number of IDs to take from the start of ids
+     * @return The number of distinct targets added
+     */
+    public int addRow(int source, int[] ids, int count) {
+        int start = offsets[rows];
+        if (rows == sources.length) {
+            sources = Arrays.copyOf(sources, rows * 2);
+            offsets = Arrays.copyOf(offsets, rows * 2 + 1);
+        }
+        if (start + count > targets.length) {
+            targets = Arrays.copyOf(targets, Math.max(targets.length * 2, start + count));
+        }
+        System.arraycopy(ids, 0, targets, start, count);
+        Arrays.sort(targets, start, start + count);
+        int end = start;
+        for (int i = start; i < start + count; i++) {
+            if (end == start || targets[i] != targets[end - 1]) {
+                targets[end++] = targets[i];
+            }
+        }
+        sources[rows] = source;
+        offsets[++rows] = end;
+        return end - start;
+    }
+
+    /**
+     * @return The number of rows
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * @return The number of targets across every row
+     */
+    public int edges() {
+        return offsets[rows];
+    }
+
+    /**
+     * @param row A row, from 0
+     * @return The ID of the row's source
+     */
+    public int source(int row) {
+        return sources[row];
+    }
+
+    /**
+     * @param row A row, from 0
+     * @return The number of targets in the row
+     */
+    public int degree(int row) {
+        return offsets[row + 1] - offsets[row];
+    }
+
+    /**
+     * @param row A row, from 0
+     * @param index The target's position in the row, from 0
+     * @return The ID of the target, targets are in ascending order
+     */
+    public int target(int row, int index) {
+        return targets[offsets[row] + index];
+    }
+
+    /**
+     * Removes every row, keeping the arrays for the next rows
+     */
+    public void clear() {
+        rows = 0;
+    }
+
+    /**
+     * Writes every row
+     * @param out The stream to write to, best buffered
+     * @throws IOException If the rows cannot be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        for (int row = 0; row < rows; row++) {
+            writeVarint(out, sources[row]);
+            writeVarint(out, degree(row));
+            int previous = 0;
+            for (int i = offsets[row]; i < offsets[row + 1]; i++) {
+                writeVarint(out, targets[i] - previous);
+                previous = targets[i];
+            }
+        }
+    }
+
+    /**
+     * Reads rows written by writeTo until the end of the stream, adding them to this buffer
+     * @param in The stream to read from, best buffered
+     * @throws IOException If the rows cannot be read, or the stream ends part way through a row
+     */
+    public void readFrom(InputStream in) throws IOException {
+        int[] row = new int[16];
+        int source;
+        while ((source = readVarint(in, true)) >= 0) {
+            int degree = readVarint(in, false);
+            if (degree > row.length) {
+                row = new int[degree];
+            }
+            int previous = 0;
+            for (int i = 0; i < degree; i++) {
+                previous += readVarint(in, false);
+                row[i] = previous;
+            }
+            addRow(source, row, degree);
+        }
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * @param endAllowed Whether the stream may end before the varint, as it may between rows
+     * @return The varint, or -1 if the stream ended where it was allowed to
+     */
+    private static int readVarint(InputStream in, boolean endAllowed) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (endAllowed && shift == 0) {
+                    return -1;
+                }
+                throw new EOFException("Link graph cut short");
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in link graph");
+    }
+}
@@ -0,0 +1,212 @@
+package org.monzo.crawler.graph;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monzo.crawler.frontier.UriFingerprint;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Writes the link graph of a crawl to a directory as pages are crawled, so that the graph never has to be held in
+ * memory. Every URI is interned to an integer ID the first time it is seen, as a crawled page or a link.
+ * <ul>
+ *     <li>nodes.tsv - the ID and URI of every page, tab separated, one per line in ID order</li>
+ *     <li>edges.tsv - the source and target ID of every link, tab separated, one per line</li>
+ *     <li>graph.bin - the same links as rows of an AdjacencyBuffer, after an eight byte header</li>
+ *     <li>sitemap-1.xml, sitemap-2.xml, ... - the pages crawled in the sitemaps protocol, 50,000 to a file</li>
+ * </ul>
+ * Links repeated on a page are written once. Links are buffered as rows until enough have been found to be worth
+ * writing, and the text files through a buffered writer, so the memory held is the IDs and a bounded buffer.
+ * A failure to write is logged and stops the graph being written, without stopping the crawl.
+ */
+public class LinkGraphWriter implements Closeable {
+    private static final Logger logger = LogManager.getLogger(LinkGraphWriter.class);
+    private static final byte[] MAGIC = "LNKGRPH1".getBytes(StandardCharsets.US_ASCII);
+    private static final int FLUSH_EDGES = 1 << 16;
+    private static final int SITEMAP_URLS = 50_000;
+    private static final String SITEMAP_HEADER = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <urlset xmlns="http://www.sitemaps.org/schemas/sitemap/0.9">
+            """;
+    private static final String SITEMAP_FOOTER = "</urlset>\n";
+
+    private final Path directory;
+    private final UriIds ids = new UriIds();
+    private final AdjacencyBuffer buffer = new AdjacencyBuffer();
+    private final Writer nodes;
+    private final Writer edges;
+    private final OutputStream graph;
+    private Writer sitemap;
+    private int sitemaps;
+    private int sitemapUrls;
+    private int[] row = new int[64];
+    private long edgeCount;
+    private boolean failed;
+
+    /**
+     * Creates the directory if needed and starts each file, replacing any written by an earlier crawl
+     * @param directory The directory to write the graph in
+     * @throws IOException If the directory or a file cannot be created
+     */
+    public LinkGraphWriter(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        this.nodes = Files.newBufferedWriter(directory.resolve("nodes.tsv"));
+        this.edges = Files.newBufferedWriter(directory.resolve("edges.tsv"));
+        this.graph = new BufferedOutputStream(Files.newOutputStream(directory.resolve("graph.bin")));
+        this.graph.write(MAGIC);
+    }
+
+    /**
+     * Records a crawled page and the links found on it
+     * @param page The canonical URI of the page
+     * @param links The canonical URIs of the pages it links to, in any order and possibly repeated
+     */
+    public synchronized void addPage(URI page, Collection<URI> links) {
+        if (failed) {
+            return;
+        }
+        try {
+            int source = intern(page);
+            if (row.length < links.size()) {
+                row = new int[Math.max(links.size(), row.length * 2)];
+            }
+            int count = 0;
+            for (URI link : links) {
+                row[count++] = intern(link);
+            }
+            int added = buffer.addRow(source, row, count);
+            int rowIndex = buffer.rows() - 1;
+            for (int i = 0; i < added; i++) {
+                edges.append(Integer.toString(source)).append('\t')
+                        .append(Integer.toString(buffer.target(rowIndex, i))).append('\n');
+            }
+            edgeCount += added;
+            addToSitemap(page);
+            if (buffer.edges() >= FLUSH_EDGES) {
+                flushRows();
+            }
+        } catch (IOException e) {
+            failed = true;
+            logger.error("Unable to write the link graph in {}, it will not be written further: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * @return The number of pages and links interned
+     */
+    public synchronized int nodes() {
+        return ids.size();
+    }
+
+    /**
+     * @return The number of distinct links written
+     */
+    public synchronized long edges() {
+        return edgeCount;
+    }
+
+    /**
+     * Writes the buffered rows and ends each file
+     * @throws IOException If a file cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try (nodes; edges; graph) {
+            if (!failed) {
+                flushRows();
+                if (sitemap != null) {
+                    sitemap.write(SITEMAP_FOOTER);
+                }
+            }
+        } finally {
+            if (sitemap != null) {
+                sitemap.close();
+            }
+        }
+        logger.info("Link graph of {} URLs and {} links written to {}", ids.size(), edgeCount, directory);
+    }
+
+    /**
+     * Reads every row of a graph.bin file into memory
+     * @param file The graph.bin file
+     * @return The graph's rows
+     * @throws IOException If the file cannot be read or is not a link graph
+     */
+    public static AdjacencyBuffer read(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            if (!Arrays.equals(MAGIC, in.readNBytes(MAGIC.length))) {
+                throw new IOException("Not a link graph: " + file);
+            }
+            AdjacencyBuffer graph = new AdjacencyBuffer();
+            graph.readFrom(in);
+            return graph;
+        }
+    }
+
+    /**
+     * @return The URI's ID, writing it to the nodes file if it is new
+     */
+    private int intern(URI uri) throws IOException {
+        int before = ids.size();
+        int id = ids.intern(UriFingerprint.of(uri));
+        if (id == before) {
+            nodes.append(Integer.toString(id)).append('\t').append(uri.toString()).append('\n');
+        }
+        return id;
+    }
+
+    private void addToSitemap(URI page) throws IOException {
+        if (sitemap == null || sitemapUrls == SITEMAP_URLS) {
+            if (sitemap != null) {
+                sitemap.write(SITEMAP_FOOTER);
+                sitemap.close();
+            }
+            sitemap = Files.newBufferedWriter(directory.resolve("sitemap-" + ++sitemaps + ".xml"));
+            sitemap.write(SITEMAP_HEADER);
+            sitemapUrls = 0;
+        }
+        sitemap.append("  <url><loc>").append(escapeXml(page.toString())).append("</loc></url>\n");
+        sitemapUrls++;
+    }
+
+    private void flushRows() throws IOException {
+        buffer.writeTo(graph);
+        buffer.clear();
+    }
+
+    /**
+     * Escapes the characters the sitemaps protocol requires to be escaped in a URL
+     */
+    private static String escapeXml(String url) {
+        if (url.indexOf('&') < 0 && url.indexOf('<') < 0 && url.indexOf('>') < 0
+                && url.indexOf('"') < 0 && url.indexOf('\'') < 0) {
+            return url;
+        }
+        StringBuilder escaped = new StringBuilder(url.length() + 16);
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            switch (c) {
+                case '&' -> escaped.append("&amp;");
+                case '<' -> escaped.append("&lt;");
+                case '>' -> escaped.append("&gt;");
+                case '"' -> escaped.append("&quot;");
+                case '\'' -> escaped.append("&apos;");
+                default -> escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
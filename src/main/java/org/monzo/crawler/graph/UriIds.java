@@ -0,0 +1,76 @@
+package org.monzo.crawler.graph;
+
+/**
+ * Interns URIs to dense integer IDs, numbered from 0 in the order they are first seen. URIs are held by their
+ * 64-bit fingerprint in an open addressing table of primitive longs and ints, twelve bytes a URI at most half full,
+ * rather than as URI objects. Not thread safe.
+ */
+public class UriIds {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    // One more than the ID of each key, 0 marks an empty slot
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param fingerprint The fingerprint of a URI, see UriFingerprint
+     * @return The URI's ID, or -1 if it has not been interned
+     */
+    public int get(long fingerprint) {
+        int slot = find(keys, values, fingerprint);
+        return values[slot] - 1;
+    }
+
+    /**
+     * Gives the URI the next ID if it has not been interned
+     * @param fingerprint The fingerprint of a URI, see UriFingerprint
+     * @return The URI's ID, equal to the size before the call if it was new
+     */
+    public int intern(long fingerprint) {
+        int slot = find(keys, values, fingerprint);
+        if (values[slot] != 0) {
+            return values[slot] - 1;
+        }
+        if (size * 2 >= keys.length) {
+            grow();
+            slot = find(keys, values, fingerprint);
+        }
+        keys[slot] = fingerprint;
+        values[slot] = ++size;
+        return size - 1;
+    }
+
+    /**
+     * @return The number of URIs interned
+     */
+    public int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != 0) {
+                int slot = find(keys, values, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * @return The slot holding the fingerprint, or the empty slot it would be put in
+     */
+    private static int find(long[] keys, int[] values, long fingerprint) {
+        int mask = keys.length - 1;
+        int slot = (int) fingerprint & mask;
+        while (values[slot] != 0 && keys[slot] != fingerprint) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,363 @@
+package org.monzo.crawler.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of a running crawl, so that it can be seen whether it is bound by the network, parsing, the frontier
+ * or retries. Workers record how long each stage of a page took in a LatencyHistogram per stage, and counters
+ * are LongAdders, so recording never takes a lock. The frontier and executor are read through gauges only when
+ * the metrics are reported.
+ * <p>
+ * The metrics can be registered as an MXBean, and summarised on one line by report.
+ */
+public class CrawlMetrics implements CrawlMetricsMXBean {
+    /**
+     * The name the metrics are registered under over JMX
+     */
+    public static final String OBJECT_NAME = "org.monzo.crawler:type=CrawlMetrics";
+    private static final int MAX_STATUS = 600;
+    private static final LongSupplier ZERO = () -> 0;
+
+    /**
+     * The stages of crawling a page
+     */
+    public enum Stage {
+        /** Requesting the page and reading its body, retries included */
+        FETCH,
+        /** Parsing the body into the href of every anchor, part of FETCH when links are scanned as the body is read */
+        PARSE,
+        /** Resolving the hrefs into canonical internal URIs */
+        EXTRACT,
+        /** Adding the URIs to the frontier */
+        ENQUEUE
+    }
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private final LongAdder pagesCrawled = new LongAdder();
+    private final LongAdder pagesFailed = new LongAdder();
+    private final LongAdder linksFound = new LongAdder();
+    private final LongAdder linksQueued = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final LongAdder nearDuplicatePages = new LongAdder();
+    private final LongAdder nearDuplicateLinks = new LongAdder();
+    // Indexed by status code, codes outside 100 to 599 are counted at 0
+    private final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS);
+    private volatile LongSupplier frontierSize = ZERO;
+    private volatile LongSupplier pendingUris = ZERO;
+    private volatile LongSupplier inFlight = ZERO;
+    private volatile LongSupplier concurrencyLimit = ZERO;
+    private volatile ThreadPoolExecutor executor;
+    // Insertion ordered, so stages are reported in the order the pipeline runs them
+    private final Map<String, ThreadPoolExecutor> pipelineStages = Collections.synchronizedMap(new LinkedHashMap<>());
+    private long lastReportNanos = System.nanoTime();
+    private long lastReportPages;
+
+    public CrawlMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records how long a stage of crawling a page took
+     * @param stage The stage
+     * @param nanos How long it took in nanoseconds
+     */
+    public void record(Stage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * @param stage A stage of crawling a page
+     * @return The histogram of how long the stage has taken
+     */
+    public LatencyHistogram latency(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    /**
+     * Records a page crawled successfully
+     * @param found The number of links found on the page
+     * @param queued The number of them added to the frontier
+     */
+    public void crawled(int found, int queued) {
+        pagesCrawled.increment();
+        linksFound.add(found);
+        linksQueued.add(queued);
+    }
+
+    /**
+     * Records a page that could not be crawled
+     */
+    public void failed() {
+        pagesFailed.increment();
+    }
+
+    /**
+     * Records a request being retried
+     */
+    public void retried() {
+        retries.increment();
+    }
+
+    /**
+     * Records bytes of a response body read from the network
+     * @param bytes The number of bytes, as sent, before any decompression
+     */
+    public void downloaded(long bytes) {
+        bytesDownloaded.add(bytes);
+    }
+
+    /**
+     * Records a page whose links were not followed, as it was a near-duplicate of a page already crawled
+     * @param links The number of links found on the page
+     */
+    public void nearDuplicate(int links) {
+        nearDuplicatePages.increment();
+        nearDuplicateLinks.add(links);
+    }
+
+    /**
+     * Records a response's status code
+     * @param status The HTTP status code
+     */
+    public void responded(int status) {
+        statusCounts.incrementAndGet(status >= 100 && status < MAX_STATUS ? status : 0);
+    }
+
+    /**
+     * Sets the frontier's gauges, read when the metrics are reported
+     * @param frontierSize The number of URIs waiting in the frontier
+     * @param pendingUris The number of URIs added but not yet crawled
+     */
+    public void watchFrontier(LongSupplier frontierSize, LongSupplier pendingUris) {
+        this.frontierSize = frontierSize;
+        this.pendingUris = pendingUris;
+    }
+
+    /**
+     * Sets the workers' gauges, read when the metrics are reported
+     * @param inFlight The number of pages being crawled
+     * @param executor The pool the pages are crawled or parsed on, or null if it is not a thread pool
+     */
+    public void watchWorkers(LongSupplier inFlight, ThreadPoolExecutor executor) {
+        this.inFlight = inFlight;
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the gauge of an adaptive concurrency limit, read when the metrics are reported
+     * @param limit The limit on fetches in flight
+     */
+    public void watchConcurrencyLimit(LongSupplier limit) {
+        this.concurrencyLimit = limit;
+    }
+
+    /**
+     * Adds a stage of a staged crawl to the gauges, read when the metrics are reported
+     * @param name The stage's name
+     * @param stage The pool running the stage
+     */
+    public void watchStage(String name, ThreadPoolExecutor stage) {
+        pipelineStages.put(name, stage);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server
+     * @return The name they were registered under
+     * @throws JMException If they could not be registered, for instance as another crawl in the JVM already is
+     */
+    public ObjectName register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        server.registerMBean(this, name);
+        return name;
+    }
+
+    /**
+     * Summarises the metrics on one line, with the rate pages were crawled at since the last report
+     * @return The summary
+     */
+    public synchronized String report() {
+        long now = System.nanoTime();
+        long pages = getPagesCrawled();
+        double seconds = Math.max(1, now - lastReportNanos) / 1e9;
+        double rate = (pages - lastReportPages) / seconds;
+        lastReportNanos = now;
+        lastReportPages = pages;
+
+        StringBuilder summary = new StringBuilder(256);
+        summary.append(pages).append(" pages (").append(String.format("%.1f", rate)).append("/s), ")
+                .append(getPagesFailed()).append(" failed, ")
+                .append(getRetries()).append(" retries, ")
+                .append(getLinksFound()).append(" links found, ")
+                .append(getLinksQueued()).append(" queued, ")
+                .append(getBytesDownloaded() >> 10).append(" KiB, status ").append(getStatusCounts());
+        if (getNearDuplicatePages() > 0) {
+            summary.append(", ").append(getNearDuplicatePages()).append(" near-duplicates, ")
+                    .append(getNearDuplicateLinks()).append(" links not followed");
+        }
+        summary.append(", frontier ").append(getFrontierSize())
+                .append(", pending ").append(getPendingUris())
+                .append(", in flight ").append(getInFlight());
+        long limit = getConcurrencyLimit();
+        if (limit > 0) {
+            summary.append(" of ").append(limit);
+        }
+        summary.append(", executor ").append(getExecutorActive()).append(" active ").append(getExecutorQueued()).append(" queued");
+        synchronized (pipelineStages) {
+            pipelineStages.forEach((name, stage) -> summary.append(", ").append(name).append(' ')
+                    .append(stage.getActiveCount()).append('/').append(stage.getMaximumPoolSize()).append(" active ")
+                    .append(stage.getQueue().size()).append(" queued"));
+        }
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram.Snapshot snapshot = latency(stage).snapshot();
+            if (snapshot.count() > 0) {
+                summary.append(", ").append(stage.name().toLowerCase())
+                        .append(" p50 ").append(millis(snapshot.p50()))
+                        .append(" p99 ").append(millis(snapshot.p99()))
+                        .append(" max ").append(millis(snapshot.max())).append(" ms");
+            }
+        }
+        return summary.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Override
+    public long getPagesCrawled() {
+        return pagesCrawled.sum();
+    }
+
+    @Override
+    public long getPagesFailed() {
+        return pagesFailed.sum();
+    }
+
+    @Override
+    public long getLinksFound() {
+        return linksFound.sum();
+    }
+
+    @Override
+    public long getLinksQueued() {
+        return linksQueued.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getBytesDownloaded() {
+        return bytesDownloaded.sum();
+    }
+
+    @Override
+    public Map<String, Long> getStatusCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (int status = 0; status < MAX_STATUS; status++) {
+            long count = statusCounts.get(status);
+            if (count > 0) {
+                counts.put(status == 0 ? "other" : Integer.toString(status), count);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public long getNearDuplicatePages() {
+        return nearDuplicatePages.sum();
+    }
+
+    @Override
+    public long getNearDuplicateLinks() {
+        return nearDuplicateLinks.sum();
+    }
+
+    @Override
+    public long getFrontierSize() {
+        return frontierSize.getAsLong();
+    }
+
+    @Override
+    public long getPendingUris() {
+        return pendingUris.getAsLong();
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlight.getAsLong();
+    }
+
+    @Override
+    public long getConcurrencyLimit() {
+        return concurrencyLimit.getAsLong();
+    }
+
+    @Override
+    public long getExecutorActive() {
+        ThreadPoolExecutor pool = executor;
+        return pool == null ? 0 : pool.getActiveCount();
+    }
+
+    @Override
+    public long getExecutorQueued() {
+        ThreadPoolExecutor pool = executor;
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    @Override
+    public Map<String, Long> getStageActive() {
+        Map<String, Long> active = new LinkedHashMap<>();
+        synchronized (pipelineStages) {
+            pipelineStages.forEach((name, stage) -> active.put(name, (long) stage.getActiveCount()));
+        }
+        return active;
+    }
+
+    @Override
+    public Map<String, Long> getStageQueued() {
+        Map<String, Long> queued = new LinkedHashMap<>();
+        synchronized (pipelineStages) {
+            pipelineStages.forEach((name, stage) -> queued.put(name, (long) stage.getQueue().size()));
+        }
+        return queued;
+    }
+
+    @Override
+    public Map<String, Long> getFetchLatencyMicros() {
+        return latency(Stage.FETCH).snapshot().toMicros();
+    }
+
+    @Override
+    public Map<String, Long> getParseLatencyMicros() {
+        return latency(Stage.PARSE).snapshot().toMicros();
+    }
+
+    @Override
+    public Map<String, Long> getExtractLatencyMicros() {
+        return latency(Stage.EXTRACT).snapshot().toMicros();
+    }
+
+    @Override
+    public Map<String, Long> getEnqueueLatencyMicros() {
+        return latency(Stage.ENQUEUE).snapshot().toMicros();
+    }
+}
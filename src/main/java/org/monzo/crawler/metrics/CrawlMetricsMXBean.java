@@ -0,0 +1,69 @@
+package org.monzo.crawler.metrics;
+
+import java.util.Map;
+
+/**
+ * The crawl's metrics as exposed over JMX, under the name org.monzo.crawler:type=CrawlMetrics.
+ * Latencies are given in microseconds as their count, mean, p50, p90, p99 and max.
+ */
+public interface CrawlMetricsMXBean {
+    long getPagesCrawled();
+
+    long getPagesFailed();
+
+    long getLinksFound();
+
+    long getLinksQueued();
+
+    long getRetries();
+
+    long getBytesDownloaded();
+
+    /**
+     * @return The number of responses received with each HTTP status code, retried requests included
+     */
+    Map<String, Long> getStatusCounts();
+
+    /**
+     * @return The number of pages whose links were not followed as they were near-duplicates of pages already crawled
+     */
+    long getNearDuplicatePages();
+
+    /**
+     * @return The number of links on near-duplicate pages that were not followed, the most fetches this saved
+     */
+    long getNearDuplicateLinks();
+
+    long getFrontierSize();
+
+    long getPendingUris();
+
+    long getInFlight();
+
+    /**
+     * @return The adaptive limit on fetches in flight, 0 if the crawl's concurrency is fixed
+     */
+    long getConcurrencyLimit();
+
+    long getExecutorActive();
+
+    long getExecutorQueued();
+
+    /**
+     * @return The number of busy threads of each stage of a staged crawl, by stage name
+     */
+    Map<String, Long> getStageActive();
+
+    /**
+     * @return The number of tasks waiting on each stage of a staged crawl, by stage name
+     */
+    Map<String, Long> getStageQueued();
+
+    Map<String, Long> getFetchLatencyMicros();
+
+    Map<String, Long> getParseLatencyMicros();
+
+    Map<String, Long> getExtractLatencyMicros();
+
+    Map<String, Long> getEnqueueLatencyMicros();
+}
@@ -0,0 +1,131 @@
+package org.monzo.crawler.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed size, lock free histogram of latencies in nanoseconds, in the style of HdrHistogram. Values are
+ * counted in buckets that double in width with each power of two, each split into 16 sub-buckets, so every
+ * value is recorded to within 1/16 of itself from a nanosecond up to centuries. Recording a value is a
+ * couple of atomic increments, and the histogram never grows or allocates.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a latency
+     * @param nanos The latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Reads the histogram's counts. Values recorded while it is read may be left out of some figures.
+     * @return The count, mean, percentiles and max of the latencies recorded so far
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            recorded += copy[i];
+        }
+        long highest = max.get();
+        return new Snapshot(recorded, recorded == 0 ? 0 : total.sum() / recorded,
+                percentile(copy, recorded, 0.5, highest), percentile(copy, recorded, 0.9, highest),
+                percentile(copy, recorded, 0.99, highest), highest);
+    }
+
+    /**
+     * @return The number of latencies recorded
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Finds the bucket holding the given percentile, reporting the highest value the bucket holds
+     */
+    private static long percentile(long[] counts, long recorded, double percentile, long highest) {
+        if (recorded == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(recorded * percentile));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highest, i + 1 < BUCKETS ? lowestValue(i + 1) - 1 : Long.MAX_VALUE);
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * @param value A non-negative value
+     * @return The index of the bucket the value is counted in
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param bucket A bucket index
+     * @return The lowest value counted in the bucket
+     */
+    static long lowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+    }
+
+    /**
+     * A histogram's figures at one moment, in nanoseconds
+     * @param count The number of latencies recorded
+     * @param mean The mean latency
+     * @param p50 The median latency
+     * @param p90 The 90th percentile latency
+     * @param p99 The 99th percentile latency
+     * @param max The highest latency
+     */
+    public record Snapshot(long count, long mean, long p50, long p90, long p99, long max) {
+
+        /**
+         * @return The snapshot's figures in microseconds, keyed by name
+         */
+        public Map<String, Long> toMicros() {
+            Map<String, Long> micros = new LinkedHashMap<>();
+            micros.put("count", count);
+            micros.put("mean", TimeUnit.NANOSECONDS.toMicros(mean));
+            micros.put("p50", TimeUnit.NANOSECONDS.toMicros(p50));
+            micros.put("p90", TimeUnit.NANOSECONDS.toMicros(p90));
+            micros.put("p99", TimeUnit.NANOSECONDS.toMicros(p99));
+            micros.put("max", TimeUnit.NANOSECONDS.toMicros(max));
+            return micros;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.monzo.crawler.net;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A concurrency limit that adjusts itself to the highest concurrency a target sustains. Requests take a
+ * permit before they are sent and return it with how long they took and how they ended. Samples are
+ * judged a window at a time, a window being as many requests as the limit:
+ * <ul>
+ *     <li>A throttled request, 429 or 503, halves the limit straight away, at most once a window</li>
+ *     <li>A window where more than a tenth of the requests failed, with a 5xx or on the network, halves it</li>
+ *     <li>A window whose p99 latency has risen past twice the baseline cuts it in proportion to the rise</li>
+ *     <li>Otherwise, if the window's requests were held back by the limit, it is raised by one</li>
+ * </ul>
+ * Until the limit is first cut it doubles each window instead of rising by one, as TCP's slow start does, so
+ * that a fast target is found in a few windows.
+ * The baseline is the lowest window p99 seen, drifting slowly up towards later windows so that a target that
+ * has become slower for good is not held to its old latency. Permits are handed out asynchronously, so a
+ * request waiting on the limit of one host does not hold a thread.
+ */
+public class AdaptiveLimit {
+    /**
+     * How a request ended
+     */
+    public enum Outcome {
+        /** The page was fetched, its latency is a sample */
+        SUCCESS,
+        /** The server failed or the request did not complete, a sign of overload */
+        DROPPED,
+        /** The server asked the crawler to slow down */
+        THROTTLED,
+        /** The request ended for a reason that says nothing about load, such as a 404, it is not sampled */
+        IGNORED
+    }
+
+    private static final int MIN_WINDOW = 10;
+    private static final double MAX_DROP_RATE = 0.1;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double BASELINE_DRIFT = 0.02;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private long[] latencies = new long[MIN_WINDOW];
+    private double limit;
+    private int inFlight;
+    private int samples;
+    private int dropped;
+    private boolean saturated;
+    private boolean throttled;
+    private boolean slowStart = true;
+    private double baselineNanos = Double.NaN;
+
+    /**
+     * @param initialLimit The limit to start at
+     * @param minLimit The lowest the limit can fall to, at least 1
+     * @param maxLimit The highest the limit can rise to
+     */
+    public AdaptiveLimit(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("The limits must satisfy 1 <= min <= max");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.clamp(initialLimit, minLimit, maxLimit);
+    }
+
+    /**
+     * Takes a permit, once the number of requests in flight is under the limit
+     * @return A future completed once the permit has been taken, cancel it to stop waiting
+     */
+    public CompletableFuture<Void> acquire() {
+        synchronized (this) {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                saturated |= inFlight >= (int) limit;
+                return CompletableFuture.completedFuture(null);
+            }
+            saturated = true;
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+    }
+
+    /**
+     * Returns a permit taken with acquire
+     * @param outcome How the request ended
+     * @param latencyNanos How long the request took
+     */
+    public void release(Outcome outcome, long latencyNanos) {
+        List<CompletableFuture<Void>> admitted;
+        synchronized (this) {
+            inFlight--;
+            record(outcome, latencyNanos);
+            admitted = admit();
+        }
+        for (CompletableFuture<Void> waiter : admitted) {
+            if (!waiter.complete(null)) {
+                // Cancelled while it was being admitted
+                release(Outcome.IGNORED, 0);
+            }
+        }
+    }
+
+    /**
+     * @return The current limit
+     */
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return The number of permits taken and not yet returned
+     */
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Hands permits to waiters while there is room under the limit, to be completed outside the lock
+     */
+    private List<CompletableFuture<Void>> admit() {
+        List<CompletableFuture<Void>> admitted = List.of();
+        while (inFlight < (int) limit && !waiters.isEmpty()) {
+            CompletableFuture<Void> waiter = waiters.poll();
+            if (waiter.isDone()) {
+                continue;
+            }
+            if (admitted.isEmpty()) {
+                admitted = new ArrayList<>();
+            }
+            admitted.add(waiter);
+            inFlight++;
+        }
+        return admitted;
+    }
+
+    private void record(Outcome outcome, long latencyNanos) {
+        switch (outcome) {
+            case IGNORED -> {
+                return;
+            }
+            case THROTTLED -> {
+                if (!throttled) {
+                    throttled = true;
+                    cut(limit / 2);
+                }
+                dropped++;
+            }
+            case DROPPED -> dropped++;
+            case SUCCESS -> {
+                if (samples - dropped == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, latencies.length * 2);
+                }
+                latencies[samples - dropped] = latencyNanos;
+            }
+        }
+        if (++samples >= Math.max(MIN_WINDOW, (int) limit)) {
+            endWindow();
+        }
+    }
+
+    private void endWindow() {
+        int successes = samples - dropped;
+        if (dropped > samples * MAX_DROP_RATE) {
+            if (!throttled) {
+                cut(limit / 2);
+            }
+        } else if (successes > 0) {
+            Arrays.sort(latencies, 0, successes);
+            long p99 = latencies[Math.min(successes - 1, (int) Math.ceil(successes * 0.99) - 1)];
+            if (Double.isNaN(baselineNanos) || p99 < baselineNanos) {
+                baselineNanos = p99;
+            } else {
+                baselineNanos += (p99 - baselineNanos) * BASELINE_DRIFT;
+            }
+            double tolerated = baselineNanos * LATENCY_TOLERANCE;
+            if (p99 > tolerated) {
+                cut(limit * Math.max(0.5, tolerated / p99));
+            } else if (saturated && dropped == 0 && !throttled) {
+                limit = Math.min(maxLimit, slowStart ? limit * 2 : limit + 1);
+            }
+        }
+        samples = 0;
+        dropped = 0;
+        saturated = inFlight >= (int) limit;
+        throttled = false;
+    }
+
+    private void cut(double to) {
+        limit = Math.max(minLimit, to);
+        slowStart = false;
+    }
+}
@@ -0,0 +1,193 @@
+package org.monzo.crawler.net;
+
+import org.monzo.crawler.exceptions.ContentRejectedException;
+import org.monzo.crawler.exceptions.HttpStatusException;
+import org.monzo.crawler.exceptions.WebBrowserException;
+import org.monzo.crawler.exceptions.WebBrowserFailure;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * A Browser decorator that limits how many requests are in flight to each host, and in total, with an
+ * AdaptiveLimit for each. The limits rise while requests succeed without their latency rising, and fall when a
+ * host answers 429, 503 or another 5xx, when requests fail on the network, or when latency rises, so that the
+ * crawl settles at the most concurrency the hosts and the crawler can sustain.
+ * <p>
+ * A request takes its host's permit before the global one, so that a request waiting on a slow host does not
+ * hold back requests to the others. The asynchronous methods wait for their permits without holding a thread,
+ * and start the request on the thread that hands them the last permit.
+ * <p>
+ * Wrapped in a RetryingBrowser, each attempt takes its permits and records its outcome, so a 429 that is retried
+ * still cuts the limit, and the wait before the next attempt neither holds a permit nor counts as latency.
+ */
+public class AdaptiveLimitedBrowser implements Browser {
+    private final Browser browser;
+    private final AdaptiveLimit global;
+    private final Supplier<AdaptiveLimit> hostLimits;
+    private final Map<String, AdaptiveLimit> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an adaptively limited browser
+     * @param browser The browser to send the requests with
+     * @param global The limit on requests in flight to every host together
+     * @param hostLimits Creates the limit for a host the first time a request is sent to it
+     */
+    public AdaptiveLimitedBrowser(Browser browser, AdaptiveLimit global, Supplier<AdaptiveLimit> hostLimits) {
+        this.browser = browser;
+        this.global = global;
+        this.hostLimits = hostLimits;
+    }
+
+    @Override
+    public String get(URI uri) throws WebBrowserException {
+        return withPermits(uri, browser::get);
+    }
+
+    @Override
+    public List<String> getLinks(URI uri) throws WebBrowserException {
+        return withPermits(uri, browser::getLinks);
+    }
+
+    @Override
+    public ConditionalResponse<String> getIfChanged(URI uri, Validators validators) throws WebBrowserException {
+        return withPermits(uri, target -> browser.getIfChanged(target, validators));
+    }
+
+    @Override
+    public ConditionalResponse<List<String>> getLinksIfChanged(URI uri, Validators validators) throws WebBrowserException {
+        return withPermits(uri, target -> browser.getLinksIfChanged(target, validators));
+    }
+
+    /**
+     * Waits for the permits without holding a thread then sends the request with the wrapped browser's getAsync
+     * @param uri The URI to scrape
+     * @return A future completed with the pages HTML, or exceptionally if the request failed
+     */
+    @Override
+    public CompletableFuture<String> getAsync(URI uri) {
+        return withPermitsAsync(uri, () -> browser.getAsync(uri));
+    }
+
+    /**
+     * Waits for the permits without holding a thread then sends the request with the wrapped browser's
+     * getIfChangedAsync
+     * @param uri The URI to scrape
+     * @param validators The validators sent with the last copy of the page
+     * @return A future completed with the page or that it has not been modified, or exceptionally if the request failed
+     */
+    @Override
+    public CompletableFuture<ConditionalResponse<String>> getIfChangedAsync(URI uri, Validators validators) {
+        return withPermitsAsync(uri, () -> browser.getIfChangedAsync(uri, validators));
+    }
+
+    /**
+     * @return The limit on requests in flight to every host together
+     */
+    public AdaptiveLimit globalLimit() {
+        return global;
+    }
+
+    /**
+     * @param host A host requests have been sent to
+     * @return The limit on requests in flight to the host, or null if none has been sent to it
+     */
+    public AdaptiveLimit hostLimit(String host) {
+        return hosts.get(host);
+    }
+
+    /**
+     * Tells a limit how a request ended from the failure it ended with. Only failures that are a sign of
+     * overload count against the limit, a 404 or a rejected response says nothing about load.
+     * @param failure A failure, possibly wrapping others
+     * @return How the request ended
+     */
+    static AdaptiveLimit.Outcome outcomeOf(Throwable failure) {
+        if (ContentRejectedException.isCause(failure)) {
+            return AdaptiveLimit.Outcome.IGNORED;
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusException status) {
+                if (status.isThrottling()) {
+                    return AdaptiveLimit.Outcome.THROTTLED;
+                }
+                return status.getStatusCode() >= 500 ? AdaptiveLimit.Outcome.DROPPED : AdaptiveLimit.Outcome.IGNORED;
+            }
+        }
+        return AdaptiveLimit.Outcome.DROPPED;
+    }
+
+    private AdaptiveLimit host(URI uri) {
+        return hosts.computeIfAbsent(String.valueOf(uri.getHost()), _ -> hostLimits.get());
+    }
+
+    private <T> T withPermits(URI uri, Fetch<T> fetch) throws WebBrowserException {
+        AdaptiveLimit host = host(uri);
+        await(host);
+        try {
+            await(global);
+        } catch (RuntimeException e) {
+            host.release(AdaptiveLimit.Outcome.IGNORED, 0);
+            throw e;
+        }
+
+        long start = System.nanoTime();
+        AdaptiveLimit.Outcome outcome = AdaptiveLimit.Outcome.DROPPED;
+        try {
+            T result = fetch.apply(uri);
+            outcome = AdaptiveLimit.Outcome.SUCCESS;
+            return result;
+        } catch (WebBrowserException | RuntimeException e) {
+            outcome = outcomeOf(e);
+            throw e;
+        } finally {
+            release(host, outcome, System.nanoTime() - start);
+        }
+    }
+
+    private <T> CompletableFuture<T> withPermitsAsync(URI uri, Supplier<CompletableFuture<T>> fetch) {
+        AdaptiveLimit host = host(uri);
+        return host.acquire()
+                .thenCompose(_ -> global.acquire())
+                .thenCompose(_ -> {
+                    long start = System.nanoTime();
+                    CompletableFuture<T> result;
+                    try {
+                        result = fetch.get();
+                    } catch (RuntimeException e) {
+                        result = CompletableFuture.failedFuture(e);
+                    }
+                    return result.whenComplete((_, e) -> release(host,
+                            e == null ? AdaptiveLimit.Outcome.SUCCESS : outcomeOf(e), System.nanoTime() - start));
+                });
+    }
+
+    private void release(AdaptiveLimit host, AdaptiveLimit.Outcome outcome, long latencyNanos) {
+        global.release(outcome, latencyNanos);
+        host.release(outcome, latencyNanos);
+    }
+
+    /**
+     * Blocks until a permit is taken from the limit
+     */
+    private static void await(AdaptiveLimit limit) {
+        CompletableFuture<Void> permit = limit.acquire();
+        try {
+            permit.get();
+        } catch (InterruptedException e) {
+            if (!permit.cancel(false)) {
+                // Taken just before the wait was interrupted
+                limit.release(AdaptiveLimit.Outcome.IGNORED, 0);
+            }
+            Thread.currentThread().interrupt();
+            throw new WebBrowserFailure(e);
+        } catch (ExecutionException e) {
+            throw new WebBrowserFailure(e.getCause());
+        }
+    }
+}
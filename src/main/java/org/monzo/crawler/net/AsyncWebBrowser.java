@@ -0,0 +1,242 @@
+package org.monzo.crawler.net;
+
+import io.github.resilience4j.retry.Retry;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.entity.BrotliDecompressingEntity;
+import org.apache.hc.client5.http.entity.BrotliInputStreamFactory;
+import org.apache.hc.client5.http.entity.DeflateInputStreamFactory;
+import org.apache.hc.client5.http.entity.GZIPInputStreamFactory;
+import org.apache.hc.client5.http.entity.InputStreamFactory;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.config.Lookup;
+import org.apache.hc.core5.http.config.RegistryBuilder;
+import org.monzo.crawler.exceptions.ContentRejectedException;
+import org.monzo.crawler.exceptions.WebBrowserFailure;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * A non-blocking web browser built on the httpclient async client. Requests are sent from the client's
+ * I/O reactor threads and retries are scheduled on a ScheduledExecutorService, so no thread is held
+ * while a request is in flight or while waiting to retry it.
+ * <p>
+ * Unlike the classic client the async client neither asks for compressed responses nor decompresses them,
+ * so the browser sends Accept-Encoding itself and decompresses gzip, deflate and brotli bodies.
+ */
+public class AsyncWebBrowser implements Browser {
+    private static final Lookup<InputStreamFactory> DECODERS = decoders();
+    private static final String ACCEPT_ENCODING = BrotliDecompressingEntity.isAvailable() ? "gzip, deflate, br" : "gzip, deflate";
+    private final CloseableHttpAsyncClient client;
+    private final Retry retry;
+    private final ScheduledExecutorService scheduler;
+    private final ContentPolicy policy;
+
+    /**
+     * Creates an AsyncWebBrowser instance which can be used to send HTTP requests and retrieve the web pages
+     * content if a 200 code is received.
+     * @param client A started async HttpClient to be used to send requests
+     * @param retry The retry object to wrap the sending of the requests in a retry mechanism
+     * @param scheduler The scheduler retry attempts are scheduled on
+     */
+    public AsyncWebBrowser(CloseableHttpAsyncClient client, Retry retry, ScheduledExecutorService scheduler) {
+        this(client, ContentPolicy.ANY, retry, scheduler);
+    }
+
+    /**
+     * Creates an AsyncWebBrowser that only reads the responses the policy accepts, abandoning any other as soon
+     * as its headers or size give it away
+     * @param client A started async HttpClient to be used to send requests
+     * @param policy The content types and body size the browser reads
+     * @param retry The retry object to wrap the sending of the requests in a retry mechanism, or null to send each once
+     * @param scheduler The scheduler retry attempts are scheduled on
+     */
+    public AsyncWebBrowser(CloseableHttpAsyncClient client, ContentPolicy policy, Retry retry, ScheduledExecutorService scheduler) {
+        this.client = client;
+        this.policy = policy;
+        this.retry = retry;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Creates an AsyncWebBrowser that sends each request once, for use inside a RetryingBrowser so that the
+     * decorators between them see every attempt
+     * @param client A started async HttpClient to be used to send requests
+     * @param policy The content types and body size the browser reads
+     */
+    public AsyncWebBrowser(CloseableHttpAsyncClient client, ContentPolicy policy) {
+        this(client, policy, null, null);
+    }
+
+    /**
+     * Sends an HTTP GET request to the given URL, retrying failures according to the retry config if the
+     * browser has one.
+     * @param uri The URI to scrape
+     * @return A future completed with the pages HTML, or exceptionally with a WebBrowserFailure
+     */
+    @Override
+    public CompletableFuture<String> getAsync(URI uri) {
+        return withRetry(() -> send(uri, Validators.NONE, this::body));
+    }
+
+    /**
+     * Sends an HTTP GET request to the given URL with If-None-Match and If-Modified-Since set from the
+     * validators, retrying failures according to the retry config if the browser has one. A 304 response is not
+     * modified.
+     * @param uri The URI to scrape
+     * @param validators The validators sent with the last copy of the page
+     * @return A future completed with the page's HTML and validators, or that it has not been modified
+     */
+    @Override
+    public CompletableFuture<ConditionalResponse<String>> getIfChangedAsync(URI uri, Validators validators) {
+        return withRetry(() -> send(uri, validators, this::conditionalBody));
+    }
+
+    /**
+     * Blocking form of getAsync, for callers that need the page on the current thread
+     * @param uri The URI to scrape
+     * @return The pages HTML if the request was successful
+     */
+    @Override
+    public String get(URI uri) {
+        return join(getAsync(uri));
+    }
+
+    /**
+     * Blocking form of getIfChangedAsync
+     * @param uri The URI to scrape
+     * @param validators The validators sent with the last copy of the page
+     * @return The page's HTML and validators, or that it has not been modified
+     */
+    @Override
+    public ConditionalResponse<String> getIfChanged(URI uri, Validators validators) {
+        return join(getIfChangedAsync(uri, validators));
+    }
+
+    private static Lookup<InputStreamFactory> decoders() {
+        RegistryBuilder<InputStreamFactory> decoders = RegistryBuilder.<InputStreamFactory>create()
+                .register("gzip", GZIPInputStreamFactory.getInstance())
+                .register("x-gzip", GZIPInputStreamFactory.getInstance())
+                .register("deflate", DeflateInputStreamFactory.getInstance())
+                .register("identity", in -> in);
+        if (BrotliDecompressingEntity.isAvailable()) {
+            decoders.register("br", BrotliInputStreamFactory.getInstance());
+        }
+        return decoders.build();
+    }
+
+    private <T> CompletableFuture<T> withRetry(Supplier<CompletableFuture<T>> attempt) {
+        if (retry == null) {
+            return attempt.get();
+        }
+        return retry.executeCompletionStage(scheduler, attempt::get)
+                .toCompletableFuture()
+                .exceptionallyCompose(e -> CompletableFuture.failedFuture(WebBrowser.afterRetries(retry, e)));
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof WebBrowserFailure failure) {
+                throw failure;
+            }
+            throw new WebBrowserFailure(e.getCause());
+        }
+    }
+
+    /**
+     * Reads a 200 response's body as text, decompressing it if the server compressed it. The async client does
+     * not decompress responses itself.
+     */
+    private String body(SimpleHttpResponse response) throws HttpException, IOException {
+        BrowserResponseHandler.checkStatus(response);
+        byte[] bytes = response.getBodyBytes();
+        if (bytes == null) {
+            return "";
+        }
+        InputStream content = new ByteArrayInputStream(bytes);
+        Header encoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+        if (encoding != null && !encoding.getValue().isBlank()) {
+            InputStreamFactory decoder = DECODERS.lookup(encoding.getValue().trim().toLowerCase(Locale.ROOT));
+            if (decoder == null) {
+                throw new ContentRejectedException("Unsupported content encoding: " + encoding.getValue());
+            }
+            content = decoder.create(content);
+        }
+        ContentType contentType = response.getContentType();
+        Charset charset = contentType == null ? StandardCharsets.UTF_8 : contentType.getCharset(StandardCharsets.UTF_8);
+        try (InputStream limited = policy.limit(content)) {
+            return new String(limited.readAllBytes(), charset);
+        }
+    }
+
+    private ConditionalResponse<String> conditionalBody(SimpleHttpResponse response) throws HttpException, IOException {
+        Validators validators = Validators.of(response);
+        if (BrowserResponseHandler.checkConditionalStatus(response)) {
+            return ConditionalResponse.notModified(validators);
+        }
+        return ConditionalResponse.modified(body(response), validators);
+    }
+
+    /**
+     * Sends a single attempt of the request
+     * @param uri The URI to scrape
+     * @param validators The validators to make the request conditional on, NONE to always fetch the page
+     * @param reader Checks the response and reads the result from it
+     * @return A future completed with the value read, or exceptionally with a WebBrowserFailure
+     */
+    private <T> CompletableFuture<T> send(URI uri, Validators validators, ResponseReader<T> reader) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        SimpleHttpRequest request = SimpleRequestBuilder.get(uri).build();
+        request.setHeader(HttpHeaders.ACCEPT_ENCODING, ACCEPT_ENCODING);
+        validators.applyTo(request);
+        client.execute(SimpleRequestProducer.create(request), new BoundedResponseConsumer(policy), new FutureCallback<>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                try {
+                    result.complete(reader.read(response));
+                } catch (HttpException | IOException e) {
+                    result.completeExceptionally(new WebBrowserFailure(e));
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.completeExceptionally(new WebBrowserFailure(e));
+            }
+
+            @Override
+            public void cancelled() {
+                result.completeExceptionally(new WebBrowserFailure(new CancellationException("Request to " + uri + " cancelled")));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Reads the result of a request from its response
+     */
+    @FunctionalInterface
+    private interface ResponseReader<T> {
+        T read(SimpleHttpResponse response) throws HttpException, IOException;
+    }
+}
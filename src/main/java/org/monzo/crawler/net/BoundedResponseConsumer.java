@@ -0,0 +1,86 @@
+package org.monzo.crawler.net;
+
+import org.apache.hc.client5.http.async.methods.AbstractBinResponseConsumer;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+import org.monzo.crawler.exceptions.ContentRejectedException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads an async response into a SimpleHttpResponse, as the client's default consumer does, but checks a 200
+ * response against a ContentPolicy from its headers and abandons it as soon as its body passes the size limit.
+ * The size is checked on the bytes as sent, before any decompression. One instance reads one response.
+ */
+final class BoundedResponseConsumer extends AbstractBinResponseConsumer<SimpleHttpResponse> {
+    private final ContentPolicy policy;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private SimpleHttpResponse response;
+    private ContentType contentType;
+
+    BoundedResponseConsumer(ContentPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    protected void start(HttpResponse head, ContentType type) throws ContentRejectedException {
+        if (head.getCode() == HttpStatus.SC_OK) {
+            // The type passed in defaults to application/octet-stream, so the header is read to tell an untyped response
+            policy.check(value(head.getFirstHeader(HttpHeaders.CONTENT_TYPE)),
+                    parseLength(value(head.getFirstHeader(HttpHeaders.CONTENT_LENGTH))));
+        }
+        this.response = SimpleHttpResponse.copy(head);
+        this.contentType = type;
+    }
+
+    @Override
+    protected int capacityIncrement() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    protected void data(ByteBuffer src, boolean endOfStream) throws ContentRejectedException {
+        int length = src.remaining();
+        if (body.size() + (long) length > policy.maxBodyBytes()) {
+            throw new ContentRejectedException("Body is larger than " + policy.maxBodyBytes() + " bytes");
+        }
+        if (src.hasArray()) {
+            body.write(src.array(), src.arrayOffset() + src.position(), length);
+            src.position(src.limit());
+        } else {
+            byte[] bytes = new byte[length];
+            src.get(bytes);
+            body.write(bytes, 0, length);
+        }
+    }
+
+    @Override
+    protected SimpleHttpResponse buildResult() {
+        if (body.size() > 0) {
+            response.setBody(body.toByteArray(), contentType);
+        }
+        return response;
+    }
+
+    @Override
+    public void releaseResources() {
+        body.reset();
+    }
+
+    private static String value(Header header) {
+        return header == null ? null : header.getValue();
+    }
+
+    private static long parseLength(String length) {
+        try {
+            return length == null ? -1 : Long.parseLong(length.trim());
+        } catch (NumberFormatException _) {
+            return -1;
+        }
+    }
+}
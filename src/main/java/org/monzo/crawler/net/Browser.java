@@ -3,7 +3,75 @@ package org.monzo.crawler.net;
 import org.monzo.crawler.exceptions.WebBrowserException;
 
 import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface Browser {
     String get(URI uri) throws WebBrowserException;
+
+    /**
+     * Retrieves the page without blocking the caller. Browsers that can only block complete the
+     * future on the calling thread, asynchronous browsers complete it when the response arrives.
+     * @param uri The URI to scrape
+     * @return A future completed with the pages HTML, or exceptionally if the request failed
+     */
+    default CompletableFuture<String> getAsync(URI uri) {
+        try {
+            return CompletableFuture.completedFuture(get(uri));
+        } catch (WebBrowserException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Retrieves the href of every anchor on the page. Browsers that can read the response as it arrives
+     * scan it for links without holding the whole page, by default the page is retrieved and then scanned.
+     * @param uri The URI to scrape
+     * @return The href of every anchor on the page, in document order
+     * @throws WebBrowserException If the page could not be retrieved
+     */
+    default List<String> getLinks(URI uri) throws WebBrowserException {
+        return HrefScanner.scan(get(uri));
+    }
+
+    /**
+     * Retrieves the page unless it has not changed since the given validators were issued. Browsers that
+     * cannot send conditional requests retrieve the page in full and return no validators.
+     * @param uri The URI to scrape
+     * @param validators The validators sent with the last copy of the page, NONE if there is no copy
+     * @return The page's HTML and validators, or that the page has not been modified
+     * @throws WebBrowserException If the page could not be retrieved
+     */
+    default ConditionalResponse<String> getIfChanged(URI uri, Validators validators) throws WebBrowserException {
+        return ConditionalResponse.modified(get(uri), Validators.NONE);
+    }
+
+    /**
+     * Retrieves the href of every anchor on the page unless the page has not changed since the given
+     * validators were issued. By default the page is retrieved with getIfChanged and then scanned.
+     * @param uri The URI to scrape
+     * @param validators The validators sent with the last copy of the page, NONE if there is no copy
+     * @return The page's links and validators, or that the page has not been modified
+     * @throws WebBrowserException If the page could not be retrieved
+     */
+    default ConditionalResponse<List<String>> getLinksIfChanged(URI uri, Validators validators) throws WebBrowserException {
+        ConditionalResponse<String> response = getIfChanged(uri, validators);
+        return response.notModified()
+                ? ConditionalResponse.notModified(response.validators())
+                : ConditionalResponse.modified(HrefScanner.scan(response.content()), response.validators());
+    }
+
+    /**
+     * Non-blocking form of getIfChanged, by default completed on the calling thread
+     * @param uri The URI to scrape
+     * @param validators The validators sent with the last copy of the page, NONE if there is no copy
+     * @return A future completed with the page's HTML and validators, or that it has not been modified
+     */
+    default CompletableFuture<ConditionalResponse<String>> getIfChangedAsync(URI uri, Validators validators) {
+        try {
+            return CompletableFuture.completedFuture(getIfChanged(uri, validators));
+        } catch (WebBrowserException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
@@ -1,26 +1,132 @@
 package org.monzo.crawler.net;
 
+import org.apache.hc.client5.http.utils.DateUtils;
 import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
 import org.apache.hc.core5.http.io.HttpClientResponseHandler;
-import org.apache.hc.core5.http.io.entity.EntityUtils;
+
+import org.monzo.crawler.exceptions.HttpStatusException;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.time.Instant;
 
 /**
  * Implementation of the HttClientResponseHandler that returns a string.
  * Code extracted out into its own class for easier unit testing
  */
 public class BrowserResponseHandler implements HttpClientResponseHandler<String> {
+    private final ContentPolicy policy;
+
+    /**
+     * Creates a handler that reads every 200 response, whatever its type or size
+     */
+    public BrowserResponseHandler() {
+        this(ContentPolicy.ANY);
+    }
+
+    /**
+     * Creates a handler that only reads the responses the policy accepts
+     * @param policy The content types and body size the handler reads
+     */
+    public BrowserResponseHandler(ContentPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Reads a 200 response's body as text. The client has already decompressed any gzip, deflate or brotli body.
+     * @param response The response
+     * @return The body, empty if the response had none
+     * @throws HttpException If the status code is not 200
+     * @throws IOException If the body cannot be read, or the policy rejects it
+     */
     @Override
     public String handleResponse(ClassicHttpResponse response) throws HttpException, IOException {
-        if (response.getCode() == 200) {
-            return EntityUtils.toString(response.getEntity());
-        } else if (response.getCode() >= 500) {
-            throw new HttpException("Server error: " + response.getCode());
+        checkStatus(response);
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return "";
+        }
+        StringWriter body = new StringWriter();
+        try (Reader reader = policy.open(entity)) {
+            reader.transferTo(body);
+        }
+        return body.toString();
+    }
+
+    /**
+     * Checks that a response has a status code the crawler can read the page from.
+     * Shared by the blocking and asynchronous browsers so both fail in the same way.
+     * @param response The response
+     * @throws HttpStatusException If the status code is not 200, with any Retry-After the server sent
+     */
+    public static void checkStatus(HttpResponse response) throws HttpStatusException {
+        int code = response.getCode();
+        if (code != 200) {
+            checkStatus(code, retryAfter(response.getFirstHeader(HttpHeaders.RETRY_AFTER)));
+        }
+    }
+
+    /**
+     * Checks the status of a response to a conditional request, where 304 Not Modified is a success
+     * meaning the crawler's copy of the page is still current.
+     * @param response The response
+     * @return true if the page has not changed, false if the response carries the page
+     * @throws HttpStatusException If the status code is neither 200 nor 304, with any Retry-After the server sent
+     */
+    public static boolean checkConditionalStatus(HttpResponse response) throws HttpStatusException {
+        if (response.getCode() == HttpStatus.SC_NOT_MODIFIED) {
+            return true;
+        }
+        checkStatus(response);
+        return false;
+    }
+
+    /**
+     * Checks that a response status code is one the crawler can read the page from.
+     * @param code The response status code
+     * @throws HttpStatusException If the status code is not 200
+     */
+    public static void checkStatus(int code) throws HttpStatusException {
+        checkStatus(code, null);
+    }
+
+    private static void checkStatus(int code, Duration retryAfter) throws HttpStatusException {
+        if (code == 200) {
+            return;
+        }
+        if (code >= 500) {
+            throw new HttpStatusException("Server error: " + code, code, retryAfter);
+        }
+        throw new HttpStatusException("Unexpected status code: " + code, code, retryAfter);
+    }
+
+    /**
+     * Reads a Retry-After header, given either as a number of seconds or as a date
+     * @param header The header, may be null
+     * @return How long the server asked the crawler to wait, or null if it did not say
+     */
+    private static Duration retryAfter(Header header) {
+        if (header == null || header.getValue() == null) {
+            return null;
         }
-        else {
-            throw new HttpException("Unexpected status code: ", response.getCode());
+        String value = header.getValue().trim();
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException _) {
+            Instant date = DateUtils.parseStandardDate(value);
+            if (date == null) {
+                return null;
+            }
+            Duration wait = Duration.between(Instant.now(), date);
+            return wait.isNegative() ? Duration.ZERO : wait;
         }
     }
 }
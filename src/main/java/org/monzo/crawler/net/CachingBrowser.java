@@ -0,0 +1,111 @@
+package org.monzo.crawler.net;
+
+import org.monzo.crawler.exceptions.HttpStatusException;
+import org.monzo.crawler.exceptions.WebBrowserException;
+import org.monzo.crawler.exceptions.WebBrowserFailure;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Browser decorator that keeps every page it retrieves in a ResponseCache, with the ETag and Last-Modified
+ * the server sent. When a page is cached it is requested with If-None-Match and If-Modified-Since, and a 304
+ * Not Modified response is answered from the cache, so a recrawl only downloads the pages that changed.
+ * <p>
+ * Pages read with getLinks are cached as their links, pages read with get or getAsync as their HTML. Pages
+ * sent without either validator cannot be revalidated, so are not cached.
+ */
+public class CachingBrowser implements Browser {
+    private final Browser browser;
+    private final ResponseCache cache;
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong fetched = new AtomicLong();
+
+    /**
+     * @param browser The browser to send the requests with, it must send conditional requests for the cache to be used
+     * @param cache The cache of pages and their validators
+     */
+    public CachingBrowser(Browser browser, ResponseCache cache) {
+        this.browser = browser;
+        this.cache = cache;
+    }
+
+    /**
+     * Retrieves the page, from the cache if the server says the cached copy has not changed
+     * @param uri The URI to scrape
+     * @return The pages HTML
+     * @throws WebBrowserException If the wrapped browser fails
+     */
+    @Override
+    public String get(URI uri) throws WebBrowserException {
+        ResponseCache.Entry<String> cached = cache.get(uri, ResponseCache.PAGE);
+        return update(uri, ResponseCache.PAGE, cached, browser.getIfChanged(uri, validators(cached)));
+    }
+
+    /**
+     * Retrieves the page's links, from the cache if the server says the page has not changed
+     * @param uri The URI to scrape
+     * @return The href of every anchor on the page
+     * @throws WebBrowserException If the wrapped browser fails
+     */
+    @Override
+    public List<String> getLinks(URI uri) throws WebBrowserException {
+        ResponseCache.Entry<List<String>> cached = cache.get(uri, ResponseCache.LINKS);
+        return update(uri, ResponseCache.LINKS, cached, browser.getLinksIfChanged(uri, validators(cached)));
+    }
+
+    /**
+     * Retrieves the page with the wrapped browser's getIfChangedAsync, from the cache if the server says the
+     * cached copy has not changed
+     * @param uri The URI to scrape
+     * @return A future completed with the pages HTML, or exceptionally if the request failed
+     */
+    @Override
+    public CompletableFuture<String> getAsync(URI uri) {
+        ResponseCache.Entry<String> cached = cache.get(uri, ResponseCache.PAGE);
+        return browser.getIfChangedAsync(uri, validators(cached))
+                .thenApply(response -> update(uri, ResponseCache.PAGE, cached, response));
+    }
+
+    /**
+     * @return The number of pages answered from the cache because the server said they had not changed
+     */
+    public long notModified() {
+        return notModified.get();
+    }
+
+    /**
+     * @return The number of pages downloaded, because they were not cached or had changed
+     */
+    public long fetched() {
+        return fetched.get();
+    }
+
+    private static Validators validators(ResponseCache.Entry<?> cached) {
+        return cached == null ? Validators.NONE : cached.validators();
+    }
+
+    /**
+     * Answers a not modified response from the cache, and caches a modified page in place of the old copy
+     */
+    private <T> T update(URI uri, ResponseCache.Codec<T> codec, ResponseCache.Entry<T> cached, ConditionalResponse<T> response) {
+        if (response.notModified()) {
+            if (cached == null) {
+                // Only a conditional request can be answered 304
+                throw new WebBrowserFailure(new HttpStatusException("Unexpected status code: 304", 304, null));
+            }
+            notModified.incrementAndGet();
+            return cached.content();
+        }
+
+        fetched.incrementAndGet();
+        if (!response.validators().isEmpty()) {
+            cache.put(uri, codec, response.validators(), response.content());
+        } else if (cached != null) {
+            cache.remove(uri, codec);
+        }
+        return response.content();
+    }
+}
@@ -0,0 +1,183 @@
+package org.monzo.crawler.net;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monzo.crawler.exceptions.ContentRejectedException;
+import org.monzo.crawler.exceptions.HttpStatusException;
+import org.monzo.crawler.exceptions.WebBrowserException;
+import org.monzo.crawler.exceptions.WebBrowserFailure;
+import org.monzo.crawler.frontier.FetchListener;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A Browser decorator with a circuit breaker for each host. Once enough of a host's requests have failed,
+ * retries included, its breaker opens: the FetchListener is told the host is unavailable, so that the
+ * frontier holds its pages back, and any request to it already dispatched fails straight away instead of
+ * spending a thread and a retry budget on it. After the breaker's wait a few requests are let through to probe
+ * the host, closing the breaker again if they succeed.
+ * <p>
+ * Only failures that suggest the host is down or overloaded count against it, network failures, 5xx and 429
+ * responses. A 404 or a rejected response counts as the host answering.
+ */
+public class CircuitBreakingBrowser implements Browser {
+    private static final Logger logger = LogManager.getLogger(CircuitBreakingBrowser.class);
+
+    private final Browser browser;
+    private final CircuitBreakerConfig config;
+    private final FetchListener listener;
+    private final Duration openDuration;
+    private final Map<String, CircuitBreaker> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a circuit breaking browser
+     * @param browser The browser to send the requests with
+     * @param config The config of each host's breaker, its recorded exceptions are replaced with hostFailed
+     * @param listener Told when a host's breaker opens, for as long as it will stay open
+     */
+    public CircuitBreakingBrowser(Browser browser, CircuitBreakerConfig config, FetchListener listener) {
+        this.browser = browser;
+        this.config = CircuitBreakerConfig.from(config)
+                .recordException(CircuitBreakingBrowser::hostFailed)
+                .build();
+        this.listener = listener;
+        this.openDuration = Duration.ofMillis(this.config.getWaitIntervalFunctionInOpenState().apply(1));
+    }
+
+    @Override
+    public String get(URI uri) throws WebBrowserException {
+        return withBreaker(uri, browser::get);
+    }
+
+    @Override
+    public List<String> getLinks(URI uri) throws WebBrowserException {
+        return withBreaker(uri, browser::getLinks);
+    }
+
+    @Override
+    public ConditionalResponse<String> getIfChanged(URI uri, Validators validators) throws WebBrowserException {
+        return withBreaker(uri, target -> browser.getIfChanged(target, validators));
+    }
+
+    @Override
+    public ConditionalResponse<List<String>> getLinksIfChanged(URI uri, Validators validators) throws WebBrowserException {
+        return withBreaker(uri, target -> browser.getLinksIfChanged(target, validators));
+    }
+
+    /**
+     * Sends the request with the wrapped browser's getAsync if the host's breaker allows it
+     * @param uri The URI to scrape
+     * @return A future completed with the pages HTML, or exceptionally if the request failed or was not allowed
+     */
+    @Override
+    public CompletableFuture<String> getAsync(URI uri) {
+        return withBreakerAsync(uri, () -> browser.getAsync(uri));
+    }
+
+    /**
+     * Sends the request with the wrapped browser's getIfChangedAsync if the host's breaker allows it
+     * @param uri The URI to scrape
+     * @param validators The validators sent with the last copy of the page
+     * @return A future completed with the page or that it has not been modified, or exceptionally if the request
+     * failed or was not allowed
+     */
+    @Override
+    public CompletableFuture<ConditionalResponse<String>> getIfChangedAsync(URI uri, Validators validators) {
+        return withBreakerAsync(uri, () -> browser.getIfChangedAsync(uri, validators));
+    }
+
+    /**
+     * @param host A host requests have been sent to
+     * @return The host's circuit breaker, or null if no request has been sent to it
+     */
+    public CircuitBreaker breaker(String host) {
+        return hosts.get(host);
+    }
+
+    /**
+     * Tells whether a failure counts against the host. A cancelled or interrupted request, or one that failed in
+     * the crawler, such as while decoding the page, says nothing about the host and is not counted.
+     * @param failure A failed request, possibly wrapping other failures
+     * @return true if the failure counts against the host, a network failure, 5xx or 429
+     */
+    public static boolean hostFailed(Throwable failure) {
+        if (ContentRejectedException.isCause(failure)) {
+            return false;
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusException status) {
+                return status.getStatusCode() >= 500 || status.isThrottling();
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CircuitBreaker breaker(URI uri) {
+        return hosts.computeIfAbsent(String.valueOf(uri.getHost()), host -> {
+            CircuitBreaker breaker = CircuitBreaker.of(host, config);
+            breaker.getEventPublisher().onStateTransition(event -> {
+                logger.info("Circuit breaker for {} {}", host, event.getStateTransition());
+                if (event.getStateTransition().getToState() == CircuitBreaker.State.OPEN) {
+                    listener.unavailable(uri, openDuration);
+                }
+            });
+            return breaker;
+        });
+    }
+
+    private <T> T withBreaker(URI uri, Fetch<T> fetch) throws WebBrowserException {
+        CircuitBreaker breaker = breaker(uri);
+        try {
+            breaker.acquirePermission();
+        } catch (CallNotPermittedException e) {
+            throw new WebBrowserFailure(e);
+        }
+
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = fetch.apply(uri);
+        } catch (WebBrowserException | RuntimeException e) {
+            breaker.onError(System.nanoTime() - start, TimeUnit.NANOSECONDS, e);
+            throw e;
+        }
+        breaker.onSuccess(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    private <T> CompletableFuture<T> withBreakerAsync(URI uri, Supplier<CompletableFuture<T>> fetch) {
+        CircuitBreaker breaker = breaker(uri);
+        if (!breaker.tryAcquirePermission()) {
+            return CompletableFuture.failedFuture(new WebBrowserFailure(CallNotPermittedException.createCallNotPermittedException(breaker)));
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<T> result;
+        try {
+            result = fetch.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((_, e) -> {
+            if (e == null) {
+                breaker.onSuccess(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            } else {
+                breaker.onError(System.nanoTime() - start, TimeUnit.NANOSECONDS, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,29 @@
+package org.monzo.crawler.net;
+
+/**
+ * The result of a request that may have been sent conditionally, either the page's content or word from
+ * the server that the page has not changed since the validators were issued.
+ * @param notModified true if the server answered 304 Not Modified, in which case there is no content
+ * @param content The page's content, null if not modified
+ * @param validators The validators the server sent with its response
+ * @param <T> The type the content was read as
+ */
+public record ConditionalResponse<T>(boolean notModified, T content, Validators validators) {
+
+    /**
+     * @param content The page's content
+     * @param validators The validators sent with the page
+     * @return A response carrying the page
+     */
+    public static <T> ConditionalResponse<T> modified(T content, Validators validators) {
+        return new ConditionalResponse<>(false, content, validators);
+    }
+
+    /**
+     * @param validators The validators sent with the 304 response
+     * @return A response saying the page has not changed
+     */
+    public static <T> ConditionalResponse<T> notModified(Validators validators) {
+        return new ConditionalResponse<>(true, null, validators);
+    }
+}
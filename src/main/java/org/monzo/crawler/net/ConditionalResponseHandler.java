@@ -0,0 +1,33 @@
+package org.monzo.crawler.net;
+
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+
+import java.io.IOException;
+
+/**
+ * Implementation of the HttClientResponseHandler for conditional requests. A 304 Not Modified is read as
+ * the page being unchanged, any other response is read by the wrapped handler. The response's validators
+ * are returned either way.
+ * @param <T> The type the wrapped handler reads the page as
+ */
+public class ConditionalResponseHandler<T> implements HttpClientResponseHandler<ConditionalResponse<T>> {
+    private final HttpClientResponseHandler<T> handler;
+
+    /**
+     * @param handler Reads the page when it has changed
+     */
+    public ConditionalResponseHandler(HttpClientResponseHandler<T> handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public ConditionalResponse<T> handleResponse(ClassicHttpResponse response) throws HttpException, IOException {
+        Validators validators = Validators.of(response);
+        if (BrowserResponseHandler.checkConditionalStatus(response)) {
+            return ConditionalResponse.notModified(validators);
+        }
+        return ConditionalResponse.modified(handler.handleResponse(response), validators);
+    }
+}
@@ -0,0 +1,32 @@
+package org.monzo.crawler.net;
+
+import java.time.Duration;
+
+/**
+ * Sizing and lifecycle settings for the pooled HTTP connection manager used by the WebBrowser.
+ *
+ * @param maxTotal The maximum number of open connections across all hosts
+ * @param maxPerRoute The maximum number of open connections to a single host
+ * @param keepAlive How long an idle connection may be kept for re-use when the server does not say otherwise
+ * @param idleEviction How long a connection may sit idle in the pool before it is closed by the evictor
+ * @param strictLimits Whether maxTotal is enforced under a global pool lock. When false the pool is
+ *                     partitioned per route and no global lock is taken, maxTotal becomes advisory.
+ */
+public record ConnectionPoolConfig(int maxTotal, int maxPerRoute, Duration keepAlive, Duration idleEviction,
+                                   boolean strictLimits) {
+
+    public ConnectionPoolConfig {
+        if (maxTotal < 1 || maxPerRoute < 1) {
+            throw new IllegalArgumentException("Connection limits must be positive");
+        }
+    }
+
+    /**
+     * Creates a configuration sized so that every worker can hold a connection to the same host.
+     * @param workers The number of threads that will be sending requests concurrently
+     * @return A lax, per route configuration with a 30 second keep alive and idle eviction
+     */
+    public static ConnectionPoolConfig forWorkers(int workers) {
+        return new ConnectionPoolConfig(workers * 2, workers, Duration.ofSeconds(30), Duration.ofSeconds(30), false);
+    }
+}
@@ -0,0 +1,121 @@
+package org.monzo.crawler.net;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.monzo.crawler.exceptions.ContentRejectedException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Which responses the crawler reads pages from. A response whose Content-Type is not accepted is rejected from
+ * its headers, before any of the body is read, and a body is abandoned as soon as it passes the size limit.
+ * Responses that do not say what type they are are accepted, as many servers leave HTML untyped.
+ * @param acceptedTypes The accepted media types, such as text/html, empty to accept every type
+ * @param maxBodyBytes The most bytes of body read from a response, after it has been decompressed
+ */
+public record ContentPolicy(Set<String> acceptedTypes, long maxBodyBytes) {
+    /**
+     * Accepts every response whatever its type or size
+     */
+    public static final ContentPolicy ANY = new ContentPolicy(Set.of(), Long.MAX_VALUE);
+
+    /**
+     * The media types of HTML pages
+     */
+    public static final Set<String> HTML_TYPES = Set.of("text/html", "application/xhtml+xml");
+
+    public ContentPolicy {
+        if (maxBodyBytes < 1) {
+            throw new IllegalArgumentException("Max body bytes must be at least 1");
+        }
+        acceptedTypes = acceptedTypes.stream().map(type -> type.trim().toLowerCase(Locale.ROOT)).collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * Checks a response's headers, before its body is read
+     * @param contentType The Content-Type header, may be null
+     * @param contentLength The Content-Length header, negative if not known
+     * @throws ContentRejectedException If the type is not accepted or the body is known to be too large
+     */
+    public void check(String contentType, long contentLength) throws ContentRejectedException {
+        if (!acceptedTypes.isEmpty() && contentType != null) {
+            ContentType type = ContentType.parseLenient(contentType);
+            String mimeType = type == null ? null : type.getMimeType();
+            if (mimeType != null && !acceptedTypes.contains(mimeType.toLowerCase(Locale.ROOT))) {
+                throw new ContentRejectedException("Unwanted content type: " + mimeType);
+            }
+        }
+        if (contentLength > maxBodyBytes) {
+            throw new ContentRejectedException("Body of " + contentLength + " bytes is larger than " + maxBodyBytes);
+        }
+    }
+
+    /**
+     * Checks an entity's headers then opens its body as text, decoded with the charset it declares or UTF-8
+     * @param entity The response entity
+     * @return A reader that fails with a ContentRejectedException once the body passes the size limit
+     * @throws IOException If the entity is rejected or cannot be read
+     */
+    public Reader open(HttpEntity entity) throws IOException {
+        check(entity.getContentType(), entity.getContentLength());
+        InputStream content = entity.getContent();
+        if (content == null) {
+            content = InputStream.nullInputStream();
+        }
+        ContentType contentType = ContentType.parseLenient(entity.getContentType());
+        Charset charset = contentType == null ? StandardCharsets.UTF_8 : contentType.getCharset(StandardCharsets.UTF_8);
+        return new InputStreamReader(limit(content), charset);
+    }
+
+    /**
+     * @param content A response body
+     * @return The body, failing with a ContentRejectedException once more than maxBodyBytes have been read
+     */
+    public InputStream limit(InputStream content) {
+        return maxBodyBytes == Long.MAX_VALUE ? content : new LimitedInputStream(content, maxBodyBytes);
+    }
+
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long read;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws ContentRejectedException {
+            read += n;
+            if (read > limit) {
+                throw new ContentRejectedException("Body is larger than " + limit + " bytes");
+            }
+        }
+    }
+}
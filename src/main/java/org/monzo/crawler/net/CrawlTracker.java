@@ -0,0 +1,65 @@
+package org.monzo.crawler.net;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the URIs that have been accepted for crawling but not yet finished, whether they are waiting
+ * in the queue, held by the dispatcher or running on a worker. A worker adds the links it finds before
+ * marking its own URI complete, so the count only reaches zero once the last page has been crawled.
+ */
+public class CrawlTracker {
+    private final AtomicLong pending = new AtomicLong();
+    private final CountDownLatch complete = new CountDownLatch(1);
+
+    /**
+     * Records that a URI has been accepted for crawling
+     */
+    public void enqueued() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Records that a batch of URIs has been accepted for crawling
+     * @param count The number of URIs accepted
+     */
+    public void enqueued(int count) {
+        pending.addAndGet(count);
+    }
+
+    /**
+     * Records that a URI has been crawled, successfully or not
+     */
+    public void completed() {
+        if (pending.decrementAndGet() == 0) {
+            complete.countDown();
+        }
+    }
+
+    /**
+     * @return The number of URIs accepted but not yet crawled
+     */
+    public long pending() {
+        return pending.get();
+    }
+
+    /**
+     * Blocks until every accepted URI has been crawled
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void awaitCompletion() throws InterruptedException {
+        complete.await();
+    }
+
+    /**
+     * Blocks until every accepted URI has been crawled or the timeout passes
+     * @param timeout How long to wait
+     * @param unit The unit of the timeout
+     * @return true if the crawl completed, false if the timeout passed first
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return complete.await(timeout, unit);
+    }
+}
@@ -0,0 +1,20 @@
+package org.monzo.crawler.net;
+
+import org.monzo.crawler.exceptions.WebBrowserException;
+
+import java.net.URI;
+
+/**
+ * A request sent with a Browser, such as browser::get, for the decorators and workers that wrap each request
+ * in the same handling whichever of the browser's methods it is
+ * @param <T> The type of the response
+ */
+@FunctionalInterface
+interface Fetch<T> {
+    /**
+     * @param uri The URI to request
+     * @return The response
+     * @throws WebBrowserException If the page could not be retrieved
+     */
+    T apply(URI uri) throws WebBrowserException;
+}
@@ -0,0 +1,106 @@
+package org.monzo.crawler.net;
+
+import org.monzo.crawler.exceptions.HttpStatusException;
+import org.monzo.crawler.exceptions.WebBrowserException;
+import org.monzo.crawler.frontier.FetchListener;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A Browser decorator that tells a FetchListener the outcome of every request, so that the frontier
+ * can slow down hosts answering 429 Too Many Requests or 503 Service Unavailable. Placed inside a
+ * RetryingBrowser it is told of every attempt, so that a throttled attempt slows the host even when a later
+ * attempt succeeds.
+ */
+public class FetchReportingBrowser implements Browser {
+    private final Browser browser;
+    private final FetchListener listener;
+
+    /**
+     * @param browser The browser to send the requests with
+     * @param listener Told the outcome of each request
+     */
+    public FetchReportingBrowser(Browser browser, FetchListener listener) {
+        this.browser = browser;
+        this.listener = listener;
+    }
+
+    @Override
+    public String get(URI uri) throws WebBrowserException {
+        return report(uri, browser::get);
+    }
+
+    @Override
+    public List<String> getLinks(URI uri) throws WebBrowserException {
+        return report(uri, browser::getLinks);
+    }
+
+    @Override
+    public ConditionalResponse<String> getIfChanged(URI uri, Validators validators) throws WebBrowserException {
+        return report(uri, target -> browser.getIfChanged(target, validators));
+    }
+
+    @Override
+    public ConditionalResponse<List<String>> getLinksIfChanged(URI uri, Validators validators) throws WebBrowserException {
+        return report(uri, target -> browser.getLinksIfChanged(target, validators));
+    }
+
+    /**
+     * Sends the request with the wrapped browser's getAsync, reporting its outcome when it completes
+     * @param uri The URI to scrape
+     * @return A future completed with the pages HTML, or exceptionally if the request failed
+     */
+    @Override
+    public CompletableFuture<String> getAsync(URI uri) {
+        return reportAsync(uri, browser.getAsync(uri));
+    }
+
+    /**
+     * Sends the request with the wrapped browser's getIfChangedAsync, reporting its outcome when it completes.
+     * A page that has not been modified is a successful fetch.
+     * @param uri The URI to scrape
+     * @param validators The validators sent with the last copy of the page
+     * @return A future completed with the page or that it has not been modified, or exceptionally if the request failed
+     */
+    @Override
+    public CompletableFuture<ConditionalResponse<String>> getIfChangedAsync(URI uri, Validators validators) {
+        return reportAsync(uri, browser.getIfChangedAsync(uri, validators));
+    }
+
+    private <T> CompletableFuture<T> reportAsync(URI uri, CompletableFuture<T> fetch) {
+        return fetch.whenComplete((_, e) -> {
+            if (e == null) {
+                listener.fetched(uri);
+            } else {
+                reportFailure(uri, e);
+            }
+        });
+    }
+
+    private <T> T report(URI uri, Fetch<T> fetch) throws WebBrowserException {
+        T result;
+        try {
+            result = fetch.apply(uri);
+        } catch (WebBrowserException | RuntimeException e) {
+            reportFailure(uri, e);
+            throw e;
+        }
+        listener.fetched(uri);
+        return result;
+    }
+
+    /**
+     * Reports the failure if it was caused by the server asking the crawler to slow down, other failures
+     * say nothing about the host's rate
+     */
+    private void reportFailure(URI uri, Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusException status && status.isThrottling()) {
+                listener.throttled(uri, status.getRetryAfter());
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.monzo.crawler.net;
+
+import org.monzo.crawler.exceptions.WebBrowserException;
+import org.monzo.crawler.exceptions.WebBrowserFailure;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A Browser decorator that limits how many requests can be in flight to a single host at once.
+ * Callers over the limit block until a request to that host completes, which is cheap when the
+ * callers are virtual threads. Requests to other hosts are not affected.
+ */
+public class HostLimitedBrowser implements Browser {
+    private final Browser browser;
+    private final int perHostLimit;
+    private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a host limited browser
+     * @param browser The browser to send the requests with
+     * @param perHostLimit The maximum number of concurrent requests to any one host
+     */
+    public HostLimitedBrowser(Browser browser, int perHostLimit) {
+        this.browser = browser;
+        this.perHostLimit = perHostLimit;
+    }
+
+    /**
+     * Waits for a free slot for the URI's host then sends the request with the wrapped browser
+     * @param uri The URI to scrape
+     * @return The pages HTML if the request was successful
+     * @throws WebBrowserException If the wrapped browser fails
+     */
+    @Override
+    public String get(URI uri) throws WebBrowserException {
+        return withSlot(uri, browser::get);
+    }
+
+    /**
+     * Waits for a free slot for the URI's host then retrieves the page's links with the wrapped browser
+     * @param uri The URI to scrape
+     * @return The href of every anchor on the page
+     * @throws WebBrowserException If the wrapped browser fails
+     */
+    @Override
+    public List<String> getLinks(URI uri) throws WebBrowserException {
+        return withSlot(uri, browser::getLinks);
+    }
+
+    /**
+     * Waits for a free slot for the URI's host then sends the conditional request with the wrapped browser
+     * @param uri The URI to scrape
+     * @param validators The validators sent with the last copy of the page
+     * @return The page's HTML and validators, or that the page has not been modified
+     * @throws WebBrowserException If the wrapped browser fails
+     */
+    @Override
+    public ConditionalResponse<String> getIfChanged(URI uri, Validators validators) throws WebBrowserException {
+        return withSlot(uri, target -> browser.getIfChanged(target, validators));
+    }
+
+    /**
+     * Waits for a free slot for the URI's host then sends the conditional request for the page's links
+     * with the wrapped browser
+     * @param uri The URI to scrape
+     * @param validators The validators sent with the last copy of the page
+     * @return The page's links and validators, or that the page has not been modified
+     * @throws WebBrowserException If the wrapped browser fails
+     */
+    @Override
+    public ConditionalResponse<List<String>> getLinksIfChanged(URI uri, Validators validators) throws WebBrowserException {
+        return withSlot(uri, target -> browser.getLinksIfChanged(target, validators));
+    }
+
+    private <T> T withSlot(URI uri, Fetch<T> fetch) throws WebBrowserException {
+        Semaphore semaphore = hosts.computeIfAbsent(String.valueOf(uri.getHost()), _ -> new Semaphore(perHostLimit));
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebBrowserFailure(e);
+        }
+
+        try {
+            return fetch.apply(uri);
+        } finally {
+            semaphore.release();
+        }
+    }
+}
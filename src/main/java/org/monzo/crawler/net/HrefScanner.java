@@ -0,0 +1,305 @@
+package org.monzo.crawler.net;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A lightweight tokenizer that finds the href attribute of every anchor tag in an HTML document as it
+ * is read. Unlike parsing the page with Jsoup it never holds the whole page, or a DOM built from it, in
+ * memory, only the current read buffer and the attribute being scanned.
+ * Comments and the contents of script and style elements are skipped, as a browser would.
+ */
+public final class HrefScanner {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_TAG_NAME = 8;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder token = new StringBuilder();
+    private int position;
+    private int limit;
+
+    private HrefScanner(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Scans the document, passing the value of each anchor's href attribute to the consumer in document order
+     * @param reader The HTML document
+     * @param hrefs Receives each href value, with character references decoded
+     * @throws IOException If the document cannot be read
+     */
+    public static void scan(Reader reader, Consumer<String> hrefs) throws IOException {
+        new HrefScanner(reader).scanDocument(hrefs);
+    }
+
+    /**
+     * Scans an HTML document already held in memory
+     * @param html The HTML document
+     * @return The href value of each anchor, in document order
+     */
+    public static List<String> scan(String html) {
+        List<String> hrefs = new ArrayList<>();
+        try {
+            scan(new StringReader(html), hrefs::add);
+        } catch (IOException e) {
+            // A StringReader does not throw
+            throw new UncheckedIOException(e);
+        }
+        return hrefs;
+    }
+
+    private int next() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, BUFFER_SIZE);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    private void scanDocument(Consumer<String> hrefs) throws IOException {
+        int c = next();
+        while (c != -1) {
+            if (c != '<') {
+                c = next();
+                continue;
+            }
+            c = next();
+            if (c == '!') {
+                c = skipDeclaration();
+                continue;
+            }
+            if (!isAsciiLetter(c)) {
+                // A closing tag or a stray '<', either way not an anchor
+                continue;
+            }
+            c = readTagName(c);
+            if (contentEquals("a")) {
+                c = scanAttributes(c, hrefs);
+            } else if (contentEquals("script") || contentEquals("style")) {
+                String name = token.toString();
+                c = scanAttributes(c, null);
+                c = skipRawText(c, name);
+            } else {
+                c = scanAttributes(c, null);
+            }
+        }
+    }
+
+    /**
+     * Reads a lower-cased tag name into the token buffer
+     * @return The first character after the name
+     */
+    private int readTagName(int c) throws IOException {
+        token.setLength(0);
+        while (c != -1 && (isAsciiLetter(c) || Character.isDigit(c))) {
+            if (token.length() <= MAX_TAG_NAME) {
+                token.append(Character.toLowerCase((char) c));
+            }
+            c = next();
+        }
+        return c;
+    }
+
+    /**
+     * Scans the attributes of a tag up to its closing '>'. If a consumer is given the first href
+     * attribute's value is passed to it.
+     * @return The first character after the tag
+     */
+    private int scanAttributes(int c, Consumer<String> hrefs) throws IOException {
+        boolean found = false;
+        while (c != -1) {
+            while (Character.isWhitespace(c) || c == '/') {
+                c = next();
+            }
+            if (c == '>' || c == -1) {
+                return next();
+            }
+
+            token.setLength(0);
+            while (c != -1 && c != '=' && c != '>' && c != '/' && !Character.isWhitespace(c)) {
+                if (token.length() <= MAX_TAG_NAME) {
+                    token.append(Character.toLowerCase((char) c));
+                }
+                c = next();
+            }
+            boolean isHref = hrefs != null && !found && contentEquals("href");
+            while (Character.isWhitespace(c)) {
+                c = next();
+            }
+            if (c != '=') {
+                if (isHref) {
+                    // An attribute with no value, as a[href] still matches it
+                    hrefs.accept("");
+                    found = true;
+                }
+                continue;
+            }
+            c = next();
+            while (Character.isWhitespace(c)) {
+                c = next();
+            }
+
+            token.setLength(0);
+            if (c == '"' || c == '\'') {
+                int quote = c;
+                c = next();
+                while (c != -1 && c != quote) {
+                    if (isHref) {
+                        token.append((char) c);
+                    }
+                    c = next();
+                }
+                if (c == -1) {
+                    // The document ended inside the value, which is likely cut short
+                    return c;
+                }
+                c = next();
+            } else {
+                while (c != -1 && c != '>' && !Character.isWhitespace(c)) {
+                    if (isHref) {
+                        token.append((char) c);
+                    }
+                    c = next();
+                }
+            }
+            if (isHref) {
+                hrefs.accept(decode(token));
+                found = true;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Skips a comment, doctype or other declaration
+     * @return The first character after it
+     */
+    private int skipDeclaration() throws IOException {
+        int c = next();
+        if (c == '-') {
+            c = next();
+            if (c == '-') {
+                // A comment, which ends at the first "-->"
+                int dashes = 0;
+                c = next();
+                while (c != -1 && !(c == '>' && dashes >= 2)) {
+                    dashes = c == '-' ? dashes + 1 : 0;
+                    c = next();
+                }
+                return next();
+            }
+        }
+        while (c != -1 && c != '>') {
+            c = next();
+        }
+        return next();
+    }
+
+    /**
+     * Skips the contents of a script or style element, which may contain '<' without starting a tag
+     * @param c The first character of the contents
+     * @param name The element name
+     * @return The first character after the name in the element's closing tag
+     */
+    private int skipRawText(int c, String name) throws IOException {
+        while (c != -1) {
+            if (c != '<') {
+                c = next();
+                continue;
+            }
+            c = next();
+            if (c != '/') {
+                continue;
+            }
+            c = next();
+            int matched = 0;
+            while (matched < name.length() && c != -1 && Character.toLowerCase((char) c) == name.charAt(matched)) {
+                matched++;
+                c = next();
+            }
+            if (matched == name.length()) {
+                return c;
+            }
+        }
+        return c;
+    }
+
+    private boolean contentEquals(String name) {
+        return name.contentEquals(token);
+    }
+
+    private static boolean isAsciiLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Decodes the character references that appear in practice in URLs, numeric references and the
+     * named references amp, quot, apos, lt and gt. Unknown references are left as they are.
+     * @param value The raw attribute value
+     * @return The decoded value
+     */
+    static String decode(CharSequence value) {
+        int amp = indexOf(value, '&', 0);
+        if (amp < 0) {
+            return value.toString();
+        }
+
+        StringBuilder decoded = new StringBuilder(value.length());
+        int start = 0;
+        while (amp >= 0) {
+            decoded.append(value, start, amp);
+            int semi = indexOf(value, ';', amp);
+            String reference = semi < 0 || semi - amp > 10 ? null : value.subSequence(amp + 1, semi).toString();
+            String replacement = reference == null ? null : switch (reference) {
+                case "amp" -> "&";
+                case "quot" -> "\"";
+                case "apos" -> "'";
+                case "lt" -> "<";
+                case "gt" -> ">";
+                default -> numericReference(reference);
+            };
+            if (replacement == null) {
+                decoded.append('&');
+                start = amp + 1;
+            } else {
+                decoded.append(replacement);
+                start = semi + 1;
+            }
+            amp = indexOf(value, '&', start);
+        }
+        decoded.append(value, start, value.length());
+        return decoded.toString();
+    }
+
+    private static String numericReference(String reference) {
+        if (reference.length() < 2 || reference.charAt(0) != '#') {
+            return null;
+        }
+        try {
+            boolean hex = reference.charAt(1) == 'x' || reference.charAt(1) == 'X';
+            int codePoint = hex ? Integer.parseInt(reference.substring(2), 16) : Integer.parseInt(reference.substring(1));
+            return Character.isValidCodePoint(codePoint) ? Character.toString(codePoint) : null;
+        } catch (NumberFormatException _) {
+            return null;
+        }
+    }
+
+    private static int indexOf(CharSequence value, char c, int from) {
+        for (int i = from; i < value.length(); i++) {
+            if (value.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,115 @@
+package org.monzo.crawler.net;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.ChainElement;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.monzo.crawler.metrics.CrawlMetrics;
+
+/**
+ * Builds the HTTP clients used by the crawler. The default client created by HttpClients.createDefault()
+ * only allows a handful of connections per host, which caps how many requests can be in flight regardless
+ * of how many workers are running.
+ */
+public final class HttpClientFactory {
+    private HttpClientFactory() {
+    }
+
+    /**
+     * Creates a connection manager sized by the given config
+     * @param config The pool sizing and lifecycle settings
+     * @return A pooling connection manager
+     */
+    public static PoolingHttpClientConnectionManager connectionManager(ConnectionPoolConfig config) {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setPoolConcurrencyPolicy(config.strictLimits() ? PoolConcurrencyPolicy.STRICT : PoolConcurrencyPolicy.LAX)
+                .setMaxConnTotal(config.maxTotal())
+                .setMaxConnPerRoute(config.maxPerRoute())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+    }
+
+    /**
+     * Creates a closeable HTTP client backed by a pooling connection manager. Idle and expired connections
+     * are closed by a background evictor so that the pool does not hold on to sockets the server has dropped.
+     * @param config The pool sizing and lifecycle settings
+     * @return A client that is safe to share between threads
+     */
+    public static CloseableHttpClient create(ConnectionPoolConfig config) {
+        return create(config, null);
+    }
+
+    /**
+     * Creates a closeable HTTP client as create does, recording the status code and body size of every response
+     * @param config The pool sizing and lifecycle settings
+     * @param metrics The metrics to record responses in, or null to record none
+     * @return A client that is safe to share between threads
+     */
+    public static CloseableHttpClient create(ConnectionPoolConfig config, CrawlMetrics metrics) {
+        HttpClientBuilder builder = HttpClients.custom();
+        if (metrics != null) {
+            builder.addExecInterceptorBefore(ChainElement.PROTOCOL.name(), "metrics", ResponseMeter.classic(metrics));
+        }
+        return builder
+                .setConnectionManager(connectionManager(config))
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionKeepAlive(TimeValue.of(config.keepAlive()))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(config.idleEviction()))
+                .build();
+    }
+
+    /**
+     * Creates and starts an async HTTP client backed by a pooling connection manager sized by the given config.
+     * Requests are multiplexed over the client's I/O reactor threads rather than holding a thread each.
+     * @param config The pool sizing and lifecycle settings
+     * @return A started client that is safe to share between threads
+     */
+    public static CloseableHttpAsyncClient createAsync(ConnectionPoolConfig config) {
+        return createAsync(config, null);
+    }
+
+    /**
+     * Creates and starts an async HTTP client as createAsync does, recording the status code and body size of
+     * every response
+     * @param config The pool sizing and lifecycle settings
+     * @param metrics The metrics to record responses in, or null to record none
+     * @return A started client that is safe to share between threads
+     */
+    public static CloseableHttpAsyncClient createAsync(ConnectionPoolConfig config, CrawlMetrics metrics) {
+        HttpAsyncClientBuilder builder = HttpAsyncClients.custom();
+        if (metrics != null) {
+            builder.addExecInterceptorBefore(ChainElement.PROTOCOL.name(), "metrics", ResponseMeter.async(metrics));
+        }
+        CloseableHttpAsyncClient client = builder
+                .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+                        .setPoolConcurrencyPolicy(config.strictLimits() ? PoolConcurrencyPolicy.STRICT : PoolConcurrencyPolicy.LAX)
+                        .setMaxConnTotal(config.maxTotal())
+                        .setMaxConnPerRoute(config.maxPerRoute())
+                        .setDefaultConnectionConfig(ConnectionConfig.custom()
+                                .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                                .build())
+                        .build())
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionKeepAlive(TimeValue.of(config.keepAlive()))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(config.idleEviction()))
+                .build();
+        client.start();
+        return client;
+    }
+}
@@ -0,0 +1,50 @@
+package org.monzo.crawler.net;
+
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implementation of the HttClientResponseHandler that returns the href of every anchor on the page.
+ * The body is scanned as it is read from the connection, the page itself is never held in memory.
+ */
+public class LinkExtractingResponseHandler implements HttpClientResponseHandler<List<String>> {
+    private final ContentPolicy policy;
+
+    /**
+     * Creates a handler that scans every 200 response, whatever its type or size
+     */
+    public LinkExtractingResponseHandler() {
+        this(ContentPolicy.ANY);
+    }
+
+    /**
+     * Creates a handler that only scans the responses the policy accepts
+     * @param policy The content types and body size the handler reads
+     */
+    public LinkExtractingResponseHandler(ContentPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public List<String> handleResponse(ClassicHttpResponse response) throws HttpException, IOException {
+        BrowserResponseHandler.checkStatus(response);
+
+        List<String> hrefs = new ArrayList<>();
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return hrefs;
+        }
+
+        try (Reader body = policy.open(entity)) {
+            HrefScanner.scan(body, hrefs::add);
+        }
+        return hrefs;
+    }
+}
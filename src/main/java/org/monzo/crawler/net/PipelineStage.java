@@ -0,0 +1,55 @@
+package org.monzo.crawler.net;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One stage of a staged crawl: a fixed pool of threads taking tasks from a bounded queue. A task handed to a
+ * stage whose queue is full blocks the thread handing it over until there is room, so a slow stage holds back
+ * the stage feeding it instead of letting work pile up in memory.
+ */
+public class PipelineStage extends ThreadPoolExecutor {
+    private final String name;
+
+    /**
+     * Creates a stage, its threads are started as tasks arrive and named after the stage
+     * @param name The stage's name, such as fetch or parse
+     * @param threads The number of threads running the stage's tasks
+     * @param queueCapacity The number of tasks that can wait for a thread before handing over blocks
+     */
+    public PipelineStage(String name, int threads, int queueCapacity) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name(name + "-", 0).factory(), PipelineStage::awaitRoom);
+        this.name = name;
+    }
+
+    /**
+     * Rejection handler that waits for room on the queue, rejecting only once the stage has been shut down
+     */
+    private static void awaitRoom(Runnable task, ThreadPoolExecutor stage) {
+        try {
+            while (!stage.isShutdown()) {
+                if (stage.getQueue().offer(task, 100, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+        }
+        throw new RejectedExecutionException("Stage is shut down");
+    }
+
+    /**
+     * @return The stage's name
+     */
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + getActiveCount() + "/" + getMaximumPoolSize() + " active " + getQueue().size() + " queued";
+    }
+}
@@ -0,0 +1,26 @@
+package org.monzo.crawler.net;
+
+import org.monzo.crawler.frontier.FrontierEntry;
+
+import java.net.URI;
+import java.util.List;
+
+/**
+ * The part of a partitioned crawl's frontier held by other crawler processes. A URIQueue given a remote
+ * frontier only queues the URIs this process owns, and hands the rest to their owners.
+ */
+public interface RemoteFrontier {
+
+    /**
+     * @param uri A canonical URI
+     * @return true if this process crawls the URI, false if another does
+     */
+    boolean owns(URI uri);
+
+    /**
+     * Sends links owned by other processes to their owners, to be added to their queues
+     * @param uris The canonical URIs of the links, none of them owned by this process
+     * @param parent The entry of the page the links were found on
+     */
+    void forward(List<URI> uris, FrontierEntry parent);
+}
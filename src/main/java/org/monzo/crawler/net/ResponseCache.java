@@ -0,0 +1,239 @@
+package org.monzo.crawler.net;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monzo.crawler.frontier.UriFingerprint;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An on-disk cache of crawled pages and the validators the server sent with them, so that a recrawl can ask
+ * each server whether a page has changed rather than downloading it again. Pages are cached either whole or
+ * as the links extracted from them, depending on how the crawl reads them.
+ * <p>
+ * Each entry is a file named after the fingerprint of its URI, spread over 256 directories so that none grows
+ * too large. Entries are written to a temporary file and moved into place, so a reader never sees half an entry
+ * and a crash leaves the previous one. The URI is stored in the entry and checked on reading, so two URIs with
+ * the same fingerprint miss rather than being served each other's page.
+ * <p>
+ * The cache is an optimisation, an entry that cannot be read or written is logged and treated as a miss.
+ */
+public class ResponseCache {
+    private static final Logger logger = LogManager.getLogger(ResponseCache.class);
+    private static final int MAGIC = 0x52435331;
+
+    static final Codec<String> PAGE = new Codec<>(".page", ResponseCache::writeString, ResponseCache::readString);
+    static final Codec<List<String>> LINKS = new Codec<>(".links", ResponseCache::writeLinks, ResponseCache::readLinks);
+
+    private final Path directory;
+
+    /**
+     * Opens the cache held in the given directory
+     * @param directory The directory to hold the cache, it is created if it does not exist
+     * @throws IOException If the directory cannot be created
+     */
+    public ResponseCache(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * @param uri The page's URI
+     * @return The cached page and its validators, or null if the page is not cached
+     */
+    public Entry<String> getPage(URI uri) {
+        return get(uri, PAGE);
+    }
+
+    /**
+     * Caches a page, replacing any cached copy
+     * @param uri The page's URI
+     * @param validators The validators the server sent with the page
+     * @param page The page's HTML
+     */
+    public void putPage(URI uri, Validators validators, String page) {
+        put(uri, PAGE, validators, page);
+    }
+
+    /**
+     * @param uri The page's URI
+     * @return The links cached for the page and its validators, or null if the page's links are not cached
+     */
+    public Entry<List<String>> getLinks(URI uri) {
+        return get(uri, LINKS);
+    }
+
+    /**
+     * Caches the links extracted from a page, replacing any cached links
+     * @param uri The page's URI
+     * @param validators The validators the server sent with the page
+     * @param links The href of every anchor on the page
+     */
+    public void putLinks(URI uri, Validators validators, List<String> links) {
+        put(uri, LINKS, validators, links);
+    }
+
+    /**
+     * Reads an entry
+     * @param uri The page's URI
+     * @param codec The form the page is cached in
+     * @return The entry, or null if there is none or it cannot be read
+     */
+    <T> Entry<T> get(URI uri, Codec<T> codec) {
+        Path file = file(uri, codec);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException _) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Could not read cache entry {} for {}", file, uri, e);
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC || !uri.toString().equals(readString(in))) {
+                return null;
+            }
+            Validators validators = new Validators(readString(in), readString(in));
+            return new Entry<>(validators, codec.reader().read(in));
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring corrupt cache entry {} for {}", file, uri, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes an entry, replacing any already there
+     * @param uri The page's URI
+     * @param codec The form the page is cached in
+     * @param validators The validators the server sent with the page
+     * @param content The page in the codec's form
+     */
+    <T> void put(URI uri, Codec<T> codec, Validators validators, T content) {
+        Path file = file(uri, codec);
+        Path temp = null;
+        try {
+            Path shard = Files.createDirectories(file.getParent());
+            temp = Files.createTempFile(shard, file.getFileName().toString(), ".tmp");
+            try (OutputStream stream = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+                out.writeInt(MAGIC);
+                writeString(out, uri.toString());
+                writeString(out, validators.etag());
+                writeString(out, validators.lastModified());
+                codec.writer().write(out, content);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Could not write cache entry {} for {}", file, uri, e);
+            deleteQuietly(temp);
+        }
+    }
+
+    /**
+     * Removes an entry, if there is one
+     * @param uri The page's URI
+     * @param codec The form the page is cached in
+     */
+    <T> void remove(URI uri, Codec<T> codec) {
+        deleteQuietly(file(uri, codec));
+    }
+
+    private Path file(URI uri, Codec<?> codec) {
+        String name = String.format("%016x", UriFingerprint.of(uri));
+        return directory.resolve(name.substring(0, 2)).resolve(name + codec.suffix());
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not delete cache file {}", file, e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new EOFException("Field of " + length + " bytes runs past the end of the entry");
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    private static void writeLinks(DataOutputStream out, List<String> links) throws IOException {
+        out.writeInt(links.size());
+        for (String link : links) {
+            writeString(out, link);
+        }
+    }
+
+    private static List<String> readLinks(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.available() / Integer.BYTES) {
+            throw new EOFException(count + " links run past the end of the entry");
+        }
+        List<String> links = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            links.add(readString(in));
+        }
+        return links;
+    }
+
+    /**
+     * A cached page
+     * @param validators The validators the server sent with the page
+     * @param content The page, in the form it was cached in
+     * @param <T> The form the page was cached in
+     */
+    public record Entry<T>(Validators validators, T content) {
+    }
+
+    /**
+     * How a form of page is written to and read from an entry
+     * @param suffix The file name suffix of entries in this form
+     * @param writer Writes the page
+     * @param reader Reads the page
+     */
+    record Codec<T>(String suffix, Writer<T> writer, Reader<T> reader) {
+    }
+
+    @FunctionalInterface
+    interface Writer<T> {
+        void write(DataOutputStream out, T content) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface Reader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+}
@@ -0,0 +1,146 @@
+package org.monzo.crawler.net;
+
+import org.apache.hc.client5.http.async.AsyncExecCallback;
+import org.apache.hc.client5.http.async.AsyncExecChainHandler;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.io.entity.HttpEntityWrapper;
+import org.apache.hc.core5.http.nio.AsyncDataConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.monzo.crawler.metrics.CrawlMetrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Exec chain handlers recording the status code of every response and the bytes of every body read in
+ * CrawlMetrics. They are placed ahead of the protocol handler, so they see each retried or redirected
+ * response on its own, and bodies as sent, before the classic client decompresses them.
+ */
+final class ResponseMeter {
+    private ResponseMeter() {
+    }
+
+    /**
+     * @param metrics The metrics to record in
+     * @return A handler for the classic client
+     */
+    static ExecChainHandler classic(CrawlMetrics metrics) {
+        return (request, scope, chain) -> {
+            ClassicHttpResponse response = chain.proceed(request, scope);
+            metrics.responded(response.getCode());
+            HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                response.setEntity(new CountingEntity(entity, metrics));
+            }
+            return response;
+        };
+    }
+
+    /**
+     * @param metrics The metrics to record in
+     * @return A handler for the async client
+     */
+    static AsyncExecChainHandler async(CrawlMetrics metrics) {
+        return (request, entityProducer, scope, chain, callback) -> chain.proceed(request, entityProducer, scope, new AsyncExecCallback() {
+            @Override
+            public AsyncDataConsumer handleResponse(HttpResponse response, EntityDetails entityDetails) throws HttpException, IOException {
+                metrics.responded(response.getCode());
+                AsyncDataConsumer consumer = callback.handleResponse(response, entityDetails);
+                return consumer == null ? null : new CountingConsumer(consumer, metrics);
+            }
+
+            @Override
+            public void handleInformationResponse(HttpResponse response) throws HttpException, IOException {
+                callback.handleInformationResponse(response);
+            }
+
+            @Override
+            public void completed() {
+                callback.completed();
+            }
+
+            @Override
+            public void failed(Exception cause) {
+                callback.failed(cause);
+            }
+        });
+    }
+
+    /**
+     * An entity counting the bytes read from its content
+     */
+    private static final class CountingEntity extends HttpEntityWrapper {
+        private final CrawlMetrics metrics;
+
+        CountingEntity(HttpEntity entity, CrawlMetrics metrics) {
+            super(entity);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        metrics.downloaded(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = super.read(buffer, offset, length);
+                    if (read > 0) {
+                        metrics.downloaded(read);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream output) throws IOException {
+            try (InputStream content = getContent()) {
+                content.transferTo(output);
+            }
+        }
+    }
+
+    /**
+     * A data consumer counting the bytes it is given
+     */
+    private record CountingConsumer(AsyncDataConsumer consumer, CrawlMetrics metrics) implements AsyncDataConsumer {
+        @Override
+        public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+            consumer.updateCapacity(capacityChannel);
+        }
+
+        @Override
+        public void consume(ByteBuffer src) throws IOException {
+            metrics.downloaded(src.remaining());
+            consumer.consume(src);
+        }
+
+        @Override
+        public void streamEnd(List<? extends Header> trailers) throws HttpException, IOException {
+            consumer.streamEnd(trailers);
+        }
+
+        @Override
+        public void releaseResources() {
+            consumer.releaseResources();
+        }
+    }
+}
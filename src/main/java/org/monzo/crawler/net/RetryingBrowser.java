@@ -0,0 +1,114 @@
+package org.monzo.crawler.net;
+
+import io.github.resilience4j.retry.Retry;
+import org.monzo.crawler.exceptions.RetriesExhaustedException;
+import org.monzo.crawler.exceptions.WebBrowserException;
+import org.monzo.crawler.exceptions.WebBrowserFailure;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * A Browser decorator that retries failed requests according to a Retry. The browsers it wraps see every
+ * attempt rather than only the last, so that a 429 answered to an attempt that is then retried still slows the
+ * host down, and a limit on requests in flight is not held through the waits between attempts.
+ * <p>
+ * A request the retry gave up on fails with a RetriesExhaustedException if its failure was one the retry
+ * retries. The asynchronous methods wait between attempts on a scheduler, without holding a thread.
+ */
+public class RetryingBrowser implements Browser {
+    private final Browser browser;
+    private final Retry retry;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a retrying browser whose asynchronous requests are sent, and retried, on the calling thread
+     * @param browser The browser to send each attempt with
+     * @param retry The retry deciding which failures are retried and how long to wait before each attempt
+     */
+    public RetryingBrowser(Browser browser, Retry retry) {
+        this(browser, retry, null);
+    }
+
+    /**
+     * Creates a retrying browser
+     * @param browser The browser to send each attempt with
+     * @param retry The retry deciding which failures are retried and how long to wait before each attempt
+     * @param scheduler The scheduler asynchronous attempts are scheduled on, or null to send asynchronous requests
+     *                  with the blocking methods
+     */
+    public RetryingBrowser(Browser browser, Retry retry, ScheduledExecutorService scheduler) {
+        this.browser = browser;
+        this.retry = retry;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public String get(URI uri) throws WebBrowserException {
+        return withRetry(uri, browser::get);
+    }
+
+    @Override
+    public List<String> getLinks(URI uri) throws WebBrowserException {
+        return withRetry(uri, browser::getLinks);
+    }
+
+    @Override
+    public ConditionalResponse<String> getIfChanged(URI uri, Validators validators) throws WebBrowserException {
+        return withRetry(uri, target -> browser.getIfChanged(target, validators));
+    }
+
+    @Override
+    public ConditionalResponse<List<String>> getLinksIfChanged(URI uri, Validators validators) throws WebBrowserException {
+        return withRetry(uri, target -> browser.getLinksIfChanged(target, validators));
+    }
+
+    /**
+     * Sends the request with the wrapped browser's getAsync, scheduling each retry once its wait is over
+     * @param uri The URI to scrape
+     * @return A future completed with the pages HTML, or exceptionally if every attempt failed
+     */
+    @Override
+    public CompletableFuture<String> getAsync(URI uri) {
+        if (scheduler == null) {
+            return Browser.super.getAsync(uri);
+        }
+        return withRetryAsync(() -> browser.getAsync(uri));
+    }
+
+    /**
+     * Sends the request with the wrapped browser's getIfChangedAsync, scheduling each retry once its wait is over
+     * @param uri The URI to scrape
+     * @param validators The validators sent with the last copy of the page
+     * @return A future completed with the page or that it has not been modified, or exceptionally if every attempt
+     * failed
+     */
+    @Override
+    public CompletableFuture<ConditionalResponse<String>> getIfChangedAsync(URI uri, Validators validators) {
+        if (scheduler == null) {
+            return Browser.super.getIfChangedAsync(uri, validators);
+        }
+        return withRetryAsync(() -> browser.getIfChangedAsync(uri, validators));
+    }
+
+    private <T> T withRetry(URI uri, Fetch<T> fetch) throws WebBrowserException {
+        try {
+            return retry.executeCallable(() -> fetch.apply(uri));
+        } catch (Exception e) {
+            WebBrowserFailure failure = WebBrowser.afterRetries(retry, e);
+            if (e instanceof WebBrowserException notRetried && !(failure instanceof RetriesExhaustedException)) {
+                throw notRetried;
+            }
+            throw failure;
+        }
+    }
+
+    private <T> CompletableFuture<T> withRetryAsync(Supplier<CompletableFuture<T>> attempt) {
+        return retry.executeCompletionStage(scheduler, attempt::get)
+                .toCompletableFuture()
+                .exceptionallyCompose(e -> CompletableFuture.failedFuture(WebBrowser.afterRetries(retry, e)));
+    }
+}
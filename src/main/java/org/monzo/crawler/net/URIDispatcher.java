@@ -0,0 +1,135 @@
+package org.monzo.crawler.net;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monzo.crawler.frontier.FrontierEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Moves URIs from the URIQueue onto an executor. The dispatcher thread blocks on the queue while it
+ * is empty, drains URIs in batches once one arrives, and stops taking URIs off the queue while
+ * maxInFlight URIs are being crawled, leaving them in the frontier instead.
+ */
+public class URIDispatcher implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(URIDispatcher.class);
+    private static final long POLL_TIMEOUT_MILLIS = 500;
+
+    private final URIQueue queue;
+    private final Function<FrontierEntry, CompletionStage<?>> launcher;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final int batchSize;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a dispatcher, call start to begin dispatching
+     * @param queue The queue to take URIs from
+     * @param executor The executor to run the workers on
+     * @param workerFactory Creates the task that crawls a URI
+     * @param maxInFlight The maximum number of tasks queued or running on the executor at once
+     * @param batchSize The maximum number of URIs taken from the queue at once
+     */
+    public URIDispatcher(URIQueue queue, Executor executor, Function<FrontierEntry, Runnable> workerFactory, int maxInFlight, int batchSize) {
+        this(queue, entry -> CompletableFuture.runAsync(workerFactory.apply(entry), executor), maxInFlight, batchSize);
+    }
+
+    private URIDispatcher(URIQueue queue, Function<FrontierEntry, CompletionStage<?>> launcher, int maxInFlight, int batchSize) {
+        this.queue = queue;
+        this.launcher = launcher;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+        this.batchSize = batchSize;
+        this.thread = new Thread(this::dispatch, "uri-dispatcher");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Creates a dispatcher for asynchronous workers, which start their work and return without holding a
+     * thread. A URI counts as in flight until the stage returned for it completes.
+     * @param queue The queue to take URIs from
+     * @param launcher Starts crawling a URI, returning a stage that completes once the URI has been crawled
+     * @param maxInFlight The maximum number of URIs being crawled at once
+     * @param batchSize The maximum number of URIs taken from the queue at once
+     * @return A dispatcher, call start to begin dispatching
+     */
+    public static URIDispatcher forAsyncWorkers(URIQueue queue, Function<FrontierEntry, CompletionStage<?>> launcher, int maxInFlight, int batchSize) {
+        return new URIDispatcher(queue, launcher, maxInFlight, batchSize);
+    }
+
+    /**
+     * Starts the dispatcher thread
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Dispatch loop, runs until the dispatcher is closed
+     */
+    private void dispatch() {
+        List<FrontierEntry> batch = new ArrayList<>(batchSize);
+        try {
+            while (running) {
+                FrontierEntry first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                logger.debug("Dispatching batch of {} URIs", batch.size());
+
+                for (FrontierEntry entry : batch) {
+                    // Blocks while the executor is saturated
+                    inFlight.acquire();
+                    submit(entry);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts crawling the URI, releasing its in-flight permit once the crawl completes
+     * @param entry The URI to crawl
+     */
+    private void submit(FrontierEntry entry) {
+        CompletionStage<?> crawl;
+        try {
+            crawl = launcher.apply(entry);
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            queue.markComplete(entry.uri());
+            logger.warn("Executor rejected URI {}", entry.uri());
+            return;
+        }
+        crawl.whenComplete((_, _) -> inFlight.release());
+    }
+
+    /**
+     * @return The number of URIs dispatched and not yet crawled
+     */
+    public int inFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * Stops the dispatcher thread, URIs remaining in the queue are not dispatched
+     */
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+    }
+}
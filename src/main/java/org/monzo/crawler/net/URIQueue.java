@@ -1,40 +1,380 @@
 package org.monzo.crawler.net;
 
 import org.monzo.crawler.exceptions.VisitedURIException;
+import org.monzo.crawler.frontier.FrontierEntry;
+import org.monzo.crawler.frontier.FrontierLog;
+import org.monzo.crawler.frontier.StripedVisitedSet;
+import org.monzo.crawler.frontier.UriFingerprint;
+import org.monzo.crawler.frontier.UriScorer;
+import org.monzo.crawler.frontier.VisitedSet;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A wrapper class for a blocking queue, exposes two methods only.
- * Add and poll, for attempting to add a URI to the queue, and polling the queue
+ * A wrapper class for a blocking queue. Exposes add and addAll, for attempting to add URIs to the queue,
+ * and poll/drainTo, for taking URIs off the queue.
+ * Neither method takes a lock of its own, de-duplication is delegated to a concurrent VisitedSet
+ * and ordering to the blocking queue.
+ * <p>
+ * Each URI is queued as a FrontierEntry recording its depth, the page it was found on and its score
+ * from the UriScorer. Links deeper than the max depth are not added, and once max pages URIs have been
+ * handed out the rest of the queue is discarded and no more are added, so that a crawl ordered by score
+ * stops after its best pages.
+ * <p>
+ * Given a FrontierLog, every URI is logged as it is added and as it is marked complete, so that an
+ * interrupted crawl can be restored.
+ * <p>
+ * Given a RemoteFrontier, the queue holds one partition of a crawl spread over several processes. Links
+ * owned by another process are forwarded to it rather than queued. They are still added to the visited set,
+ * so that each is forwarded once, but are not counted as visited by this queue.
  */
 public class URIQueue {
-    private final List<URI> visitedUris = new ArrayList<>(); // TRADE OFF - Memory overload here if URL count grows
-    
-    private final BlockingQueue<URI> queue;
-    
-    public URIQueue(BlockingQueue<URI> queue){
+    private final VisitedSet visitedUris;
+    private final CrawlTracker tracker = new CrawlTracker();
+
+    private final BlockingQueue<FrontierEntry> queue;
+    private final UriScorer scorer;
+    private final int maxDepth;
+    private final long maxPages;
+    private final AtomicLong handedOut = new AtomicLong();
+    private final FrontierLog log;
+    private final AtomicLong forwarded = new AtomicLong();
+    private volatile RemoteFrontier remote;
+
+    public URIQueue(BlockingQueue<FrontierEntry> queue){
+        this(queue, new StripedVisitedSet());
+    }
+
+    /**
+     * Creates a URIQueue backed by the given visited set, crawling breadth first without limits
+     * @param queue The queue URIs waiting to be crawled are held in
+     * @param visitedUris The set recording every URI ever added
+     */
+    public URIQueue(BlockingQueue<FrontierEntry> queue, VisitedSet visitedUris){
+        this(queue, visitedUris, UriScorer.breadthFirst(), Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a URIQueue
+     * @param queue The queue URIs waiting to be crawled are held in
+     * @param visitedUris The set recording every URI ever added
+     * @param scorer Scores each URI as it is added
+     * @param maxDepth The most links followed from the seed, links found on pages at this depth are not added
+     * @param maxPages The most URIs handed out for crawling
+     */
+    public URIQueue(BlockingQueue<FrontierEntry> queue, VisitedSet visitedUris, UriScorer scorer, int maxDepth, long maxPages){
+        this(queue, visitedUris, scorer, maxDepth, maxPages, null);
+    }
+
+    /**
+     * Creates a URIQueue recording every URI added and completed in a write-ahead log
+     * @param queue The queue URIs waiting to be crawled are held in
+     * @param visitedUris The set recording every URI ever added
+     * @param scorer Scores each URI as it is added
+     * @param maxDepth The most links followed from the seed, links found on pages at this depth are not added
+     * @param maxPages The most URIs handed out for crawling
+     * @param log The log to record URIs in, or null to keep the crawl in memory only
+     */
+    public URIQueue(BlockingQueue<FrontierEntry> queue, VisitedSet visitedUris, UriScorer scorer, int maxDepth, long maxPages,
+                    FrontierLog log){
+        if (maxDepth < 0 || maxPages < 1) {
+            throw new IllegalArgumentException("Max depth must not be negative and max pages must be at least 1");
+        }
         this.queue = queue;
+        this.visitedUris = visitedUris;
+        this.scorer = scorer;
+        this.maxDepth = maxDepth;
+        this.maxPages = maxPages;
+        this.log = log;
+    }
+
+    /**
+     * Partitions the crawl with other processes, links they own are forwarded to them from then on
+     * @param remote The frontier of the other processes
+     */
+    public void setRemoteFrontier(RemoteFrontier remote) {
+        this.remote = remote;
+    }
+
+    /**
+     * Adds the URI the crawl starts from
+     * @param uri The canonical seed URI
+     * @throws VisitedURIException If the URI has already been added
+     */
+    public void add(URI uri) throws VisitedURIException {
+        enqueue(new FrontierEntry(uri, 0, null, scorer.score(uri, 0, null)));
+    }
+
+    /**
+     * Adds a link found on a crawled page, unless it is beyond the max depth or the max pages have been handed out
+     * @param uri The canonical URI of the link
+     * @param parent The entry of the page the link was found on
+     * @return true if the URI was added, false if it is beyond the crawl's limits or was forwarded to a remote frontier
+     * @throws VisitedURIException If the URI has already been added
+     */
+    public boolean add(URI uri, FrontierEntry parent) throws VisitedURIException {
+        int depth = parent.depth() + 1;
+        if (depth > maxDepth || handedOut.get() >= maxPages) {
+            return false;
+        }
+        RemoteFrontier remote = this.remote;
+        if (remote != null && !remote.owns(uri)) {
+            if (!visitedUris.add(UriFingerprint.of(uri))) {
+                throw new VisitedURIException(uri);
+            }
+            forwarded.incrementAndGet();
+            remote.forward(List.of(uri), parent);
+            return false;
+        }
+        enqueue(new FrontierEntry(uri, depth, parent.uri(), scorer.score(uri, depth, parent.uri())));
+        return true;
     }
 
-    public synchronized void add(URI uri) throws VisitedURIException {
-        if(visitedUris.contains(uri)){
-            throw new VisitedURIException("URI: {} already visited");
+    /**
+     * Adds the links found on a crawled page as one batch. Links repeated on the page are reduced to their first
+     * occurrence before the rest are checked against the visited set, and the new ones are logged and handed to
+     * the backing queue together. Links already visited are left out of the result rather than thrown for.
+     * Links owned by a remote frontier are forwarded to it together, and are not in the result.
+     * @param uris The canonical URIs of the links, in the order they were found
+     * @param parent The entry of the page the links were found on
+     * @return The URIs added, in the order given, empty if none were new or they are beyond the crawl's limits
+     */
+    public List<URI> addAll(Collection<URI> uris, FrontierEntry parent) {
+        int depth = parent.depth() + 1;
+        if (uris.isEmpty() || depth > maxDepth || handedOut.get() >= maxPages) {
+            return List.of();
         }
 
-        queue.add(uri);
-        visitedUris.add(uri);
+        RemoteFrontier remote = this.remote;
+        FingerprintBatch batch = new FingerprintBatch(uris.size());
+        List<FrontierEntry> entries = new ArrayList<>(uris.size());
+        List<URI> remoteUris = null;
+        for (URI uri : uris) {
+            long fingerprint = UriFingerprint.of(uri);
+            if (!batch.firstSeen(fingerprint) || !visitedUris.add(fingerprint)) {
+                continue;
+            }
+            if (remote != null && !remote.owns(uri)) {
+                if (remoteUris == null) {
+                    remoteUris = new ArrayList<>();
+                }
+                remoteUris.add(uri);
+                continue;
+            }
+            batch.accepted[entries.size()] = fingerprint;
+            entries.add(new FrontierEntry(uri, depth, parent.uri(), scorer.score(uri, depth, parent.uri())));
+        }
+        if (remoteUris != null) {
+            forwarded.addAndGet(remoteUris.size());
+            remote.forward(remoteUris, parent);
+        }
+        if (entries.isEmpty()) {
+            return List.of();
+        }
+
+        tracker.enqueued(entries.size());
+        if (log != null) {
+            log.enqueued(entries, batch.accepted);
+        }
+        queue.addAll(entries);
+
+        List<URI> added = new ArrayList<>(entries.size());
+        for (FrontierEntry entry : entries) {
+            added.add(entry.uri());
+        }
+        return added;
+    }
+
+    private void enqueue(FrontierEntry entry) throws VisitedURIException {
+        long fingerprint = UriFingerprint.of(entry.uri());
+        if(!visitedUris.add(fingerprint)){
+            throw new VisitedURIException(entry.uri());
+        }
+
+        tracker.enqueued();
+        if (log != null) {
+            log.enqueued(entry, fingerprint);
+        }
+        queue.add(entry);
     }
 
-    public synchronized URI poll(){
-        // Decrement the pending tasks
-        return queue.poll();
+    /**
+     * Puts back the URIs recovered from the log of an interrupted crawl. They are neither checked against
+     * the visited set nor logged again, as the log already holds them.
+     * @param entries The URIs still to be crawled, see FrontierLog.recover
+     */
+    public void restore(List<FrontierEntry> entries) {
+        for (FrontierEntry entry : entries) {
+            tracker.enqueued();
+            queue.add(entry);
+        }
+    }
+
+    /**
+     * Marks a URI taken from this queue as crawled, successfully or not. Must be called exactly once
+     * for every URI polled, after any links found on it have been added, and for every URI the backing
+     * queue discards instead of handing out.
+     * @param uri The URI crawled
+     */
+    public void markComplete(URI uri) {
+        if (log != null) {
+            log.completed(uri);
+        }
+        tracker.completed();
     }
 
-    public synchronized int totalVisitedUris() {
-        return visitedUris.size();
+    /**
+     * Blocks until every URI added to the queue has been polled and marked complete
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void awaitCompletion() throws InterruptedException {
+        tracker.awaitCompletion();
+    }
+
+    /**
+     * Blocks until every URI added to the queue has been polled and marked complete, or the timeout passes
+     * @param timeout How long to wait
+     * @param unit The unit of the timeout
+     * @return true if the crawl completed, false if the timeout passed first
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return tracker.awaitCompletion(timeout, unit);
+    }
+
+    /**
+     * @return The number of URIs added but not yet marked complete
+     */
+    public long pending() {
+        return tracker.pending();
+    }
+
+    public FrontierEntry poll(){
+        return admit(queue.poll());
+    }
+
+    /**
+     * Retrieves the next URI, waiting up to the given timeout for one to be added
+     * @param timeout How long to wait
+     * @param unit The unit of the timeout
+     * @return The next URI, or null if none was added before the timeout or the max pages have been handed out
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public FrontierEntry poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return admit(queue.poll(timeout, unit));
+    }
+
+    /**
+     * Moves up to maxUris waiting URIs into the given list without blocking
+     * @param entries The list to add the URIs to
+     * @param maxUris The maximum number of URIs to move
+     * @return The number of URIs moved
+     */
+    public int drainTo(List<FrontierEntry> entries, int maxUris) {
+        int start = entries.size();
+        int drained = queue.drainTo(entries, maxUris);
+        if (maxPages == Long.MAX_VALUE || drained == 0) {
+            return drained;
+        }
+
+        long before = handedOut.getAndAdd(drained);
+        int admitted = Math.clamp(maxPages - before, 0, drained);
+        for (int i = start + drained - 1; i >= start + admitted; i--) {
+            markComplete(entries.remove(i).uri());
+        }
+        if (before + drained >= maxPages) {
+            discardRemaining();
+        }
+        return admitted;
+    }
+
+    /**
+     * Counts a URI taken off the queue against the max pages, completing it instead of handing it out if
+     * the max pages have already been handed out
+     */
+    private FrontierEntry admit(FrontierEntry entry) {
+        if (entry == null || maxPages == Long.MAX_VALUE) {
+            return entry;
+        }
+
+        long count = handedOut.incrementAndGet();
+        if (count > maxPages) {
+            markComplete(entry.uri());
+            return null;
+        }
+        if (count == maxPages) {
+            discardRemaining();
+        }
+        return entry;
+    }
+
+    /**
+     * Empties the queue once the max pages have been handed out. The discarded URIs will never be crawled,
+     * so are marked complete. URIs added concurrently are completed as they are polled instead.
+     */
+    private void discardRemaining() {
+        queue.removeIf(entry -> {
+            markComplete(entry.uri());
+            return true;
+        });
+    }
+
+    /**
+     * @return The number of URIs added to this queue, not counting links forwarded to a remote frontier
+     */
+    public int totalVisitedUris() {
+        return (int) Math.min(Integer.MAX_VALUE, visitedUris.size() - forwarded.get());
+    }
+
+    /**
+     * @return The number of links forwarded to a remote frontier
+     */
+    public long forwardedUris() {
+        return forwarded.get();
+    }
+
+    /**
+     * The fingerprints of one batch of links, an open addressing table of primitive longs sized for the batch
+     * so that a page's repeated links are dropped without touching the shared visited set
+     */
+    private static final class FingerprintBatch {
+        private final long[] table;
+        private final int mask;
+        private final long[] accepted;
+        // Zero marks an empty slot, so a zero fingerprint is tracked on its own
+        private boolean zeroSeen;
+
+        FingerprintBatch(int size) {
+            int capacity = Integer.highestOneBit(Math.max(2, size) * 2 - 1) << 1;
+            this.table = new long[capacity];
+            this.mask = capacity - 1;
+            this.accepted = new long[size];
+        }
+
+        /**
+         * @return true the first time the fingerprint is given, false after
+         */
+        boolean firstSeen(long fingerprint) {
+            if (fingerprint == 0) {
+                boolean first = !zeroSeen;
+                zeroSeen = true;
+                return first;
+            }
+            int slot = (int) fingerprint & mask;
+            while (table[slot] != 0) {
+                if (table[slot] == fingerprint) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = fingerprint;
+            return true;
+        }
     }
 }
@@ -0,0 +1,54 @@
+package org.monzo.crawler.net;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpResponse;
+
+/**
+ * The validators a server sent with a page, used to ask it on the next crawl whether the page has changed
+ * since. Either may be null if the server did not send it.
+ * @param etag The ETag header
+ * @param lastModified The Last-Modified header, kept as the server wrote it
+ */
+public record Validators(String etag, String lastModified) {
+    /**
+     * No validators, a request sent with them is unconditional
+     */
+    public static final Validators NONE = new Validators(null, null);
+
+    /**
+     * Reads the validators from a response
+     * @param response The response
+     * @return The response's ETag and Last-Modified, NONE if it had neither
+     */
+    public static Validators of(HttpResponse response) {
+        String etag = value(response.getFirstHeader(HttpHeaders.ETAG));
+        String lastModified = value(response.getFirstHeader(HttpHeaders.LAST_MODIFIED));
+        return etag == null && lastModified == null ? NONE : new Validators(etag, lastModified);
+    }
+
+    /**
+     * @return true if there is neither an ETag nor a Last-Modified to validate the page with
+     */
+    public boolean isEmpty() {
+        return etag == null && lastModified == null;
+    }
+
+    /**
+     * Makes a request conditional on the page having changed, sending If-None-Match and If-Modified-Since
+     * @param request The request to add the headers to
+     */
+    public void applyTo(HttpRequest request) {
+        if (etag != null) {
+            request.setHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    private static String value(Header header) {
+        return header == null ? null : header.getValue();
+    }
+}
@@ -1,22 +1,30 @@
 package org.monzo.crawler.net;
 
+import org.monzo.crawler.exceptions.RetriesExhaustedException;
 import org.monzo.crawler.exceptions.WebBrowserFailure;
 import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.core5.http.io.HttpClientResponseHandler;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
 
 /**
  * A web browser implementation used to send HTTP requests to URLs and retrieve
- * the web pages HTML
+ * the web pages HTML. Instances hold no per request state and are safe to share between
+ * worker threads, concurrency is bounded by the client's connection pool.
  */
 public class WebBrowser implements Browser {
     private final CloseableHttpClient client;
     private final HttpClientResponseHandler<String> handler;
+    private final HttpClientResponseHandler<List<String>> linkHandler;
+    private final HttpClientResponseHandler<ConditionalResponse<String>> conditionalHandler;
+    private final HttpClientResponseHandler<ConditionalResponse<List<String>>> conditionalLinkHandler;
     private final Retry retry;
 
     /**
@@ -26,8 +34,37 @@ public class WebBrowser implements Browser {
      * @param retry The retry object to wrap the sending of the requests in a retry mechanism
      */
     public WebBrowser(CloseableHttpClient client, HttpClientResponseHandler<String> handler, Retry retry){
+        this(client, handler, new LinkExtractingResponseHandler(), retry);
+    }
+
+    /**
+     * Creates a WebBrowser that only reads the responses the policy accepts, abandoning any other as soon as
+     * its headers or size give it away
+     * @param client The Closeable HttpClient to be used to send requests
+     * @param policy The content types and body size the browser reads
+     * @param retry The retry object to wrap the sending of the requests in a retry mechanism
+     */
+    public WebBrowser(CloseableHttpClient client, ContentPolicy policy, Retry retry) {
+        this(client, new BrowserResponseHandler(policy), new LinkExtractingResponseHandler(policy), retry);
+    }
+
+    /**
+     * Creates a WebBrowser that sends each request once, for use inside a RetryingBrowser so that the decorators
+     * between them see every attempt
+     * @param client The Closeable HttpClient to be used to send requests
+     * @param policy The content types and body size the browser reads
+     */
+    public WebBrowser(CloseableHttpClient client, ContentPolicy policy) {
+        this(client, policy, null);
+    }
+
+    private WebBrowser(CloseableHttpClient client, HttpClientResponseHandler<String> handler,
+                       HttpClientResponseHandler<List<String>> linkHandler, Retry retry) {
         this.client = client;
         this.handler = handler;
+        this.linkHandler = linkHandler;
+        this.conditionalHandler = new ConditionalResponseHandler<>(handler);
+        this.conditionalLinkHandler = new ConditionalResponseHandler<>(linkHandler);
         this.retry = retry;
     }
 
@@ -39,12 +76,59 @@ public class WebBrowser implements Browser {
      * @return The pages HTML if the request was successful
      * occurs
      */
-    public synchronized String get(URI uri) {
+    public String get(URI uri) {
+        return execute(uri, Validators.NONE, handler);
+    }
+
+    /**
+     * Sends an HTTP GET request to the given URL and scans the response for links as it is read,
+     * without holding the page in memory.
+     * If any status code other than 200 is returned, then a WebBrowserFailure will be thrown
+     * @param uri The URI to scrape
+     * @return The href of every anchor on the page
+     */
+    @Override
+    public List<String> getLinks(URI uri) {
+        return execute(uri, Validators.NONE, linkHandler);
+    }
+
+    /**
+     * Sends an HTTP GET request to the given URL with If-None-Match and If-Modified-Since set from the
+     * validators. A 304 response is returned as not modified, a 200 response as the page's body.
+     * @param uri The URI to scrape
+     * @param validators The validators sent with the last copy of the page
+     * @return The page's HTML and validators, or that the page has not been modified
+     */
+    @Override
+    public ConditionalResponse<String> getIfChanged(URI uri, Validators validators) {
+        return execute(uri, validators, conditionalHandler);
+    }
+
+    /**
+     * Sends a conditional HTTP GET request as getIfChanged does, scanning a changed page for links as it is read
+     * @param uri The URI to scrape
+     * @param validators The validators sent with the last copy of the page
+     * @return The page's links and validators, or that the page has not been modified
+     */
+    @Override
+    public ConditionalResponse<List<String>> getLinksIfChanged(URI uri, Validators validators) {
+        return execute(uri, validators, conditionalLinkHandler);
+    }
+
+    /**
+     * Sends an HTTP GET request to the given URL, wrapped in the retry mechanism if the browser has one
+     * @param uri The URI to scrape
+     * @param validators The validators to make the request conditional on, NONE to always fetch the page
+     * @param responseHandler Reads the response
+     * @return The value read by the handler
+     */
+    private <T> T execute(URI uri, Validators validators, HttpClientResponseHandler<T> responseHandler) {
         HttpGet req = new HttpGet(uri);
+        validators.applyTo(req);
 
-        Callable<String> callable = () -> {
+        Callable<T> callable = () -> {
             try {
-                return client.execute(req, handler);
+                return client.execute(req, responseHandler);
             }
             catch(IOException e){
                 throw new WebBrowserFailure(e); // Trade off here - logs to console the exception
@@ -52,13 +136,30 @@ public class WebBrowser implements Browser {
         };
 
         try {
-            return retry.executeCallable(callable);
-        }
-        catch(WebBrowserFailure e) {
-            throw e;
+            return retry == null ? callable.call() : retry.executeCallable(callable);
         }
         catch (Exception e) {
-            throw new WebBrowserFailure(e);
+            throw afterRetries(retry, e);
+        }
+    }
+
+    /**
+     * Wraps the failure a retry gave up with as a RetriesExhaustedException if the retry's config retries it,
+     * so that it failed on every attempt, otherwise as a WebBrowserFailure if it is not one already
+     * @param retry The retry the request was sent with, or null if it was sent once
+     * @param failure The failure the retry gave up with, possibly wrapped in a CompletionException
+     * @return The failure to report
+     */
+    static WebBrowserFailure afterRetries(Retry retry, Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        RetryConfig config = retry == null ? null : retry.getRetryConfig();
+        if (config != null && config.getMaxAttempts() > 1 && config.getExceptionPredicate().test(failure)) {
+            // Keep the cause the failure had, so that callers see the same cause whether or not it was retried
+            Throwable cause = failure instanceof WebBrowserFailure && failure.getCause() != null ? failure.getCause() : failure;
+            return new RetriesExhaustedException(cause, config.getMaxAttempts());
         }
+        return failure instanceof WebBrowserFailure browserFailure ? browserFailure : new WebBrowserFailure(failure);
     }
 }
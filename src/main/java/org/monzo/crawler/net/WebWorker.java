@@ -1,28 +1,49 @@
 package org.monzo.crawler.net;
 
-import org.monzo.crawler.exceptions.VisitedURIException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
+import org.monzo.crawler.exceptions.ContentRejectedException;
+import org.monzo.crawler.exceptions.RetriesExhaustedException;
 import org.monzo.crawler.exceptions.WebBrowserException;
 import org.monzo.crawler.exceptions.WebBrowserFailure;
+import org.monzo.crawler.frontier.FrontierEntry;
+import org.monzo.crawler.frontier.NearDuplicateIndex;
+import org.monzo.crawler.frontier.SimHash;
+import org.monzo.crawler.frontier.UriCanonicalizer;
+import org.monzo.crawler.graph.LinkGraphWriter;
+import org.monzo.crawler.metrics.CrawlMetrics;
+import org.monzo.crawler.metrics.CrawlMetrics.Stage;
 
 import java.net.URI;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * An implementation of the Runnable interface. Handles sending an HTTP request to
- * the given URI. Parsing the response using Jsoup and extracting all links from the
- * web page
+ * the given URI. Parsing the response using Jsoup, or scanning it as it is read when
+ * streaming, and extracting all links from the web page.
+ * The optional collaborators of every worker of a crawl are given as one WorkerOptions.
+ * Given a NearDuplicateIndex, the links of a page that is a near-duplicate of one already crawled are not
+ * followed. Pages are fingerprinted from their text, so a page with too little text to fingerprint, or a streamed page
+ * whose text is never kept, is always followed.
+ * Given a LinkGraphWriter, the internal links of every page whose links are followed are written to the graph.
  */
 public class WebWorker implements Runnable {
     private final Browser browser;
+    private final FrontierEntry entry;
     private final URI uri;
     private final URIQueue queue;
+    private final boolean streaming;
+    private final UriCanonicalizer canonicalizer;
+    private final CrawlMetrics metrics;
+    private final NearDuplicateIndex nearDuplicates;
+    private final LinkGraphWriter graph;
     private static final Logger logger = LogManager.getLogger(WebWorker.class);
 
     /**
@@ -33,54 +54,252 @@ public class WebWorker implements Runnable {
      * @param queue The URIQueue instance where extracted URIs from the response are added.
      */
     public WebWorker(Browser browser, URI uri, URIQueue queue){
-        this.browser = browser;
-        this.uri = uri;
-        this.queue = queue;
+        this(browser, FrontierEntry.seed(uri), queue, WorkerOptions.DEFAULT);
     }
 
     /**
-     * Added the given URL link to the queue after converting it to a URL object.
-     * @param link The URL link to be added to the queue.
+     * Constructs a WebWorker instance.
+     *
+     * @param browser The Browser instance used to send HTTP requests and retrieve the HTML content of the URI.
+     * @param entry The frontier entry of the canonical URI to handle, the links found on it are added as its children.
+     * @param queue The URIQueue instance where extracted URIs from the response are added.
+     * @param options How the page is parsed and its links followed, and what is recorded of it
      */
-    private void addToQueue(String link){
-        // Localised match
-        URI nextUri = null;
-        try {
-            nextUri = URI.create(uri.getScheme() + "://" + uri.getHost() + link);
-            queue.add(nextUri);
-            logger.debug("URI identified as internal, marked for crawl: {}", nextUri);
-        } catch (VisitedURIException | IllegalArgumentException _) {
-            logger.debug("Skipping previously visited URI: {}", nextUri);
-        }
+    public WebWorker(Browser browser, FrontierEntry entry, URIQueue queue, WorkerOptions options){
+        this.browser = browser;
+        this.entry = entry;
+        this.uri = entry.uri();
+        this.queue = queue;
+        this.streaming = options.streaming();
+        this.canonicalizer = options.canonicalizer();
+        this.metrics = options.metrics();
+        this.nearDuplicates = options.nearDuplicates();
+        this.graph = options.graph();
     }
 
     /**
      * Concrete implementation of the Runnable interface. Sends HTTP GET to the given URL.
      * Extracts links from the return webpage and filters for any internal links.
-     * Any found will be added to the queue.
+     * Any found will be added to the queue. The URI is marked complete on the queue once done, whether or
+     * not it could be crawled.
      */
     @Override
     public void run() {
+        long start = System.nanoTime();
         try {
-            String body = browser.get(uri);
-            Document doc = Jsoup.parse(body);
-            Elements links = doc.select("a[href]");
-            logger.info("URI: {} - Links: {}", uri, links.stream().map(e -> e.attr("href")).toList());
+            if (streaming) {
+                // The links are scanned as the page is read, so parsing is part of the fetch
+                List<String> links = browser.getLinks(uri);
+                record(Stage.FETCH, start);
+                queueLinks(linksPage(links));
+            } else {
+                String body = browser.get(uri);
+                queueLinks(parsePage(body, record(Stage.FETCH, start)));
+            }
+        } catch (WebBrowserFailure | WebBrowserException e) {
+            logFailure(e);
+        } finally {
+            queue.markComplete(uri);
+        }
+    }
+
+    /**
+     * Asynchronous form of run. The page is requested with the browser's getAsync and link extraction is
+     * chained onto the response, so no thread is held while the request is in flight.
+     * @param parseExecutor The executor the page is parsed and its links queued on
+     * @return A future completed once the URI has been crawled and marked complete, it never completes exceptionally
+     */
+    public CompletableFuture<Void> runAsync(Executor parseExecutor) {
+        long start = System.nanoTime();
+        return browser.getAsync(uri)
+                .whenComplete((_, e) -> {
+                    if (e == null) {
+                        record(Stage.FETCH, start);
+                    }
+                })
+                .thenAcceptAsync(body -> queueLinks(streaming ? linksPage(scanLinks(body)) : parsePage(body, System.nanoTime())), parseExecutor)
+                .handle((_, e) -> {
+                    if (e != null) {
+                        logFailure(e instanceof CompletionException ? e.getCause() : e);
+                    }
+                    queue.markComplete(uri);
+                    return null;
+                });
+    }
+
+    /**
+     * Staged form of run. The page is fetched on the fetch stage, parsed on the parse stage and its links
+     * canonicalized and queued on the link stage, so that threads waiting on the network never hold back
+     * parsing. When links are scanned as the page is read there is no parse stage, scanning is part of the fetch.
+     * @param fetchStage The executor the page is fetched on
+     * @param parseStage The executor the page is parsed on
+     * @param linkStage The executor the links are canonicalized and queued on
+     * @return A future completed once the URI has been crawled and marked complete, it never completes exceptionally
+     */
+    public CompletableFuture<Void> runStaged(Executor fetchStage, Executor parseStage, Executor linkStage) {
+        CompletableFuture<Page> page = streaming
+                ? CompletableFuture.supplyAsync(() -> linksPage(fetch(browser::getLinks)), fetchStage)
+                : CompletableFuture.supplyAsync(() -> fetch(browser::get), fetchStage)
+                        .thenApplyAsync(body -> parsePage(body, System.nanoTime()), parseStage);
+        return page
+                .thenAcceptAsync(this::queueLinks, linkStage)
+                .handle((_, e) -> {
+                    if (e != null) {
+                        logFailure(e instanceof CompletionException ? e.getCause() : e);
+                    }
+                    queue.markComplete(uri);
+                    return null;
+                });
+    }
+
+    /**
+     * The links found on a page and the page's SimHash, 0 when the page was not fingerprinted
+     */
+    private record Page(List<String> links, long fingerprint) {
+    }
+
+    /**
+     * Fetches the page, recording how long it took
+     * @param fetch The request to make
+     * @return The response
+     * @throws CompletionException Wrapping the WebBrowserException if the page could not be retrieved
+     */
+    private <T> T fetch(Fetch<T> fetch) {
+        long start = System.nanoTime();
+        try {
+            T response = fetch.apply(uri);
+            record(Stage.FETCH, start);
+            return response;
+        } catch (WebBrowserException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Logs why the page could not be crawled. Pages that are not HTML or are too large are skipped by design,
+     * so are not worth a warning. Only failures the browser retried until it ran out of attempts are logged as
+     * such, others such as a 404 or a host whose circuit breaker is open were never retried.
+     */
+    private void logFailure(Throwable failure) {
+        if (metrics != null) {
+            metrics.failed();
+        }
+        Throwable cause = rootCause(failure);
+        RetriesExhaustedException exhausted = RetriesExhaustedException.findCause(failure);
+        if (ContentRejectedException.isCause(failure)) {
+            logger.info("Skipping URL {}. {}", uri, cause.getMessage());
+        } else if (exhausted != null) {
+            logger.warn("Unable to crawl URL {}. Max retries encountered after {} attempts. Error: {}", uri,
+                    exhausted.getAttempts(), cause);
+        } else {
+            logger.warn("Unable to crawl URL {}. Error: {}", uri, cause);
+        }
+    }
+
+    /**
+     * @return The innermost cause of the failure, the failure itself if it has none
+     */
+    private static Throwable rootCause(Throwable failure) {
+        Throwable cause = failure;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * Parses the page into a Jsoup document and selects the href of every anchor, fingerprinting the
+     * document's text if near-duplicates are looked for
+     * @param body The pages HTML
+     * @param start When parsing started, from System.nanoTime
+     * @return The href of every anchor on the page and the page's fingerprint
+     */
+    private Page parsePage(String body, long start) {
+        Document doc = Jsoup.parse(body);
+        Elements links = doc.select("a[href]");
+        List<String> hrefs = links.stream().map(e -> e.attr("href")).toList();
+        long fingerprint = nearDuplicates == null ? 0 : SimHash.ofText(doc.text());
+        record(Stage.PARSE, start);
+        return new Page(hrefs, fingerprint);
+    }
 
-            for (Element el: links){
-                String link = el.attr("href");
-                logger.debug("Current URI: {}, Link: {}", uri, link);
+    /**
+     * @param links The href of every anchor on a page whose text was not kept
+     * @return The links, without a fingerprint
+     */
+    private Page linksPage(List<String> links) {
+        return new Page(links, 0);
+    }
 
-                Pattern pattern = Pattern.compile("^/[a-zA-Z]");
-                Matcher matcher = pattern.matcher(link);
+    /**
+     * Scans the page for the href of every anchor without building a document
+     * @param body The pages HTML
+     * @return The href of every anchor on the page
+     */
+    private List<String> scanLinks(String body) {
+        long start = System.nanoTime();
+        List<String> hrefs = HrefScanner.scan(body);
+        record(Stage.PARSE, start);
+        return hrefs;
+    }
 
-                if (matcher.find()){
-                    addToQueue(link);
-                }
+    /**
+     * Records how long a stage took, if the worker has metrics
+     * @param stage The stage
+     * @param start When the stage started, from System.nanoTime
+     * @return The time now, when the next stage starts
+     */
+    private long record(Stage stage, long start) {
+        long now = System.nanoTime();
+        if (metrics != null) {
+            metrics.record(stage, now - start);
+        }
+        return now;
+    }
+
+    /**
+     * Adds any internal links found on the page to the queue, as one batch, and to the link graph, unless the page
+     * is a near-duplicate of one already crawled. Pages that were not fingerprinted are not compared.
+     * @param page The href of every anchor on the page and the page's fingerprint
+     */
+    private void queueLinks(Page page) {
+        List<String> links = page.links();
+        if (nearDuplicates != null && page.fingerprint() != 0 && !nearDuplicates.add(page.fingerprint())) {
+            logger.info("URI: {} - Near-duplicate of a page already crawled, not following its {} links", uri, links.size());
+            if (metrics != null) {
+                metrics.nearDuplicate(links.size());
+                metrics.crawled(links.size(), 0);
             }
-            logger.debug("Located all {} links at URI: {}", links.size(), uri);
-        } catch (WebBrowserFailure | WebBrowserException e) {
-            logger.warn("Unable to crawl URL {}. Max retries encountered. Error: {}", uri, e.getMessage());
+            return;
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("URI: {} - Links: {}", uri, links);
+        }
+
+        long start = System.nanoTime();
+        List<URI> internal = new ArrayList<>(links.size());
+        for (String link: links){
+            logger.debug("Current URI: {}, Link: {}", uri, link);
+
+            // Null for links to other hosts, links that are not http or https and malformed links
+            URI nextUri = canonicalizer.canonicalizeInternal(uri, link);
+            if (nextUri != null){
+                internal.add(nextUri);
+            }
+        }
+
+        start = record(Stage.EXTRACT, start);
+        if (graph != null) {
+            graph.addPage(uri, internal);
+        }
+        List<URI> added = queue.addAll(internal, entry);
+        record(Stage.ENQUEUE, start);
+        if (metrics != null) {
+            metrics.crawled(links.size(), added.size());
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Located all {} links at URI: {}, {} internal and {} marked for crawl: {}", links.size(), uri,
+                    internal.size(), added.size(), added);
         }
     }
 }
@@ -0,0 +1,30 @@
+package org.monzo.crawler.net;
+
+import org.monzo.crawler.frontier.NearDuplicateIndex;
+import org.monzo.crawler.frontier.UriCanonicalizer;
+import org.monzo.crawler.graph.LinkGraphWriter;
+import org.monzo.crawler.metrics.CrawlMetrics;
+
+/**
+ * How each WebWorker of a crawl handles its page, shared by every worker of the crawl.
+ *
+ * @param streaming Whether links are scanned from the response as it is read rather than from a Jsoup document
+ * @param canonicalizer Resolves links found on a page into the canonical form the queue de-duplicates on
+ * @param metrics The metrics to record each page's stages in, or null to record none
+ * @param nearDuplicates The fingerprints of the pages crawled so far, or null to follow the links of every page.
+ *                       Streamed pages are never fingerprinted, as their text is not kept.
+ * @param graph The link graph to write each page's internal links to, or null to write none
+ */
+public record WorkerOptions(boolean streaming, UriCanonicalizer canonicalizer, CrawlMetrics metrics,
+                            NearDuplicateIndex nearDuplicates, LinkGraphWriter graph) {
+    /**
+     * Parses each page with Jsoup and follows every internal link, recording no metrics and writing no graph
+     */
+    public static final WorkerOptions DEFAULT = new WorkerOptions(false, new UriCanonicalizer(), null, null, null);
+
+    public WorkerOptions {
+        if (canonicalizer == null) {
+            throw new IllegalArgumentException("A canonicalizer is required");
+        }
+    }
+}
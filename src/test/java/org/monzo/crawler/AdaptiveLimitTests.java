@@ -0,0 +1,129 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.net.AdaptiveLimit;
+
+import java.util.concurrent.CompletableFuture;
+
+class AdaptiveLimitTests {
+    private static final long MILLISECOND = 1_000_000L;
+
+    /**
+     * Tests that the limit doubles each window of saturated successes until it is first cut, stopping at its maximum
+     */
+    @Test
+    void testSlowStart() {
+        AdaptiveLimit limit = new AdaptiveLimit(2, 1, 100);
+
+        send(limit, 10, AdaptiveLimit.Outcome.SUCCESS, MILLISECOND);
+        Assertions.assertEquals(4, limit.limit());
+
+        send(limit, 1000, AdaptiveLimit.Outcome.SUCCESS, MILLISECOND);
+        Assertions.assertEquals(100, limit.limit());
+    }
+
+    /**
+     * Tests that a throttled request halves the limit straight away, once a window, after which it rises by one a window
+     */
+    @Test
+    void testThrottled() {
+        AdaptiveLimit limit = new AdaptiveLimit(16, 1, 100);
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertTrue(limit.acquire().isDone());
+        }
+
+        limit.release(AdaptiveLimit.Outcome.THROTTLED, MILLISECOND);
+        Assertions.assertEquals(8, limit.limit());
+        limit.release(AdaptiveLimit.Outcome.THROTTLED, MILLISECOND);
+        limit.release(AdaptiveLimit.Outcome.SUCCESS, MILLISECOND);
+        Assertions.assertEquals(8, limit.limit());
+
+        send(limit, 40, AdaptiveLimit.Outcome.SUCCESS, MILLISECOND);
+        Assertions.assertTrue(limit.limit() > 8 && limit.limit() <= 12, "Rises by one a window: " + limit.limit());
+    }
+
+    /**
+     * Tests that a window where more than a tenth of the requests failed halves the limit, down to its minimum
+     */
+    @Test
+    void testDropped() {
+        AdaptiveLimit limit = new AdaptiveLimit(8, 3, 100);
+
+        send(limit, 10, AdaptiveLimit.Outcome.DROPPED, MILLISECOND);
+        Assertions.assertEquals(4, limit.limit());
+
+        send(limit, 10, AdaptiveLimit.Outcome.DROPPED, MILLISECOND);
+        Assertions.assertEquals(3, limit.limit());
+    }
+
+    /**
+     * Tests that a window whose p99 latency rose past twice the baseline cuts the limit
+     */
+    @Test
+    void testLatencyRise() {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 1, 100);
+        send(limit, 10, AdaptiveLimit.Outcome.SUCCESS, MILLISECOND);
+        Assertions.assertEquals(20, limit.limit());
+
+        send(limit, 20, AdaptiveLimit.Outcome.SUCCESS, 10 * MILLISECOND);
+        Assertions.assertEquals(10, limit.limit());
+    }
+
+    /**
+     * Tests that requests that say nothing about load neither raise nor cut the limit
+     */
+    @Test
+    void testIgnored() {
+        AdaptiveLimit limit = new AdaptiveLimit(4, 1, 100);
+
+        send(limit, 100, AdaptiveLimit.Outcome.IGNORED, MILLISECOND);
+
+        Assertions.assertEquals(4, limit.limit());
+    }
+
+    /**
+     * Tests that a request over the limit waits until a permit is returned, and that a cancelled wait is skipped
+     */
+    @Test
+    void testWaiters() {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 1, 1);
+        Assertions.assertTrue(limit.acquire().isDone());
+        CompletableFuture<Void> cancelled = limit.acquire();
+        CompletableFuture<Void> waiting = limit.acquire();
+        Assertions.assertFalse(cancelled.isDone());
+        Assertions.assertFalse(waiting.isDone());
+
+        cancelled.cancel(false);
+        limit.release(AdaptiveLimit.Outcome.SUCCESS, MILLISECOND);
+
+        Assertions.assertTrue(waiting.isDone());
+        Assertions.assertFalse(waiting.isCompletedExceptionally());
+        Assertions.assertEquals(1, limit.inFlight());
+    }
+
+    /**
+     * Tests that the limits must leave room for at least one request
+     */
+    @Test
+    void testInvalidLimits() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new AdaptiveLimit(1, 0, 1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new AdaptiveLimit(1, 4, 2));
+    }
+
+    /**
+     * Sends requests as many at once as the limit allows, so that the limit is saturated
+     */
+    private static void send(AdaptiveLimit limit, int requests, AdaptiveLimit.Outcome outcome, long latencyNanos) {
+        for (int sent = 0; sent < requests; ) {
+            int batch = Math.min(limit.limit(), requests - sent);
+            for (int i = 0; i < batch; i++) {
+                Assertions.assertTrue(limit.acquire().isDone());
+            }
+            for (int i = 0; i < batch; i++) {
+                limit.release(outcome, latencyNanos);
+            }
+            sent += batch;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.monzo.crawler;
+
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.monzo.crawler.exceptions.HttpStatusException;
+import org.monzo.crawler.exceptions.WebBrowserFailure;
+import org.monzo.crawler.net.AdaptiveLimit;
+import org.monzo.crawler.net.AdaptiveLimitedBrowser;
+import org.monzo.crawler.net.Browser;
+import org.monzo.crawler.net.RetryingBrowser;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class AdaptiveLimitedBrowserTests {
+
+    /**
+     * Tests that no more requests are in flight to one host than its limit, while requests to another host
+     * are not held back by it
+     */
+    @Test
+    void testPerHostLimit() throws InterruptedException, ExecutionException {
+        Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> maxInFlight = new ConcurrentHashMap<>();
+        Browser slowBrowser = uri -> {
+            int current = inFlight.computeIfAbsent(uri.getHost(), _ -> new AtomicInteger()).incrementAndGet();
+            maxInFlight.computeIfAbsent(uri.getHost(), _ -> new AtomicInteger()).accumulateAndGet(current, Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException _) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.get(uri.getHost()).decrementAndGet();
+            return "";
+        };
+        Browser browser = new AdaptiveLimitedBrowser(slowBrowser, new AdaptiveLimit(100, 1, 100),
+                () -> new AdaptiveLimit(2, 1, 2));
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                URI uri = URI.create((i % 2 == 0 ? "https://a.test/" : "https://b.test/") + i);
+                futures.add(executor.submit(() -> browser.get(uri)));
+            }
+            for (Future<String> future : futures) {
+                future.get();
+            }
+        }
+
+        Assertions.assertEquals(2, maxInFlight.get("a.test").get());
+        Assertions.assertEquals(2, maxInFlight.get("b.test").get());
+    }
+
+    /**
+     * Tests that a host answering 503 has its limit cut, and the overall limit with it, without cutting the
+     * limit of a host that is answering
+     */
+    @Test
+    void testThrottledHost() throws Exception {
+        Browser throttling = uri -> {
+            if (uri.getHost().equals("a.test")) {
+                throw new WebBrowserFailure(new HttpStatusException("Server error: 503", 503, null));
+            }
+            return "";
+        };
+        AdaptiveLimitedBrowser browser = new AdaptiveLimitedBrowser(throttling, new AdaptiveLimit(16, 1, 100),
+                () -> new AdaptiveLimit(8, 1, 100));
+
+        browser.get(URI.create("https://b.test/"));
+        Assertions.assertThrows(WebBrowserFailure.class, () -> browser.get(URI.create("https://a.test/")));
+
+        Assertions.assertEquals(4, browser.hostLimit("a.test").limit());
+        Assertions.assertEquals(8, browser.hostLimit("b.test").limit());
+        Assertions.assertEquals(8, browser.globalLimit().limit());
+        Assertions.assertEquals(0, browser.globalLimit().inFlight());
+    }
+
+    /**
+     * Tests that a 429 answered to an attempt that is retried and then succeeds still cuts the host's limit,
+     * and that no permit is kept once the retry is done
+     */
+    @Test
+    void testRetriedThrottleCutsLimit() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        Browser flaky = _ -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new WebBrowserFailure(new HttpStatusException("Unexpected status code: 429", 429, null));
+            }
+            return "page";
+        };
+        AdaptiveLimitedBrowser limited = new AdaptiveLimitedBrowser(flaky, new AdaptiveLimit(16, 1, 100),
+                () -> new AdaptiveLimit(8, 1, 100));
+        Retry retry = Retry.of("testRetry", RetryConfig.custom()
+                .maxAttempts(3)
+                .waitDuration(Duration.ofMillis(10))
+                .retryOnException(e -> e instanceof WebBrowserFailure)
+                .build());
+        Browser browser = new RetryingBrowser(limited, retry);
+
+        Assertions.assertEquals("page", browser.get(URI.create("https://a.test/")));
+
+        Assertions.assertEquals(2, attempts.get());
+        Assertions.assertEquals(4, limited.hostLimit("a.test").limit());
+        Assertions.assertEquals(0, limited.hostLimit("a.test").inFlight());
+        Assertions.assertEquals(0, limited.globalLimit().inFlight());
+    }
+
+    /**
+     * Tests that a 404 says nothing about load, so neither cuts the limit nor keeps its permit
+     */
+    @Test
+    void testNotFoundIgnored() {
+        Browser missing = _ -> {
+            throw new WebBrowserFailure(new HttpStatusException("Unexpected status code: 404", 404, null));
+        };
+        AdaptiveLimitedBrowser browser = new AdaptiveLimitedBrowser(missing, new AdaptiveLimit(4, 1, 100),
+                () -> new AdaptiveLimit(1, 1, 100));
+
+        for (int i = 0; i < 50; i++) {
+            Assertions.assertThrows(WebBrowserFailure.class, () -> browser.get(URI.create("https://a.test/")));
+        }
+
+        Assertions.assertEquals(1, browser.hostLimit("a.test").limit());
+        Assertions.assertEquals(0, browser.hostLimit("a.test").inFlight());
+        Assertions.assertEquals(4, browser.globalLimit().limit());
+    }
+
+    /**
+     * Tests that an asynchronous request over the limit is not sent until a request in flight completes,
+     * and that the caller is not blocked while it waits
+     */
+    @Test
+    @Timeout(5)
+    void testAsyncWaitsForPermit() {
+        Queue<CompletableFuture<String>> sent = new ConcurrentLinkedQueue<>();
+        Browser async = new Browser() {
+            @Override
+            public String get(URI uri) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public CompletableFuture<String> getAsync(URI uri) {
+                CompletableFuture<String> response = new CompletableFuture<>();
+                sent.add(response);
+                return response;
+            }
+        };
+        Browser browser = new AdaptiveLimitedBrowser(async, new AdaptiveLimit(100, 1, 100),
+                () -> new AdaptiveLimit(1, 1, 1));
+
+        CompletableFuture<String> first = browser.getAsync(URI.create("https://a.test/1"));
+        CompletableFuture<String> second = browser.getAsync(URI.create("https://a.test/2"));
+        Assertions.assertEquals(1, sent.size());
+        Assertions.assertFalse(second.isDone());
+
+        sent.poll().complete("first");
+        Assertions.assertEquals("first", first.join());
+        Assertions.assertEquals(1, sent.size());
+
+        sent.poll().complete("second");
+        Assertions.assertEquals("second", second.join());
+    }
+}
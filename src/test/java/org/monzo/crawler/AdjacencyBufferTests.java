@@ -0,0 +1,89 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.graph.AdjacencyBuffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+class AdjacencyBufferTests {
+
+    /**
+     * Tests that each row's targets are sorted and repeats removed
+     */
+    @Test
+    void testAddRow() {
+        AdjacencyBuffer buffer = new AdjacencyBuffer();
+
+        Assertions.assertEquals(3, buffer.addRow(7, new int[] {9, 2, 9, 5, 2, 99}, 5));
+        Assertions.assertEquals(0, buffer.addRow(8, new int[0], 0));
+
+        Assertions.assertEquals(2, buffer.rows());
+        Assertions.assertEquals(3, buffer.edges());
+        Assertions.assertEquals(7, buffer.source(0));
+        Assertions.assertArrayEquals(new int[] {2, 5, 9}, row(buffer, 0));
+        Assertions.assertEquals(8, buffer.source(1));
+        Assertions.assertEquals(0, buffer.degree(1));
+    }
+
+    /**
+     * Tests that rows written as varint gaps are read back as they were, across the buffer growing and values
+     * taking several bytes
+     */
+    @Test
+    void testRoundTrip() throws IOException {
+        AdjacencyBuffer buffer = new AdjacencyBuffer();
+        for (int source = 0; source < 1000; source++) {
+            int[] targets = {source, source * 31 + 1, Integer.MAX_VALUE - source, 128};
+            buffer.addRow(source * 1000, targets, targets.length);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out);
+
+        AdjacencyBuffer read = new AdjacencyBuffer();
+        read.readFrom(new ByteArrayInputStream(out.toByteArray()));
+
+        Assertions.assertEquals(buffer.rows(), read.rows());
+        Assertions.assertEquals(buffer.edges(), read.edges());
+        for (int row = 0; row < buffer.rows(); row++) {
+            Assertions.assertEquals(buffer.source(row), read.source(row));
+            Assertions.assertArrayEquals(row(buffer, row), row(read, row));
+        }
+    }
+
+    /**
+     * Tests that a cleared buffer writes only the rows added since, and a stream cut part way through a row is
+     * an error
+     */
+    @Test
+    void testClearAndTruncated() throws IOException {
+        AdjacencyBuffer buffer = new AdjacencyBuffer();
+        buffer.addRow(1, new int[] {2, 3}, 2);
+        buffer.clear();
+        buffer.addRow(4, new int[] {300}, 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out);
+        byte[] bytes = out.toByteArray();
+
+        AdjacencyBuffer read = new AdjacencyBuffer();
+        read.readFrom(new ByteArrayInputStream(bytes));
+        Assertions.assertEquals(1, read.rows());
+        Assertions.assertEquals(4, read.source(0));
+        Assertions.assertArrayEquals(new int[] {300}, row(read, 0));
+
+        Assertions.assertThrows(EOFException.class,
+                () -> new AdjacencyBuffer().readFrom(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1))));
+    }
+
+    private static int[] row(AdjacencyBuffer buffer, int row) {
+        int[] targets = new int[buffer.degree(row)];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = buffer.target(row, i);
+        }
+        return targets;
+    }
+}
@@ -0,0 +1,170 @@
+package org.monzo.crawler;
+
+import com.sun.net.httpserver.HttpServer;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.exceptions.ContentRejectedException;
+import org.monzo.crawler.exceptions.WebBrowserFailure;
+import org.monzo.crawler.net.AsyncWebBrowser;
+import org.monzo.crawler.net.ConnectionPoolConfig;
+import org.monzo.crawler.net.ContentPolicy;
+import org.monzo.crawler.net.HttpClientFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+class AsyncWebBrowserTests {
+    private static final int MAX_RETRIES = 3;
+    private static final String BODY = "<html></html>";
+    private static final int MAX_BODY_BYTES = 1024;
+
+    private HttpServer server;
+    private CloseableHttpAsyncClient client;
+    private ScheduledExecutorService scheduler;
+    private AsyncWebBrowser browser;
+    private AsyncWebBrowser htmlBrowser;
+    private volatile String acceptEncoding;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int failuresBeforeSuccess;
+
+    @BeforeEach
+    void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            boolean fail = requests.incrementAndGet() <= failuresBeforeSuccess;
+            byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(fail ? 500 : 200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/gzip", exchange -> {
+            acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(BODY.getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, compressed.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                compressed.writeTo(out);
+            }
+        });
+        server.createContext("/pdf", exchange -> {
+            requests.incrementAndGet();
+            exchange.getResponseHeaders().add("Content-Type", "application/pdf");
+            exchange.sendResponseHeaders(200, 4);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("%PDF".getBytes(StandardCharsets.US_ASCII));
+            }
+        });
+        server.createContext("/large", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/html");
+            // A length of 0 sends the body chunked, so its size is only known once it has been read
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("<p>".repeat(MAX_BODY_BYTES).getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        server.start();
+
+        RetryConfig config = RetryConfig.custom()
+                .maxAttempts(MAX_RETRIES)
+                .waitDuration(Duration.ofMillis(100))
+                .retryOnException(e -> e instanceof WebBrowserFailure)
+                .build();
+        client = HttpClientFactory.createAsync(ConnectionPoolConfig.forWorkers(2));
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        browser = new AsyncWebBrowser(client, Retry.of("asyncWebBrowserRetry", config), scheduler);
+        htmlBrowser = new AsyncWebBrowser(client, new ContentPolicy(ContentPolicy.HTML_TYPES, MAX_BODY_BYTES),
+                Retry.of("htmlRetry", RetryConfig.custom().maxAttempts(1).build()), scheduler);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        scheduler.shutdownNow();
+        server.stop(0);
+    }
+
+    private URI uri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    /**
+     * Tests that the response body is returned when the first request succeeds
+     */
+    @Test
+    void testGetAsync() {
+        Assertions.assertEquals(BODY, browser.getAsync(uri()).join());
+        Assertions.assertEquals(1, requests.get());
+    }
+
+    /**
+     * Tests that server errors are retried without blocking the caller, and the body
+     * returned once an attempt succeeds
+     */
+    @Test
+    void testSuccessOnFinalRetry() {
+        failuresBeforeSuccess = 2;
+
+        Assertions.assertEquals(BODY, browser.getAsync(uri()).join());
+        Assertions.assertEquals(3, requests.get());
+    }
+
+    /**
+     * Tests that the future completes exceptionally with a WebBrowserFailure once the maximum
+     * number of attempts is reached
+     */
+    @Test
+    void testFailsWhenMaxRetriesReached() {
+        failuresBeforeSuccess = Integer.MAX_VALUE;
+
+        CompletionException e = Assertions.assertThrows(CompletionException.class, () -> browser.getAsync(uri()).join());
+        Assertions.assertInstanceOf(WebBrowserFailure.class, e.getCause());
+        Assertions.assertEquals(MAX_RETRIES, requests.get());
+        Assertions.assertThrows(WebBrowserFailure.class, () -> browser.get(uri()));
+    }
+
+    /**
+     * Tests that the browser asks for a compressed response and decompresses the body it is sent
+     */
+    @Test
+    void testGzip() {
+        Assertions.assertEquals(BODY, htmlBrowser.getAsync(uri().resolve("/gzip")).join());
+        Assertions.assertTrue(acceptEncoding.contains("gzip"), acceptEncoding);
+        Assertions.assertTrue(acceptEncoding.contains("br"), acceptEncoding);
+    }
+
+    /**
+     * Tests that a response that is not HTML, or whose body passes the size limit, fails with a
+     * ContentRejectedException
+     */
+    @Test
+    void testRejected() {
+        CompletionException pdf = Assertions.assertThrows(CompletionException.class,
+                () -> htmlBrowser.getAsync(uri().resolve("/pdf")).join());
+        Assertions.assertTrue(ContentRejectedException.isCause(pdf), pdf.toString());
+
+        CompletionException large = Assertions.assertThrows(CompletionException.class,
+                () -> htmlBrowser.getAsync(uri().resolve("/large")).join());
+        Assertions.assertTrue(ContentRejectedException.isCause(large), large.toString());
+        Assertions.assertEquals(BODY, htmlBrowser.getAsync(uri()).join(), "The client is still usable");
+    }
+}
@@ -1,10 +1,16 @@
 package org.monzo.crawler;
 
+import org.monzo.crawler.exceptions.ContentRejectedException;
+import org.monzo.crawler.exceptions.HttpStatusException;
 import org.monzo.crawler.net.BrowserResponseHandler;
+import org.monzo.crawler.net.ContentPolicy;
 import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.HttpException;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.apache.hc.core5.http.message.BasicHeader;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.MockedStatic;
@@ -13,6 +19,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 
 import static org.mockito.Mockito.*;
 
@@ -81,4 +88,76 @@ class BrowserResponseHandlerTests {
             Assertions.assertThrows(HttpException.class, () -> handler.handleResponse(res));
         }
     }
+
+    /**
+     * Asserts that a 429 response throws an HttpStatusException carrying the status code and the
+     * Retry-After the server sent
+     * @throws IOException if the HTTPResponse auto closeable cannot close
+     */
+    @Test
+    void testBrowserHandler429() throws IOException {
+        try (ClassicHttpResponse res = mock(ClassicHttpResponse.class)) {
+            when(res.getCode()).thenReturn(429);
+            when(res.getFirstHeader("Retry-After")).thenReturn(new BasicHeader("Retry-After", "120"));
+
+            HttpStatusException e = Assertions.assertThrows(HttpStatusException.class, () -> handler.handleResponse(res));
+            Assertions.assertEquals(429, e.getStatusCode());
+            Assertions.assertTrue(e.isThrottling());
+            Assertions.assertEquals(Duration.ofSeconds(120), e.getRetryAfter());
+        }
+    }
+
+    /**
+     * Asserts that a 304 response to a conditional request is read as the page not having changed, while a 200
+     * is read as the page and a 500 still fails
+     * @throws IOException if the HTTPResponse auto closeable cannot close
+     */
+    @Test
+    void testConditionalStatus() throws IOException, HttpException {
+        try (ClassicHttpResponse res = mock(ClassicHttpResponse.class)) {
+            when(res.getCode()).thenReturn(304);
+            Assertions.assertTrue(BrowserResponseHandler.checkConditionalStatus(res));
+            when(res.getCode()).thenReturn(200);
+            Assertions.assertFalse(BrowserResponseHandler.checkConditionalStatus(res));
+            when(res.getCode()).thenReturn(500);
+            Assertions.assertThrows(HttpStatusException.class, () -> BrowserResponseHandler.checkConditionalStatus(res));
+        }
+    }
+
+    /**
+     * Asserts that a response whose content type the policy does not accept is rejected from its headers,
+     * without its body being read
+     */
+    @Test
+    void testRejectsContentType() throws IOException {
+        BrowserResponseHandler htmlHandler = new BrowserResponseHandler(new ContentPolicy(ContentPolicy.HTML_TYPES, 1024));
+        try (ClassicHttpResponse res = mock(ClassicHttpResponse.class)) {
+            HttpEntity entity = mock(HttpEntity.class);
+            when(res.getCode()).thenReturn(200);
+            when(res.getEntity()).thenReturn(entity);
+            when(entity.getContentType()).thenReturn("application/pdf");
+
+            Assertions.assertThrows(ContentRejectedException.class, () -> htmlHandler.handleResponse(res));
+            verify(entity, never()).getContent();
+        }
+    }
+
+    /**
+     * Asserts that a body is read when under the size limit, and abandoned once it passes it even when the
+     * server did not send a Content-Length
+     */
+    @Test
+    void testMaxBodySize() throws IOException, HttpException {
+        BrowserResponseHandler limitedHandler = new BrowserResponseHandler(new ContentPolicy(ContentPolicy.HTML_TYPES, 16));
+        try (ClassicHttpResponse res = mock(ClassicHttpResponse.class)) {
+            when(res.getCode()).thenReturn(200);
+            when(res.getEntity()).thenReturn(new InputStreamEntity(
+                    new ByteArrayInputStream("<p>short</p>".getBytes(StandardCharsets.UTF_8)), -1, ContentType.TEXT_HTML));
+            Assertions.assertEquals("<p>short</p>", limitedHandler.handleResponse(res));
+
+            when(res.getEntity()).thenReturn(new InputStreamEntity(
+                    new ByteArrayInputStream("<p>far too long for the limit</p>".getBytes(StandardCharsets.UTF_8)), -1, ContentType.TEXT_HTML));
+            Assertions.assertThrows(ContentRejectedException.class, () -> limitedHandler.handleResponse(res));
+        }
+    }
 }
@@ -0,0 +1,179 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.monzo.crawler.exceptions.WebBrowserFailure;
+import org.monzo.crawler.net.Browser;
+import org.monzo.crawler.net.CachingBrowser;
+import org.monzo.crawler.net.ConditionalResponse;
+import org.monzo.crawler.net.ResponseCache;
+import org.monzo.crawler.net.Validators;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+class CachingBrowserTests {
+    private static final URI uri = URI.create("https://test.com/page");
+    private static final String PAGE = "<a href=\"/a\">a</a><a href=\"/b\">b</a>";
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Tests that a cached page is requested with its validators, and that a 304 response is answered from the cache
+     */
+    @Test
+    void testNotModifiedServedFromCache() throws Exception {
+        Server server = new Server(new Validators("\"v1\"", "Wed, 21 Oct 2015 07:28:00 GMT"));
+        CachingBrowser browser = new CachingBrowser(server, new ResponseCache(directory));
+
+        Assertions.assertEquals(PAGE, browser.get(uri));
+        Assertions.assertEquals(PAGE, browser.get(uri));
+
+        Assertions.assertEquals(List.of(Validators.NONE, server.validators), server.received);
+        Assertions.assertEquals(1, server.sent);
+        Assertions.assertEquals(1, browser.notModified());
+        Assertions.assertEquals(1, browser.fetched());
+    }
+
+    /**
+     * Tests that a page that changed replaces the cached copy and its validators
+     */
+    @Test
+    void testChangedPageReplacesCache() throws Exception {
+        Server server = new Server(new Validators("\"v1\"", null));
+        ResponseCache cache = new ResponseCache(directory);
+        CachingBrowser browser = new CachingBrowser(server, cache);
+        browser.get(uri);
+
+        server.validators = new Validators("\"v2\"", null);
+        server.page = "<p>changed</p>";
+        Assertions.assertEquals("<p>changed</p>", browser.get(uri));
+        Assertions.assertEquals("<p>changed</p>", browser.get(uri));
+
+        Assertions.assertEquals(new ResponseCache.Entry<>(new Validators("\"v2\"", null), "<p>changed</p>"), cache.getPage(uri));
+        Assertions.assertEquals(2, server.sent);
+    }
+
+    /**
+     * Tests that pages read as links are cached as their links, apart from pages cached whole
+     */
+    @Test
+    void testLinksCached() throws Exception {
+        Server server = new Server(new Validators(null, "Wed, 21 Oct 2015 07:28:00 GMT"));
+        ResponseCache cache = new ResponseCache(directory);
+        CachingBrowser browser = new CachingBrowser(server, cache);
+
+        Assertions.assertEquals(List.of("/a", "/b"), browser.getLinks(uri));
+        Assertions.assertEquals(List.of("/a", "/b"), browser.getLinks(uri));
+
+        Assertions.assertEquals(1, server.sent);
+        Assertions.assertNull(cache.getPage(uri));
+        Assertions.assertEquals(List.of("/a", "/b"), cache.getLinks(uri).content());
+    }
+
+    /**
+     * Tests that getAsync revalidates the cached page in the same way as get
+     */
+    @Test
+    void testAsync() throws Exception {
+        Server server = new Server(new Validators("\"v1\"", null));
+        CachingBrowser browser = new CachingBrowser(server, new ResponseCache(directory));
+
+        Assertions.assertEquals(PAGE, browser.getAsync(uri).join());
+        Assertions.assertEquals(PAGE, browser.getAsync(uri).join());
+        Assertions.assertEquals(1, server.sent);
+        Assertions.assertEquals(1, browser.notModified());
+    }
+
+    /**
+     * Tests that a page sent without validators is not cached, and that a cached copy of it is removed
+     */
+    @Test
+    void testNoValidatorsNotCached() throws Exception {
+        Server server = new Server(new Validators("\"v1\"", null));
+        ResponseCache cache = new ResponseCache(directory);
+        CachingBrowser browser = new CachingBrowser(server, cache);
+        browser.get(uri);
+
+        server.validators = Validators.NONE;
+        server.page = "<p>dynamic</p>";
+        Assertions.assertEquals("<p>dynamic</p>", browser.get(uri));
+        Assertions.assertNull(cache.getPage(uri));
+        browser.get(uri);
+        Assertions.assertEquals(List.of(Validators.NONE, new Validators("\"v1\"", null), Validators.NONE), server.received);
+    }
+
+    /**
+     * Tests that a 304 response to an unconditional request is a failure
+     */
+    @Test
+    void testUnexpectedNotModified() throws Exception {
+        Browser server = new Browser() {
+            @Override
+            public String get(URI target) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public ConditionalResponse<String> getIfChanged(URI target, Validators validators) {
+                return ConditionalResponse.notModified(Validators.NONE);
+            }
+        };
+
+        CachingBrowser browser = new CachingBrowser(server, new ResponseCache(directory));
+        Assertions.assertThrows(WebBrowserFailure.class, () -> browser.get(uri));
+    }
+
+    /**
+     * Tests that an entry cut short, such as by a full disk, is a miss rather than a failure
+     */
+    @Test
+    void testCorruptEntryIsMiss() throws IOException {
+        ResponseCache cache = new ResponseCache(directory);
+        cache.putPage(uri, new Validators("\"v1\"", null), PAGE);
+        try (Stream<Path> files = Files.walk(directory)) {
+            Path entry = files.filter(Files::isRegularFile).findFirst().orElseThrow();
+            byte[] bytes = Files.readAllBytes(entry);
+            Files.write(entry, Arrays.copyOf(bytes, bytes.length - 5));
+        }
+
+        Assertions.assertNull(cache.getPage(uri));
+    }
+
+    /**
+     * A server whose page carries the given validators, answering 304 when sent them back
+     */
+    private static class Server implements Browser {
+        private final List<Validators> received = new ArrayList<>();
+        private Validators validators;
+        private String page = PAGE;
+        private int sent;
+
+        Server(Validators validators) {
+            this.validators = validators;
+        }
+
+        @Override
+        public String get(URI target) {
+            throw new UnsupportedOperationException("Requests should be conditional");
+        }
+
+        @Override
+        public ConditionalResponse<String> getIfChanged(URI target, Validators sentValidators) {
+            received.add(sentValidators);
+            if (!validators.isEmpty() && validators.equals(sentValidators)) {
+                return ConditionalResponse.notModified(validators);
+            }
+            sent++;
+            return ConditionalResponse.modified(page, validators);
+        }
+    }
+}
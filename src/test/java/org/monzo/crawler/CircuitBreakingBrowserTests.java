@@ -0,0 +1,156 @@
+package org.monzo.crawler;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.exceptions.HttpStatusException;
+import org.monzo.crawler.exceptions.WebBrowserException;
+import org.monzo.crawler.exceptions.WebBrowserFailure;
+import org.monzo.crawler.frontier.FetchListener;
+import org.monzo.crawler.net.Browser;
+import org.monzo.crawler.net.CircuitBreakingBrowser;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.*;
+
+class CircuitBreakingBrowserTests {
+    private static final URI A = URI.create("https://a.test/");
+    private static final URI B = URI.create("https://b.test/");
+
+    /**
+     * Tests that a host failing every request has its breaker opened, the listener is told to hold its pages back,
+     * and further requests to it fail without being sent while requests to another host are
+     */
+    @Test
+    void testOpens() throws WebBrowserException {
+        AtomicInteger sent = new AtomicInteger();
+        Browser failing = uri -> {
+            sent.incrementAndGet();
+            if (uri.getHost().equals("a.test")) {
+                throw new WebBrowserFailure(new HttpStatusException("Server error: 500", 500, null));
+            }
+            return "";
+        };
+        FetchListener listener = mock(FetchListener.class);
+        CircuitBreakingBrowser browser = new CircuitBreakingBrowser(failing, config(Duration.ofSeconds(30)), listener);
+
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertThrows(WebBrowserFailure.class, () -> browser.get(A));
+        }
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, browser.breaker("a.test").getState());
+        verify(listener).unavailable(A, Duration.ofSeconds(30));
+
+        WebBrowserFailure shortCircuited = Assertions.assertThrows(WebBrowserFailure.class, () -> browser.get(A));
+        Assertions.assertInstanceOf(CallNotPermittedException.class, shortCircuited.getCause());
+        CompletionException async = Assertions.assertThrows(CompletionException.class, () -> browser.getAsync(A).join());
+        Assertions.assertInstanceOf(CallNotPermittedException.class, async.getCause().getCause());
+        Assertions.assertEquals(4, sent.get());
+
+        Assertions.assertEquals("", browser.get(B));
+        Assertions.assertEquals(5, sent.get());
+    }
+
+    /**
+     * Tests that responses saying nothing about the host's health, such as 404, do not open its breaker
+     */
+    @Test
+    void testNotFoundIgnored() {
+        Browser missing = _ -> {
+            throw new WebBrowserFailure(new HttpStatusException("Unexpected status code: 404", 404, null));
+        };
+        FetchListener listener = mock(FetchListener.class);
+        CircuitBreakingBrowser browser = new CircuitBreakingBrowser(missing, config(Duration.ofSeconds(30)), listener);
+
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertThrows(WebBrowserFailure.class, () -> browser.get(A));
+        }
+
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, browser.breaker("a.test").getState());
+        verifyNoInteractions(listener);
+    }
+
+    /**
+     * Tests that failures that did not come from the host, a cancelled request or one that failed in the crawler,
+     * do not open its breaker, while a network failure counts against it
+     */
+    @Test
+    void testNonNetworkFailureIgnored() {
+        Browser failing = new Browser() {
+            @Override
+            public String get(URI uri) {
+                throw new IllegalStateException("Could not decode the page");
+            }
+
+            @Override
+            public CompletableFuture<String> getAsync(URI uri) {
+                return CompletableFuture.failedFuture(new CancellationException());
+            }
+        };
+        FetchListener listener = mock(FetchListener.class);
+        CircuitBreakingBrowser browser = new CircuitBreakingBrowser(failing, config(Duration.ofSeconds(30)), listener);
+
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertThrows(IllegalStateException.class, () -> browser.get(A));
+            Assertions.assertThrows(CompletionException.class, () -> browser.getAsync(A).join());
+        }
+
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, browser.breaker("a.test").getState());
+        verifyNoInteractions(listener);
+        Assertions.assertFalse(CircuitBreakingBrowser.hostFailed(new WebBrowserFailure(new CancellationException())));
+        Assertions.assertTrue(CircuitBreakingBrowser.hostFailed(new WebBrowserFailure(new ConnectException("Connection refused"))));
+    }
+
+    /**
+     * Tests that once the breaker's wait has passed, requests probe the host and close the breaker when they succeed
+     */
+    @Test
+    void testRecovers() throws InterruptedException, WebBrowserException {
+        AtomicBoolean down = new AtomicBoolean(true);
+        Browser flaky = new Browser() {
+            @Override
+            public String get(URI uri) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public CompletableFuture<String> getAsync(URI uri) {
+                return down.get()
+                        ? CompletableFuture.failedFuture(new WebBrowserFailure(new ConnectException("Connection refused")))
+                        : CompletableFuture.completedFuture("page");
+            }
+        };
+        CircuitBreakingBrowser browser = new CircuitBreakingBrowser(flaky, config(Duration.ofMillis(50)), mock(FetchListener.class));
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertThrows(CompletionException.class, () -> browser.getAsync(A).join());
+        }
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, browser.breaker("a.test").getState());
+
+        down.set(false);
+        Thread.sleep(100);
+        Assertions.assertEquals("page", browser.getAsync(A).join());
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, browser.breaker("a.test").getState());
+        Assertions.assertEquals("page", browser.getAsync(A).join());
+
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, browser.breaker("a.test").getState());
+    }
+
+    private static CircuitBreakerConfig config(Duration wait) {
+        return CircuitBreakerConfig.custom()
+                .slidingWindowSize(4)
+                .minimumNumberOfCalls(4)
+                .failureRateThreshold(50)
+                .waitDurationInOpenState(wait)
+                .permittedNumberOfCallsInHalfOpenState(2)
+                .build();
+    }
+}
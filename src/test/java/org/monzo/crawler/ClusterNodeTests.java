@@ -0,0 +1,121 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.cluster.ClusterNode;
+import org.monzo.crawler.exceptions.VisitedURIException;
+import org.monzo.crawler.frontier.FrontierEntry;
+import org.monzo.crawler.net.URIQueue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+class ClusterNodeTests {
+    private static final int NODES = 3;
+    private static final Duration PROBE_INTERVAL = Duration.ofMillis(20);
+    private static final URI SEED = URI.create("https://test.com");
+
+    private final List<URIQueue> queues = new ArrayList<>();
+    private final List<ClusterNode> nodes = new ArrayList<>();
+
+    @AfterEach
+    void close() throws IOException {
+        for (ClusterNode node : nodes) {
+            node.close();
+        }
+    }
+
+    /**
+     * Tests that links found on one node are crawled once, by the node that owns them, however many nodes find
+     * them, and that the cluster only completes once every node has crawled all it was sent
+     */
+    @Test
+    void testForwardsLinksToOwners() throws IOException, VisitedURIException, InterruptedException {
+        startCluster();
+        ClusterNode seedOwner = nodes.get(nodes.getFirst().ownerOf(SEED));
+        URIQueue seedQueue = queues.get(nodes.indexOf(seedOwner));
+        seedQueue.add(SEED);
+        nodes.forEach(ClusterNode::start);
+
+        List<URI> links = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            links.add(URI.create("https://test.com/page/" + i));
+        }
+        FrontierEntry seed = seedQueue.poll();
+        seedQueue.addAll(links, seed);
+        Assertions.assertFalse(seedOwner.awaitTermination(200, TimeUnit.MILLISECONDS), "The cluster completed with the seed pending");
+        seedQueue.markComplete(SEED);
+
+        // Every node finds the same links again, none of them is queued a second time
+        Set<URI> crawled = new HashSet<>(List.of(SEED));
+        List<URI> polled = new ArrayList<>(List.of(SEED));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (crawled.size() < links.size() + 1 && System.nanoTime() < deadline) {
+            for (URIQueue queue : queues) {
+                FrontierEntry entry = queue.poll(10, TimeUnit.MILLISECONDS);
+                if (entry != null) {
+                    Assertions.assertEquals(1, entry.depth());
+                    queue.addAll(links, entry);
+                    polled.add(entry.uri());
+                    crawled.add(entry.uri());
+                    queue.markComplete(entry.uri());
+                }
+            }
+        }
+
+        for (ClusterNode node : nodes) {
+            Assertions.assertTrue(node.awaitTermination(5, TimeUnit.SECONDS), "The cluster did not complete");
+        }
+        Assertions.assertEquals(links.size() + 1, crawled.size());
+        Assertions.assertEquals(crawled.size(), polled.size(), "A URI was crawled twice");
+        for (URIQueue queue : queues) {
+            Assertions.assertNull(queue.poll());
+        }
+        for (int node = 0; node < NODES; node++) {
+            int owned = 0;
+            for (URI uri : crawled) {
+                owned += nodes.get(node).owns(uri) ? 1 : 0;
+            }
+            Assertions.assertEquals(owned, queues.get(node).totalVisitedUris());
+        }
+    }
+
+    /**
+     * Tests that a cluster where no node owns the seed completes once every node has started
+     */
+    @Test
+    void testEmptyCrawlCompletes() throws IOException, InterruptedException {
+        startCluster();
+        nodes.forEach(ClusterNode::start);
+
+        for (ClusterNode node : nodes) {
+            Assertions.assertTrue(node.awaitTermination(5, TimeUnit.SECONDS), "The cluster did not complete");
+        }
+    }
+
+    private void startCluster() throws IOException {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int node = 0; node < NODES; node++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                addresses.add(new InetSocketAddress("localhost", socket.getLocalPort()));
+            }
+        }
+        for (int node = 0; node < NODES; node++) {
+            URIQueue queue = new URIQueue(new LinkedBlockingQueue<>());
+            ClusterNode clusterNode = new ClusterNode(addresses, node, false, queue, PROBE_INTERVAL);
+            queue.setRemoteFrontier(clusterNode);
+            queues.add(queue);
+            nodes.add(clusterNode);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.metrics.CrawlMetrics;
+import org.monzo.crawler.net.PipelineStage;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+class CrawlMetricsTests {
+
+    /**
+     * Tests that the summary line reports the counters, gauges and the latency of each stage recorded
+     */
+    @Test
+    void testReport() {
+        CrawlMetrics metrics = new CrawlMetrics();
+        metrics.watchFrontier(() -> 12, () -> 15);
+        metrics.watchWorkers(() -> 3, null);
+        metrics.crawled(20, 5);
+        metrics.failed();
+        metrics.retried();
+        metrics.responded(200);
+        metrics.responded(404);
+        metrics.responded(999);
+        metrics.downloaded(4096);
+        metrics.record(CrawlMetrics.Stage.FETCH, TimeUnit.MILLISECONDS.toNanos(8));
+
+        String report = metrics.report();
+
+        Assertions.assertTrue(report.startsWith("1 pages ("), report);
+        Assertions.assertTrue(report.contains("1 failed, 1 retries, 20 links found, 5 queued, 4 KiB"), report);
+        Assertions.assertTrue(report.contains("status {200=1, 404=1, other=1}"), report);
+        Assertions.assertTrue(report.contains("frontier 12, pending 15, in flight 3"), report);
+        Assertions.assertTrue(report.contains("fetch p50 8."), report);
+        Assertions.assertFalse(report.contains("parse"), "Stages with nothing recorded are left out: " + report);
+    }
+
+    /**
+     * Tests that the occupancy of each stage of a staged crawl is reported, in the order the stages were added
+     */
+    @Test
+    void testStages() throws InterruptedException {
+        CrawlMetrics metrics = new CrawlMetrics();
+        CountDownLatch release = new CountDownLatch(1);
+        try (PipelineStage fetch = new PipelineStage("fetch", 2, 4); PipelineStage parse = new PipelineStage("parse", 1, 4)) {
+            metrics.watchStage(fetch.name(), fetch);
+            metrics.watchStage(parse.name(), parse);
+            CountDownLatch started = new CountDownLatch(1);
+            try {
+                fetch.execute(() -> {
+                    started.countDown();
+                    await(release);
+                });
+                Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+                String report = metrics.report();
+                Assertions.assertTrue(report.endsWith(", fetch 1/2 active 0 queued, parse 0/1 active 0 queued"), report);
+                Assertions.assertEquals(Map.of("fetch", 1L, "parse", 0L), metrics.getStageActive());
+                Assertions.assertEquals(List.of("fetch", "parse"), List.copyOf(metrics.getStageQueued().keySet()));
+            } finally {
+                release.countDown();
+            }
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Tests that the metrics can be read over JMX once registered
+     */
+    @Test
+    void testJmx() throws Exception {
+        CrawlMetrics metrics = new CrawlMetrics();
+        metrics.crawled(3, 2);
+        metrics.record(CrawlMetrics.Stage.ENQUEUE, 1000);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = metrics.register();
+        try {
+            Assertions.assertEquals(1L, server.getAttribute(name, "PagesCrawled"));
+            Assertions.assertEquals(2L, server.getAttribute(name, "LinksQueued"));
+            TabularData latency = (TabularData) server.getAttribute(name, "EnqueueLatencyMicros");
+            Assertions.assertEquals(1L, latency.get(new Object[] {"count"}).get("value"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
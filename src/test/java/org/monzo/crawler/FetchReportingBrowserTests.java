@@ -0,0 +1,77 @@
+package org.monzo.crawler;
+
+import org.apache.hc.client5.http.ClientProtocolException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.exceptions.HttpStatusException;
+import org.monzo.crawler.exceptions.WebBrowserException;
+import org.monzo.crawler.exceptions.WebBrowserFailure;
+import org.monzo.crawler.frontier.FetchListener;
+import org.monzo.crawler.net.Browser;
+import org.monzo.crawler.net.FetchReportingBrowser;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.Mockito.*;
+
+class FetchReportingBrowserTests {
+    private static final URI uri = URI.create("https://test.com/page");
+
+    /**
+     * Tests that a successful fetch is reported
+     */
+    @Test
+    void testFetched() throws WebBrowserException {
+        Browser browser = mock(Browser.class);
+        FetchListener listener = mock(FetchListener.class);
+        when(browser.get(uri)).thenReturn("page");
+
+        Assertions.assertEquals("page", new FetchReportingBrowser(browser, listener).get(uri));
+
+        verify(listener).fetched(uri);
+        verifyNoMoreInteractions(listener);
+    }
+
+    /**
+     * Tests that a 429 wrapped by the HTTP client and browser is reported as throttling, with its Retry-After
+     */
+    @Test
+    void testThrottled() throws WebBrowserException {
+        Browser browser = mock(Browser.class);
+        FetchListener listener = mock(FetchListener.class);
+        HttpStatusException tooMany = new HttpStatusException("Unexpected status code: 429", 429, Duration.ofSeconds(30));
+        when(browser.get(uri)).thenThrow(new WebBrowserFailure(new ClientProtocolException(tooMany)));
+
+        Assertions.assertThrows(WebBrowserFailure.class, () -> new FetchReportingBrowser(browser, listener).get(uri));
+
+        verify(listener).throttled(uri, Duration.ofSeconds(30));
+        verifyNoMoreInteractions(listener);
+    }
+
+    /**
+     * Tests that other failures are not reported, and that asynchronous fetches are reported once they complete
+     */
+    @Test
+    void testAsync() {
+        Browser browser = mock(Browser.class);
+        FetchListener listener = mock(FetchListener.class);
+        URI missing = URI.create("https://test.com/missing");
+        URI unavailable = URI.create("https://test.com/unavailable");
+        when(browser.getAsync(uri)).thenReturn(CompletableFuture.completedFuture("page"));
+        when(browser.getAsync(missing)).thenReturn(CompletableFuture.failedFuture(
+                new WebBrowserFailure(new HttpStatusException("Unexpected status code: 404", 404, null))));
+        when(browser.getAsync(unavailable)).thenReturn(CompletableFuture.failedFuture(
+                new WebBrowserFailure(new HttpStatusException("Server error: 503", 503, null))));
+        Browser reporting = new FetchReportingBrowser(browser, listener);
+
+        reporting.getAsync(uri).join();
+        reporting.getAsync(missing).exceptionally(_ -> null).join();
+        reporting.getAsync(unavailable).exceptionally(_ -> null).join();
+
+        verify(listener).fetched(uri);
+        verify(listener).throttled(unavailable, null);
+        verifyNoMoreInteractions(listener);
+    }
+}
@@ -0,0 +1,149 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.monzo.crawler.exceptions.VisitedURIException;
+import org.monzo.crawler.frontier.FrontierEntry;
+import org.monzo.crawler.frontier.FrontierLog;
+import org.monzo.crawler.frontier.StripedVisitedSet;
+import org.monzo.crawler.frontier.UriScorer;
+import org.monzo.crawler.frontier.VisitedSet;
+import org.monzo.crawler.net.URIQueue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+
+class FrontierLogTests {
+    private static final URI SEED = URI.create("https://test.com");
+    private static final Duration FLUSH_INTERVAL = Duration.ofMinutes(1);
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Tests that a crawl logged by a URIQueue is recovered with every URI it added marked visited and
+     * every URI it had not completed still pending, in the order they were added
+     */
+    @Test
+    void testRecover() throws IOException, VisitedURIException {
+        URI first = URI.create("https://test.com/a");
+        URI second = URI.create("https://test.com/b");
+        try (FrontierLog log = new FrontierLog(directory, FLUSH_INTERVAL, true, Long.MAX_VALUE)) {
+            URIQueue queue = queue(new StripedVisitedSet(), log);
+            queue.add(SEED);
+            FrontierEntry seed = queue.poll();
+            queue.add(first, seed);
+            queue.add(second, seed);
+            queue.markComplete(SEED);
+        }
+
+        Assertions.assertTrue(FrontierLog.holdsCrawl(directory));
+        VisitedSet visited = new StripedVisitedSet();
+        List<FrontierEntry> pending = FrontierLog.recover(directory, visited);
+
+        Assertions.assertEquals(List.of(new FrontierEntry(first, 1, SEED, 1), new FrontierEntry(second, 1, SEED, 1)), pending);
+        Assertions.assertEquals(3, visited.size());
+        Assertions.assertFalse(visited.add(SEED));
+    }
+
+    /**
+     * Tests that a batch of links added with addAll is logged and recovered as if each had been added alone
+     */
+    @Test
+    void testRecoverBatch() throws IOException, VisitedURIException {
+        List<URI> links = List.of(URI.create("https://test.com/a"), URI.create("https://test.com/b"), URI.create("https://test.com/a"));
+        try (FrontierLog log = new FrontierLog(directory, FLUSH_INTERVAL, false, Long.MAX_VALUE)) {
+            URIQueue queue = queue(new StripedVisitedSet(), log);
+            queue.add(SEED);
+            queue.addAll(links, queue.poll());
+            queue.markComplete(SEED);
+        }
+
+        List<FrontierEntry> pending = FrontierLog.recover(directory, new StripedVisitedSet());
+        Assertions.assertEquals(List.of(new FrontierEntry(links.get(0), 1, SEED, 1), new FrontierEntry(links.get(1), 1, SEED, 1)), pending);
+    }
+
+    /**
+     * Tests that segments past the segment size are compacted into a snapshot and deleted, and that
+     * the crawl is recovered from the snapshot and the segments written after it
+     */
+    @Test
+    void testCompaction() throws IOException, VisitedURIException {
+        try (FrontierLog log = new FrontierLog(directory, FLUSH_INTERVAL, false, 1)) {
+            URIQueue queue = queue(new StripedVisitedSet(), log);
+            queue.add(SEED);
+            FrontierEntry seed = queue.poll();
+            for (int i = 0; i < 10; i++) {
+                queue.add(URI.create("https://test.com/" + i), seed);
+                log.flush();
+            }
+            queue.markComplete(SEED);
+            log.flush();
+            for (int i = 0; i < 5; i++) {
+                queue.markComplete(queue.poll().uri());
+            }
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            List<String> names = files.map(path -> path.getFileName().toString()).toList();
+            Assertions.assertEquals(1, names.size(), names.toString());
+            Assertions.assertTrue(names.getFirst().startsWith("snapshot-"), names.toString());
+        }
+        try (FrontierLog log = new FrontierLog(directory, FLUSH_INTERVAL, false, Long.MAX_VALUE)) {
+            log.completed(URI.create("https://test.com/5"));
+        }
+        List<Long> fingerprints = new ArrayList<>();
+        VisitedSet visited = new StripedVisitedSet() {
+            @Override
+            public boolean add(long fingerprint) {
+                fingerprints.add(fingerprint);
+                return super.add(fingerprint);
+            }
+        };
+        List<FrontierEntry> pending = FrontierLog.recover(directory, visited);
+
+        Assertions.assertEquals(11, fingerprints.size(), "Each visited fingerprint should be replayed once");
+        Assertions.assertEquals(11, visited.size());
+        Assertions.assertEquals(4, pending.size());
+        Assertions.assertEquals(URI.create("https://test.com/6"), pending.getFirst().uri());
+    }
+
+    /**
+     * Tests that a record cut short by a crash is ignored, and that a log reopened in the same directory
+     * appends to a new segment that is replayed after the old one
+     */
+    @Test
+    void testTornRecordAndReopen() throws IOException, VisitedURIException {
+        try (FrontierLog log = new FrontierLog(directory, FLUSH_INTERVAL, false, Long.MAX_VALUE)) {
+            queue(new StripedVisitedSet(), log).add(SEED);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            Path segment = files.findFirst().orElseThrow();
+            Files.write(segment, new byte[] {'E', 0, 0, 0}, StandardOpenOption.APPEND);
+        }
+
+        VisitedSet visited = new StripedVisitedSet();
+        List<FrontierEntry> pending = FrontierLog.recover(directory, visited);
+        Assertions.assertEquals(List.of(FrontierEntry.seed(SEED)), pending);
+
+        try (FrontierLog log = new FrontierLog(directory, FLUSH_INTERVAL, false, Long.MAX_VALUE)) {
+            URIQueue queue = queue(visited, log);
+            queue.restore(pending);
+            queue.markComplete(queue.poll().uri());
+        }
+        Assertions.assertEquals(List.of(), FrontierLog.recover(directory, new StripedVisitedSet()));
+    }
+
+    private static URIQueue queue(VisitedSet visited, FrontierLog log) {
+        return new URIQueue(new LinkedBlockingQueue<>(), visited, UriScorer.breadthFirst(), Integer.MAX_VALUE, Long.MAX_VALUE, log);
+    }
+}
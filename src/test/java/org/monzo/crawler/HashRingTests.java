@@ -0,0 +1,66 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.cluster.HashRing;
+
+import java.net.URI;
+import java.util.List;
+
+class HashRingTests {
+    private static final int URIS = 30_000;
+    private static final int POINTS = 128;
+
+    /**
+     * Tests that URIs are spread over the nodes roughly evenly, and that rings built from the same nodes agree
+     */
+    @Test
+    void testBalanced() {
+        List<String> nodes = List.of("localhost:9001", "localhost:9002", "localhost:9003");
+        HashRing ring = new HashRing(nodes, POINTS, false);
+        HashRing other = new HashRing(nodes, POINTS, false);
+        int[] owned = new int[nodes.size()];
+        for (int i = 0; i < URIS; i++) {
+            URI uri = URI.create("https://test.com/page/" + i);
+            owned[ring.ownerOf(uri)]++;
+            Assertions.assertEquals(ring.ownerOf(uri), other.ownerOf(uri));
+        }
+
+        for (int count : owned) {
+            Assertions.assertTrue(Math.abs(count - URIS / nodes.size()) < URIS / 10, "Uneven partition " + List.of(owned[0], owned[1], owned[2]));
+        }
+    }
+
+    /**
+     * Tests that adding a node only moves URIs to the new node, and moves roughly its share of them
+     */
+    @Test
+    void testAddNode() {
+        HashRing three = new HashRing(List.of("a:1", "b:1", "c:1"), POINTS, false);
+        HashRing four = new HashRing(List.of("a:1", "b:1", "c:1", "d:1"), POINTS, false);
+        int moved = 0;
+        for (int i = 0; i < URIS; i++) {
+            URI uri = URI.create("https://test.com/page/" + i);
+            int before = three.ownerOf(uri);
+            int after = four.ownerOf(uri);
+            if (before != after) {
+                Assertions.assertEquals(3, after, "A URI moved between existing nodes");
+                moved++;
+            }
+        }
+
+        Assertions.assertTrue(moved > URIS / 6 && moved < URIS / 3, "Moved " + moved);
+    }
+
+    /**
+     * Tests that partitioning by host keeps every URI of a host on the same node
+     */
+    @Test
+    void testByHost() {
+        HashRing ring = new HashRing(List.of("a:1", "b:1", "c:1"), POINTS, true);
+        int owner = ring.ownerOf(URI.create("https://test.com/"));
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertEquals(owner, ring.ownerOf(URI.create("https://test.com/page/" + i)));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.monzo.crawler.exceptions.WebBrowserException;
+import org.monzo.crawler.net.Browser;
+import org.monzo.crawler.net.HostLimitedBrowser;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class HostLimitedBrowserTests {
+
+    /**
+     * Tests that no more than the per host limit of requests are in flight to one host at once,
+     * while requests to another host are not held back by it
+     */
+    @Test
+    void testPerHostLimit() throws InterruptedException, ExecutionException {
+        Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> maxInFlight = new ConcurrentHashMap<>();
+        Browser slowBrowser = uri -> {
+            int current = inFlight.computeIfAbsent(uri.getHost(), _ -> new AtomicInteger()).incrementAndGet();
+            maxInFlight.computeIfAbsent(uri.getHost(), _ -> new AtomicInteger()).accumulateAndGet(current, Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException _) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.get(uri.getHost()).decrementAndGet();
+            return "";
+        };
+        Browser browser = new HostLimitedBrowser(slowBrowser, 2);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                URI uri = URI.create((i % 2 == 0 ? "https://a.test/" : "https://b.test/") + i);
+                futures.add(executor.submit(() -> browser.get(uri)));
+            }
+            for (Future<String> future : futures) {
+                future.get();
+            }
+        }
+
+        Assertions.assertEquals(2, maxInFlight.get("a.test").get());
+        Assertions.assertEquals(2, maxInFlight.get("b.test").get());
+    }
+
+    /**
+     * Tests that a failed request releases its slot for the host
+     */
+    @Test
+    @Timeout(5)
+    void testReleaseOnFailure() {
+        Browser failing = _ -> {
+            throw new WebBrowserException();
+        };
+        Browser browser = new HostLimitedBrowser(failing, 1);
+        URI uri = URI.create("https://a.test/");
+
+        Assertions.assertThrows(WebBrowserException.class, () -> browser.get(uri));
+        Assertions.assertThrows(WebBrowserException.class, () -> browser.get(uri));
+    }
+}
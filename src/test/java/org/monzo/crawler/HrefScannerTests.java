@@ -0,0 +1,91 @@
+package org.monzo.crawler;
+
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.net.HrefScanner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+class HrefScannerTests {
+    private static final String PAGE = """
+            <!DOCTYPE html>
+            <html>
+            <head>
+            <script>if (a < b) { document.write('<a href="/from-script">x</a>'); }</script>
+            <style>a[href] { color: red }</style>
+            </head>
+            <body>
+            <!-- <a href="/commented-out">x</a> -->
+            <a href="/double">double quoted</a>
+            <A HREF='/single'>single quoted, upper case</A>
+            <a class=link href=/unquoted>unquoted</a>
+            <a
+               id="multi-line"
+               href = "/spaced" >spaced</a>
+            <a href="/query?a=1&amp;b=2&#38;c=3">entities</a>
+            <a name="no-href">no href</a>
+            <abbr href="/not-an-anchor">abbr</abbr>
+            <a href="/first" href="/second">duplicate</a>
+            <a href>empty</a>
+            <img alt="<a href='/in-attribute'>" src="/image.png">
+            </body>
+            </html>""";
+
+    /**
+     * Tests that every anchor href is found, quoted, unquoted and spread across lines, that
+     * character references are decoded, and that anchors in comments, scripts and other
+     * attributes are skipped
+     */
+    @Test
+    void testScan() {
+        Assertions.assertEquals(List.of("/double", "/single", "/unquoted", "/spaced", "/query?a=1&b=2&c=3", "/first", ""),
+                HrefScanner.scan(PAGE));
+    }
+
+    /**
+     * Tests that the scanner finds the same links as the Jsoup a[href] selection it replaces
+     */
+    @Test
+    void testMatchesJsoup() {
+        List<String> expected = Jsoup.parse(PAGE).select("a[href]").stream().map(e -> e.attr("href")).toList();
+
+        Assertions.assertEquals(expected, HrefScanner.scan(PAGE));
+    }
+
+    /**
+     * Tests that links are found when the document arrives in small pieces, as it does from a socket
+     */
+    @Test
+    void testScanInPieces() throws IOException {
+        Reader trickle = new Reader() {
+            private final Reader page = new StringReader(PAGE);
+
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return page.read(buffer, offset, Math.min(length, 3));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        List<String> hrefs = new ArrayList<>();
+
+        HrefScanner.scan(trickle, hrefs::add);
+
+        Assertions.assertEquals(HrefScanner.scan(PAGE), hrefs);
+    }
+
+    /**
+     * Tests that a document truncated part way through a tag does not fail
+     */
+    @Test
+    void testTruncated() {
+        Assertions.assertEquals(List.of("/a"), HrefScanner.scan("<a href=\"/a\">a</a><a href=\"/b"));
+    }
+}
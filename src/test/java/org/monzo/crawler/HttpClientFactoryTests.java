@@ -0,0 +1,120 @@
+package org.monzo.crawler;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.util.Timeout;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.metrics.CrawlMetrics;
+import org.monzo.crawler.net.ConnectionPoolConfig;
+import org.monzo.crawler.net.HttpClientFactory;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+class HttpClientFactoryTests {
+
+    /**
+     * Tests that the connection manager is sized from the given config rather than the
+     * httpclient defaults
+     */
+    @Test
+    void testConnectionManagerSizing() {
+        ConnectionPoolConfig config = new ConnectionPoolConfig(40, 20, Duration.ofSeconds(5), Duration.ofSeconds(5), true);
+
+        try (PoolingHttpClientConnectionManager manager = HttpClientFactory.connectionManager(config)) {
+            Assertions.assertEquals(40, manager.getMaxTotal());
+            Assertions.assertEquals(20, manager.getDefaultMaxPerRoute());
+        }
+    }
+
+    /**
+     * Tests that a strict pool holds connections to every host together to its total, while a lax pool only
+     * holds each host to its own limit
+     */
+    @Test
+    void testStrictLimits() throws Exception {
+        HttpRoute first = new HttpRoute(new HttpHost("a.test", 80));
+        HttpRoute second = new HttpRoute(new HttpHost("b.test", 80));
+        ConnectionPoolConfig strict = new ConnectionPoolConfig(1, 1, Duration.ofSeconds(5), Duration.ofSeconds(5), true);
+        ConnectionPoolConfig lax = new ConnectionPoolConfig(1, 1, Duration.ofSeconds(5), Duration.ofSeconds(5), false);
+
+        try (PoolingHttpClientConnectionManager manager = HttpClientFactory.connectionManager(strict)) {
+            manager.lease("first", first, Timeout.ofSeconds(1), null).get(Timeout.ofSeconds(1));
+            Assertions.assertThrows(TimeoutException.class,
+                    () -> manager.lease("second", second, Timeout.ofMilliseconds(100), null).get(Timeout.ofMilliseconds(100)));
+        }
+        try (PoolingHttpClientConnectionManager manager = HttpClientFactory.connectionManager(lax)) {
+            manager.lease("first", first, Timeout.ofSeconds(1), null).get(Timeout.ofSeconds(1));
+            Assertions.assertNotNull(manager.lease("second", second, Timeout.ofSeconds(1), null).get(Timeout.ofSeconds(1)));
+        }
+    }
+
+    /**
+     * Tests that the worker based defaults allow every worker a connection to the same host
+     */
+    @Test
+    void testForWorkers() {
+        ConnectionPoolConfig config = ConnectionPoolConfig.forWorkers(11);
+
+        Assertions.assertEquals(11, config.maxPerRoute());
+        Assertions.assertTrue(config.maxTotal() >= config.maxPerRoute());
+    }
+
+    /**
+     * Tests that non-positive connection limits are rejected
+     */
+    @Test
+    void testInvalidLimits() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new ConnectionPoolConfig(0, 1, Duration.ZERO, Duration.ZERO, false));
+    }
+
+    /**
+     * Tests that clients given metrics record the status code and body size of every response, for both the
+     * classic and the async client
+     */
+    @Test
+    void testMetrics() throws Exception {
+        byte[] body = "<html></html>".getBytes(StandardCharsets.UTF_8);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(exchange.getRequestURI().getPath().equals("/missing") ? 404 : 200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        ConnectionPoolConfig config = ConnectionPoolConfig.forWorkers(1);
+        CrawlMetrics classicMetrics = new CrawlMetrics();
+        CrawlMetrics asyncMetrics = new CrawlMetrics();
+
+        try (CloseableHttpClient client = HttpClientFactory.create(config, classicMetrics);
+             CloseableHttpAsyncClient asyncClient = HttpClientFactory.createAsync(config, asyncMetrics)) {
+            for (URI target : new URI[] {uri, uri.resolve("/missing")}) {
+                client.execute(new HttpGet(target), response -> EntityUtils.toString(response.getEntity()));
+                asyncClient.execute(SimpleRequestBuilder.get(target).build(), null).get();
+            }
+        } finally {
+            server.stop(0);
+        }
+
+        for (CrawlMetrics metrics : new CrawlMetrics[] {classicMetrics, asyncMetrics}) {
+            Assertions.assertEquals(Map.of("200", 1L, "404", 1L), metrics.getStatusCounts());
+            Assertions.assertEquals(body.length * 2L, metrics.getBytesDownloaded());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.metrics.LatencyHistogram;
+
+class LatencyHistogramTests {
+
+    /**
+     * Tests that percentiles are reported to within a sixteenth of the true value, and the count, mean and max exactly
+     */
+    @Test
+    void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assertions.assertEquals(10_000, snapshot.count());
+        Assertions.assertEquals(5_000_500, snapshot.mean());
+        Assertions.assertEquals(10_000_000, snapshot.max());
+        assertWithin(5_000_000, snapshot.p50());
+        assertWithin(9_000_000, snapshot.p90());
+        assertWithin(9_900_000, snapshot.p99());
+    }
+
+    /**
+     * Tests that small, zero and negative values are recorded exactly, and an empty histogram reports zeros
+     */
+    @Test
+    void testSmallValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assertions.assertEquals(new LatencyHistogram.Snapshot(0, 0, 0, 0, 0, 0), histogram.snapshot());
+
+        histogram.record(-5);
+        histogram.record(0);
+        histogram.record(3);
+        histogram.record(7);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assertions.assertEquals(4, snapshot.count());
+        Assertions.assertEquals(0, snapshot.p50());
+        Assertions.assertEquals(7, snapshot.p99());
+    }
+
+    /**
+     * Tests that a value as large as a long is recorded without overflowing a bucket
+     */
+    @Test
+    void testLargeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+
+        Assertions.assertEquals(Long.MAX_VALUE, histogram.snapshot().p50());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assertions.assertTrue(Math.abs(actual - expected) <= expected / 16, "Expected " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,62 @@
+package org.monzo.crawler;
+
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.exceptions.ContentRejectedException;
+import org.monzo.crawler.net.ContentPolicy;
+import org.monzo.crawler.net.LinkExtractingResponseHandler;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+class LinkExtractingResponseHandlerTests {
+
+    private final LinkExtractingResponseHandler handler = new LinkExtractingResponseHandler();
+
+    /**
+     * Tests that the links are read from the body of a 200 response, decoded with the charset
+     * given in the content type
+     */
+    @Test
+    void testLinks200() throws IOException, HttpException {
+        try (ClassicHttpResponse res = mock(ClassicHttpResponse.class)) {
+            when(res.getCode()).thenReturn(200);
+            when(res.getEntity()).thenReturn(new StringEntity("<a href=\"/café\">x</a><a href='/b'>y</a>",
+                    ContentType.create("text/html", "ISO-8859-1")));
+
+            Assertions.assertEquals(List.of("/café", "/b"), handler.handleResponse(res));
+        }
+    }
+
+    /**
+     * Asserts that the handler throws an HttpException when a 500 code is returned
+     * @throws IOException if the HTTPResponse auto closeable cannot close
+     */
+    @Test
+    void testLinks500() throws IOException {
+        try (ClassicHttpResponse res = mock(ClassicHttpResponse.class)) {
+            when(res.getCode()).thenReturn(500);
+            Assertions.assertThrows(HttpException.class, () -> handler.handleResponse(res));
+        }
+    }
+
+    /**
+     * Asserts that a response whose content type the policy does not accept is not scanned
+     */
+    @Test
+    void testRejectsContentType() throws IOException {
+        LinkExtractingResponseHandler htmlHandler = new LinkExtractingResponseHandler(new ContentPolicy(ContentPolicy.HTML_TYPES, 1024));
+        try (ClassicHttpResponse res = mock(ClassicHttpResponse.class)) {
+            when(res.getCode()).thenReturn(200);
+            when(res.getEntity()).thenReturn(new StringEntity("<a href=\"/a\">a</a>", ContentType.IMAGE_PNG));
+
+            Assertions.assertThrows(ContentRejectedException.class, () -> htmlHandler.handleResponse(res));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.monzo.crawler.graph.AdjacencyBuffer;
+import org.monzo.crawler.graph.LinkGraphWriter;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+class LinkGraphWriterTests {
+    private static final URI HOME = URI.create("https://test.com/");
+    private static final URI ABOUT = URI.create("https://test.com/about");
+    private static final URI SEARCH = URI.create("https://test.com/search?q=a&page=2");
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Tests that each page's links are written once, with every URI numbered in the order it is first seen, to the
+     * node and edge lists, the binary graph and the sitemap
+     */
+    @Test
+    void testWrite() throws IOException {
+        try (LinkGraphWriter graph = new LinkGraphWriter(directory)) {
+            graph.addPage(HOME, List.of(ABOUT, SEARCH, ABOUT));
+            graph.addPage(ABOUT, List.of(HOME));
+            graph.addPage(SEARCH, List.of());
+
+            Assertions.assertEquals(3, graph.nodes());
+            Assertions.assertEquals(3, graph.edges());
+        }
+
+        Assertions.assertEquals(List.of("0\t" + HOME, "1\t" + ABOUT, "2\t" + SEARCH),
+                Files.readAllLines(directory.resolve("nodes.tsv")));
+        Assertions.assertEquals(List.of("0\t1", "0\t2", "1\t0"), Files.readAllLines(directory.resolve("edges.tsv")));
+
+        AdjacencyBuffer read = LinkGraphWriter.read(directory.resolve("graph.bin"));
+        Assertions.assertEquals(3, read.rows());
+        Assertions.assertEquals(0, read.source(0));
+        Assertions.assertEquals(2, read.degree(0));
+        Assertions.assertEquals(1, read.target(0, 0));
+        Assertions.assertEquals(2, read.target(0, 1));
+        Assertions.assertEquals(0, read.target(1, 0));
+        Assertions.assertEquals(0, read.degree(2));
+
+        String sitemap = Files.readString(directory.resolve("sitemap-1.xml"));
+        Assertions.assertTrue(sitemap.startsWith("<?xml"));
+        Assertions.assertTrue(sitemap.contains("<loc>https://test.com/about</loc>"));
+        Assertions.assertTrue(sitemap.contains("<loc>https://test.com/search?q=a&amp;page=2</loc>"));
+        Assertions.assertTrue(sitemap.endsWith("</urlset>\n"));
+    }
+
+    /**
+     * Tests that links are written to the binary graph as the crawl runs, not only once it is closed, and that
+     * the graph read back holds every page
+     */
+    @Test
+    void testStreamsWhileCrawling() throws IOException {
+        int pages = 2000;
+        List<URI> navigation = IntStream.range(0, 40).mapToObj(link -> URI.create("https://test.com/nav/" + link)).toList();
+        try (LinkGraphWriter graph = new LinkGraphWriter(directory)) {
+            for (int page = 0; page < pages; page++) {
+                graph.addPage(URI.create("https://test.com/" + page), navigation);
+            }
+            // More links than are buffered before being written
+            Assertions.assertEquals(pages * navigation.size(), graph.edges());
+            Assertions.assertTrue(Files.size(directory.resolve("graph.bin")) > 8);
+        }
+
+        AdjacencyBuffer read = LinkGraphWriter.read(directory.resolve("graph.bin"));
+        Assertions.assertEquals(pages, read.rows());
+        Assertions.assertEquals(pages * navigation.size(), read.edges());
+    }
+
+    /**
+     * Tests that a file without the link graph header is not read as one
+     */
+    @Test
+    void testNotAGraph() throws IOException {
+        Path file = Files.writeString(directory.resolve("graph.bin"), "not a graph");
+
+        Assertions.assertThrows(IOException.class, () -> LinkGraphWriter.read(file));
+    }
+}
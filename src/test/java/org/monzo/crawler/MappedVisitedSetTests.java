@@ -0,0 +1,135 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.monzo.crawler.exceptions.VisitedURIException;
+import org.monzo.crawler.frontier.MappedVisitedSet;
+import org.monzo.crawler.net.URIQueue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class MappedVisitedSetTests {
+    @TempDir
+    Path directory;
+
+    /**
+     * Tests that the table is rehashed into a larger mapping once it passes its load factor
+     * without losing any fingerprints, and that the previous table file is removed
+     */
+    @Test
+    void testGrowth() throws IOException {
+        try (MappedVisitedSet set = new MappedVisitedSet(directory, 16)) {
+            long initialCapacity = set.capacity();
+
+            for (long i = 0; i < 10_000; i++) {
+                Assertions.assertTrue(set.add(i));
+            }
+            for (long i = 0; i < 10_000; i++) {
+                Assertions.assertFalse(set.add(i));
+            }
+
+            Assertions.assertEquals(10_000, set.size());
+            Assertions.assertTrue(set.capacity() > initialCapacity);
+            Assertions.assertEquals(1, tableFiles());
+        }
+    }
+
+    /**
+     * Tests that when many threads race to add the same fingerprints, across several rehashes,
+     * each fingerprint is accepted exactly once
+     */
+    @Test
+    void testConcurrentAdd() throws IOException, InterruptedException, ExecutionException {
+        AtomicInteger accepted = new AtomicInteger();
+        int threads = 8;
+        int fingerprints = 20_000;
+
+        try (MappedVisitedSet set = new MappedVisitedSet(directory, 16);
+             ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (long i = 1; i <= fingerprints; i++) {
+                        if (set.add(i * 0x9E3779B97F4A7C15L)) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            Assertions.assertEquals(fingerprints, set.size());
+        }
+        Assertions.assertEquals(fingerprints, accepted.get());
+    }
+
+    /**
+     * Tests that a URIQueue backed by the mapped set still throws a VisitedURIException
+     * for a URI that has already been added
+     */
+    @Test
+    void testURIQueueContract() throws IOException, VisitedURIException {
+        try (MappedVisitedSet set = new MappedVisitedSet(directory, 16)) {
+            URIQueue queue = new URIQueue(new LinkedBlockingQueue<>(), set);
+            URI uri = URI.create("https://test.com");
+
+            queue.add(uri);
+
+            Assertions.assertThrows(VisitedURIException.class, () -> queue.add(uri));
+            Assertions.assertEquals(1, queue.totalVisitedUris());
+        }
+    }
+
+    /**
+     * Tests that a set opened over a directory still holding the table of a crawl that never closed its set starts
+     * empty, rather than failing to create its table
+     */
+    @Test
+    void testStaleTable() throws IOException {
+        Files.write(directory.resolve("visited-0.fp"), new byte[1024]);
+        Files.write(directory.resolve("visited-3.fp"), new byte[1024]);
+
+        try (MappedVisitedSet set = new MappedVisitedSet(directory, 16)) {
+            Assertions.assertTrue(set.add(42));
+            Assertions.assertEquals(1, set.size());
+            Assertions.assertEquals(1, tableFiles());
+        }
+        Assertions.assertEquals(0, tableFiles());
+    }
+
+    /**
+     * Tests that a directory cannot be used by two sets at once, and can be once the first is closed
+     */
+    @Test
+    void testDirectoryInUse() throws IOException {
+        try (MappedVisitedSet set = new MappedVisitedSet(directory, 16)) {
+            set.add(42);
+
+            Assertions.assertThrows(IOException.class, () -> new MappedVisitedSet(directory, 16));
+            Assertions.assertFalse(set.add(42));
+        }
+        try (MappedVisitedSet set = new MappedVisitedSet(directory, 16)) {
+            Assertions.assertTrue(set.add(42));
+        }
+    }
+
+    private long tableFiles() throws IOException {
+        try (var files = Files.newDirectoryStream(directory, "visited-*.fp")) {
+            long count = 0;
+            for (Path _ : files) {
+                count++;
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.frontier.NearDuplicateIndex;
+import org.monzo.crawler.frontier.SimHash;
+
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+class NearDuplicateIndexTests {
+    // A page of four hundred distinct words
+    private static final String TEXT = IntStream.range(0, 400).mapToObj(i -> "word" + i).collect(Collectors.joining(" "));
+
+    /**
+     * Tests that text differing in a word or in case and spacing has a fingerprint a few bits from the original,
+     * while different text does not, and that text too short to fingerprint is not
+     */
+    @Test
+    void testSimHash() {
+        long original = SimHash.ofText(TEXT);
+
+        Assertions.assertEquals(original, SimHash.ofText(TEXT.toUpperCase().replace(" ", "   ")));
+        Assertions.assertTrue(SimHash.distance(original, SimHash.ofText(TEXT.replace("word200 ", "changed "))) <= NearDuplicateIndex.MAX_DISTANCE);
+        Assertions.assertTrue(SimHash.distance(original, SimHash.ofText(TEXT + " footer")) <= NearDuplicateIndex.MAX_DISTANCE);
+        Assertions.assertTrue(SimHash.distance(original, SimHash.ofText(TEXT.replace("word", "term"))) > NearDuplicateIndex.MAX_DISTANCE);
+        Assertions.assertEquals(0, SimHash.ofText(" <> "));
+        Assertions.assertEquals(0, SimHash.ofText("Loading, please wait"));
+        Assertions.assertNotEquals(0, SimHash.ofText(TEXT.substring(0, TEXT.indexOf("word10 "))));
+    }
+
+    /**
+     * Tests that a fingerprint within the distance of one recorded, in any of its blocks, is not added
+     */
+    @Test
+    void testNearDuplicates() {
+        NearDuplicateIndex index = new NearDuplicateIndex();
+        long fingerprint = 0x0123456789abcdefL;
+
+        Assertions.assertTrue(index.add(fingerprint));
+        Assertions.assertFalse(index.add(fingerprint));
+        // Three bits flipped, one in each of three blocks
+        Assertions.assertFalse(index.add(fingerprint ^ (1L | 1L << 20 | 1L << 40)));
+        // Three bits flipped within one block
+        Assertions.assertFalse(index.add(fingerprint ^ 0x7000L));
+        // Four bits flipped, one in each block
+        Assertions.assertTrue(index.add(fingerprint ^ (1L | 1L << 20 | 1L << 40 | 1L << 60)));
+        Assertions.assertEquals(2, index.size());
+    }
+
+    /**
+     * Tests that an index for exact duplicates only adds any fingerprint it has not seen
+     */
+    @Test
+    void testExactOnly() {
+        NearDuplicateIndex index = new NearDuplicateIndex(0);
+
+        Assertions.assertTrue(index.add(42));
+        Assertions.assertTrue(index.add(43));
+        Assertions.assertFalse(index.add(42));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new NearDuplicateIndex(4));
+    }
+
+    /**
+     * Tests that the index grows past its initial capacity without losing fingerprints
+     */
+    @Test
+    void testGrowth() {
+        NearDuplicateIndex index = new NearDuplicateIndex();
+        Random random = new Random(7);
+        long[] fingerprints = new long[5000];
+        int added = 0;
+        for (int i = 0; i < fingerprints.length; i++) {
+            fingerprints[i] = random.nextLong();
+            if (index.add(fingerprints[i])) {
+                added++;
+            }
+        }
+
+        Assertions.assertEquals(added, index.size());
+        for (long fingerprint : fingerprints) {
+            Assertions.assertFalse(index.add(fingerprint));
+        }
+    }
+}
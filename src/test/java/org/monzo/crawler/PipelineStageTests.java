@@ -0,0 +1,80 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.net.PipelineStage;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class PipelineStageTests {
+
+    /**
+     * Tests that handing a task to a stage whose threads are busy and queue is full blocks until a
+     * task is taken off the queue, rather than rejecting it or queueing it past the capacity
+     */
+    @Test
+    void testBlocksWhenFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        try (PipelineStage stage = new PipelineStage("parse", 1, 1)) {
+            AtomicBoolean handedOver = new AtomicBoolean();
+            try {
+                stage.execute(() -> await(release));
+                stage.execute(() -> { });
+
+                Thread feeder = Thread.ofPlatform().start(() -> {
+                    stage.execute(() -> { });
+                    handedOver.set(true);
+                });
+                feeder.join(200);
+                Assertions.assertFalse(handedOver.get(), "The stage's queue is full, so handing over should block");
+                Assertions.assertEquals(1, stage.getQueue().size());
+                Assertions.assertEquals("parse 1/1 active 1 queued", stage.toString());
+
+                release.countDown();
+                feeder.join(5000);
+                Assertions.assertTrue(handedOver.get());
+            } finally {
+                release.countDown();
+            }
+        }
+    }
+
+    /**
+     * Tests that a task blocked waiting for room is rejected once the stage is shut down
+     */
+    @Test
+    void testRejectsOnceShutDown() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        PipelineStage stage = new PipelineStage("link", 1, 1);
+        stage.execute(() -> await(release));
+        stage.execute(() -> { });
+
+        CountDownLatch rejected = new CountDownLatch(1);
+        Thread.ofPlatform().start(() -> {
+            try {
+                stage.execute(() -> { });
+            } catch (RejectedExecutionException _) {
+                rejected.countDown();
+            }
+        });
+        try {
+            Thread.sleep(50);
+            stage.shutdown();
+            Assertions.assertTrue(rejected.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+        Assertions.assertTrue(stage.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.frontier.FrontierEntry;
+import org.monzo.crawler.frontier.PolitenessScheduler;
+import org.monzo.crawler.frontier.RobotsCache;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class PolitenessSchedulerTests {
+    private static final long SECOND = 1_000_000_000L;
+    private static final URI A1 = URI.create("https://a.test/1");
+    private static final URI A2 = URI.create("https://a.test/2");
+    private static final URI A3 = URI.create("https://a.test/3");
+    private static final URI B1 = URI.create("https://b.test/1");
+
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Tests that a host's URIs are handed out no faster than its rate once its burst is spent,
+     * while another host's URIs are handed out in the meantime
+     */
+    @Test
+    void testHostRate() {
+        PolitenessScheduler scheduler = new PolitenessScheduler(null, 1, 1, clock::get);
+        scheduler.offer(FrontierEntry.seed(A1));
+        scheduler.offer(FrontierEntry.seed(A2));
+        scheduler.offer(FrontierEntry.seed(B1));
+
+        List<FrontierEntry> first = new ArrayList<>();
+        Assertions.assertEquals(2, scheduler.drainTo(first));
+        // Hosts in different stripes are drained round robin, so in no particular order
+        Assertions.assertEquals(Set.of(FrontierEntry.seed(A1), FrontierEntry.seed(B1)), Set.copyOf(first));
+        Assertions.assertNull(scheduler.poll());
+        Assertions.assertEquals(1, scheduler.size());
+
+        clock.addAndGet(SECOND);
+        Assertions.assertEquals(FrontierEntry.seed(A2), scheduler.poll());
+        Assertions.assertTrue(scheduler.isEmpty());
+    }
+
+    /**
+     * Tests that a timed poll waits for the next host to become ready rather than the whole timeout
+     */
+    @Test
+    void testPollWaitsForNextHost() throws InterruptedException {
+        PolitenessScheduler scheduler = new PolitenessScheduler(null, 20, 1);
+        scheduler.offer(FrontierEntry.seed(A1));
+        scheduler.offer(FrontierEntry.seed(A2));
+        scheduler.poll();
+
+        long start = System.nanoTime();
+        Assertions.assertEquals(FrontierEntry.seed(A2), scheduler.poll(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(System.nanoTime() - start < 2 * SECOND);
+    }
+
+    /**
+     * Tests that a throttled host is paused for its Retry-After and has its rate halved, and that
+     * successful fetches raise the rate again
+     */
+    @Test
+    void testThrottled() {
+        PolitenessScheduler scheduler = new PolitenessScheduler(null, 2, 1, clock::get);
+        scheduler.offer(FrontierEntry.seed(A1));
+        scheduler.offer(FrontierEntry.seed(A2));
+        scheduler.offer(FrontierEntry.seed(A3));
+        Assertions.assertEquals(FrontierEntry.seed(A1), scheduler.poll());
+
+        scheduler.throttled(A1, Duration.ofSeconds(10));
+        clock.addAndGet(9 * SECOND);
+        Assertions.assertNull(scheduler.poll());
+        clock.addAndGet(SECOND);
+        Assertions.assertEquals(FrontierEntry.seed(A2), scheduler.poll());
+
+        // Halved to one request a second
+        clock.addAndGet(SECOND / 2);
+        Assertions.assertNull(scheduler.poll());
+        scheduler.fetched(A2);
+        scheduler.fetched(A2);
+        scheduler.fetched(A2);
+        scheduler.fetched(A2);
+        scheduler.fetched(A2);
+        // Back to two a second, so the half token left to refill takes a quarter of a second
+        Assertions.assertNull(scheduler.poll());
+        clock.addAndGet(SECOND / 4 + 1_000);
+        Assertions.assertEquals(FrontierEntry.seed(A3), scheduler.poll());
+    }
+
+    /**
+     * Tests that an unavailable host is paused for as long as it is unavailable without its rate being lowered,
+     * while another host's URIs are still handed out
+     */
+    @Test
+    void testUnavailable() {
+        PolitenessScheduler scheduler = new PolitenessScheduler(null, 1, 1, clock::get);
+        scheduler.offer(FrontierEntry.seed(A1));
+        scheduler.offer(FrontierEntry.seed(A2));
+        scheduler.offer(FrontierEntry.seed(A3));
+        Assertions.assertEquals(FrontierEntry.seed(A1), scheduler.poll());
+        scheduler.offer(FrontierEntry.seed(B1));
+
+        scheduler.unavailable(A1, Duration.ofSeconds(30));
+        Assertions.assertEquals(FrontierEntry.seed(B1), scheduler.poll());
+        clock.addAndGet(29 * SECOND);
+        Assertions.assertNull(scheduler.poll());
+        clock.addAndGet(SECOND);
+        Assertions.assertEquals(FrontierEntry.seed(A2), scheduler.poll());
+        clock.addAndGet(SECOND);
+        Assertions.assertEquals(FrontierEntry.seed(A3), scheduler.poll());
+    }
+
+    /**
+     * Tests that a host's URIs are held back until its robots.txt is read, that disallowed URIs are
+     * discarded and that its crawl delay limits the rate
+     */
+    @Test
+    void testRobots() {
+        CompletableFuture<String> robotsTxt = new CompletableFuture<>();
+        RobotsCache robots = new RobotsCache(_ -> robotsTxt, null);
+        PolitenessScheduler scheduler = new PolitenessScheduler(robots, 100, 10, clock::get);
+        List<URI> discarded = new ArrayList<>();
+        scheduler.setDiscardListener(discarded::add);
+        URI disallowed = URI.create("https://a.test/private/1");
+        scheduler.offer(FrontierEntry.seed(disallowed));
+        scheduler.offer(FrontierEntry.seed(A1));
+        scheduler.offer(FrontierEntry.seed(A2));
+
+        Assertions.assertNull(scheduler.poll());
+        robotsTxt.complete("User-agent: *\nDisallow: /private/\nCrawl-delay: 5\n");
+
+        Assertions.assertEquals(FrontierEntry.seed(A1), scheduler.poll());
+        Assertions.assertEquals(List.of(disallowed), discarded);
+        clock.addAndGet(4 * SECOND);
+        Assertions.assertNull(scheduler.poll());
+        clock.addAndGet(SECOND);
+        Assertions.assertEquals(FrontierEntry.seed(A2), scheduler.poll());
+    }
+
+    /**
+     * Tests that a host's URIs are handed out lowest score first, and in the order they were offered
+     * when their scores are equal
+     */
+    @Test
+    void testScoreOrder() {
+        PolitenessScheduler scheduler = new PolitenessScheduler(null, 1, 10, clock::get);
+        FrontierEntry deep = new FrontierEntry(A1, 2, A3, 2);
+        FrontierEntry shallow = new FrontierEntry(A2, 1, A3, 1);
+        FrontierEntry shallowLater = new FrontierEntry(B1, 1, A3, 1);
+        FrontierEntry sameHostLater = new FrontierEntry(URI.create("https://a.test/4"), 1, A3, 1);
+        scheduler.offer(deep);
+        scheduler.offer(shallow);
+        scheduler.offer(sameHostLater);
+
+        Assertions.assertEquals(shallow, scheduler.poll());
+        Assertions.assertEquals(sameHostLater, scheduler.poll());
+        Assertions.assertEquals(deep, scheduler.poll());
+        scheduler.offer(shallowLater);
+        Assertions.assertEquals(shallowLater, scheduler.peek());
+    }
+
+    /**
+     * Tests that removeIf removes waiting URIs whether or not their host is ready
+     */
+    @Test
+    void testRemoveIf() {
+        PolitenessScheduler scheduler = new PolitenessScheduler(null, 1, 1, clock::get);
+        scheduler.offer(FrontierEntry.seed(A1));
+        scheduler.offer(FrontierEntry.seed(A2));
+        scheduler.offer(FrontierEntry.seed(B1));
+        scheduler.poll();
+
+        Assertions.assertTrue(scheduler.removeIf(entry -> !entry.uri().equals(A2)));
+        Assertions.assertEquals(1, scheduler.size());
+        clock.addAndGet(SECOND);
+        Assertions.assertEquals(FrontierEntry.seed(A2), scheduler.poll());
+        Assertions.assertNull(scheduler.poll());
+    }
+
+    /**
+     * Tests that a batch added at once is scheduled as if each URI had been offered, with each new host's
+     * robots.txt requested once
+     */
+    @Test
+    void testAddAll() {
+        List<URI> robotsRequests = new ArrayList<>();
+        RobotsCache robots = new RobotsCache(uri -> {
+            robotsRequests.add(uri);
+            return CompletableFuture.completedFuture("");
+        }, null);
+        PolitenessScheduler scheduler = new PolitenessScheduler(robots, 1, 10, clock::get);
+
+        Assertions.assertTrue(scheduler.addAll(List.of(FrontierEntry.seed(A1), FrontierEntry.seed(B1), FrontierEntry.seed(A2))));
+
+        Assertions.assertEquals(3, scheduler.size());
+        Assertions.assertEquals(2, robotsRequests.size());
+        List<FrontierEntry> drained = new ArrayList<>();
+        scheduler.drainTo(drained);
+        Assertions.assertEquals(3, drained.size());
+        Assertions.assertTrue(drained.indexOf(FrontierEntry.seed(A1)) < drained.indexOf(FrontierEntry.seed(A2)));
+    }
+
+    /**
+     * Tests that a timed poll waiting on an empty scheduler is woken by an offer to any stripe
+     */
+    @Test
+    void testPollWokenByOffer() throws InterruptedException {
+        PolitenessScheduler scheduler = new PolitenessScheduler(null, 1, 1, System::nanoTime, 4);
+        Thread.ofPlatform().start(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException _) {
+                return;
+            }
+            scheduler.offer(FrontierEntry.seed(B1));
+        });
+
+        long start = System.nanoTime();
+        Assertions.assertEquals(FrontierEntry.seed(B1), scheduler.poll(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(System.nanoTime() - start < 2 * SECOND);
+    }
+
+    /**
+     * Tests that URIs of many hosts offered and polled from several threads at once are each handed out once
+     */
+    @Test
+    void testConcurrentStripes() throws InterruptedException {
+        int threads = 4;
+        int perThread = 2000;
+        PolitenessScheduler scheduler = new PolitenessScheduler(null, 1e12, Integer.MAX_VALUE, System::nanoTime, 8);
+        Set<FrontierEntry> polled = ConcurrentHashMap.newKeySet();
+        CountDownLatch done = new CountDownLatch(threads * 2);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    scheduler.offer(FrontierEntry.seed(URI.create("https://host" + (i % 50) + ".test/" + thread + "/" + i)));
+                }
+                done.countDown();
+            });
+            Thread.ofPlatform().start(() -> {
+                try {
+                    for (int i = 0; i < perThread; i++) {
+                        Assertions.assertTrue(polled.add(scheduler.take()));
+                    }
+                } catch (InterruptedException _) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+
+        Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(threads * perThread, polled.size());
+        Assertions.assertTrue(scheduler.isEmpty());
+    }
+}
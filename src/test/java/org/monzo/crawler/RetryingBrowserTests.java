@@ -0,0 +1,110 @@
+package org.monzo.crawler;
+
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.exceptions.HttpStatusException;
+import org.monzo.crawler.exceptions.RetriesExhaustedException;
+import org.monzo.crawler.exceptions.WebBrowserException;
+import org.monzo.crawler.exceptions.WebBrowserFailure;
+import org.monzo.crawler.frontier.FrontierEntry;
+import org.monzo.crawler.frontier.PolitenessScheduler;
+import org.monzo.crawler.net.Browser;
+import org.monzo.crawler.net.FetchReportingBrowser;
+import org.monzo.crawler.net.RetryingBrowser;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.*;
+
+class RetryingBrowserTests {
+    private static final URI uri = URI.create("https://test.com/page");
+    private static final URI next = URI.create("https://test.com/next");
+
+    private static Retry getTestRetry() {
+        return Retry.of("testRetry", RetryConfig.custom()
+                .maxAttempts(3)
+                .waitDuration(Duration.ofMillis(10))
+                .retryOnException(e -> e instanceof WebBrowserFailure)
+                .build());
+    }
+
+    private static WebBrowserFailure tooManyRequests() {
+        return new WebBrowserFailure(new HttpStatusException("Unexpected status code: 429", 429, Duration.ofSeconds(10)));
+    }
+
+    /**
+     * Tests that a 429 answered to an attempt that is retried and then succeeds still slows the host down, as the
+     * fetch reporting browser inside the retry is told of each attempt
+     */
+    @Test
+    void testThrottledAttemptReported() throws WebBrowserException {
+        AtomicLong clock = new AtomicLong();
+        PolitenessScheduler scheduler = new PolitenessScheduler(null, 1000, 1000, clock::get);
+        Browser browser = mock(Browser.class);
+        when(browser.get(uri)).thenThrow(tooManyRequests()).thenReturn("page");
+        scheduler.offer(FrontierEntry.seed(uri));
+        Assertions.assertEquals(FrontierEntry.seed(uri), scheduler.poll());
+
+        Browser retrying = new RetryingBrowser(new FetchReportingBrowser(browser, scheduler), getTestRetry());
+
+        Assertions.assertEquals("page", retrying.get(uri));
+        verify(browser, times(2)).get(uri);
+        // The host is paused for the Retry-After of the throttled attempt
+        scheduler.offer(FrontierEntry.seed(next));
+        Assertions.assertNull(scheduler.poll());
+        clock.addAndGet(Duration.ofSeconds(10).toNanos());
+        Assertions.assertEquals(FrontierEntry.seed(next), scheduler.poll());
+    }
+
+    /**
+     * Tests that a failure retried on every attempt ends as a RetriesExhaustedException, while one the retry does
+     * not retry is thrown as it was after a single attempt
+     */
+    @Test
+    void testRetriesExhausted() throws WebBrowserException {
+        Browser browser = mock(Browser.class);
+        WebBrowserException notRetried = new WebBrowserException();
+        when(browser.get(uri)).thenThrow(tooManyRequests());
+        when(browser.get(next)).thenThrow(notRetried);
+        Browser retrying = new RetryingBrowser(browser, getTestRetry());
+
+        RetriesExhaustedException exhausted = Assertions.assertThrows(RetriesExhaustedException.class, () -> retrying.get(uri));
+        Assertions.assertEquals(3, exhausted.getAttempts());
+        Assertions.assertInstanceOf(HttpStatusException.class, exhausted.getCause());
+        verify(browser, times(3)).get(uri);
+
+        Assertions.assertSame(notRetried, Assertions.assertThrows(WebBrowserException.class, () -> retrying.get(next)));
+        verify(browser, times(1)).get(next);
+    }
+
+    /**
+     * Tests that an asynchronous request is retried on the scheduler until an attempt succeeds
+     */
+    @Test
+    void testAsync() {
+        AtomicInteger attempts = new AtomicInteger();
+        Browser browser = mock(Browser.class);
+        when(browser.getAsync(uri)).thenAnswer(_ -> attempts.incrementAndGet() < 3
+                ? CompletableFuture.failedFuture(tooManyRequests())
+                : CompletableFuture.completedFuture("page"));
+        when(browser.getAsync(next)).thenReturn(CompletableFuture.failedFuture(tooManyRequests()));
+
+        try (ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor()) {
+            Browser retrying = new RetryingBrowser(browser, getTestRetry(), scheduler);
+
+            Assertions.assertEquals("page", retrying.getAsync(uri).join());
+            Assertions.assertEquals(3, attempts.get());
+            CompletionException failed = Assertions.assertThrows(CompletionException.class, () -> retrying.getAsync(next).join());
+            Assertions.assertInstanceOf(RetriesExhaustedException.class, failed.getCause());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.frontier.RobotsCache;
+import org.monzo.crawler.frontier.RobotsRules;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class RobotsRulesTests {
+    private static final String ROBOTS = """
+            # Comments and unknown lines are ignored
+            Sitemap: https://test.com/sitemap.xml
+
+            User-agent: other-bot
+            Disallow: /
+
+            User-agent: crawler
+            User-agent: *
+            Disallow: /private/
+            Allow: /private/public   # the longer rule wins
+            Disallow: /*.pdf$
+            Disallow: /search*q=
+            Disallow:
+            Crawl-delay: 1.5
+            """;
+
+    /**
+     * Tests that the longest matching rule decides, with wildcards and end anchors, and that
+     * anything not matched is allowed
+     */
+    @Test
+    void testAllows() {
+        RobotsRules rules = RobotsRules.parse(ROBOTS, null);
+
+        Assertions.assertTrue(rules.allows("/"));
+        Assertions.assertTrue(rules.allows("/about"));
+        Assertions.assertFalse(rules.allows("/private/"));
+        Assertions.assertFalse(rules.allows("/private/secret"));
+        Assertions.assertTrue(rules.allows("/private/public/page"));
+        Assertions.assertFalse(rules.allows("/docs/file.pdf"));
+        Assertions.assertTrue(rules.allows("/docs/file.pdf?download=1"));
+        Assertions.assertFalse(rules.allows("/search?page=2&q=crawler"));
+        Assertions.assertTrue(rules.allows("/search?page=2"));
+        Assertions.assertFalse(rules.allows(URI.create("https://test.com/private/x")));
+        Assertions.assertTrue(rules.allows(URI.create("https://test.com")));
+        Assertions.assertEquals(Duration.ofMillis(1500), rules.crawlDelay());
+    }
+
+    /**
+     * Tests that a group naming the crawler's user agent is used instead of the * group
+     */
+    @Test
+    void testUserAgentGroup() {
+        RobotsRules rules = RobotsRules.parse(ROBOTS, "Other-Bot");
+
+        Assertions.assertFalse(rules.allows("/about"));
+        Assertions.assertEquals(Duration.ZERO, rules.crawlDelay());
+    }
+
+    /**
+     * Tests that an empty file, or one with no group for the crawler, allows everything
+     */
+    @Test
+    void testNoRules() {
+        Assertions.assertTrue(RobotsRules.parse("", null).allows("/anything"));
+        Assertions.assertTrue(RobotsRules.parse("User-agent: other-bot\nDisallow: /\n", null).allows("/anything"));
+    }
+
+    /**
+     * Tests that each host's robots.txt is fetched once, and a host whose robots.txt cannot be fetched
+     * allows everything
+     */
+    @Test
+    void testCache() {
+        AtomicInteger fetches = new AtomicInteger();
+        RobotsCache cache = new RobotsCache(uri -> {
+            fetches.incrementAndGet();
+            return uri.getHost().equals("test.com")
+                    ? CompletableFuture.completedFuture("User-agent: *\nDisallow: /private\n")
+                    : CompletableFuture.failedFuture(new IllegalStateException("404"));
+        }, null);
+
+        Assertions.assertFalse(cache.rules(URI.create("https://test.com/a")).join().allows("/private"));
+        Assertions.assertFalse(cache.rules(URI.create("https://test.com/b")).join().allows("/private"));
+        Assertions.assertSame(RobotsRules.ALLOW_ALL, cache.rules(URI.create("https://missing.com/")).join());
+        Assertions.assertEquals(2, fetches.get());
+    }
+}
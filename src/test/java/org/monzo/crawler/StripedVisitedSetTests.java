@@ -0,0 +1,75 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.frontier.StripedVisitedSet;
+import org.monzo.crawler.frontier.VisitedSet;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class StripedVisitedSetTests {
+
+    /**
+     * Tests that a URI is only accepted the first time it is added
+     */
+    @Test
+    void testAddDuplicate() {
+        VisitedSet set = new StripedVisitedSet();
+        URI uri = URI.create("https://test.com/a");
+
+        Assertions.assertTrue(set.add(uri));
+        Assertions.assertFalse(set.add(uri));
+        Assertions.assertEquals(1, set.size());
+    }
+
+    /**
+     * Tests that the stripes grow past their initial capacity without losing fingerprints,
+     * including the zero fingerprint which the tables use to mark an empty slot
+     */
+    @Test
+    void testGrowth() {
+        VisitedSet set = new StripedVisitedSet(1);
+
+        for (long i = 0; i < 10_000; i++) {
+            Assertions.assertTrue(set.add(i));
+        }
+        for (long i = 0; i < 10_000; i++) {
+            Assertions.assertFalse(set.add(i));
+        }
+        Assertions.assertEquals(10_000, set.size());
+    }
+
+    /**
+     * Tests that when many threads race to add the same URIs each URI is accepted exactly once
+     */
+    @Test
+    void testConcurrentAdd() throws InterruptedException, ExecutionException {
+        VisitedSet set = new StripedVisitedSet();
+        AtomicInteger accepted = new AtomicInteger();
+        int threads = 8;
+        int uris = 5_000;
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < uris; i++) {
+                        if (set.add(URI.create("https://test.com/" + i))) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        Assertions.assertEquals(uris, accepted.get());
+        Assertions.assertEquals(uris, set.size());
+    }
+}
@@ -0,0 +1,53 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.frontier.TokenBucket;
+
+class TokenBucketTests {
+    private static final long SECOND = 1_000_000_000L;
+
+    /**
+     * Tests that a full bucket allows a burst up to its capacity, then one request per 1/rate seconds
+     */
+    @Test
+    void testBurstThenRate() {
+        TokenBucket bucket = new TokenBucket(2, 3, 0);
+
+        Assertions.assertTrue(bucket.tryAcquire(0));
+        Assertions.assertTrue(bucket.tryAcquire(0));
+        Assertions.assertTrue(bucket.tryAcquire(0));
+        Assertions.assertFalse(bucket.tryAcquire(0));
+        Assertions.assertEquals(SECOND / 2, bucket.nanosUntilAvailable(0));
+        Assertions.assertTrue(bucket.tryAcquire(SECOND / 2));
+        Assertions.assertFalse(bucket.tryAcquire(SECOND / 2));
+    }
+
+    /**
+     * Tests that tokens stop accumulating at the bucket's capacity
+     */
+    @Test
+    void testCapacity() {
+        TokenBucket bucket = new TokenBucket(10, 2, 0);
+        bucket.tryAcquire(0);
+        bucket.tryAcquire(0);
+
+        Assertions.assertTrue(bucket.tryAcquire(100 * SECOND));
+        Assertions.assertTrue(bucket.tryAcquire(100 * SECOND));
+        Assertions.assertFalse(bucket.tryAcquire(100 * SECOND));
+    }
+
+    /**
+     * Tests that changing the rate changes how soon the next token is available
+     */
+    @Test
+    void testSetRate() {
+        TokenBucket bucket = new TokenBucket(1, 1, 0);
+        bucket.tryAcquire(0);
+
+        bucket.setRate(0.5, 0);
+
+        Assertions.assertEquals(0.5, bucket.rate(), 1e-9);
+        Assertions.assertEquals(2 * SECOND, bucket.nanosUntilAvailable(0));
+    }
+}
@@ -0,0 +1,75 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.exceptions.VisitedURIException;
+import org.monzo.crawler.net.URIDispatcher;
+import org.monzo.crawler.net.URIQueue;
+
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class URIDispatcherTests {
+
+    /**
+     * Tests that URIs added to the queue are each handed to a worker on the executor
+     */
+    @Test
+    void testDispatch() throws VisitedURIException, InterruptedException {
+        URIQueue queue = new URIQueue(new LinkedBlockingQueue<>());
+        Set<URI> crawled = ConcurrentHashMap.newKeySet();
+        CountDownLatch done = new CountDownLatch(3);
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(2);
+             URIDispatcher dispatcher = new URIDispatcher(queue, executor, entry -> () -> {
+                 crawled.add(entry.uri());
+                 done.countDown();
+             }, 4, 2)) {
+            dispatcher.start();
+            queue.add(URI.create("https://test.com/a"));
+            queue.add(URI.create("https://test.com/b"));
+            queue.add(URI.create("https://test.com/c"));
+
+            Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+        Assertions.assertEquals(3, crawled.size());
+    }
+
+    /**
+     * Tests that the dispatcher stops taking URIs off the queue once maxInFlight workers are
+     * running, and resumes as they complete
+     */
+    @Test
+    void testBackpressure() throws VisitedURIException, InterruptedException {
+        URIQueue queue = new URIQueue(new LinkedBlockingQueue<>());
+        AtomicInteger started = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        // One URI is taken off the queue by the test itself
+        CountDownLatch done = new CountDownLatch(4);
+
+        try (ExecutorService executor = Executors.newCachedThreadPool();
+             URIDispatcher dispatcher = new URIDispatcher(queue, executor, _ -> () -> {
+                 started.incrementAndGet();
+                 try {
+                     release.await();
+                 } catch (InterruptedException _) {
+                     Thread.currentThread().interrupt();
+                 }
+                 done.countDown();
+             }, 2, 1)) {
+            dispatcher.start();
+            for (int i = 0; i < 5; i++) {
+                queue.add(URI.create("https://test.com/" + i));
+            }
+
+            Thread.sleep(300);
+            Assertions.assertEquals(2, started.get());
+            Assertions.assertNotNull(queue.poll(), "URIs beyond the in-flight limit should stay in the queue");
+
+            release.countDown();
+            Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -1,15 +1,28 @@
 package org.monzo.crawler;
 
 import org.monzo.crawler.exceptions.VisitedURIException;
+import org.monzo.crawler.frontier.FrontierEntry;
+import org.monzo.crawler.frontier.StripedVisitedSet;
+import org.monzo.crawler.frontier.UriScorer;
+import org.monzo.crawler.net.RemoteFrontier;
 import org.monzo.crawler.net.URIQueue;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 class URIQueueTests {
     private static final URI firstUri = URI.create("https://test.com");
@@ -20,7 +33,7 @@ class URIQueueTests {
      */
     @Test
     void testAdd() throws VisitedURIException {
-        BlockingQueue<URI> blockingQueue = spy(new LinkedBlockingQueue<>());
+        BlockingQueue<FrontierEntry> blockingQueue = spy(new LinkedBlockingQueue<>());
         URIQueue uriQueue = new URIQueue(blockingQueue);
 
         uriQueue.add(firstUri);
@@ -34,13 +47,14 @@ class URIQueueTests {
      */
     @Test
     void testAddDuplicate() throws VisitedURIException {
-        BlockingQueue<URI> blockingQueue = spy(new LinkedBlockingQueue<>());
+        BlockingQueue<FrontierEntry> blockingQueue = spy(new LinkedBlockingQueue<>());
         URIQueue uriQueue = new URIQueue(blockingQueue);
 
         uriQueue.add(firstUri);
 
         Assertions.assertEquals(1, blockingQueue.size());
-        Assertions.assertThrows(VisitedURIException.class, () -> uriQueue.add(firstUri));
+        VisitedURIException e = Assertions.assertThrows(VisitedURIException.class, () -> uriQueue.add(firstUri));
+        Assertions.assertEquals("URI: https://test.com already visited", e.getMessage());
     }
 
     /**
@@ -49,18 +63,160 @@ class URIQueueTests {
      */
     @Test
     void testPoll() throws VisitedURIException {
-        BlockingQueue<URI> blockingQueue = spy(new LinkedBlockingQueue<>());
+        BlockingQueue<FrontierEntry> blockingQueue = spy(new LinkedBlockingQueue<>());
         URIQueue uriQueue = new URIQueue(blockingQueue);
         URI secondUri = URI.create("https://test2.com");
 
         uriQueue.add(firstUri);
         uriQueue.add(secondUri);
         Assertions.assertEquals(2, blockingQueue.size());
-        Assertions.assertEquals(firstUri, uriQueue.poll());
+        Assertions.assertEquals(firstUri, uriQueue.poll().uri());
         Assertions.assertEquals(1, blockingQueue.size());
-        Assertions.assertEquals(secondUri, uriQueue.poll());
+        Assertions.assertEquals(secondUri, uriQueue.poll().uri());
         Assertions.assertEquals(0, blockingQueue.size());
         Assertions.assertNull(uriQueue.poll());
         Assertions.assertEquals(0, blockingQueue.size());
     }
+
+    /**
+     * Tests that the visited count reflects every distinct URI added, including those
+     * already polled from the queue
+     */
+    @Test
+    void testTotalVisitedUris() throws VisitedURIException {
+        URIQueue uriQueue = new URIQueue(new LinkedBlockingQueue<>());
+
+        uriQueue.add(firstUri);
+        uriQueue.poll();
+        Assertions.assertThrows(VisitedURIException.class, () -> uriQueue.add(firstUri));
+        uriQueue.add(URI.create("https://test2.com"));
+
+        Assertions.assertEquals(2, uriQueue.totalVisitedUris());
+    }
+
+    /**
+     * Tests that the queue only reports completion once every added URI has been marked complete,
+     * including URIs added by a worker before it marks its own URI complete
+     */
+    @Test
+    void testAwaitCompletion() throws VisitedURIException, InterruptedException {
+        URIQueue uriQueue = new URIQueue(new LinkedBlockingQueue<>());
+
+        uriQueue.add(firstUri);
+        uriQueue.poll();
+        uriQueue.add(URI.create("https://test.com/child"));
+        uriQueue.markComplete(firstUri);
+        Assertions.assertEquals(1, uriQueue.pending());
+        Assertions.assertFalse(uriQueue.awaitCompletion(10, TimeUnit.MILLISECONDS));
+
+        uriQueue.poll();
+        uriQueue.markComplete(URI.create("https://test.com/child"));
+        Assertions.assertEquals(0, uriQueue.pending());
+        Assertions.assertTrue(uriQueue.awaitCompletion(10, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Tests that links record their depth and parent, and that links beyond the max depth are not added
+     */
+    @Test
+    void testMaxDepth() throws VisitedURIException {
+        URIQueue uriQueue = new URIQueue(new LinkedBlockingQueue<>(), new StripedVisitedSet(), UriScorer.breadthFirst(), 1, Long.MAX_VALUE);
+        URI child = URI.create("https://test.com/child");
+
+        uriQueue.add(firstUri);
+        FrontierEntry seed = uriQueue.poll();
+        Assertions.assertTrue(uriQueue.add(child, seed));
+        FrontierEntry childEntry = uriQueue.poll();
+        Assertions.assertEquals(new FrontierEntry(child, 1, firstUri, 1), childEntry);
+
+        Assertions.assertFalse(uriQueue.add(URI.create("https://test.com/grandchild"), childEntry));
+        Assertions.assertEquals(2, uriQueue.totalVisitedUris());
+    }
+
+    /**
+     * Tests that once max pages URIs have been handed out the rest of the queue is discarded and
+     * marked complete, and no more links are added
+     */
+    @Test
+    void testMaxPages() throws VisitedURIException, InterruptedException {
+        URIQueue uriQueue = new URIQueue(new LinkedBlockingQueue<>(), new StripedVisitedSet(), UriScorer.breadthFirst(), Integer.MAX_VALUE, 3);
+        uriQueue.add(firstUri);
+        FrontierEntry seed = uriQueue.poll();
+        for (int i = 0; i < 4; i++) {
+            uriQueue.add(URI.create("https://test.com/" + i), seed);
+        }
+        uriQueue.markComplete(firstUri);
+
+        List<FrontierEntry> batch = new ArrayList<>();
+        Assertions.assertEquals(2, uriQueue.drainTo(batch, 10));
+        Assertions.assertEquals(2, batch.size());
+        Assertions.assertNull(uriQueue.poll());
+        Assertions.assertFalse(uriQueue.add(URI.create("https://test.com/late"), batch.getFirst()));
+
+        Assertions.assertEquals(2, uriQueue.pending());
+        uriQueue.markComplete(batch.get(0).uri());
+        uriQueue.markComplete(batch.get(1).uri());
+        Assertions.assertTrue(uriQueue.awaitCompletion(10, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Tests that addAll drops links repeated within the batch and links already visited, returns the new ones
+     * in the order given and hands them to the backing queue in one call
+     */
+    @Test
+    void testAddAll() throws VisitedURIException {
+        BlockingQueue<FrontierEntry> blockingQueue = spy(new LinkedBlockingQueue<>());
+        URIQueue uriQueue = new URIQueue(blockingQueue);
+        uriQueue.add(firstUri);
+        FrontierEntry seed = uriQueue.poll();
+        URI a = URI.create("https://test.com/a");
+        URI b = URI.create("https://test.com/b");
+        URI c = URI.create("https://test.com/c");
+
+        List<URI> added = uriQueue.addAll(List.of(a, b, a, firstUri, c, b), seed);
+
+        Assertions.assertEquals(List.of(a, b, c), added);
+        Assertions.assertEquals(List.of(new FrontierEntry(a, 1, firstUri, 1), new FrontierEntry(b, 1, firstUri, 1),
+                new FrontierEntry(c, 1, firstUri, 1)), new ArrayList<>(blockingQueue));
+        verify(blockingQueue, times(1)).addAll(anyCollection());
+        Assertions.assertEquals(4, uriQueue.pending());
+        Assertions.assertEquals(List.of(), uriQueue.addAll(List.of(c, a), seed));
+    }
+
+    /**
+     * Tests that addAll adds nothing beyond the max depth
+     */
+    @Test
+    void testAddAllMaxDepth() throws VisitedURIException {
+        URIQueue uriQueue = new URIQueue(new LinkedBlockingQueue<>(), new StripedVisitedSet(), UriScorer.breadthFirst(), 0, Long.MAX_VALUE);
+        uriQueue.add(firstUri);
+
+        Assertions.assertEquals(List.of(), uriQueue.addAll(List.of(URI.create("https://test.com/a")), uriQueue.poll()));
+        Assertions.assertEquals(1, uriQueue.totalVisitedUris());
+    }
+
+    /**
+     * Tests that links owned by a remote frontier are forwarded to it once, in one batch, and are neither queued
+     * nor counted as visited
+     */
+    @Test
+    void testAddAllForwardsRemoteLinks() throws VisitedURIException {
+        URI local = URI.create("https://test.com/local");
+        URI remote = URI.create("https://test.com/remote");
+        URI remote2 = URI.create("https://test.com/remote2");
+        RemoteFrontier remoteFrontier = mock(RemoteFrontier.class);
+        when(remoteFrontier.owns(any())).thenAnswer(invocation -> !invocation.getArgument(0, URI.class).getPath().startsWith("/remote"));
+        URIQueue uriQueue = new URIQueue(new LinkedBlockingQueue<>());
+        uriQueue.setRemoteFrontier(remoteFrontier);
+        uriQueue.add(firstUri);
+        FrontierEntry seed = uriQueue.poll();
+
+        Assertions.assertEquals(List.of(local), uriQueue.addAll(List.of(remote, local, remote2, remote), seed));
+        Assertions.assertEquals(List.of(), uriQueue.addAll(List.of(remote), seed));
+
+        verify(remoteFrontier).forward(List.of(remote, remote2), seed);
+        Assertions.assertEquals(2, uriQueue.totalVisitedUris());
+        Assertions.assertEquals(2, uriQueue.forwardedUris());
+        Assertions.assertEquals(2, uriQueue.pending());
+    }
 }
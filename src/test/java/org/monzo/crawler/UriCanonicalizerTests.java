@@ -0,0 +1,132 @@
+package org.monzo.crawler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monzo.crawler.frontier.UriCanonicalizer;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Set;
+
+class UriCanonicalizerTests {
+    private static final URI PAGE = URI.create("https://test.com/blog/post?page=2");
+    private final UriCanonicalizer canonicalizer = new UriCanonicalizer();
+
+    /**
+     * Tests resolution against the normal examples of RFC 3986 section 5.4.1, less the fragments
+     * and the non-http scheme which the canonicalizer drops
+     */
+    @Test
+    void testResolveRfc3986Examples() {
+        URI base = URI.create("http://a/b/c/d;p?q");
+        Map.ofEntries(
+                Map.entry("//g", "http://g/"),
+                Map.entry("?y", "http://a/b/c/d;p?y"),
+                Map.entry("g?y", "http://a/b/c/g?y"),
+                Map.entry("", "http://a/b/c/d;p?q"),
+                Map.entry("g", "http://a/b/c/g"),
+                Map.entry("./g", "http://a/b/c/g"),
+                Map.entry("g/", "http://a/b/c/g/"),
+                Map.entry("/g", "http://a/g"),
+                Map.entry(";x", "http://a/b/c/;x"),
+                Map.entry("g;x?y", "http://a/b/c/g;x?y"),
+                Map.entry(".", "http://a/b/c/"),
+                Map.entry("./", "http://a/b/c/"),
+                Map.entry("..", "http://a/b/"),
+                Map.entry("../", "http://a/b/"),
+                Map.entry("../g", "http://a/b/g"),
+                Map.entry("../..", "http://a/"),
+                Map.entry("../../", "http://a/"),
+                Map.entry("../../g", "http://a/g"),
+                Map.entry("../../../g", "http://a/g"),
+                Map.entry("/./g", "http://a/g"),
+                Map.entry("/../g", "http://a/g"),
+                Map.entry("g.", "http://a/b/c/g."),
+                Map.entry("..g", "http://a/b/c/..g"),
+                Map.entry("./g/.", "http://a/b/c/g/"),
+                Map.entry("g/./h", "http://a/b/c/g/h"),
+                Map.entry("g/../h", "http://a/b/c/h"),
+                Map.entry("http:g", "http://a/b/c/g")
+        ).forEach((link, expected) ->
+                Assertions.assertEquals(URI.create(expected), canonicalizer.canonicalize(base, link), link));
+    }
+
+    /**
+     * Tests that spellings of the same page on the same host all canonicalize to one URI
+     */
+    @Test
+    void testSamePage() {
+        URI expected = URI.create("https://test.com/blog/other");
+        for (String link : new String[]{"other", "/blog/other", "other#comments", "./other", "../blog/other",
+                "HTTPS://TEST.COM:443/blog/other", "//test.com/blog/other#x", " /blog/other\n", "/blog/%6Fther"}) {
+            Assertions.assertEquals(expected, canonicalizer.canonicalize(PAGE, link), link);
+        }
+    }
+
+    /**
+     * Tests that a link to the page's own fragment resolves to the page itself
+     */
+    @Test
+    void testFragmentOnly() {
+        Assertions.assertEquals(PAGE, canonicalizer.canonicalize(PAGE, "#top"));
+    }
+
+    /**
+     * Tests that percent-encoding is normalized, and characters not allowed in a URI are encoded
+     */
+    @Test
+    void testPercentEncoding() {
+        Assertions.assertEquals(URI.create("https://test.com/a%2Fb/%C3%A9t%C3%A9%20x?q=%7C%3A&r=100%25"),
+                canonicalizer.canonicalize(PAGE, "/a%2fb/été x?q=|%3a&r=100%"));
+    }
+
+    /**
+     * Tests that non-default ports are kept, a missing path becomes / and the scheme and host are lower-cased
+     */
+    @Test
+    void testAuthority() {
+        Assertions.assertEquals(URI.create("http://test.com:8080/"), canonicalizer.canonicalize("HTTP://Test.COM:8080"));
+        Assertions.assertEquals(URI.create("http://test.com/"), canonicalizer.canonicalize("http://test.com:80"));
+        Assertions.assertEquals(URI.create("https://xn--bcher-kva.test/"), canonicalizer.canonicalize("https://Bücher.test"));
+        Assertions.assertNull(canonicalizer.canonicalize("https://test.com:99999/"));
+        Assertions.assertNull(canonicalizer.canonicalize("https://te st.com/"));
+    }
+
+    /**
+     * Tests that links that cannot be crawled are rejected
+     */
+    @Test
+    void testRejected() {
+        for (String link : new String[]{"mailto:a@test.com", "javascript:void(0)", "tel:123", "ftp://test.com/f", "ftp:f"}) {
+            Assertions.assertNull(canonicalizer.canonicalize(PAGE, link), link);
+        }
+        Assertions.assertNull(canonicalizer.canonicalize("/relative"));
+    }
+
+    /**
+     * Tests that only links on the page's own host and port are accepted as internal
+     */
+    @Test
+    void testCanonicalizeInternal() {
+        Assertions.assertEquals(URI.create("https://test.com/a"), canonicalizer.canonicalizeInternal(PAGE, "/a"));
+        Assertions.assertEquals(URI.create("http://test.com/a"), canonicalizer.canonicalizeInternal(PAGE, "http://TEST.com/a"));
+        Assertions.assertNull(canonicalizer.canonicalizeInternal(PAGE, "https://other.com/a"));
+        Assertions.assertNull(canonicalizer.canonicalizeInternal(PAGE, "https://test.com:8443/a"));
+        Assertions.assertNull(canonicalizer.canonicalizeInternal(PAGE, "//cdn.test.com/a"));
+    }
+
+    /**
+     * Tests that query parameters are sorted by name, keeping the order of repeated names, and that
+     * stripped parameters and empty queries are removed
+     */
+    @Test
+    void testQuery() {
+        UriCanonicalizer sorting = new UriCanonicalizer(true, Set.of("utm_source", "utm_medium"));
+
+        Assertions.assertEquals(URI.create("https://test.com/a?a=2&a=1&b=1&flag"),
+                sorting.canonicalize(PAGE, "/a?utm_source=mail&b=1&a=2&flag&utm_medium=x&a=1"));
+        Assertions.assertEquals(URI.create("https://test.com/a"), sorting.canonicalize(PAGE, "/a?utm_source=mail"));
+        Assertions.assertEquals(URI.create("https://test.com/a"), canonicalizer.canonicalize(PAGE, "/a?"));
+        Assertions.assertEquals(URI.create("https://test.com/a?b=1&a=2"), canonicalizer.canonicalize(PAGE, "/a?b=1&a=2"));
+    }
+}
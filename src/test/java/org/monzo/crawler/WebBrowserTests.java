@@ -1,13 +1,19 @@
 package org.monzo.crawler;
 
+import org.monzo.crawler.exceptions.ContentRejectedException;
+import org.monzo.crawler.exceptions.RetriesExhaustedException;
 import org.monzo.crawler.exceptions.WebBrowserFailure;
 import io.github.resilience4j.retry.Retry;
 import io.github.resilience4j.retry.RetryConfig;
 import org.monzo.crawler.net.Browser;
+import org.monzo.crawler.net.ConditionalResponse;
+import org.monzo.crawler.net.Validators;
 import org.monzo.crawler.net.WebBrowser;
 import org.monzo.crawler.exceptions.WebBrowserException;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
 import org.apache.hc.core5.http.io.HttpClientResponseHandler;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -103,8 +109,57 @@ class WebBrowserTests {
 
         Browser browser = new WebBrowser(clientMock, handler, getTestRetry());
 
-        Assertions.assertThrows(WebBrowserFailure.class, () -> browser.get(uri));
+        RetriesExhaustedException failure = Assertions.assertThrows(RetriesExhaustedException.class, () -> browser.get(uri));
+        Assertions.assertEquals(MAX_RETRIES, failure.getAttempts());
+        Assertions.assertInstanceOf(IOException.class, failure.getCause());
         verify(clientMock, times(3)).execute(any(ClassicHttpRequest.class), any(HttpClientResponseHandler.class));
     }
 
+    /**
+     * Tests that a failure the retry config does not retry is thrown after one attempt, without being reported
+     * as the retries running out
+     */
+    @Test
+    void testWebBrowserNotRetried() throws IOException {
+        CloseableHttpClient clientMock = mock(CloseableHttpClient.class);
+        when(clientMock.execute(any(ClassicHttpRequest.class), any(HttpClientResponseHandler.class)))
+                .thenThrow(new ContentRejectedException("Unsupported content type: image/png"));
+        Retry retry = Retry.of("webBrowserRetry", RetryConfig.<String>custom()
+                .maxAttempts(MAX_RETRIES)
+                .waitDuration(Duration.ofMillis(100))
+                .retryOnException(e -> !ContentRejectedException.isCause(e))
+                .build());
+
+        Browser browser = new WebBrowser(clientMock, _ -> "", retry);
+
+        WebBrowserFailure failure = Assertions.assertThrows(WebBrowserFailure.class, () -> browser.get(uri));
+        Assertions.assertNull(RetriesExhaustedException.findCause(failure));
+        Assertions.assertInstanceOf(ContentRejectedException.class, failure.getCause());
+        verify(clientMock, times(1)).execute(any(ClassicHttpRequest.class), any(HttpClientResponseHandler.class));
+    }
+
+    /**
+     * Tests that a conditional request carries If-None-Match and If-Modified-Since, and that a 304 response
+     * is returned as not modified with the validators the server sent
+     */
+    @Test
+    void testConditionalRequest() throws IOException, WebBrowserException {
+        CloseableHttpClient clientMock = mock(CloseableHttpClient.class);
+        Validators validators = new Validators("\"v1\"", "Wed, 21 Oct 2015 07:28:00 GMT");
+        when(clientMock.execute(any(ClassicHttpRequest.class), any(HttpClientResponseHandler.class))).thenAnswer(invocation -> {
+            ClassicHttpRequest request = invocation.getArgument(0);
+            Assertions.assertEquals("\"v1\"", request.getFirstHeader(HttpHeaders.IF_NONE_MATCH).getValue());
+            Assertions.assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", request.getFirstHeader(HttpHeaders.IF_MODIFIED_SINCE).getValue());
+            BasicClassicHttpResponse response = new BasicClassicHttpResponse(304);
+            response.addHeader(HttpHeaders.ETAG, "\"v1\"");
+            HttpClientResponseHandler<?> handler = invocation.getArgument(1);
+            return handler.handleResponse(response);
+        });
+
+        Browser browser = new WebBrowser(clientMock, _ -> "", getTestRetry());
+
+        ConditionalResponse<String> response = browser.getIfChanged(uri, validators);
+        Assertions.assertTrue(response.notModified());
+        Assertions.assertEquals(new Validators("\"v1\"", null), response.validators());
+    }
 }
@@ -1,14 +1,25 @@
 package org.monzo.crawler;
 
-import org.monzo.crawler.exceptions.VisitedURIException;
 import org.monzo.crawler.net.Browser;
 import org.monzo.crawler.net.URIQueue;
 import org.monzo.crawler.exceptions.WebBrowserException;
+import org.monzo.crawler.exceptions.WebBrowserFailure;
+import org.monzo.crawler.frontier.FrontierEntry;
+import org.monzo.crawler.frontier.NearDuplicateIndex;
+import org.monzo.crawler.frontier.UriCanonicalizer;
+import org.monzo.crawler.graph.LinkGraphWriter;
+import org.monzo.crawler.metrics.CrawlMetrics;
 import org.monzo.crawler.net.WebWorker;
+import org.monzo.crawler.net.WorkerOptions;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.mockito.Mockito.*;
 
@@ -45,11 +56,260 @@ class WebWorkerTests {
      * these are extracted correctly and then added to the queue.
      */
     @Test
-    void testAddToQueue() throws WebBrowserException, VisitedURIException {
+    void testAddToQueue() throws WebBrowserException {
         WebWorker worker = new WebWorker(browser, uri, queue);
         when(browser.get(uri)).thenReturn(BODY);
         worker.run();
-        verify(queue, times(1)).add(expected);
-        verify(queue, times(1)).add(expected2);
+        verify(queue, times(1)).addAll(List.of(expected, expected2), FrontierEntry.seed(uri));
+        verify(queue, times(1)).markComplete(uri);
+    }
+
+    /**
+     * Tests that the URI is still marked complete on the queue when the browser fails to
+     * retrieve it, so that the crawl can finish
+     */
+    @Test
+    void testMarkCompleteOnFailure() throws WebBrowserException {
+        Browser failingBrowser = mock(Browser.class);
+        URIQueue failingQueue = mock(URIQueue.class);
+        when(failingBrowser.get(uri)).thenThrow(new WebBrowserFailure(new IOException()));
+
+        new WebWorker(failingBrowser, uri, failingQueue).run();
+
+        verify(failingQueue, times(1)).markComplete(uri);
+        verifyNoMoreInteractions(failingQueue);
+    }
+
+    /**
+     * Tests that when crawling asynchronously the links are extracted once the page arrives
+     * and the URI is marked complete when the returned future completes
+     */
+    @Test
+    void testRunAsync() {
+        Browser asyncBrowser = mock(Browser.class);
+        URIQueue asyncQueue = mock(URIQueue.class);
+        when(asyncBrowser.getAsync(uri)).thenReturn(CompletableFuture.completedFuture(BODY));
+
+        new WebWorker(asyncBrowser, uri, asyncQueue).runAsync(Runnable::run).join();
+
+        verify(asyncQueue, times(1)).addAll(List.of(expected, expected2), FrontierEntry.seed(uri));
+        verify(asyncQueue, times(1)).markComplete(uri);
+    }
+
+    /**
+     * Tests that a failed asynchronous fetch still marks the URI complete and completes the
+     * returned future normally
+     */
+    @Test
+    void testRunAsyncFailure() {
+        Browser asyncBrowser = mock(Browser.class);
+        URIQueue asyncQueue = mock(URIQueue.class);
+        when(asyncBrowser.getAsync(uri)).thenReturn(CompletableFuture.failedFuture(new WebBrowserFailure(new IOException())));
+
+        new WebWorker(asyncBrowser, uri, asyncQueue).runAsync(Runnable::run).join();
+
+        verify(asyncQueue, times(1)).markComplete(uri);
+        verifyNoMoreInteractions(asyncQueue);
+    }
+
+    /**
+     * Tests that a staged crawl fetches, parses and queues the links each on its own stage, and marks
+     * the URI complete once the last stage has run
+     */
+    @Test
+    void testRunStaged() throws WebBrowserException {
+        Browser stagedBrowser = mock(Browser.class);
+        URIQueue stagedQueue = mock(URIQueue.class);
+        List<String> stages = new ArrayList<>();
+        when(stagedBrowser.get(uri)).thenReturn(BODY);
+
+        new WebWorker(stagedBrowser, uri, stagedQueue).runStaged(task -> {
+            stages.add("fetch");
+            task.run();
+        }, task -> {
+            stages.add("parse");
+            task.run();
+        }, task -> {
+            stages.add("link");
+            task.run();
+        }).join();
+
+        Assertions.assertEquals(List.of("fetch", "parse", "link"), stages);
+        verify(stagedQueue, times(1)).addAll(List.of(expected, expected2), FrontierEntry.seed(uri));
+        verify(stagedQueue, times(1)).markComplete(uri);
+    }
+
+    /**
+     * Tests that a staged crawl whose fetch fails skips the later stages and still marks the URI complete
+     */
+    @Test
+    void testRunStagedFailure() throws WebBrowserException {
+        Browser stagedBrowser = mock(Browser.class);
+        URIQueue stagedQueue = mock(URIQueue.class);
+        when(stagedBrowser.get(uri)).thenThrow(new WebBrowserException());
+
+        new WebWorker(stagedBrowser, uri, stagedQueue).runStaged(Runnable::run, _ -> Assertions.fail("Parsed a failed page"),
+                _ -> Assertions.fail("Queued links of a failed page")).join();
+
+        verify(stagedQueue, times(1)).markComplete(uri);
+        verifyNoMoreInteractions(stagedQueue);
+    }
+
+    /**
+     * Tests that in streaming mode the links are taken from the browser's link scan rather
+     * than a parsed page
+     */
+    @Test
+    void testStreaming() throws WebBrowserException {
+        Browser streamingBrowser = mock(Browser.class);
+        URIQueue streamingQueue = mock(URIQueue.class);
+        when(streamingBrowser.getLinks(uri)).thenReturn(List.of("https://www.w3schools.com", "/internal-link", "/internal-links"));
+
+        new WebWorker(streamingBrowser, FrontierEntry.seed(uri), streamingQueue, new WorkerOptions(true, new UriCanonicalizer(), null, null, null)).run();
+
+        verify(streamingBrowser, never()).get(uri);
+        verify(streamingQueue, times(1)).addAll(List.of(expected, expected2), FrontierEntry.seed(uri));
+        verify(streamingQueue, times(1)).markComplete(uri);
+    }
+
+    /**
+     * Tests that relative and absolute links to the same host are resolved and canonicalized before
+     * being added, so that spellings of the same page are only queued once
+     */
+    @Test
+    void testCanonicalLinks() throws WebBrowserException {
+        Browser pageBrowser = mock(Browser.class);
+        URIQueue pageQueue = mock(URIQueue.class);
+        URI page = URI.create("https://test.com/blog/post");
+        when(pageBrowser.get(page)).thenReturn("""
+                <a href="other">relative</a>
+                <a href="HTTPS://TEST.COM:443/blog/other#comments">absolute</a>
+                <a href="../about">parent</a>
+                <a href="https://elsewhere.com/blog/other">external</a>
+                <a href="mailto:someone@test.com">mail</a>""");
+
+        new WebWorker(pageBrowser, page, pageQueue).run();
+
+        URI other = URI.create("https://test.com/blog/other");
+        verify(pageQueue, times(1)).addAll(List.of(other, other, URI.create("https://test.com/about")), FrontierEntry.seed(page));
+        verify(pageQueue, times(1)).markComplete(page);
+        verifyNoMoreInteractions(pageQueue);
+    }
+
+    /**
+     * Tests that a worker given metrics records each stage of crawling its page, and the links it found and queued,
+     * and counts a page it could not fetch as failed
+     */
+    @Test
+    void testMetrics() throws WebBrowserException {
+        Browser pageBrowser = mock(Browser.class);
+        URIQueue pageQueue = mock(URIQueue.class);
+        when(pageBrowser.get(uri)).thenReturn(BODY);
+        when(pageQueue.addAll(List.of(expected, expected2), FrontierEntry.seed(uri))).thenReturn(List.of(expected));
+        URI missing = URI.create("https://test.com/missing");
+        when(pageBrowser.get(missing)).thenThrow(new WebBrowserException());
+        CrawlMetrics metrics = new CrawlMetrics();
+
+        WorkerOptions options = new WorkerOptions(false, new UriCanonicalizer(), metrics, null, null);
+        new WebWorker(pageBrowser, FrontierEntry.seed(uri), pageQueue, options).run();
+        new WebWorker(pageBrowser, FrontierEntry.seed(missing), pageQueue, options).run();
+
+        for (CrawlMetrics.Stage stage : CrawlMetrics.Stage.values()) {
+            Assertions.assertEquals(1, metrics.latency(stage).count(), stage.name());
+        }
+        Assertions.assertEquals(1, metrics.getPagesCrawled());
+        Assertions.assertEquals(1, metrics.getPagesFailed());
+        Assertions.assertEquals(3, metrics.getLinksFound());
+        Assertions.assertEquals(1, metrics.getLinksQueued());
+    }
+
+    /**
+     * Tests that the links of a page whose text is a near-duplicate of a page already crawled are not followed,
+     * and that the skipped page and its links are counted
+     */
+    @Test
+    void testNearDuplicate() throws WebBrowserException {
+        Browser pageBrowser = mock(Browser.class);
+        URIQueue pageQueue = mock(URIQueue.class);
+        URI sorted = URI.create("https://test.com/?sort=name");
+        when(pageBrowser.get(uri)).thenReturn(BODY);
+        when(pageBrowser.get(sorted)).thenReturn(BODY.replace("<h2>HTML Links</h2>", "<h2>HTML Links</h2><!-- sorted by name -->"));
+        NearDuplicateIndex index = new NearDuplicateIndex();
+        CrawlMetrics metrics = new CrawlMetrics();
+
+        WorkerOptions options = new WorkerOptions(false, new UriCanonicalizer(), metrics, index, null);
+        new WebWorker(pageBrowser, FrontierEntry.seed(uri), pageQueue, options).run();
+        new WebWorker(pageBrowser, FrontierEntry.seed(sorted), pageQueue, options).run();
+
+        verify(pageQueue, times(1)).addAll(List.of(expected, expected2), FrontierEntry.seed(uri));
+        verify(pageQueue, times(1)).markComplete(uri);
+        verify(pageQueue, times(1)).markComplete(sorted);
+        verifyNoMoreInteractions(pageQueue);
+        Assertions.assertEquals(2, metrics.getPagesCrawled());
+        Assertions.assertEquals(1, metrics.getNearDuplicatePages());
+        Assertions.assertEquals(3, metrics.getNearDuplicateLinks());
+    }
+
+    /**
+     * Tests that pages without enough text to fingerprint, such as pages of images, are not taken for
+     * near-duplicates of each other
+     */
+    @Test
+    void testTextlessPagesFollowed() throws WebBrowserException {
+        Browser pageBrowser = mock(Browser.class);
+        URIQueue pageQueue = mock(URIQueue.class);
+        URI gallery = URI.create("https://test.com/gallery");
+        URI frames = URI.create("https://test.com/frames");
+        when(pageBrowser.get(gallery)).thenReturn("<html><body><a href=\"/internal-link\"><img src=\"a.png\"></a></body></html>");
+        when(pageBrowser.get(frames)).thenReturn("<html><body><a href=\"/internal-links\">Next</a></body></html>");
+        NearDuplicateIndex index = new NearDuplicateIndex();
+
+        WorkerOptions options = new WorkerOptions(false, new UriCanonicalizer(), null, index, null);
+        new WebWorker(pageBrowser, FrontierEntry.seed(gallery), pageQueue, options).run();
+        new WebWorker(pageBrowser, FrontierEntry.seed(frames), pageQueue, options).run();
+
+        verify(pageQueue, times(1)).addAll(List.of(expected), FrontierEntry.seed(gallery));
+        verify(pageQueue, times(1)).addAll(List.of(expected2), FrontierEntry.seed(frames));
+        Assertions.assertEquals(0, index.size());
+    }
+
+    /**
+     * Tests that streamed pages, whose text is not kept, are not fingerprinted, so pages sharing their links are
+     * both followed
+     */
+    @Test
+    void testStreamingNotFingerprinted() throws WebBrowserException {
+        Browser streamingBrowser = mock(Browser.class);
+        URIQueue streamingQueue = mock(URIQueue.class);
+        URI about = URI.create("https://test.com/about");
+        List<String> navigation = List.of("/internal-link", "/internal-links");
+        when(streamingBrowser.getLinks(uri)).thenReturn(navigation);
+        when(streamingBrowser.getLinks(about)).thenReturn(navigation);
+        NearDuplicateIndex index = new NearDuplicateIndex();
+
+        WorkerOptions options = new WorkerOptions(true, new UriCanonicalizer(), null, index, null);
+        new WebWorker(streamingBrowser, FrontierEntry.seed(uri), streamingQueue, options).run();
+        new WebWorker(streamingBrowser, FrontierEntry.seed(about), streamingQueue, options).run();
+
+        verify(streamingQueue, times(1)).addAll(List.of(expected, expected2), FrontierEntry.seed(uri));
+        verify(streamingQueue, times(1)).addAll(List.of(expected, expected2), FrontierEntry.seed(about));
+        Assertions.assertEquals(0, index.size());
+    }
+
+    /**
+     * Tests that the internal links of a crawled page are written to the link graph, canonicalized as they are queued
+     */
+    @Test
+    void testLinkGraph() throws WebBrowserException {
+        Browser pageBrowser = mock(Browser.class);
+        URIQueue pageQueue = mock(URIQueue.class);
+        LinkGraphWriter graph = mock(LinkGraphWriter.class);
+        when(pageBrowser.get(uri)).thenReturn(BODY);
+
+        new WebWorker(pageBrowser, FrontierEntry.seed(uri), pageQueue, new WorkerOptions(false, new UriCanonicalizer(), null, null, graph)).run();
+
+        verify(graph, times(1)).addPage(uri, List.of(expected, expected2));
+        verify(pageQueue, times(1)).addAll(List.of(expected, expected2), FrontierEntry.seed(uri));
+        verifyNoMoreInteractions(graph);
     }
 }